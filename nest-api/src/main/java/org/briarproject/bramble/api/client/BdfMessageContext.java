@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.client;
 
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -15,11 +16,23 @@ public class BdfMessageContext {
 
 	private final BdfDictionary dictionary;
 	private final Collection<MessageId> dependencies;
+	private final Collection<SignedData> signatures;
 
+	/**
+	 * @param signatures signatures that must be valid for the message to be
+	 * valid. These are verified by the validation manager in batches.
+	 */
 	public BdfMessageContext(BdfDictionary dictionary,
-			Collection<MessageId> dependencies) {
+			Collection<MessageId> dependencies,
+			Collection<SignedData> signatures) {
 		this.dictionary = dictionary;
 		this.dependencies = dependencies;
+		this.signatures = signatures;
+	}
+
+	public BdfMessageContext(BdfDictionary dictionary,
+			Collection<MessageId> dependencies) {
+		this(dictionary, dependencies, Collections.<SignedData>emptyList());
 	}
 
 	public BdfMessageContext(BdfDictionary dictionary) {
@@ -33,4 +46,8 @@ public class BdfMessageContext {
 	public Collection<MessageId> getDependencies() {
 		return dependencies;
 	}
+
+	public Collection<SignedData> getSignatures() {
+		return signatures;
+	}
 }
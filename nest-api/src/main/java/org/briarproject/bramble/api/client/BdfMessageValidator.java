@@ -58,7 +58,8 @@ public abstract class BdfMessageValidator implements MessageValidator {
 					raw.length - MESSAGE_HEADER_LENGTH);
 			BdfMessageContext result = validateMessage(m, g, body);
 			Metadata meta = metadataEncoder.encode(result.getDictionary());
-			return new MessageContext(meta, result.getDependencies());
+			return new MessageContext(meta, result.getDependencies(),
+					result.getSignatures());
 		} catch (FormatException e) {
 			throw new InvalidMessageException(e);
 		}
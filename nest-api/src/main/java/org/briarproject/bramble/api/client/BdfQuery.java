@@ -0,0 +1,92 @@
+package org.briarproject.bramble.api.client;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A query against message metadata, expressed in terms of BDF values. A
+ * message matches the query if, for every key in the query, the message's
+ * metadata contains the key with a value that equals one of the values, or
+ * is a long within one of the ranges, given for that key.
+ */
+@NotThreadSafe
+@NotNullByDefault
+public class BdfQuery {
+
+	private final Map<String, List<Object>> values =
+			new TreeMap<String, List<Object>>();
+	private final Map<String, List<long[]>> ranges =
+			new TreeMap<String, List<long[]>>();
+
+	public BdfQuery() {
+	}
+
+	/**
+	 * Creates a query that matches messages with all the entries in the given
+	 * dictionary.
+	 */
+	public BdfQuery(BdfDictionary d) {
+		for (Entry<String, Object> e : d.entrySet())
+			addValue(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Adds a value that the given key may take.
+	 */
+	public BdfQuery addValue(String key, Object value) {
+		List<Object> list = values.get(key);
+		if (list == null) {
+			list = new ArrayList<Object>();
+			values.put(key, list);
+		}
+		list.add(value);
+		return this;
+	}
+
+	/**
+	 * Adds an inclusive range of longs that the given key may take.
+	 */
+	public BdfQuery addRange(String key, long min, long max) {
+		if (min > max) throw new IllegalArgumentException();
+		List<long[]> list = ranges.get(key);
+		if (list == null) {
+			list = new ArrayList<long[]>();
+			ranges.put(key, list);
+		}
+		list.add(new long[] {min, max});
+		return this;
+	}
+
+	public Set<String> getValueKeys() {
+		return Collections.unmodifiableSet(values.keySet());
+	}
+
+	public List<Object> getValues(String key) {
+		List<Object> list = values.get(key);
+		if (list == null) return Collections.emptyList();
+		return Collections.unmodifiableList(list);
+	}
+
+	public Set<String> getRangeKeys() {
+		return Collections.unmodifiableSet(ranges.keySet());
+	}
+
+	/**
+	 * Returns the ranges for the given key as {min, max} pairs.
+	 */
+	public List<long[]> getRanges(String key) {
+		List<long[]> list = ranges.get(key);
+		if (list == null) return Collections.emptyList();
+		return Collections.unmodifiableList(list);
+	}
+}
@@ -1,17 +1,21 @@
 package org.briarproject.bramble.api.client;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
 import java.security.GeneralSecurityException;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -68,6 +72,31 @@ public interface ClientHelper {
 			Transaction txn, GroupId g, BdfDictionary query) throws DbException,
 			FormatException;
 
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfQuery query) throws DbException,
+			FormatException;
+
+	/**
+	 * Returns the metadata for any messages in the given client's contact
+	 * groups with metadata that matches all entries in the given query,
+	 * grouped by contact, using a single query.
+	 */
+	Map<ContactId, Map<MessageId, BdfDictionary>>
+	getContactMessageMetadataAsDictionary(Transaction txn, ClientId c,
+			BdfDictionary query) throws DbException, FormatException;
+
+	/**
+	 * Returns the given keys of the metadata for all delivered messages in
+	 * the given group. Other keys are not read from the database.
+	 */
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, Set<String> keys) throws DbException,
+			FormatException;
+
+	Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfQuery query, long beforeTimestamp,
+			int limit) throws DbException, FormatException;
+
 	void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException;
 
@@ -99,4 +128,14 @@ public interface ClientHelper {
 	void verifySignature(String label, byte[] sig, byte[] publicKey,
 			BdfList signed) throws FormatException, GeneralSecurityException;
 
+	/**
+	 * Returns the given signature and signed list in a form that can be
+	 * verified later. A validator can return this in its
+	 * {@link BdfMessageContext} to have the signature verified in a batch
+	 * with others, instead of calling
+	 * {@link #verifySignature(String, byte[], byte[], BdfList)}.
+	 */
+	SignedData toSignedData(String label, byte[] sig, byte[] publicKey,
+			BdfList signed) throws FormatException;
+
 }
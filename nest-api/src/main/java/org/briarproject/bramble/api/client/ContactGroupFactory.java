@@ -1,10 +1,14 @@
 package org.briarproject.bramble.api.client;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+
+import javax.annotation.Nullable;
 
 @NotNullByDefault
 public interface ContactGroupFactory {
@@ -26,4 +30,13 @@ public interface ContactGroupFactory {
 	Group createContactGroup(ClientId clientId, AuthorId authorId1,
 			AuthorId authorId2);
 
+	/**
+	 * Returns the ID of the contact with whom the given group is shared, if
+	 * the group was recently created by
+	 * {@link #createContactGroup(ClientId, Contact)}, or null if the contact
+	 * is not known. Callers should fall back to the group's metadata if null
+	 * is returned.
+	 */
+	@Nullable
+	ContactId getContactId(GroupId g);
 }
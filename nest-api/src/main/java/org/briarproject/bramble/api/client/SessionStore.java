@@ -0,0 +1,49 @@
+package org.briarproject.bramble.api.client;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+
+import java.util.Collection;
+
+import javax.annotation.Nullable;
+
+/**
+ * Stores the state of protocol sessions for clients, indexed by the group
+ * the session belongs to and the ID of the session. The group identifies
+ * the client. Sessions are removed when their group is removed.
+ */
+@NotNullByDefault
+public interface SessionStore {
+
+	/**
+	 * Returns the session with the given ID in the given group, or null if
+	 * there is no such session. The caller may modify the returned session.
+	 */
+	@Nullable
+	BdfDictionary getSession(Transaction txn, GroupId g, UniqueId sessionId)
+			throws DbException, FormatException;
+
+	/**
+	 * Returns all sessions in the given group.
+	 */
+	Collection<BdfDictionary> getSessions(Transaction txn, GroupId g)
+			throws DbException, FormatException;
+
+	/**
+	 * Stores the given session in the given group, replacing any existing
+	 * session with the same ID.
+	 */
+	void storeSession(Transaction txn, GroupId g, UniqueId sessionId,
+			BdfDictionary session) throws DbException, FormatException;
+
+	/**
+	 * Removes the session with the given ID from the given group.
+	 */
+	void removeSession(Transaction txn, GroupId g, UniqueId sessionId)
+			throws DbException;
+}
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
+import java.util.List;
 
 public interface CryptoComponent {
 
@@ -159,6 +160,16 @@ public interface CryptoComponent {
 	boolean verify(String label, byte[] signedData, byte[] publicKey,
 			byte[] signature) throws GeneralSecurityException;
 
+	/**
+	 * Verifies a batch of signatures, using all available processors. An
+	 * invalid public key makes the corresponding signature invalid, rather
+	 * than causing an exception to be thrown.
+	 *
+	 * @return an array with one element for each item in the batch, which
+	 * is true if the item's signature was valid and false otherwise.
+	 */
+	boolean[] verifyBatch(List<SignedData> batch);
+
 	/**
 	 * Returns the hash of the given inputs. The inputs are unambiguously
 	 * combined by prefixing each input with its length.
@@ -168,6 +179,14 @@ public interface CryptoComponent {
 	 */
 	byte[] hash(String label, byte[]... inputs);
 
+	/**
+	 * Writes the hash of the given inputs to the given buffer, which must
+	 * have room for {@link #getHashLength()} bytes at the given offset. The
+	 * hash is the same as the one returned by
+	 * {@link CryptoComponent#hash(String, byte[]...)}.
+	 */
+	void hash(String label, byte[] out, int outOffset, byte[]... inputs);
+
 	/**
 	 * Returns the length of hashes produced by
 	 * the {@link CryptoComponent#hash(String, byte[]...)} method.
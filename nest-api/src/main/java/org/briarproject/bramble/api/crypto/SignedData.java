@@ -0,0 +1,61 @@
+package org.briarproject.bramble.api.crypto;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageId;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Signed data, together with the signature and the public key needed to
+ * verify it. Used for verifying signatures in batches.
+ */
+@Immutable
+@NotNullByDefault
+public class SignedData {
+
+	private final String label;
+	private final byte[] signedData, publicKey, signature;
+	@Nullable
+	private final MessageId messageId;
+
+	/**
+	 * @param messageId the ID of the message that carries the signature, if
+	 * it isn't the message being validated. The signature isn't verified
+	 * again if that message has already been recorded as verified.
+	 */
+	public SignedData(String label, byte[] signedData, byte[] publicKey,
+			byte[] signature, @Nullable MessageId messageId) {
+		this.label = label;
+		this.signedData = signedData;
+		this.publicKey = publicKey;
+		this.signature = signature;
+		this.messageId = messageId;
+	}
+
+	public SignedData(String label, byte[] signedData, byte[] publicKey,
+			byte[] signature) {
+		this(label, signedData, publicKey, signature, null);
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	public byte[] getSignedData() {
+		return signedData;
+	}
+
+	public byte[] getPublicKey() {
+		return publicKey;
+	}
+
+	public byte[] getSignature() {
+		return signature;
+	}
+
+	@Nullable
+	public MessageId getMessageId() {
+		return messageId;
+	}
+}
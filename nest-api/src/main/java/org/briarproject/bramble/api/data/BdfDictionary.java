@@ -3,15 +3,40 @@ package org.briarproject.bramble.api.data;
 import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
 
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 
-public class BdfDictionary extends ConcurrentSkipListMap<String, Object> {
+/**
+ * A map from strings to BDF objects. Keys are kept in sorted arrays, so
+ * iteration returns the entries in the natural order of their keys, which
+ * is the canonical order for encoding. Null keys and values are not
+ * allowed; use {@link #NULL_VALUE} to represent a null value.
+ * <p/>
+ * Dictionaries are small and almost always built and read by a single
+ * thread, so this class is not thread-safe. Callers that share a
+ * dictionary between threads must synchronize access to it.
+ */
+@NotThreadSafe
+public class BdfDictionary extends AbstractMap<String, Object>
+		implements Cloneable {
 
 	public static final Object NULL_VALUE = new Object();
 
+	private static final int DEFAULT_CAPACITY = 8;
+
+	private String[] keys;
+	private Object[] values;
+	private int size = 0, modCount = 0;
+
 	/**
 	 * Factory method for constructing dictionaries inline.
 	 * <pre>
@@ -22,17 +47,125 @@ public class BdfDictionary extends ConcurrentSkipListMap<String, Object> {
 	 * </pre>
 	 */
 	public static BdfDictionary of(Entry<String, Object>... entries) {
-		BdfDictionary d = new BdfDictionary();
+		BdfDictionary d = new BdfDictionary(entries.length);
 		for (Entry<String, Object> e : entries) d.put(e.getKey(), e.getValue());
 		return d;
 	}
 
 	public BdfDictionary() {
-		super();
+		this(DEFAULT_CAPACITY);
 	}
 
 	public BdfDictionary(Map<String, Object> m) {
-		super(m);
+		this(m.size());
+		putAll(m);
+	}
+
+	private BdfDictionary(int capacity) {
+		keys = new String[capacity];
+		values = new Object[capacity];
+	}
+
+	/**
+	 * Returns the index of the given key, or (-(insertion point) - 1) if
+	 * the key is not present.
+	 */
+	private int indexOf(Object key) {
+		if (key == null) throw new NullPointerException();
+		String k = (String) key;
+		// Fast path for keys added in order, as when parsing
+		if (size > 0) {
+			int c = k.compareTo(keys[size - 1]);
+			if (c > 0) return -size - 1;
+			if (c == 0) return size - 1;
+		}
+		return Arrays.binarySearch(keys, 0, size, k);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return indexOf(key) >= 0;
+	}
+
+	@Override
+	@Nullable
+	public Object get(Object key) {
+		int i = indexOf(key);
+		return i >= 0 ? values[i] : null;
+	}
+
+	@Override
+	@Nullable
+	public Object put(String key, Object value) {
+		if (value == null) throw new NullPointerException();
+		int i = indexOf(key);
+		if (i >= 0) {
+			Object old = values[i];
+			values[i] = value;
+			return old;
+		}
+		i = -i - 1;
+		if (size == keys.length) {
+			int capacity = Math.max(DEFAULT_CAPACITY, size * 2);
+			keys = Arrays.copyOf(keys, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(values, i, values, i + 1, size - i);
+		keys[i] = key;
+		values[i] = value;
+		size++;
+		modCount++;
+		return null;
+	}
+
+	@Override
+	@Nullable
+	public Object remove(Object key) {
+		int i = indexOf(key);
+		if (i < 0) return null;
+		Object old = values[i];
+		removeAt(i);
+		return old;
+	}
+
+	private void removeAt(int i) {
+		System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+		System.arraycopy(values, i + 1, values, i, size - i - 1);
+		size--;
+		keys[size] = null;
+		values[size] = null;
+		modCount++;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(keys, 0, size, null);
+		Arrays.fill(values, 0, size, null);
+		size = 0;
+		modCount++;
+	}
+
+	@Override
+	public Set<Entry<String, Object>> entrySet() {
+		return new EntrySet();
+	}
+
+	/**
+	 * Returns a shallow copy of this dictionary.
+	 */
+	@Override
+	public BdfDictionary clone() {
+		BdfDictionary d = new BdfDictionary(size);
+		System.arraycopy(keys, 0, d.keys, 0, size);
+		System.arraycopy(values, 0, d.values, 0, size);
+		d.size = size;
+		return d;
 	}
 
 	public Boolean getBoolean(String key) throws FormatException {
@@ -190,4 +323,97 @@ public class BdfDictionary extends ConcurrentSkipListMap<String, Object> {
 		if (o instanceof BdfDictionary) return (BdfDictionary) o;
 		return defaultValue;
 	}
+
+	private class EntrySet extends AbstractSet<Entry<String, Object>> {
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public Iterator<Entry<String, Object>> iterator() {
+			return new EntryIterator();
+		}
+
+		@Override
+		public void clear() {
+			BdfDictionary.this.clear();
+		}
+	}
+
+	private class EntryIterator implements Iterator<Entry<String, Object>> {
+
+		private int next = 0, last = -1, expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			return next < size;
+		}
+
+		@Override
+		public Entry<String, Object> next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (next >= size) throw new NoSuchElementException();
+			last = next++;
+			return new DictionaryEntry(last);
+		}
+
+		@Override
+		public void remove() {
+			if (last == -1) throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			next = last;
+			last = -1;
+			expectedModCount = modCount;
+		}
+	}
+
+	private class DictionaryEntry implements Entry<String, Object> {
+
+		private final int index;
+
+		private DictionaryEntry(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return keys[index];
+		}
+
+		@Override
+		public Object getValue() {
+			return values[index];
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			if (value == null) throw new NullPointerException();
+			Object old = values[index];
+			values[index] = value;
+			return old;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Entry)) return false;
+			Entry e = (Entry) o;
+			return getKey().equals(e.getKey())
+					&& getValue().equals(e.getValue());
+		}
+
+		@Override
+		public int hashCode() {
+			return getKey().hashCode() ^ getValue().hashCode();
+		}
+
+		@Override
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
 }
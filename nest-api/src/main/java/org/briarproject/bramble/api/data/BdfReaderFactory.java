@@ -10,4 +10,13 @@ public interface BdfReaderFactory {
 	BdfReader createReader(InputStream in);
 
 	BdfReader createReader(InputStream in, int nestedLimit);
+
+	/**
+	 * Returns a reader that parses the given slice of the given array
+	 * directly, without copying it. The array must not be modified while
+	 * the reader is in use.
+	 */
+	BdfReader createReader(byte[] b, int off, int len);
+
+	BdfReader createReader(byte[] b, int off, int len, int nestedLimit);
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.data;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
 import java.io.OutputStream;
@@ -8,4 +9,17 @@ import java.io.OutputStream;
 public interface BdfWriterFactory {
 
 	BdfWriter createWriter(OutputStream out);
+
+	/**
+	 * Returns a writer that writes directly into the given buffer, starting
+	 * at the given offset. Writing past the end of the buffer throws an
+	 * IOException.
+	 */
+	BdfWriter createWriter(byte[] buf, int off);
+
+	/**
+	 * Returns the number of bytes needed to encode the given object, which
+	 * may be of any type that can be written to a {@link BdfWriter}.
+	 */
+	int getEncodedLength(Object o) throws FormatException;
 }
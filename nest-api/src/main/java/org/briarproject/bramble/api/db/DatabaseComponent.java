@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.db;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.identity.Author;
@@ -14,6 +15,7 @@ import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
@@ -23,6 +25,7 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -49,7 +52,9 @@ public interface DatabaseComponent {
 	 * Starts a new transaction and returns an object representing it.
 	 * <p/>
 	 * This method acquires locks, so it must not be called while holding a
-	 * lock.
+	 * lock. If concurrent transactions are enabled, read-only transactions
+	 * don't wait for write transactions, and see the last committed state of
+	 * the database.
 	 *
 	 * @param readOnly true if the transaction will only be used for reading.
 	 */
@@ -80,6 +85,13 @@ public interface DatabaseComponent {
 	 */
 	void addGroup(Transaction txn, Group g) throws DbException;
 
+	/**
+	 * Stores a member of the given group with the given visibility. The
+	 * meaning of the visibility is defined by the client that owns the group.
+	 */
+	void addGroupMember(Transaction txn, GroupId g, Author a, int visibility)
+			throws DbException;
+
 	/**
 	 * Stores a local pseudonym.
 	 */
@@ -103,6 +115,15 @@ public interface DatabaseComponent {
 	void addTransportKeys(Transaction txn, ContactId c, TransportKeys k)
 			throws DbException;
 
+	/**
+	 * Records that the signatures of the given message have been verified.
+	 * The message itself does not need to be stored. The record is removed
+	 * when the given group, which contains the message or a copy of it, is
+	 * removed.
+	 */
+	void addVerifiedMessage(Transaction txn, GroupId g, MessageId m)
+			throws DbException;
+
 	/**
 	 * Returns true if the database contains the given contact for the given
 	 * local pseudonym.
@@ -115,15 +136,31 @@ public interface DatabaseComponent {
 	 */
 	boolean containsGroup(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns true if the given author is a member of the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	boolean containsGroupMember(Transaction txn, GroupId g, AuthorId a)
+			throws DbException;
+
 	/**
 	 * Returns true if the database contains the given local author.
 	 */
 	boolean containsLocalAuthor(Transaction txn, AuthorId local)
 			throws DbException;
 
+	/**
+	 * Returns true if the signatures of the given message have been verified
+	 * and the message has not since been deleted.
+	 */
+	boolean containsVerifiedMessage(Transaction txn, MessageId m)
+			throws DbException;
+
 	/**
 	 * Deletes the message with the given ID. The message ID and any other
-	 * associated data are not deleted.
+	 * associated data are not deleted, but the message is no longer
+	 * considered to have been verified.
 	 */
 	void deleteMessage(Transaction txn, MessageId m) throws DbException;
 
@@ -200,6 +237,15 @@ public interface DatabaseComponent {
 	Collection<Contact> getContactsByAuthorId(Transaction txn, AuthorId remote)
 			throws DbException;
 
+	/**
+	 * Returns a possibly empty collection of contacts with any of the given
+	 * author IDs.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<Contact> getContactsByAuthorIds(Transaction txn,
+			Collection<AuthorId> remote) throws DbException;
+
 	/**
 	 * Returns all contacts associated with the given local pseudonym.
 	 * <p/>
@@ -222,6 +268,31 @@ public interface DatabaseComponent {
 	 */
 	Metadata getGroupMetadata(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the members of the given group and their visibilities.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<Author, Integer> getGroupMembers(Transaction txn, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns the visibility of the given member of the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	int getGroupMemberVisibility(Transaction txn, GroupId g, AuthorId a)
+			throws DbException;
+
+	/**
+	 * Returns the visibilities of any of the given members of the given
+	 * group, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<AuthorId, Integer> getGroupMemberVisibilities(Transaction txn,
+			GroupId g, Collection<AuthorId> authors) throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -238,6 +309,15 @@ public interface DatabaseComponent {
 	Visibility getGroupVisibility(Transaction txn, ContactId c, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of all contacts to which the given group's visibility is
+	 * {@link Visibility SHARED}, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<ContactId> getSharedWith(Transaction txn, GroupId g)
+			throws DbException;
+
 	/**
 	 * Returns the local pseudonym with the given ID.
 	 * <p/>
@@ -288,6 +368,25 @@ public interface DatabaseComponent {
 	@Nullable
 	byte[] getRawMessage(Transaction txn, MessageId m) throws DbException;
 
+	/**
+	 * Returns the message counts for the given group, or null if no counts
+	 * have been stored for the group.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	MessageCounts getMessageCounts(Transaction txn, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns the message counts for any of the given groups for which
+	 * counts have been stored, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(Transaction txn,
+			Collection<GroupId> groups) throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -306,6 +405,53 @@ public interface DatabaseComponent {
 	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any messages in the given client's groups
+	 * with metadata that matches all entries in the given query, grouped by
+	 * the contacts to which the groups are visible. This finds matching
+	 * messages in all of the client's contact groups using a single query.
+	 * If the query is empty, the metadata for all messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<ContactId, Map<MessageId, Metadata>> getContactMessageMetadata(
+			Transaction txn, ClientId c, Metadata query) throws DbException;
+
+	/**
+	 * Returns the metadata for any messages in the given group with metadata
+	 * that matches the given query. If the query is empty, the metadata for
+	 * all messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
+	/**
+	 * Returns the given keys of the metadata for all delivered messages in
+	 * the given group. Other keys are not read from the database. Messages
+	 * that have none of the given keys are not included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
+			Set<String> keys) throws DbException;
+
+	/**
+	 * Returns the metadata for up to the given number of delivered messages
+	 * in the given group that are older than the given timestamp and have
+	 * metadata matching the given query, newest first. If the query is
+	 * empty, all messages match. If several messages share the timestamp of
+	 * the oldest message returned, they are all returned, so the timestamp
+	 * of the oldest message can be passed to the next call without skipping
+	 * any messages.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(Transaction txn, GroupId g,
+			MetadataQuery query, long beforeTimestamp, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered message.
 	 * <p/>
@@ -372,6 +518,33 @@ public interface DatabaseComponent {
 	MessageStatus getMessageStatus(Transaction txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given messages with respect to the
+	 * given contact, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(Transaction txn,
+			ContactId c, Collection<MessageId> messages) throws DbException;
+
+	/**
+	 * Returns the encoded protocol session with the given ID in the given
+	 * group, or null if there is no such session.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	byte[] getSession(Transaction txn, GroupId g, UniqueId sessionId)
+			throws DbException;
+
+	/**
+	 * Returns all encoded protocol sessions in the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<byte[]> getSessions(Transaction txn, GroupId g)
+			throws DbException;
+
 	/**
 	 * Returns all settings in the given namespace.
 	 * <p/>
@@ -387,6 +560,15 @@ public interface DatabaseComponent {
 	Map<ContactId, TransportKeys> getTransportKeys(Transaction txn,
 			TransportId t) throws DbException;
 
+	/**
+	 * Adds the given amounts to the message counts for the given group and
+	 * raises the timestamp of the latest message to the given timestamp if
+	 * it's later. Returns false, without changing anything, if no counts
+	 * have been stored for the group.
+	 */
+	boolean incrementMessageCounts(Transaction txn, GroupId g, int msgCount,
+			int unreadCount, long latestMsgTime) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given contact and
 	 * transport in the given rotation period .
@@ -426,6 +608,15 @@ public interface DatabaseComponent {
 	void receiveMessage(Transaction txn, ContactId c, Message m)
 			throws DbException;
 
+	/**
+	 * Processes a batch of messages from the given contact. This is
+	 * equivalent to calling {@link #receiveMessage(Transaction, ContactId,
+	 * Message)} for each message, but checks the contact and each group's
+	 * visibility only once per batch.
+	 */
+	void receiveMessages(Transaction txn, ContactId c,
+			Collection<Message> messages) throws DbException;
+
 	/**
 	 * Processes an offer from the given contact.
 	 */
@@ -452,6 +643,12 @@ public interface DatabaseComponent {
 	 */
 	void removeLocalAuthor(Transaction txn, AuthorId a) throws DbException;
 
+	/**
+	 * Removes the protocol session with the given ID from the given group.
+	 */
+	void removeSession(Transaction txn, GroupId g, UniqueId sessionId)
+			throws DbException;
+
 	/**
 	 * Removes a transport (and all associated state) from the database.
 	 */
@@ -468,12 +665,25 @@ public interface DatabaseComponent {
 	void setContactActive(Transaction txn, ContactId c, boolean active)
 			throws DbException;
 
+	/**
+	 * Sets the visibility of the given member of the given group.
+	 */
+	void setGroupMemberVisibility(Transaction txn, GroupId g, AuthorId a,
+			int visibility) throws DbException;
+
 	/**
 	 * Sets the given group's visibility to the given contact.
 	 */
 	void setGroupVisibility(Transaction txn, ContactId c, GroupId g,
 			Visibility v) throws DbException;
 
+	/**
+	 * Stores the given message counts for the given group, replacing any
+	 * existing counts.
+	 */
+	void setMessageCounts(Transaction txn, GroupId g, MessageCounts c)
+			throws DbException;
+
 	/**
 	 * Marks the given message as shared.
 	 */
@@ -498,8 +708,18 @@ public interface DatabaseComponent {
 	void setReorderingWindow(Transaction txn, ContactId c, TransportId t,
 			long rotationPeriod, long base, byte[] bitmap) throws DbException;
 
+	/**
+	 * Stores the given encoded protocol session in the given group,
+	 * replacing any existing session with the same ID. Sessions are removed
+	 * when their group is removed.
+	 */
+	void setSession(Transaction txn, GroupId g, UniqueId sessionId,
+			byte[] session) throws DbException;
+
 	/**
 	 * Stores the given transport keys, deleting any keys they have replaced.
+	 * Incoming keys for rotation periods that are already stored are left
+	 * unchanged.
 	 */
 	void updateTransportKeys(Transaction txn,
 			Map<ContactId, TransportKeys> keys) throws DbException;
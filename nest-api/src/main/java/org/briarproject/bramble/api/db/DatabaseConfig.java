@@ -25,4 +25,10 @@ public interface DatabaseConfig {
 	String getLocalAuthorName();
 
 	long getMaxSize();
+
+	/**
+	 * Returns true if read-only transactions should run concurrently with
+	 * write transactions.
+	 */
+	boolean useConcurrentTransactions();
 }
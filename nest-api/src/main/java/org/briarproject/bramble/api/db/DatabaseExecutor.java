@@ -1,7 +1,10 @@
 package org.briarproject.bramble.api.db;
 
+import org.briarproject.bramble.api.system.KeyedExecutor;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.concurrent.Executor;
 
 import javax.inject.Qualifier;
 
@@ -14,10 +17,14 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
  * Annotation for injecting the executor for database tasks. Also used for
  * annotating methods that should run on the database executor.
  * <p>
- * The contract of this executor is that tasks are run in the order they're
- * submitted, tasks are not run concurrently, and submitting a task will never
- * block. Tasks must not run indefinitely. Tasks submitted during shutdown are
- * discarded.
+ * The contract of this executor is that tasks with the same ordering key
+ * (see {@link KeyedExecutor}) are run in the order they're submitted and are
+ * not run concurrently, while tasks with different keys may run concurrently.
+ * Tasks submitted to the plain {@link Executor} share a single default key,
+ * so they are run one at a time in the order they're submitted, but they may
+ * run concurrently with tasks submitted with other keys, such as the tasks of
+ * each contact's sync sessions. Submitting a task will never block. Tasks
+ * must not run indefinitely. Tasks submitted during shutdown are discarded.
  */
 @Qualifier
 @Target({FIELD, METHOD, PARAMETER})
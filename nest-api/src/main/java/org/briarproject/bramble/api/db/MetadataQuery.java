@@ -0,0 +1,122 @@
+package org.briarproject.bramble.api.db;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A query against message metadata. A message matches the query if, for
+ * every key in the query, the message's metadata contains the key with a
+ * value that equals one of the values, or falls within one of the ranges,
+ * given for that key.
+ */
+@NotThreadSafe
+@NotNullByDefault
+public class MetadataQuery {
+
+	private final Map<String, Term> terms = new TreeMap<String, Term>();
+
+	public MetadataQuery() {
+	}
+
+	/**
+	 * Creates a query that matches messages with all the given metadata.
+	 */
+	public MetadataQuery(Metadata m) {
+		for (Entry<String, byte[]> e : m.entrySet())
+			addValue(e.getKey(), e.getValue());
+	}
+
+	/**
+	 * Adds a value that the given key may take.
+	 */
+	public MetadataQuery addValue(String key, byte[] value) {
+		getOrCreateTerm(key).values.add(value);
+		return this;
+	}
+
+	/**
+	 * Adds an inclusive range of values that the given key may take. The
+	 * ends of the range must have the same length. Values are compared as
+	 * unsigned byte strings, so values of other lengths never match.
+	 */
+	public MetadataQuery addRange(String key, byte[] min, byte[] max) {
+		if (min.length != max.length) throw new IllegalArgumentException();
+		getOrCreateTerm(key).ranges.add(new Range(min, max));
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return terms.isEmpty();
+	}
+
+	public Set<String> getKeys() {
+		return Collections.unmodifiableSet(terms.keySet());
+	}
+
+	/**
+	 * Returns the values and ranges that the given key may take.
+	 */
+	public Term getTerm(String key) {
+		Term t = terms.get(key);
+		if (t == null) throw new IllegalArgumentException();
+		return t;
+	}
+
+	private Term getOrCreateTerm(String key) {
+		Term t = terms.get(key);
+		if (t == null) {
+			t = new Term();
+			terms.put(key, t);
+		}
+		return t;
+	}
+
+	@NotThreadSafe
+	@NotNullByDefault
+	public static class Term {
+
+		private final List<byte[]> values = new ArrayList<byte[]>();
+		private final List<Range> ranges = new ArrayList<Range>();
+
+		private Term() {
+		}
+
+		public List<byte[]> getValues() {
+			return Collections.unmodifiableList(values);
+		}
+
+		public List<Range> getRanges() {
+			return Collections.unmodifiableList(ranges);
+		}
+	}
+
+	@Immutable
+	@NotNullByDefault
+	public static class Range {
+
+		private final byte[] min, max;
+
+		private Range(byte[] min, byte[] max) {
+			this.min = min;
+			this.max = max;
+		}
+
+		public byte[] getMin() {
+			return min;
+		}
+
+		public byte[] getMax() {
+			return max;
+		}
+	}
+}
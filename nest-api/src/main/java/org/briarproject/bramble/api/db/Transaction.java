@@ -18,6 +18,7 @@ public class Transaction {
 	private final boolean readOnly;
 
 	private List<Event> events = null;
+	private List<Runnable> commitActions = null;
 	private boolean committed = false;
 
 	public Transaction(Object txn, boolean readOnly) {
@@ -57,6 +58,25 @@ public class Transaction {
 		return events;
 	}
 
+	/**
+	 * Adds an action to be run when the transaction has been committed,
+	 * before any other transaction can modify the database. Actions are
+	 * run in the order they were added, and must not block or access the
+	 * database.
+	 */
+	public void addCommitAction(Runnable r) {
+		if (commitActions == null) commitActions = new ArrayList<Runnable>();
+		commitActions.add(r);
+	}
+
+	/**
+	 * Returns any actions to be run when the transaction has been committed.
+	 */
+	public List<Runnable> getCommitActions() {
+		if (commitActions == null) return Collections.emptyList();
+		return commitActions;
+	}
+
 	/**
 	 * Returns true if the transaction has been committed.
 	 */
@@ -5,6 +5,9 @@ import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author.Status;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.Collection;
+import java.util.Map;
+
 @NotNullByDefault
 public interface IdentityManager {
 
@@ -35,4 +38,11 @@ public interface IdentityManager {
 	 */
 	Status getAuthorStatus(Transaction txn, AuthorId a) throws DbException;
 
+	/**
+	 * Returns the trust-level statuses of the given authors, looking up
+	 * any statuses that aren't cached in a single query.
+	 */
+	Map<AuthorId, Status> getAuthorStatuses(Transaction txn,
+			Collection<AuthorId> authors) throws DbException;
+
 }
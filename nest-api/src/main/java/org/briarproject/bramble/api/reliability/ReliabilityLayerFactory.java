@@ -9,4 +9,13 @@ public interface ReliabilityLayerFactory {
 	 * Returns a reliability layer that writes to the given lower layer.
 	 */
 	ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler);
+
+	/**
+	 * Returns a reliability layer that writes to the given lower layer,
+	 * using selective acks, a congestion window and the largest frame size
+	 * both sides support. Both sides must use this kind of reliability
+	 * layer.
+	 */
+	ReliabilityLayer createSelectiveReliabilityLayer(
+			WriteHandler writeHandler);
 }
@@ -13,7 +13,8 @@ public interface SettingsManager {
 
 	/**
 	 * Merges the given settings with any existing settings in the given
-	 * namespace.
+	 * namespace, and broadcasts a SettingsUpdatedEvent carrying any settings
+	 * that were changed.
 	 */
 	void mergeSettings(Settings s, String namespace) throws DbException;
 }
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.api.sync;
 
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
@@ -14,11 +15,23 @@ public class MessageContext {
 
 	private final Metadata metadata;
 	private final Collection<MessageId> dependencies;
+	private final Collection<SignedData> signatures;
 
+	/**
+	 * @param signatures signatures that must be valid for the message to be
+	 * valid. These are verified by the validation manager in batches.
+	 */
 	public MessageContext(Metadata metadata,
-			Collection<MessageId> dependencies) {
+			Collection<MessageId> dependencies,
+			Collection<SignedData> signatures) {
 		this.metadata = metadata;
 		this.dependencies = dependencies;
+		this.signatures = signatures;
+	}
+
+	public MessageContext(Metadata metadata,
+			Collection<MessageId> dependencies) {
+		this(metadata, dependencies, Collections.<SignedData>emptyList());
 	}
 
 	public MessageContext(Metadata metadata) {
@@ -32,4 +45,8 @@ public class MessageContext {
 	public Collection<MessageId> getDependencies() {
 		return dependencies;
 	}
+
+	public Collection<SignedData> getSignatures() {
+		return signatures;
+	}
 }
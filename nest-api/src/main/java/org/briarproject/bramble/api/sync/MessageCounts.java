@@ -0,0 +1,37 @@
+package org.briarproject.bramble.api.sync;
+
+import javax.annotation.concurrent.Immutable;
+
+@Immutable
+public class MessageCounts {
+
+	private final int msgCount, unreadCount;
+	private final long latestMsgTime;
+
+	public MessageCounts(int msgCount, int unreadCount, long latestMsgTime) {
+		this.msgCount = msgCount;
+		this.unreadCount = unreadCount;
+		this.latestMsgTime = latestMsgTime;
+	}
+
+	/**
+	 * Returns the number of messages counted in the group.
+	 */
+	public int getMsgCount() {
+		return msgCount;
+	}
+
+	/**
+	 * Returns the number of unread messages counted in the group.
+	 */
+	public int getUnreadCount() {
+		return unreadCount;
+	}
+
+	/**
+	 * Returns the timestamp of the latest message counted in the group.
+	 */
+	public long getLatestMsgTime() {
+		return latestMsgTime;
+	}
+}
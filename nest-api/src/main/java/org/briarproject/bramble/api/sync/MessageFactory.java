@@ -8,4 +8,9 @@ public interface MessageFactory {
 	Message createMessage(GroupId g, long timestamp, byte[] body);
 
 	Message createMessage(MessageId m, byte[] raw);
+
+	/**
+	 * Creates a message from its raw bytes, calculating the message's ID.
+	 */
+	Message createMessage(byte[] raw);
 }
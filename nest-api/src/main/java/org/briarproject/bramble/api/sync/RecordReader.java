@@ -17,6 +17,13 @@ public interface RecordReader {
 
 	Message readMessage() throws IOException;
 
+	/**
+	 * Reads a message without calculating its ID, so the caller can
+	 * calculate the ID on another thread by calling
+	 * {@link MessageFactory#createMessage(byte[])}.
+	 */
+	byte[] readRawMessage() throws IOException;
+
 	boolean hasOffer() throws IOException;
 
 	Offer readOffer() throws IOException;
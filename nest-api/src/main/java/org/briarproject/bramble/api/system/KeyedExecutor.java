@@ -0,0 +1,37 @@
+package org.briarproject.bramble.api.system;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link Executor} that runs tasks with the same ordering key one at a
+ * time, in the order they are submitted, while tasks with different keys may
+ * run concurrently. Tasks submitted without a key share a default key.
+ */
+@NotNullByDefault
+public interface KeyedExecutor extends Executor {
+
+	/**
+	 * Submits a task with the given ordering key. Keys are compared with
+	 * {@link Object#equals(Object)}.
+	 */
+	void execute(Object key, Runnable r);
+
+	/**
+	 * Returns an executor that submits all its tasks with the given key.
+	 */
+	Executor getExecutor(Object key);
+
+	/**
+	 * Returns the number of tasks with the given key that are waiting to
+	 * run, not including any task that is currently running.
+	 */
+	int getQueueDepth(Object key);
+
+	/**
+	 * Returns how long, in milliseconds, the oldest waiting task with the
+	 * given key has been waiting to run, or zero if no tasks are waiting.
+	 */
+	long getWaitTime(Object key);
+}
@@ -5,13 +5,19 @@ import org.briarproject.bramble.test.BrambleTestCase;
 import org.junit.Test;
 
 import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class BdfDictionaryTest extends BrambleTestCase {
 
@@ -130,4 +136,95 @@ public class BdfDictionaryTest extends BrambleTestCase {
 		assertEquals("d", e.getKey());
 		assertEquals(4, e.getValue());
 	}
+
+	@Test
+	public void testPutReplacesExistingValue() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		assertNull(d.put("foo", 1));
+		assertEquals(1, d.put("foo", 2));
+		assertEquals(1, d.size());
+		assertEquals(Long.valueOf(2), d.getLong("foo"));
+	}
+
+	@Test
+	public void testRemove() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		for (int i = 0; i < 100; i++) d.put("key" + i, i);
+		for (int i = 0; i < 100; i += 2) assertEquals(i, d.remove("key" + i));
+		assertNull(d.remove("key0"));
+		assertEquals(50, d.size());
+		for (int i = 0; i < 100; i++)
+			assertEquals(i % 2 == 1, d.containsKey("key" + i));
+	}
+
+	@Test
+	public void testEqualsOtherMaps() throws Exception {
+		Map<String, Object> m = new HashMap<String, Object>();
+		BdfDictionary d = new BdfDictionary();
+		for (int i = 0; i < 20; i++) {
+			m.put("key" + i, i);
+			d.put("key" + (19 - i), 19 - i);
+		}
+		assertEquals(m, d);
+		assertEquals(d, m);
+		assertEquals(m.hashCode(), d.hashCode());
+		assertEquals(d, new BdfDictionary(m));
+	}
+
+	@Test
+	public void testIteratorRemove() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		for (int i = 0; i < 10; i++) d.put("key" + i, i);
+		Iterator<Entry<String, Object>> it = d.entrySet().iterator();
+		while (it.hasNext()) {
+			if ((Integer) it.next().getValue() % 2 == 0) it.remove();
+		}
+		assertEquals(5, d.size());
+		for (int i = 0; i < 10; i++)
+			assertEquals(i % 2 == 1, d.containsKey("key" + i));
+	}
+
+	@Test
+	public void testEntrySetValueWritesThrough() throws Exception {
+		BdfDictionary d = BdfDictionary.of(new BdfEntry("foo", 1));
+		d.entrySet().iterator().next().setValue(2);
+		assertEquals(Long.valueOf(2), d.getLong("foo"));
+	}
+
+	@Test(expected = ConcurrentModificationException.class)
+	public void testModificationDuringIterationIsDetected() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		d.put("a", 1);
+		d.put("b", 2);
+		for (String key : d.keySet()) d.put(key + key, 3);
+	}
+
+	@Test
+	public void testNullKeysAndValuesAreRejected() throws Exception {
+		BdfDictionary d = new BdfDictionary();
+		try {
+			d.put(null, 1);
+			fail();
+		} catch (NullPointerException expected) {
+			// Expected
+		}
+		try {
+			d.put("foo", null);
+			fail();
+		} catch (NullPointerException expected) {
+			// Expected
+		}
+		assertFalse(d.containsKey("foo"));
+	}
+
+	@Test
+	public void testCloneIsIndependentOfOriginal() throws Exception {
+		BdfDictionary d = BdfDictionary.of(new BdfEntry("foo", 1));
+		BdfDictionary clone = d.clone();
+		assertEquals(d, clone);
+		clone.put("bar", 2);
+		clone.put("foo", 3);
+		assertEquals(1, d.size());
+		assertEquals(Long.valueOf(1), d.getLong("foo"));
+	}
 }
@@ -0,0 +1,151 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.system.KeyedExecutor;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import static java.util.logging.Level.FINE;
+import static java.util.logging.Level.WARNING;
+
+/**
+ * A {@link KeyedExecutor} that delegates its tasks to another
+ * {@link Executor}. At most one task per key is delegated at a time, so the
+ * delegate's threads are shared fairly between keys: a key with a long queue
+ * only occupies one thread, and tasks with other keys don't wait behind it.
+ * <p>
+ * If the delegate rejects a task, for example because it has been shut down,
+ * the task and any tasks queued behind it with the same key are discarded.
+ */
+@NotNullByDefault
+public class KeyedExecutorImpl implements KeyedExecutor {
+
+	private static final Level LOG_LEVEL = FINE;
+
+	private static final Object DEFAULT_KEY = new Object();
+
+	private final Object lock = new Object();
+	// Contains a queue for each key that has a task running. The running
+	// task is not in the queue
+	@GuardedBy("lock")
+	private final Map<Object, Queue<KeyedTask>> queues =
+			new HashMap<Object, Queue<KeyedTask>>();
+	private final Executor delegate;
+	private final Logger log;
+
+	/**
+	 * @param tag the tag to be used for logging
+	 * @param delegate the executor to which tasks will be delegated
+	 */
+	public KeyedExecutorImpl(String tag, Executor delegate) {
+		this.delegate = delegate;
+		log = Logger.getLogger(tag);
+	}
+
+	@Override
+	public void execute(Runnable r) {
+		execute(DEFAULT_KEY, r);
+	}
+
+	@Override
+	public void execute(Object key, Runnable r) {
+		KeyedTask task = new KeyedTask(key, r);
+		synchronized (lock) {
+			Queue<KeyedTask> queue = queues.get(key);
+			if (queue == null) {
+				queues.put(key, new LinkedList<KeyedTask>());
+				delegate(task);
+			} else {
+				queue.add(task);
+			}
+		}
+	}
+
+	@Override
+	public Executor getExecutor(final Object key) {
+		return new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				KeyedExecutorImpl.this.execute(key, r);
+			}
+		};
+	}
+
+	@Override
+	public int getQueueDepth(Object key) {
+		synchronized (lock) {
+			Queue<KeyedTask> queue = queues.get(key);
+			return queue == null ? 0 : queue.size();
+		}
+	}
+
+	@Override
+	public long getWaitTime(Object key) {
+		synchronized (lock) {
+			Queue<KeyedTask> queue = queues.get(key);
+			if (queue == null) return 0;
+			KeyedTask oldest = queue.peek();
+			if (oldest == null) return 0;
+			return System.currentTimeMillis() - oldest.submitted;
+		}
+	}
+
+	private void scheduleNext(Object key) {
+		synchronized (lock) {
+			Queue<KeyedTask> queue = queues.get(key);
+			KeyedTask next = queue.poll();
+			if (next == null) queues.remove(key);
+			else delegate(next);
+		}
+	}
+
+	// Locking: lock
+	private void delegate(KeyedTask task) {
+		try {
+			delegate.execute(task);
+		} catch (RejectedExecutionException e) {
+			// Remove the queue so it doesn't hold up later tasks with the key
+			Queue<KeyedTask> queue = queues.remove(task.key);
+			if (log.isLoggable(WARNING)) {
+				log.warning("Task rejected, discarding " + queue.size()
+						+ " waiting tasks for key");
+			}
+		}
+	}
+
+	private class KeyedTask implements Runnable {
+
+		private final Object key;
+		private final Runnable task;
+		private final long submitted;
+
+		private KeyedTask(Object key, Runnable task) {
+			this.key = key;
+			this.task = task;
+			submitted = System.currentTimeMillis();
+		}
+
+		@Override
+		public void run() {
+			if (log.isLoggable(LOG_LEVEL)) {
+				long queued = System.currentTimeMillis() - submitted;
+				log.log(LOG_LEVEL, "Queue time " + queued + " ms, "
+						+ getQueueDepth(key) + " tasks waiting for key");
+			}
+			try {
+				task.run();
+			} finally {
+				scheduleNext(key);
+			}
+		}
+	}
+}
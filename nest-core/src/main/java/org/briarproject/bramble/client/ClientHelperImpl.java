@@ -1,8 +1,11 @@
 package org.briarproject.bramble.client;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfQuery;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.BdfReader;
@@ -14,20 +17,22 @@ import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -44,6 +49,22 @@ class ClientHelperImpl implements ClientHelper {
 	 */
 	private static final int SALT_LENGTH = 32;
 
+	/**
+	 * Ranges of longs that BDF encodes with the same length and sign, so
+	 * encoded values within each range sort in the same order as unsigned
+	 * byte strings.
+	 */
+	private static final long[][] LONG_ENCODING_BOUNDS = {
+			{Long.MIN_VALUE, Integer.MIN_VALUE - 1L},
+			{Integer.MIN_VALUE, Short.MIN_VALUE - 1},
+			{Short.MIN_VALUE, Byte.MIN_VALUE - 1},
+			{Byte.MIN_VALUE, -1},
+			{0, Byte.MAX_VALUE},
+			{Byte.MAX_VALUE + 1, Short.MAX_VALUE},
+			{Short.MAX_VALUE + 1, Integer.MAX_VALUE},
+			{Integer.MAX_VALUE + 1L, Long.MAX_VALUE}
+	};
+
 	private final DatabaseComponent db;
 	private final MessageFactory messageFactory;
 	private final BdfReaderFactory bdfReaderFactory;
@@ -236,6 +257,96 @@ class ClientHelperImpl implements ClientHelper {
 		return parsed;
 	}
 
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfQuery query) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw =
+				db.getMessageMetadata(txn, g, encodeQuery(query));
+		Map<MessageId, BdfDictionary> parsed =
+				new HashMap<MessageId, BdfDictionary>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
+	@Override
+	public Map<ContactId, Map<MessageId, BdfDictionary>>
+	getContactMessageMetadataAsDictionary(Transaction txn, ClientId c,
+			BdfDictionary query) throws DbException, FormatException {
+		Metadata metadata = metadataEncoder.encode(query);
+		Map<ContactId, Map<MessageId, Metadata>> raw =
+				db.getContactMessageMetadata(txn, c, metadata);
+		Map<ContactId, Map<MessageId, BdfDictionary>> parsed =
+				new HashMap<ContactId, Map<MessageId, BdfDictionary>>(
+						raw.size());
+		for (Entry<ContactId, Map<MessageId, Metadata>> e : raw.entrySet()) {
+			Map<MessageId, BdfDictionary> contactParsed =
+					new HashMap<MessageId, BdfDictionary>(e.getValue().size());
+			for (Entry<MessageId, Metadata> e1 : e.getValue().entrySet()) {
+				contactParsed.put(e1.getKey(),
+						metadataParser.parse(e1.getValue()));
+			}
+			parsed.put(e.getKey(), contactParsed);
+		}
+		return parsed;
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, Set<String> keys) throws DbException,
+			FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g, keys);
+		Map<MessageId, BdfDictionary> parsed =
+				new HashMap<MessageId, BdfDictionary>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
+	@Override
+	public Map<MessageId, BdfDictionary> getMessageMetadataAsDictionary(
+			Transaction txn, GroupId g, BdfQuery query, long beforeTimestamp,
+			int limit) throws DbException, FormatException {
+		Map<MessageId, Metadata> raw = db.getMessageMetadata(txn, g,
+				encodeQuery(query), beforeTimestamp, limit);
+		// Preserve the order of the messages
+		Map<MessageId, BdfDictionary> parsed =
+				new LinkedHashMap<MessageId, BdfDictionary>(raw.size());
+		for (Entry<MessageId, Metadata> e : raw.entrySet())
+			parsed.put(e.getKey(), metadataParser.parse(e.getValue()));
+		return parsed;
+	}
+
+	private MetadataQuery encodeQuery(BdfQuery query) throws FormatException {
+		MetadataQuery encoded = new MetadataQuery();
+		for (String key : query.getValueKeys()) {
+			for (Object value : query.getValues(key))
+				encoded.addValue(key, encodeValue(key, value));
+		}
+		for (String key : query.getRangeKeys()) {
+			for (long[] range : query.getRanges(key)) {
+				// Split the range into pieces that are encoded with the same
+				// length and sign, so they can be compared as unsigned bytes
+				for (long[] bounds : LONG_ENCODING_BOUNDS) {
+					long min = Math.max(range[0], bounds[0]);
+					long max = Math.min(range[1], bounds[1]);
+					if (min > max) continue;
+					encoded.addRange(key, encodeValue(key, min),
+							encodeValue(key, max));
+				}
+			}
+		}
+		return encoded;
+	}
+
+	private byte[] encodeValue(String key, Object value)
+			throws FormatException {
+		BdfDictionary d = new BdfDictionary();
+		d.put(key, value);
+		return metadataEncoder.encode(d).get(key);
+	}
+
 	@Override
 	public void mergeGroupMetadata(GroupId g, BdfDictionary metadata)
 			throws DbException, FormatException {
@@ -274,8 +385,8 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public byte[] toByteArray(BdfDictionary dictionary) throws FormatException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		BdfWriter writer = bdfWriterFactory.createWriter(out);
+		byte[] b = new byte[bdfWriterFactory.getEncodedLength(dictionary)];
+		BdfWriter writer = bdfWriterFactory.createWriter(b, 0);
 		try {
 			writer.writeDictionary(dictionary);
 		} catch (FormatException e) {
@@ -283,13 +394,13 @@ class ClientHelperImpl implements ClientHelper {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return out.toByteArray();
+		return b;
 	}
 
 	@Override
 	public byte[] toByteArray(BdfList list) throws FormatException {
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		BdfWriter writer = bdfWriterFactory.createWriter(out);
+		byte[] b = new byte[bdfWriterFactory.getEncodedLength(list)];
+		BdfWriter writer = bdfWriterFactory.createWriter(b, 0);
 		try {
 			writer.writeList(list);
 		} catch (FormatException e) {
@@ -297,14 +408,13 @@ class ClientHelperImpl implements ClientHelper {
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
-		return out.toByteArray();
+		return b;
 	}
 
 	@Override
 	public BdfDictionary toDictionary(byte[] b, int off, int len)
 			throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfDictionary dictionary = reader.readDictionary();
 			if (!reader.eof()) throw new FormatException();
@@ -318,8 +428,7 @@ class ClientHelperImpl implements ClientHelper {
 
 	@Override
 	public BdfList toList(byte[] b, int off, int len) throws FormatException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b, off, len);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		BdfReader reader = bdfReaderFactory.createReader(b, off, len);
 		try {
 			BdfList list = reader.readList();
 			if (!reader.eof()) throw new FormatException();
@@ -357,4 +466,10 @@ class ClientHelperImpl implements ClientHelper {
 		}
 	}
 
+	@Override
+	public SignedData toSignedData(String label, byte[] sig, byte[] publicKey,
+			BdfList signed) throws FormatException {
+		return new SignedData(label, toByteArray(signed), publicKey, sig);
+	}
+
 }
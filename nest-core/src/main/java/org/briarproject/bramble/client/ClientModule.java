@@ -2,21 +2,28 @@ package org.briarproject.bramble.client;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.data.BdfReaderFactory;
 import org.briarproject.bramble.api.data.BdfWriterFactory;
 import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.sync.GroupFactory;
 import org.briarproject.bramble.api.sync.MessageFactory;
 
+import javax.inject.Singleton;
+
 import dagger.Module;
 import dagger.Provides;
 
 @Module
 public class ClientModule {
 
+	private static final int MAX_CACHED_SESSIONS = 1000;
+	private static final int MAX_CACHED_CONTACT_GROUPS = 1000;
+
 	@Provides
 	ClientHelper provideClientHelper(DatabaseComponent db,
 			MessageFactory messageFactory, BdfReaderFactory bdfReaderFactory,
@@ -28,9 +35,24 @@ public class ClientModule {
 	}
 
 	@Provides
+	@Singleton
 	ContactGroupFactory provideContactGroupFactory(GroupFactory groupFactory,
-			ClientHelper clientHelper) {
-		return new ContactGroupFactoryImpl(groupFactory, clientHelper);
+			ClientHelper clientHelper, EventBus eventBus) {
+		ContactGroupFactoryImpl contactGroupFactory =
+				new ContactGroupFactoryImpl(groupFactory, clientHelper,
+						MAX_CACHED_CONTACT_GROUPS);
+		eventBus.addListener(contactGroupFactory);
+		return contactGroupFactory;
+	}
+
+	@Provides
+	@Singleton
+	SessionStore provideSessionStore(DatabaseComponent db,
+			ClientHelper clientHelper, EventBus eventBus) {
+		SessionStoreImpl sessionStore =
+				new SessionStoreImpl(db, clientHelper, MAX_CACHED_SESSIONS);
+		eventBus.addListener(sessionStore);
+		return sessionStore;
 	}
 
 }
@@ -5,30 +5,69 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupFactory;
+import org.briarproject.bramble.api.sync.GroupId;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
-import javax.inject.Inject;
+import javax.annotation.concurrent.ThreadSafe;
 
-@Immutable
+/**
+ * Remembers the most recently created contact groups, so that clients
+ * looking up a contact's group don't have to hash the group descriptor
+ * every time, and the contacts the groups belong to, so that clients
+ * looking up a group's contact don't have to read the group's metadata.
+ * The contacts are forgotten when they're removed.
+ */
+@ThreadSafe
 @NotNullByDefault
-class ContactGroupFactoryImpl implements ContactGroupFactory {
+class ContactGroupFactoryImpl implements ContactGroupFactory, EventListener {
 
 	private static final byte[] LOCAL_GROUP_DESCRIPTOR = new byte[0];
 
 	private final GroupFactory groupFactory;
 	private final ClientHelper clientHelper;
+	private final Object lock = new Object();
+
+	// Locking: lock
+	private final Map<ContactGroupKey, Group> contactGroups;
+	// Locking: lock
+	private final Map<GroupId, ContactId> contactIds;
 
-	@Inject
 	ContactGroupFactoryImpl(GroupFactory groupFactory,
-			ClientHelper clientHelper) {
+			ClientHelper clientHelper, final int maxContactGroups) {
 		this.groupFactory = groupFactory;
 		this.clientHelper = clientHelper;
+		// Iterate in access order so the least recently used group is
+		// evicted
+		contactGroups =
+				new LinkedHashMap<ContactGroupKey, Group>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(
+							Entry<ContactGroupKey, Group> e) {
+						return size() > maxContactGroups;
+					}
+				};
+		contactIds = new LinkedHashMap<GroupId, ContactId>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<GroupId, ContactId> e) {
+				return size() > maxContactGroups;
+			}
+		};
 	}
 
 	@Override
@@ -40,15 +79,50 @@ class ContactGroupFactoryImpl implements ContactGroupFactory {
 	public Group createContactGroup(ClientId clientId, Contact contact) {
 		AuthorId local = contact.getLocalAuthorId();
 		AuthorId remote = contact.getAuthor().getId();
-		byte[] descriptor = createGroupDescriptor(local, remote);
-		return groupFactory.createGroup(clientId, descriptor);
+		Group g = createContactGroup(clientId, local, remote);
+		synchronized (lock) {
+			contactIds.put(g.getId(), contact.getId());
+		}
+		return g;
 	}
 
 	@Override
 	public Group createContactGroup(ClientId clientId, AuthorId authorId1,
 			AuthorId authorId2) {
+		// The descriptor doesn't depend on the order of the authors
+		ContactGroupKey key;
+		if (Bytes.COMPARATOR.compare(authorId1, authorId2) < 0)
+			key = new ContactGroupKey(clientId, authorId1, authorId2);
+		else key = new ContactGroupKey(clientId, authorId2, authorId1);
+		synchronized (lock) {
+			Group g = contactGroups.get(key);
+			if (g != null) return g;
+		}
 		byte[] descriptor = createGroupDescriptor(authorId1, authorId2);
-		return groupFactory.createGroup(clientId, descriptor);
+		Group g = groupFactory.createGroup(clientId, descriptor);
+		synchronized (lock) {
+			contactGroups.put(key, g);
+		}
+		return g;
+	}
+
+	@Nullable
+	@Override
+	public ContactId getContactId(GroupId g) {
+		synchronized (lock) {
+			return contactIds.get(g);
+		}
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactRemovedEvent) {
+			ContactId c = ((ContactRemovedEvent) e).getContactId();
+			synchronized (lock) {
+				Iterator<ContactId> it = contactIds.values().iterator();
+				while (it.hasNext()) if (it.next().equals(c)) it.remove();
+			}
+		}
 	}
 
 	private byte[] createGroupDescriptor(AuthorId local, AuthorId remote) {
@@ -60,4 +134,36 @@ class ContactGroupFactoryImpl implements ContactGroupFactory {
 			throw new RuntimeException(e);
 		}
 	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class ContactGroupKey {
+
+		private final ClientId clientId;
+		private final AuthorId authorId1, authorId2;
+
+		private ContactGroupKey(ClientId clientId, AuthorId authorId1,
+				AuthorId authorId2) {
+			this.clientId = clientId;
+			this.authorId1 = authorId1;
+			this.authorId2 = authorId2;
+		}
+
+		@Override
+		public int hashCode() {
+			return clientId.hashCode() ^ authorId1.hashCode()
+					^ authorId2.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof ContactGroupKey) {
+				ContactGroupKey k = (ContactGroupKey) o;
+				return clientId.equals(k.clientId)
+						&& authorId1.equals(k.authorId1)
+						&& authorId2.equals(k.authorId2);
+			}
+			return false;
+		}
+	}
 }
@@ -0,0 +1,183 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionStore;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A session store that keeps the most recently used sessions in memory.
+ * Sessions are cached in encoded form, so each caller gets its own copy.
+ * <p/>
+ * Sessions read by read-write transactions are never cached, as the
+ * transaction may have uncommitted changes or may be aborted. Stored and
+ * removed sessions are dropped from the cache immediately and written to
+ * the cache when the transaction commits.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SessionStoreImpl implements SessionStore, EventListener {
+
+	private final DatabaseComponent db;
+	private final ClientHelper clientHelper;
+	private final Object lock = new Object();
+
+	// Locking: lock
+	private final Map<SessionKey, byte[]> cache;
+	// Incremented whenever the cache is changed by a write. Locking: lock
+	private long version = 0;
+
+	SessionStoreImpl(DatabaseComponent db, ClientHelper clientHelper,
+			final int maxSessions) {
+		this.db = db;
+		this.clientHelper = clientHelper;
+		// Iterate in access order so the least recently used session is
+		// evicted
+		cache = new LinkedHashMap<SessionKey, byte[]>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<SessionKey, byte[]> e) {
+				return size() > maxSessions;
+			}
+		};
+	}
+
+	@Nullable
+	@Override
+	public BdfDictionary getSession(Transaction txn, GroupId g,
+			UniqueId sessionId) throws DbException, FormatException {
+		SessionKey key = new SessionKey(g, sessionId);
+		byte[] encoded;
+		long before;
+		synchronized (lock) {
+			encoded = cache.get(key);
+			before = version;
+		}
+		if (encoded == null) {
+			encoded = db.getSession(txn, g, sessionId);
+			if (encoded == null) return null;
+			// A write that committed while we were reading may have
+			// changed the session, in which case the cache is up to date
+			if (txn.isReadOnly()) {
+				synchronized (lock) {
+					if (version == before && !cache.containsKey(key))
+						cache.put(key, encoded);
+				}
+			}
+		}
+		return clientHelper.toDictionary(encoded, 0, encoded.length);
+	}
+
+	@Override
+	public Collection<BdfDictionary> getSessions(Transaction txn, GroupId g)
+			throws DbException, FormatException {
+		Collection<byte[]> encoded = db.getSessions(txn, g);
+		List<BdfDictionary> sessions =
+				new ArrayList<BdfDictionary>(encoded.size());
+		for (byte[] b : encoded)
+			sessions.add(clientHelper.toDictionary(b, 0, b.length));
+		return sessions;
+	}
+
+	@Override
+	public void storeSession(Transaction txn, GroupId g, UniqueId sessionId,
+			BdfDictionary session) throws DbException, FormatException {
+		final SessionKey key = new SessionKey(g, sessionId);
+		final byte[] encoded = clientHelper.toByteArray(session);
+		invalidate(key);
+		db.setSession(txn, g, sessionId, encoded);
+		txn.addCommitAction(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					cache.put(key, encoded);
+					version++;
+				}
+			}
+		});
+	}
+
+	@Override
+	public void removeSession(Transaction txn, GroupId g, UniqueId sessionId)
+			throws DbException {
+		final SessionKey key = new SessionKey(g, sessionId);
+		invalidate(key);
+		db.removeSession(txn, g, sessionId);
+		txn.addCommitAction(new Runnable() {
+			@Override
+			public void run() {
+				invalidate(key);
+			}
+		});
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof GroupRemovedEvent) {
+			GroupId g = ((GroupRemovedEvent) e).getGroup().getId();
+			synchronized (lock) {
+				Iterator<SessionKey> it = cache.keySet().iterator();
+				while (it.hasNext())
+					if (it.next().groupId.equals(g)) it.remove();
+				version++;
+			}
+		}
+	}
+
+	private void invalidate(SessionKey key) {
+		synchronized (lock) {
+			cache.remove(key);
+			version++;
+		}
+	}
+
+	@Immutable
+	@NotNullByDefault
+	private static class SessionKey {
+
+		private final GroupId groupId;
+		// Wrapped so that IDs of different types compare equal
+		private final Bytes sessionId;
+
+		private SessionKey(GroupId groupId, UniqueId sessionId) {
+			this.groupId = groupId;
+			this.sessionId = new Bytes(sessionId.getBytes());
+		}
+
+		@Override
+		public int hashCode() {
+			return groupId.hashCode() ^ sessionId.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof SessionKey) {
+				SessionKey k = (SessionKey) o;
+				return groupId.equals(k.groupId)
+						&& sessionId.equals(k.sessionId);
+			}
+			return false;
+		}
+	}
+}
@@ -119,6 +119,8 @@ public class Blake2sDigest implements ExtendedDigest {
 
 	/** Internal state, in the BLAKE2 paper it is called v **/
 	private int[] internalState = new int[16];
+	/** The message block being compressed, reused between blocks **/
+	private final int[] messageWords = new int[16];
 	/** State vector, in the BLAKE2 paper it is called h **/
 	private int[] chainValue = null;
 
@@ -250,32 +252,29 @@ public class Blake2sDigest implements ExtendedDigest {
 
 	// initialize chainValue
 	private void init() {
-		if (chainValue == null) {
-			chainValue = new int[8];
-
-			chainValue[0] = blake2s_IV[0]
-					^ (digestLength | (keyLength << 8) | 0x1010000);
-			// 0x1010000 = ((fanout << 16) | (depth << 24));
-			// with fanout = 1; depth = 0;
-			chainValue[1] = blake2s_IV[1];// ^ leafLength; with leafLength = 0;
-			chainValue[2] = blake2s_IV[2];// ^ nodeOffset; with nodeOffset = 0;
-			chainValue[3] = blake2s_IV[3];// ^ ( (nodeOffset << 32) |
-			// (nodeDepth << 16) | (innerHashLength << 24) );
-			// with nodeDepth = 0; innerHashLength = 0;
-
-			chainValue[4] = blake2s_IV[4];
-			chainValue[5] = blake2s_IV[5];
-			if (salt != null) {
-				chainValue[4] ^= (bytes2int(salt, 0));
-				chainValue[5] ^= (bytes2int(salt, 4));
-			}
+		if (chainValue == null) chainValue = new int[8];
+		chainValue[0] = blake2s_IV[0]
+				^ (digestLength | (keyLength << 8) | 0x1010000);
+		// 0x1010000 = ((fanout << 16) | (depth << 24));
+		// with fanout = 1; depth = 0;
+		chainValue[1] = blake2s_IV[1];// ^ leafLength; with leafLength = 0;
+		chainValue[2] = blake2s_IV[2];// ^ nodeOffset; with nodeOffset = 0;
+		chainValue[3] = blake2s_IV[3];// ^ ( (nodeOffset << 32) |
+		// (nodeDepth << 16) | (innerHashLength << 24) );
+		// with nodeDepth = 0; innerHashLength = 0;
+
+		chainValue[4] = blake2s_IV[4];
+		chainValue[5] = blake2s_IV[5];
+		if (salt != null) {
+			chainValue[4] ^= (bytes2int(salt, 0));
+			chainValue[5] ^= (bytes2int(salt, 4));
+		}
 
-			chainValue[6] = blake2s_IV[6];
-			chainValue[7] = blake2s_IV[7];
-			if (personalization != null) {
-				chainValue[6] ^= (bytes2int(personalization, 0));
-				chainValue[7] ^= (bytes2int(personalization, 4));
-			}
+		chainValue[6] = blake2s_IV[6];
+		chainValue[7] = blake2s_IV[7];
+		if (personalization != null) {
+			chainValue[6] ^= (bytes2int(personalization, 0));
+			chainValue[7] ^= (bytes2int(personalization, 4));
 		}
 	}
 
@@ -387,16 +386,9 @@ public class Blake2sDigest implements ExtendedDigest {
 		Arrays.fill(buffer, (byte) 0);// Holds eventually the key if input is null
 		Arrays.fill(internalState, 0);
 
-		for (int i = 0; i < chainValue.length && (i * 4 < digestLength); i++) {
-			byte[] bytes = int2bytes(chainValue[i]);
-
-			if (i * 4 < digestLength - 4) {
-				System.arraycopy(bytes, 0, out, outOffset + i * 4, 4);
-			} else {
-				System.arraycopy(bytes, 0, out, outOffset + i * 4,
-						digestLength - (i * 4));
-			}
-		}
+		// little-endian byte order, truncated to the digest length
+		for (int i = 0; i < digestLength; i++)
+			out[outOffset + i] = (byte) (chainValue[i >> 2] >> ((i & 3) << 3));
 
 		Arrays.fill(chainValue, 0);
 
@@ -414,7 +406,6 @@ public class Blake2sDigest implements ExtendedDigest {
 		f0 = 0;
 		t0 = 0;
 		t1 = 0;
-		chainValue = null;
 		if (key != null) {
 			Arrays.fill(buffer, (byte) 0);
 			System.arraycopy(key, 0, buffer, 0, key.length);
@@ -426,7 +417,7 @@ public class Blake2sDigest implements ExtendedDigest {
 	private void compress(byte[] message, int messagePos) {
 		initializeInternalState();
 
-		int[] m = new int[16];
+		int[] m = messageWords;
 		for (int j = 0; j < 16; j++) {
 			m[j] = bytes2int(message, messagePos + j * 4);
 		}
@@ -480,15 +471,6 @@ public class Blake2sDigest implements ExtendedDigest {
 		return x >>> rot | (x << (32 - rot));
 	}
 
-	// convert one int value in byte array
-	// little-endian byte order!
-	private byte[] int2bytes(int intValue) {
-		return new byte[] {
-				(byte) intValue, (byte) (intValue >> 8),
-				(byte) (intValue >> 16), (byte) (intValue >> 24)
-		};
-	}
-
 	// little-endian byte order!
 	private int bytes2int(byte[] byteArray, int offset) {
 		return (((int) byteArray[offset] & 0xFF)
@@ -525,6 +507,24 @@ public class Blake2sDigest implements ExtendedDigest {
 		return BLOCK_LENGTH_BYTES;
 	}
 
+	/**
+	 * Replace the key and reset the digest, so the instance can be reused
+	 * for keyed hashing with a different key.
+	 *
+	 * @param key a key up to 32 bytes
+	 */
+	public void setKey(byte[] key) {
+		if (key.length > 32) {
+			throw new IllegalArgumentException(
+					"Keys > 32 bytes are not supported");
+		}
+		if (this.key == null || this.key.length != key.length)
+			this.key = new byte[key.length];
+		System.arraycopy(key, 0, this.key, 0, key.length);
+		keyLength = key.length;
+		reset();
+	}
+
 	/**
 	 * Overwrite the key if it is no longer used (zeroization).
 	 */
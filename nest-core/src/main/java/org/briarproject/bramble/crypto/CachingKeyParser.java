@@ -0,0 +1,66 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.crypto.KeyParser;
+import org.briarproject.bramble.api.crypto.PrivateKey;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.security.GeneralSecurityException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A key parser that remembers the most recently used public keys it has
+ * validated, so keys that are parsed repeatedly, such as the keys of
+ * authors whose signatures are being verified, are only validated once.
+ * Invalid keys and private keys are not cached.
+ */
+@ThreadSafe
+@NotNullByDefault
+class CachingKeyParser implements KeyParser {
+
+	private final KeyParser delegate;
+	private final Object lock = new Object();
+
+	// Locking: lock
+	private final Map<Bytes, PublicKey> publicKeys;
+
+	CachingKeyParser(KeyParser delegate, final int maxPublicKeys) {
+		this.delegate = delegate;
+		// Iterate in access order so the least recently used key is evicted
+		publicKeys = new LinkedHashMap<Bytes, PublicKey>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<Bytes, PublicKey> e) {
+				return size() > maxPublicKeys;
+			}
+		};
+	}
+
+	@Override
+	public PublicKey parsePublicKey(byte[] encodedKey)
+			throws GeneralSecurityException {
+		Bytes b = new Bytes(encodedKey);
+		synchronized (lock) {
+			PublicKey cached = publicKeys.get(b);
+			if (cached != null) return cached;
+		}
+		// Copy the encoding in case the caller modifies it
+		byte[] copy = encodedKey.clone();
+		// Validate the key without holding the lock
+		PublicKey k = delegate.parsePublicKey(copy);
+		synchronized (lock) {
+			publicKeys.put(new Bytes(copy), k);
+		}
+		return k;
+	}
+
+	@Override
+	public PrivateKey parsePrivateKey(byte[] encodedKey)
+			throws GeneralSecurityException {
+		return delegate.parsePrivateKey(encodedKey);
+	}
+}
@@ -7,6 +7,7 @@ import org.briarproject.bramble.api.crypto.PrivateKey;
 import org.briarproject.bramble.api.crypto.PseudoRandom;
 import org.briarproject.bramble.api.crypto.PublicKey;
 import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.system.SecureRandomProvider;
 import org.briarproject.bramble.api.transport.IncomingKeys;
@@ -36,8 +37,13 @@ import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.inject.Inject;
 
 import static java.util.logging.Level.INFO;
@@ -45,6 +51,7 @@ import static org.briarproject.bramble.api.invitation.InvitationConstants.CODE_B
 import static org.briarproject.bramble.api.keyagreement.KeyAgreementConstants.COMMIT_LENGTH;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
 import static org.briarproject.bramble.crypto.EllipticCurveConstants.PARAMETERS;
+import static org.briarproject.bramble.crypto.EllipticCurveConstants.PUBLIC_PARAMETERS;
 import static org.briarproject.bramble.util.ByteUtils.INT_32_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.INT_64_BYTES;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
@@ -61,6 +68,17 @@ class CryptoComponentImpl implements CryptoComponent {
 	private static final int PBKDF_TARGET_MILLIS = 500;
 	private static final int PBKDF_SAMPLES = 30;
 	private static final int HASH_SIZE = 256 / 8;
+	private static final int MAX_CACHED_PUBLIC_KEYS = 1000;
+
+	/**
+	 * The maximum number of threads, in addition to the calling thread, that
+	 * will verify a batch of signatures concurrently.
+	 * <p>
+	 * The number of available processors can change during the lifetime of the
+	 * JVM, so this is just a reasonable guess.
+	 */
+	private static final int MAX_BATCH_HELPERS =
+			Runtime.getRuntime().availableProcessors() - 1;
 
 	private static byte[] ascii(String s) {
 		return s.getBytes(Charset.forName("US-ASCII"));
@@ -102,9 +120,21 @@ class CryptoComponentImpl implements CryptoComponent {
 	private final ECKeyPairGenerator signatureKeyPairGenerator;
 	private final KeyParser agreementKeyParser, signatureKeyParser;
 	private final MessageEncrypter messageEncrypter;
+	// Null if batches are verified by the calling thread alone
+	@Nullable
+	private final Executor batchExecutor;
+	// Digests and signature verifiers are reused by each thread rather than
+	// being created for every operation
+	private final ThreadLocal<Primitives> primitives;
 
 	@Inject
 	CryptoComponentImpl(SecureRandomProvider secureRandomProvider) {
+		this(secureRandomProvider, null);
+	}
+
+	CryptoComponentImpl(SecureRandomProvider secureRandomProvider,
+			@Nullable Executor batchExecutor) {
+		this.batchExecutor = batchExecutor;
 		if (LOG.isLoggable(INFO)) {
 			SecureRandom defaultSecureRandom = new SecureRandom();
 			String name = defaultSecureRandom.getProvider().getName();
@@ -132,9 +162,18 @@ class CryptoComponentImpl implements CryptoComponent {
 		signatureKeyPairGenerator.init(params);
 		agreementKeyParser = new Sec1KeyParser(PARAMETERS,
 				AGREEMENT_KEY_PAIR_BITS);
-		signatureKeyParser = new Sec1KeyParser(PARAMETERS,
-				SIGNATURE_KEY_PAIR_BITS);
+		// Signature public keys are only used for verification, which
+		// involves no secrets, so they can use the faster parameters
+		signatureKeyParser = new CachingKeyParser(new Sec1KeyParser(
+				PARAMETERS, PUBLIC_PARAMETERS, SIGNATURE_KEY_PAIR_BITS),
+				MAX_CACHED_PUBLIC_KEYS);
 		messageEncrypter = new MessageEncrypter(secureRandom);
+		primitives = new ThreadLocal<Primitives>() {
+			@Override
+			protected Primitives initialValue() {
+				return new Primitives(secureRandom);
+			}
+		};
 	}
 
 	// Based on https://android-developers.googleblog.com/2013/08/some-securerandom-thoughts.html
@@ -416,17 +455,20 @@ class CryptoComponentImpl implements CryptoComponent {
 		if (tag.length < TAG_LENGTH) throw new IllegalArgumentException();
 		if (streamNumber < 0 || streamNumber > MAX_32_BIT_UNSIGNED)
 			throw new IllegalArgumentException();
+		Primitives p = primitives.get();
 		// Initialise the PRF
-		Digest prf = new Blake2sDigest(tagKey.getBytes());
+		Blake2sDigest prf = p.prf;
+		prf.setKey(tagKey.getBytes());
 		// The output of the PRF must be long enough to use as a tag
 		int macLength = prf.getDigestSize();
 		if (macLength < TAG_LENGTH) throw new IllegalStateException();
 		// The input is the stream number as a 64-bit integer
-		byte[] input = new byte[INT_64_BYTES];
+		byte[] input = p.counter;
 		ByteUtils.writeUint64(streamNumber, input, 0);
 		prf.update(input, 0, input.length);
-		byte[] mac = new byte[macLength];
+		byte[] mac = p.mac;
 		prf.doFinal(mac, 0);
+		prf.clearKey();
 		// The output is the first TAG_LENGTH bytes of the MAC
 		System.arraycopy(mac, 0, tag, 0, TAG_LENGTH);
 	}
@@ -434,29 +476,73 @@ class CryptoComponentImpl implements CryptoComponent {
 	@Override
 	public byte[] sign(String label, byte[] toSign, byte[] privateKey)
 			throws GeneralSecurityException {
+		Primitives p = primitives.get();
+		// Use a new signer so the thread's signer never holds a private key
 		Signature signature = new SignatureImpl(secureRandom);
 		KeyParser keyParser = getSignatureKeyParser();
 		PrivateKey key = keyParser.parsePrivateKey(privateKey);
 		signature.initSign(key);
-		updateSignature(signature, label, toSign);
+		updateSignature(signature, p.length, label, toSign);
 		return signature.sign();
 	}
 
 	@Override
 	public boolean verify(String label, byte[] signedData, byte[] publicKey,
 			byte[] signature) throws GeneralSecurityException {
-		Signature sig = new SignatureImpl(secureRandom);
+		Primitives p = primitives.get();
+		Signature sig = p.signature;
 		KeyParser keyParser = getSignatureKeyParser();
 		PublicKey key = keyParser.parsePublicKey(publicKey);
 		sig.initVerify(key);
-		updateSignature(sig, label, signedData);
+		updateSignature(sig, p.length, label, signedData);
 		return sig.verify(signature);
 	}
 
-	private void updateSignature(Signature signature, String label,
-			byte[] toSign) {
+	@Override
+	public boolean[] verifyBatch(final List<SignedData> batch) {
+		final boolean[] valid = new boolean[batch.size()];
+		final AtomicInteger next = new AtomicInteger(0);
+		final CountDownLatch verified = new CountDownLatch(batch.size());
+		// Each worker verifies items until none are left, so the batch is
+		// finished even if the helpers don't get a chance to run
+		Runnable worker = new Runnable() {
+			@Override
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < valid.length) {
+					try {
+						SignedData d = batch.get(i);
+						valid[i] = verify(d.getLabel(), d.getSignedData(),
+								d.getPublicKey(), d.getSignature());
+					} catch (GeneralSecurityException e) {
+						valid[i] = false; // Invalid public key
+					} finally {
+						verified.countDown();
+					}
+				}
+			}
+		};
+		if (batchExecutor != null) {
+			int helpers = Math.min(MAX_BATCH_HELPERS, batch.size() - 1);
+			for (int i = 0; i < helpers; i++) batchExecutor.execute(worker);
+		}
+		worker.run();
+		// Wait for the helpers to finish any items they're verifying
+		boolean interrupted = false;
+		while (verified.getCount() > 0) {
+			try {
+				verified.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+		return valid;
+	}
+
+	private void updateSignature(Signature signature, byte[] length,
+			String label, byte[] toSign) {
 		byte[] labelBytes = StringUtils.toUtf8(label);
-		byte[] length = new byte[INT_32_BYTES];
 		ByteUtils.writeUint32(labelBytes.length, length, 0);
 		signature.update(length);
 		signature.update(labelBytes);
@@ -467,9 +553,20 @@ class CryptoComponentImpl implements CryptoComponent {
 
 	@Override
 	public byte[] hash(String label, byte[]... inputs) {
+		byte[] output = new byte[HASH_SIZE];
+		hash(label, output, 0, inputs);
+		return output;
+	}
+
+	@Override
+	public void hash(String label, byte[] out, int outOffset,
+			byte[]... inputs) {
+		if (outOffset < 0 || out.length - outOffset < HASH_SIZE)
+			throw new IllegalArgumentException();
 		byte[] labelBytes = StringUtils.toUtf8(label);
-		Digest digest = new Blake2sDigest();
-		byte[] length = new byte[INT_32_BYTES];
+		Primitives p = primitives.get();
+		Digest digest = p.digest;
+		byte[] length = p.length;
 		ByteUtils.writeUint32(labelBytes.length, length, 0);
 		digest.update(length, 0, length.length);
 		digest.update(labelBytes, 0, labelBytes.length);
@@ -478,9 +575,7 @@ class CryptoComponentImpl implements CryptoComponent {
 			digest.update(length, 0, length.length);
 			digest.update(input, 0, input.length);
 		}
-		byte[] output = new byte[digest.getDigestSize()];
-		digest.doFinal(output, 0);
-		return output;
+		digest.doFinal(out, outOffset);
 	}
 
 	@Override
@@ -490,8 +585,10 @@ class CryptoComponentImpl implements CryptoComponent {
 
 	@Override
 	public byte[] mac(SecretKey macKey, byte[]... inputs) {
-		Digest mac = new Blake2sDigest(macKey.getBytes());
-		byte[] length = new byte[INT_32_BYTES];
+		Primitives p = primitives.get();
+		Blake2sDigest mac = p.prf;
+		mac.setKey(macKey.getBytes());
+		byte[] length = p.length;
 		for (byte[] input : inputs) {
 			ByteUtils.writeUint32(input.length, length, 0);
 			mac.update(length, 0, length.length);
@@ -499,6 +596,7 @@ class CryptoComponentImpl implements CryptoComponent {
 		}
 		byte[] output = new byte[mac.getDigestSize()];
 		mac.doFinal(output, 0);
+		mac.clearKey();
 		return output;
 	}
 
@@ -586,13 +684,15 @@ class CryptoComponentImpl implements CryptoComponent {
 	// Key derivation function based on a pseudo-random function - see
 	// NIST SP 800-108, section 5.1
 	private byte[] macKdf(SecretKey key, byte[]... inputs) {
+		Primitives p = primitives.get();
 		// Initialise the PRF
-		Digest prf = new Blake2sDigest(key.getBytes());
+		Blake2sDigest prf = p.prf;
+		prf.setKey(key.getBytes());
 		// The output of the PRF must be long enough to use as a key
 		int macLength = prf.getDigestSize();
 		if (macLength < SecretKey.LENGTH) throw new IllegalStateException();
 		// Calculate the PRF over the concatenated length-prefixed inputs
-		byte[] length = new byte[INT_32_BYTES];
+		byte[] length = p.length;
 		for (byte[] input : inputs) {
 			ByteUtils.writeUint32(input.length, length, 0);
 			prf.update(length, 0, length.length);
@@ -600,6 +700,7 @@ class CryptoComponentImpl implements CryptoComponent {
 		}
 		byte[] mac = new byte[macLength];
 		prf.doFinal(mac, 0);
+		prf.clearKey();
 		// The output is the first SecretKey.LENGTH bytes of the MAC
 		if (mac.length == SecretKey.LENGTH) return mac;
 		byte[] truncated = new byte[SecretKey.LENGTH];
@@ -666,4 +767,25 @@ class CryptoComponentImpl implements CryptoComponent {
 		if (size % 2 == 1) return list.get(size / 2);
 		return list.get(size / 2 - 1) + list.get(size / 2) / 2;
 	}
+
+	/**
+	 * The digests, signature and scratch buffers used by a single thread.
+	 */
+	@NotThreadSafe
+	private static class Primitives {
+
+		private final Blake2sDigest digest = new Blake2sDigest();
+		// Keyed for each use and cleared afterwards
+		private final Blake2sDigest prf =
+				new Blake2sDigest(new byte[SecretKey.LENGTH]);
+		// Only used for verification, which involves no secrets
+		private final Signature signature;
+		private final byte[] length = new byte[INT_32_BYTES];
+		private final byte[] counter = new byte[INT_64_BYTES];
+		private final byte[] mac = new byte[HASH_SIZE];
+
+		private Primitives(SecureRandom secureRandom) {
+			signature = new SignatureImpl(secureRandom);
+		}
+	}
 }
@@ -66,7 +66,7 @@ public class CryptoModule {
 	@Singleton
 	CryptoComponent provideCryptoComponent(
 			SecureRandomProvider secureRandomProvider) {
-		return new CryptoComponentImpl(secureRandomProvider);
+		return new CryptoComponentImpl(secureRandomProvider, cryptoExecutor);
 	}
 
 	@Provides
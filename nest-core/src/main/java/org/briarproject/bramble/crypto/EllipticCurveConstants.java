@@ -7,6 +7,7 @@ import org.spongycastle.math.ec.ECCurve;
 import org.spongycastle.math.ec.ECMultiplier;
 import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.math.ec.MontgomeryLadderMultiplier;
+import org.spongycastle.math.ec.WNafL2RMultiplier;
 
 import java.math.BigInteger;
 
@@ -15,18 +16,36 @@ import java.math.BigInteger;
  */
 class EllipticCurveConstants {
 
+	/**
+	 * Parameters that use a constant-time multiplier, for operations
+	 * involving private keys.
+	 */
 	static final ECDomainParameters PARAMETERS;
 
+	/**
+	 * Parameters that use a faster, variable-time multiplier. These must
+	 * only be used for operations that involve no secrets, such as
+	 * validating public keys and verifying signatures.
+	 */
+	static final ECDomainParameters PUBLIC_PARAMETERS;
+
 	static {
 		// Start with the default implementation of the curve
 		X9ECParameters x9 = TeleTrusTNamedCurves.getByName("brainpoolp256r1");
 		// Use a constant-time multiplier
-		ECMultiplier monty = new MontgomeryLadderMultiplier();
-		ECCurve curve = x9.getCurve().configure().setMultiplier(monty).create();
+		PARAMETERS = createParameters(x9, new MontgomeryLadderMultiplier());
+		// Use a windowed NAF multiplier, which caches precomputed points
+		PUBLIC_PARAMETERS = createParameters(x9, new WNafL2RMultiplier());
+	}
+
+	private static ECDomainParameters createParameters(X9ECParameters x9,
+			ECMultiplier multiplier) {
+		ECCurve curve =
+				x9.getCurve().configure().setMultiplier(multiplier).create();
 		BigInteger gX = x9.getG().getAffineXCoord().toBigInteger();
 		BigInteger gY = x9.getG().getAffineYCoord().toBigInteger();
 		ECPoint g = curve.createPoint(gX, gY);
 		// Convert to ECDomainParameters using the new multiplier
-		PARAMETERS = new ECDomainParameters(curve, g, x9.getN(), x9.getH());
+		return new ECDomainParameters(curve, g, x9.getN(), x9.getH());
 	}
 }
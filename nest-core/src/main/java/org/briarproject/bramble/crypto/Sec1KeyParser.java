@@ -30,12 +30,25 @@ class Sec1KeyParser implements KeyParser {
 	private static final Logger LOG =
 			Logger.getLogger(Sec1KeyParser.class.getName());
 
-	private final ECDomainParameters params;
+	private final ECDomainParameters params, publicParams;
 	private final BigInteger modulus;
 	private final int keyBits, bytesPerInt, publicKeyBytes, privateKeyBytes;
 
 	Sec1KeyParser(ECDomainParameters params, int keyBits) {
+		this(params, params, keyBits);
+	}
+
+	/**
+	 * Creates a parser that uses the given parameters for private keys and
+	 * the given public parameters, which must describe the same curve, for
+	 * public keys.
+	 */
+	Sec1KeyParser(ECDomainParameters params, ECDomainParameters publicParams,
+			int keyBits) {
+		if (!params.getCurve().equals(publicParams.getCurve()))
+			throw new IllegalArgumentException();
 		this.params = params;
+		this.publicParams = publicParams;
 		this.keyBits = keyBits;
 		modulus = ((ECCurve.Fp) params.getCurve()).getQ();
 		bytesPerInt = (keyBits + 7) / 8;
@@ -64,7 +77,7 @@ class Sec1KeyParser implements KeyParser {
 		BigInteger y = new BigInteger(1, yBytes); // Positive signum
 		if (y.compareTo(modulus) >= 0) throw new GeneralSecurityException();
 		// Verify that y^2 == x^3 + ax + b (mod p)
-		ECCurve curve = params.getCurve();
+		ECCurve curve = publicParams.getCurve();
 		BigInteger a = curve.getA().toBigInteger();
 		BigInteger b = curve.getB().toBigInteger();
 		BigInteger lhs = y.multiply(y).mod(modulus);
@@ -75,10 +88,10 @@ class Sec1KeyParser implements KeyParser {
 		// Verify that the point (x, y) is not the point at infinity
 		if (pub.isInfinity()) throw new GeneralSecurityException();
 		// Verify that the point (x, y) times n is the point at infinity
-		if (!pub.multiply(params.getN()).isInfinity())
+		if (!pub.multiply(publicParams.getN()).isInfinity())
 			throw new GeneralSecurityException();
 		// Construct a public key from the point (x, y) and the params
-		ECPublicKeyParameters k = new ECPublicKeyParameters(pub, params);
+		ECPublicKeyParameters k = new ECPublicKeyParameters(pub, publicParams);
 		PublicKey p = new Sec1PublicKey(k);
 		long duration = System.currentTimeMillis() - now;
 		if (LOG.isLoggable(INFO))
@@ -38,12 +38,17 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 
 	private final XSalsa20Engine xSalsa20Engine;
 	private final Poly1305 poly1305;
+	// Scratch buffers, reused between frames
+	private final byte[] zero, subKey, mac;
 
 	private boolean encrypting;
 
 	XSalsa20Poly1305AuthenticatedCipher() {
 		xSalsa20Engine = new XSalsa20Engine();
 		poly1305 = new Poly1305();
+		zero = new byte[SUBKEY_LENGTH];
+		subKey = new byte[SUBKEY_LENGTH];
+		mac = new byte[MAC_LENGTH];
 	}
 
 	@Override
@@ -66,8 +71,6 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 			throw new GeneralSecurityException("Invalid MAC");
 		try {
 			// Generate the Poly1305 subkey from an empty array
-			byte[] zero = new byte[SUBKEY_LENGTH];
-			byte[] subKey = new byte[SUBKEY_LENGTH];
 			xSalsa20Engine.processBytes(zero, 0, SUBKEY_LENGTH, subKey, 0);
 
 			// Reverse the order of the Poly130 subkey
@@ -82,12 +85,13 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 			// k[0] ... k[15], r[0] ... r[15] (per poly1305_aes_clamp in
 			// the reference implementation).
 			//
-			// To be NaCl-compatible, we reverse the subkey.
-			System.arraycopy(subKey, 0, zero, 0, SUBKEY_LENGTH / 2);
-			System.arraycopy(subKey, SUBKEY_LENGTH / 2, subKey, 0,
-					SUBKEY_LENGTH / 2);
-			System.arraycopy(zero, 0, subKey, SUBKEY_LENGTH / 2,
-					SUBKEY_LENGTH / 2);
+			// To be NaCl-compatible, we reverse the subkey. The halves are
+			// swapped in place so the empty array is never written to.
+			for (int i = 0; i < SUBKEY_LENGTH / 2; i++) {
+				byte b = subKey[i];
+				subKey[i] = subKey[i + SUBKEY_LENGTH / 2];
+				subKey[i + SUBKEY_LENGTH / 2] = b;
+			}
 			// Now we can clamp the correct part of the subkey
 			Poly1305KeyGenerator.clamp(subKey);
 
@@ -97,7 +101,6 @@ class XSalsa20Poly1305AuthenticatedCipher implements AuthenticatedCipher {
 
 			// If we are decrypting, verify the MAC
 			if (!encrypting) {
-				byte[] mac = new byte[MAC_LENGTH];
 				poly1305.update(input, inputOff + MAC_LENGTH, len - MAC_LENGTH);
 				poly1305.doFinal(mac, 0);
 				// Constant-time comparison
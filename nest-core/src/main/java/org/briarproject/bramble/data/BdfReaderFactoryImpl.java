@@ -23,4 +23,15 @@ class BdfReaderFactoryImpl implements BdfReaderFactory {
 	public BdfReader createReader(InputStream in, int nestedLimit) {
 		return new BdfReaderImpl(in, nestedLimit);
 	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len) {
+		return new ByteArrayBdfReader(b, off, len, DEFAULT_NESTED_LIMIT);
+	}
+
+	@Override
+	public BdfReader createReader(byte[] b, int off, int len,
+			int nestedLimit) {
+		return new ByteArrayBdfReader(b, off, len, nestedLimit);
+	}
 }
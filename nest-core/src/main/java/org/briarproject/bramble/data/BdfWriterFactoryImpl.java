@@ -1,5 +1,6 @@
 package org.briarproject.bramble.data;
 
+import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfWriter;
 import org.briarproject.bramble.api.data.BdfWriterFactory;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -16,4 +17,14 @@ class BdfWriterFactoryImpl implements BdfWriterFactory {
 	public BdfWriter createWriter(OutputStream out) {
 		return new BdfWriterImpl(out);
 	}
+
+	@Override
+	public BdfWriter createWriter(byte[] buf, int off) {
+		return new ByteArrayBdfWriter(buf, off);
+	}
+
+	@Override
+	public int getEncodedLength(Object o) throws FormatException {
+		return ByteArrayBdfWriter.getEncodedLength(o);
+	}
 }
@@ -0,0 +1,363 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfWriter;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.data.Types.DICTIONARY;
+import static org.briarproject.bramble.data.Types.END;
+import static org.briarproject.bramble.data.Types.FALSE;
+import static org.briarproject.bramble.data.Types.FLOAT_64;
+import static org.briarproject.bramble.data.Types.INT_16;
+import static org.briarproject.bramble.data.Types.INT_32;
+import static org.briarproject.bramble.data.Types.INT_64;
+import static org.briarproject.bramble.data.Types.INT_8;
+import static org.briarproject.bramble.data.Types.LIST;
+import static org.briarproject.bramble.data.Types.NULL;
+import static org.briarproject.bramble.data.Types.RAW_16;
+import static org.briarproject.bramble.data.Types.RAW_32;
+import static org.briarproject.bramble.data.Types.RAW_8;
+import static org.briarproject.bramble.data.Types.STRING_16;
+import static org.briarproject.bramble.data.Types.STRING_32;
+import static org.briarproject.bramble.data.Types.STRING_8;
+import static org.briarproject.bramble.data.Types.TRUE;
+
+/**
+ * A {@link BdfWriter} that writes directly into a caller-supplied buffer.
+ * Short strings are encoded as UTF-8 straight into the buffer. The output is
+ * identical to that of {@link BdfWriterImpl}, and its length can be
+ * calculated in advance with {@link #getEncodedLength(Object)} so the
+ * buffer can be allocated at exactly the right size.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class ByteArrayBdfWriter implements BdfWriter {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final int MAX_DIRECT_STRING_LENGTH = 64;
+
+	private final byte[] buf;
+
+	private int pos;
+
+	ByteArrayBdfWriter(byte[] buf, int off) {
+		if (off < 0 || off > buf.length) throw new IllegalArgumentException();
+		this.buf = buf;
+		pos = off;
+	}
+
+	/**
+	 * Returns the offset in the buffer where the next byte will be written.
+	 */
+	int getOffset() {
+		return pos;
+	}
+
+	private void ensureSpace(int length) throws IOException {
+		if (length > buf.length - pos) throw new IOException("Buffer full");
+	}
+
+	@Override
+	public void flush() {
+		// Nothing to flush
+	}
+
+	@Override
+	public void close() {
+		// Nothing to close
+	}
+
+	@Override
+	public void writeNull() throws IOException {
+		ensureSpace(1);
+		buf[pos++] = NULL;
+	}
+
+	@Override
+	public void writeBoolean(boolean b) throws IOException {
+		ensureSpace(1);
+		buf[pos++] = b ? TRUE : FALSE;
+	}
+
+	@Override
+	public void writeLong(long i) throws IOException {
+		if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) {
+			ensureSpace(2);
+			buf[pos++] = INT_8;
+			buf[pos++] = (byte) i;
+		} else if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) {
+			ensureSpace(3);
+			buf[pos++] = INT_16;
+			writeInt16((short) i);
+		} else if (i >= Integer.MIN_VALUE && i <= Integer.MAX_VALUE) {
+			ensureSpace(5);
+			buf[pos++] = INT_32;
+			writeInt32((int) i);
+		} else {
+			ensureSpace(9);
+			buf[pos++] = INT_64;
+			writeInt64(i);
+		}
+	}
+
+	private void writeInt16(short i) {
+		buf[pos++] = (byte) (i >> 8);
+		buf[pos++] = (byte) i;
+	}
+
+	private void writeInt32(int i) {
+		buf[pos++] = (byte) (i >> 24);
+		buf[pos++] = (byte) (i >> 16);
+		buf[pos++] = (byte) (i >> 8);
+		buf[pos++] = (byte) i;
+	}
+
+	private void writeInt64(long i) {
+		for (int shift = 56; shift >= 0; shift -= 8)
+			buf[pos++] = (byte) (i >> shift);
+	}
+
+	@Override
+	public void writeDouble(double d) throws IOException {
+		ensureSpace(9);
+		buf[pos++] = FLOAT_64;
+		writeInt64(Double.doubleToRawLongBits(d));
+	}
+
+	@Override
+	public void writeString(String s) throws IOException {
+		// Long strings are faster to encode with the platform's encoder, even
+		// though it means copying the result into the buffer
+		if (s.length() > MAX_DIRECT_STRING_LENGTH) {
+			writeStringHeaderAndBytes(s.getBytes(UTF_8));
+			return;
+		}
+		int length = getUtf8Length(s);
+		ensureSpace(getHeaderLength(length) + length);
+		if (length <= Byte.MAX_VALUE) {
+			buf[pos++] = STRING_8;
+			buf[pos++] = (byte) length;
+		} else if (length <= Short.MAX_VALUE) {
+			buf[pos++] = STRING_16;
+			writeInt16((short) length);
+		} else {
+			buf[pos++] = STRING_32;
+			writeInt32(length);
+		}
+		writeUtf8(s);
+	}
+
+	private void writeStringHeaderAndBytes(byte[] b) throws IOException {
+		ensureSpace(getHeaderLength(b.length) + b.length);
+		if (b.length <= Byte.MAX_VALUE) {
+			buf[pos++] = STRING_8;
+			buf[pos++] = (byte) b.length;
+		} else if (b.length <= Short.MAX_VALUE) {
+			buf[pos++] = STRING_16;
+			writeInt16((short) b.length);
+		} else {
+			buf[pos++] = STRING_32;
+			writeInt32(b.length);
+		}
+		System.arraycopy(b, 0, buf, pos, b.length);
+		pos += b.length;
+	}
+
+	// Encodes the string in the same way as String.getBytes("UTF-8"),
+	// replacing unpaired surrogates with '?'
+	private void writeUtf8(String s) {
+		int chars = s.length(), i = 0;
+		// Fast path for the common case of ASCII text
+		for (char c; i < chars && (c = s.charAt(i)) < 0x80; i++)
+			buf[pos++] = (byte) c;
+		for (; i < chars; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			} else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < chars
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (isSurrogate(c)) {
+				buf[pos++] = '?';
+			} else {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	@Override
+	public void writeRaw(byte[] b) throws IOException {
+		ensureSpace(getHeaderLength(b.length) + b.length);
+		if (b.length <= Byte.MAX_VALUE) {
+			buf[pos++] = RAW_8;
+			buf[pos++] = (byte) b.length;
+		} else if (b.length <= Short.MAX_VALUE) {
+			buf[pos++] = RAW_16;
+			writeInt16((short) b.length);
+		} else {
+			buf[pos++] = RAW_32;
+			writeInt32(b.length);
+		}
+		System.arraycopy(b, 0, buf, pos, b.length);
+		pos += b.length;
+	}
+
+	@Override
+	public void writeList(Collection<?> c) throws IOException {
+		writeListStart();
+		for (Object o : c) writeObject(o);
+		writeListEnd();
+	}
+
+	private void writeObject(@Nullable Object o) throws IOException {
+		if (o == null || o == NULL_VALUE) writeNull();
+		else if (o instanceof Boolean) writeBoolean((Boolean) o);
+		else if (o instanceof Byte) writeLong((Byte) o);
+		else if (o instanceof Short) writeLong((Short) o);
+		else if (o instanceof Integer) writeLong((Integer) o);
+		else if (o instanceof Long) writeLong((Long) o);
+		else if (o instanceof Float) writeDouble((Float) o);
+		else if (o instanceof Double) writeDouble((Double) o);
+		else if (o instanceof String) writeString((String) o);
+		else if (o instanceof byte[]) writeRaw((byte[]) o);
+		else if (o instanceof Bytes) writeRaw(((Bytes) o).getBytes());
+		else if (o instanceof List) writeList((List) o);
+		else if (o instanceof Map) writeDictionary((Map) o);
+		else throw new FormatException();
+	}
+
+	@Override
+	public void writeListStart() throws IOException {
+		ensureSpace(1);
+		buf[pos++] = LIST;
+	}
+
+	@Override
+	public void writeListEnd() throws IOException {
+		ensureSpace(1);
+		buf[pos++] = END;
+	}
+
+	@Override
+	public void writeDictionary(Map<?, ?> m) throws IOException {
+		writeDictionaryStart();
+		for (Entry<?, ?> e : m.entrySet()) {
+			if (!(e.getKey() instanceof String)) throw new FormatException();
+			writeString((String) e.getKey());
+			writeObject(e.getValue());
+		}
+		writeDictionaryEnd();
+	}
+
+	@Override
+	public void writeDictionaryStart() throws IOException {
+		ensureSpace(1);
+		buf[pos++] = DICTIONARY;
+	}
+
+	@Override
+	public void writeDictionaryEnd() throws IOException {
+		ensureSpace(1);
+		buf[pos++] = END;
+	}
+
+	/**
+	 * Returns the number of bytes that writing the given object would
+	 * produce.
+	 */
+	static int getEncodedLength(@Nullable Object o) throws FormatException {
+		if (o == null || o == NULL_VALUE || o instanceof Boolean) return 1;
+		if (o instanceof Byte || o instanceof Short || o instanceof Integer
+				|| o instanceof Long) {
+			long i = ((Number) o).longValue();
+			if (i >= Byte.MIN_VALUE && i <= Byte.MAX_VALUE) return 2;
+			if (i >= Short.MIN_VALUE && i <= Short.MAX_VALUE) return 3;
+			if (i >= Integer.MIN_VALUE && i <= Integer.MAX_VALUE) return 5;
+			return 9;
+		}
+		if (o instanceof Float || o instanceof Double) return 9;
+		if (o instanceof String) {
+			int length = getUtf8Length((String) o);
+			return getHeaderLength(length) + length;
+		}
+		if (o instanceof byte[]) {
+			int length = ((byte[]) o).length;
+			return getHeaderLength(length) + length;
+		}
+		if (o instanceof Bytes) {
+			int length = ((Bytes) o).getBytes().length;
+			return getHeaderLength(length) + length;
+		}
+		if (o instanceof List) {
+			int length = 2; // Start and end
+			for (Object e : (List<?>) o) length += getEncodedLength(e);
+			return length;
+		}
+		if (o instanceof Map) {
+			int length = 2; // Start and end
+			for (Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+				if (!(e.getKey() instanceof String))
+					throw new FormatException();
+				length += getEncodedLength(e.getKey());
+				length += getEncodedLength(e.getValue());
+			}
+			return length;
+		}
+		throw new FormatException();
+	}
+
+	private static boolean isSurrogate(char c) {
+		return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+	}
+
+	private static int getHeaderLength(int length) {
+		if (length <= Byte.MAX_VALUE) return 2;
+		if (length <= Short.MAX_VALUE) return 3;
+		return 5;
+	}
+
+	private static int getUtf8Length(String s) {
+		int chars = s.length(), i = 0;
+		// Fast path for the common case of ASCII text
+		while (i < chars && s.charAt(i) < 0x80) i++;
+		int length = i;
+		for (; i < chars; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < chars
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (isSurrogate(c)) {
+				length++; // Replaced with '?'
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+}
@@ -9,7 +9,6 @@ import org.briarproject.bramble.api.data.MetadataEncoder;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -35,17 +34,17 @@ class MetadataEncoderImpl implements MetadataEncoder {
 	@Override
 	public Metadata encode(BdfDictionary d) throws FormatException {
 		Metadata m = new Metadata();
-		ByteArrayOutputStream out = new ByteArrayOutputStream();
-		BdfWriter writer = bdfWriterFactory.createWriter(out);
 		try {
 			for (Entry<String, Object> e : d.entrySet()) {
-				if (e.getValue() == NULL_VALUE) {
+				Object value = e.getValue();
+				if (value == NULL_VALUE) {
 					// Special case: if value is null, key is being removed
 					m.put(e.getKey(), REMOVE);
 				} else {
-					encodeObject(writer, e.getValue());
-					m.put(e.getKey(), out.toByteArray());
-					out.reset();
+					// Encode the value into a buffer of exactly the right size
+					byte[] b = new byte[bdfWriterFactory.getEncodedLength(value)];
+					encodeObject(bdfWriterFactory.createWriter(b, 0), value);
+					m.put(e.getKey(), b);
 				}
 			}
 		} catch (FormatException e) {
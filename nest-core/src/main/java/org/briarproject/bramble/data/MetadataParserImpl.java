@@ -8,7 +8,6 @@ import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.Map.Entry;
 
@@ -17,6 +16,12 @@ import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.bramble.api.db.Metadata.REMOVE;
+import static org.briarproject.bramble.data.Types.FALSE;
+import static org.briarproject.bramble.data.Types.INT_16;
+import static org.briarproject.bramble.data.Types.INT_32;
+import static org.briarproject.bramble.data.Types.INT_64;
+import static org.briarproject.bramble.data.Types.INT_8;
+import static org.briarproject.bramble.data.Types.TRUE;
 
 @Immutable
 @NotNullByDefault
@@ -47,13 +52,33 @@ class MetadataParserImpl implements MetadataParser {
 	}
 
 	private Object parseValue(byte[] b) throws IOException {
-		ByteArrayInputStream in = new ByteArrayInputStream(b);
-		BdfReader reader = bdfReaderFactory.createReader(in);
+		// Most metadata values are booleans or integers, which can be decoded
+		// without creating a reader
+		if (b.length == 1) {
+			if (b[0] == FALSE) return Boolean.FALSE;
+			if (b[0] == TRUE) return Boolean.TRUE;
+		} else if (b.length == 2 && b[0] == INT_8) {
+			return (long) b[1];
+		} else if (b.length == 3 && b[0] == INT_16) {
+			return (long) (short) readInt(b, 2);
+		} else if (b.length == 5 && b[0] == INT_32) {
+			return (long) (int) readInt(b, 4);
+		} else if (b.length == 9 && b[0] == INT_64) {
+			return readInt(b, 8);
+		}
+		BdfReader reader = bdfReaderFactory.createReader(b, 0, b.length);
 		Object o = parseObject(reader);
 		if (!reader.eof()) throw new FormatException();
 		return o;
 	}
 
+	// Reads a big-endian integer of the given length that follows the type
+	private static long readInt(byte[] b, int length) {
+		long value = 0;
+		for (int i = 1; i <= length; i++) value = (value << 8) | (b[i] & 0xFF);
+		return value;
+	}
+
 	private Object parseObject(BdfReader reader) throws IOException {
 		if (reader.hasNull()) return NULL_VALUE;
 		if (reader.hasBoolean()) return reader.readBoolean();
@@ -1,9 +1,11 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -15,6 +17,7 @@ import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
@@ -22,6 +25,7 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 
 import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
@@ -75,6 +79,13 @@ interface Database<T> {
 	 */
 	void addGroup(T txn, Group g) throws DbException;
 
+	/**
+	 * Stores a member of the given group with the given visibility. The
+	 * meaning of the visibility is defined by the client that owns the group.
+	 */
+	void addGroupMember(T txn, GroupId g, Author a, int visibility)
+			throws DbException;
+
 	/**
 	 * Sets the given group's visibility to the given contact to either
 	 * {@link Visibility VISIBLE} or {@link Visibility SHARED}.
@@ -126,6 +137,12 @@ interface Database<T> {
 	void addTransportKeys(T txn, ContactId c, TransportKeys k)
 			throws DbException;
 
+	/**
+	 * Records that the signatures of the given message have been verified.
+	 * The record is removed when the given group is removed.
+	 */
+	void addVerifiedMessage(T txn, GroupId g, MessageId m) throws DbException;
+
 	/**
 	 * Returns true if the database contains the given contact for the given
 	 * local pseudonym.
@@ -149,6 +166,14 @@ interface Database<T> {
 	 */
 	boolean containsGroup(T txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns true if the given author is a member of the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	boolean containsGroupMember(T txn, GroupId g, AuthorId a)
+			throws DbException;
+
 	/**
 	 * Returns true if the database contains the given local pseudonym.
 	 * <p/>
@@ -170,6 +195,13 @@ interface Database<T> {
 	 */
 	boolean containsTransport(T txn, TransportId t) throws DbException;
 
+	/**
+	 * Returns true if the signatures of the given message have been verified.
+	 * <p/>
+	 * Read-only.
+	 */
+	boolean containsVerifiedMessage(T txn, MessageId m) throws DbException;
+
 	/**
 	 * Returns true if the database contains the given message, the message is
 	 * shared, and the visibility of the message's group to the given contact
@@ -192,6 +224,7 @@ interface Database<T> {
 	 * {@link #removeMessage(Object, MessageId)}, the message ID and any other
 	 * associated data are not deleted, and
 	 * {@link #containsMessage(Object, MessageId)} will continue to return true.
+	 * {@link #containsVerifiedMessage(Object, MessageId)} will return false.
 	 */
 	void deleteMessage(T txn, MessageId m) throws DbException;
 
@@ -222,6 +255,15 @@ interface Database<T> {
 	Collection<Contact> getContactsByAuthorId(T txn, AuthorId remote)
 			throws DbException;
 
+	/**
+	 * Returns a possibly empty collection of contacts with any of the given
+	 * author IDs.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<Contact> getContactsByAuthorIds(T txn,
+			Collection<AuthorId> remote) throws DbException;
+
 	/**
 	 * Returns all contacts associated with the given local pseudonym.
 	 * <p/>
@@ -250,6 +292,31 @@ interface Database<T> {
 	 */
 	Metadata getGroupMetadata(T txn, GroupId g) throws DbException;
 
+	/**
+	 * Returns the members of the given group and their visibilities.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<Author, Integer> getGroupMembers(T txn, GroupId g)
+			throws DbException;
+
+	/**
+	 * Returns the visibility of the given member of the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	int getGroupMemberVisibility(T txn, GroupId g, AuthorId a)
+			throws DbException;
+
+	/**
+	 * Returns the visibilities of any of the given members of the given
+	 * group, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<AuthorId, Integer> getGroupMemberVisibilities(T txn, GroupId g,
+			Collection<AuthorId> authors) throws DbException;
+
 	/**
 	 * Returns all groups belonging to the given client.
 	 * <p/>
@@ -275,6 +342,14 @@ interface Database<T> {
 	Collection<ContactId> getGroupVisibility(T txn, GroupId g)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of all contacts to which the given group's visibility is
+	 * {@link Visibility SHARED}.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<ContactId> getSharedWith(T txn, GroupId g) throws DbException;
+
 	/**
 	 * Returns the local pseudonym with the given ID.
 	 * <p/>
@@ -328,6 +403,34 @@ interface Database<T> {
 	Collection<MessageId> getMessageIds(T txn, GroupId g, Metadata query)
 			throws DbException;
 
+	/**
+	 * Returns the IDs of any delivered messages in the given group with
+	 * metadata matching the given query. If the query is empty, the IDs of
+	 * all delivered messages are returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<MessageId> getMessageIds(T txn, GroupId g, MetadataQuery query)
+			throws DbException;
+
+	/**
+	 * Returns the message counts for the given group, or null if no counts
+	 * have been stored for the group.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	MessageCounts getMessageCounts(T txn, GroupId g) throws DbException;
+
+	/**
+	 * Returns the message counts for any of the given groups for which
+	 * counts have been stored.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<GroupId, MessageCounts> getMessageCounts(T txn,
+			Collection<GroupId> groups) throws DbException;
+
 	/**
 	 * Returns the metadata for all delivered messages in the given group.
 	 * <p/>
@@ -346,6 +449,51 @@ interface Database<T> {
 	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
 			Metadata query) throws DbException;
 
+	/**
+	 * Returns the metadata for any delivered messages in the given client's
+	 * groups with metadata matching all entries in the given query, grouped
+	 * by the contacts to which the groups are visible. If the query is
+	 * empty, the metadata for all messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<ContactId, Map<MessageId, Metadata>> getContactMessageMetadata(
+			T txn, ClientId c, Metadata query) throws DbException;
+
+	/**
+	 * Returns the metadata for any delivered messages in the given group with
+	 * metadata matching the given query. If the query is empty, the metadata
+	 * for all delivered messages is returned.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			MetadataQuery query) throws DbException;
+
+	/**
+	 * Returns the given keys of the metadata for all delivered messages in
+	 * the given group. Messages that have none of the given keys are not
+	 * included.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			Set<String> keys) throws DbException;
+
+	/**
+	 * Returns the metadata for up to the given number of delivered messages
+	 * in the given group that are older than the given timestamp and have
+	 * metadata matching the given query, newest first. If several messages
+	 * share the timestamp of the oldest message returned, they are all
+	 * returned, so the timestamp of the oldest message can be passed to the
+	 * next call without skipping any messages.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, Metadata> getMessageMetadata(T txn, GroupId g,
+			MetadataQuery query, long beforeTimestamp, int limit)
+			throws DbException;
+
 	/**
 	 * Returns the metadata for the given delivered message.
 	 * <p/>
@@ -386,6 +534,15 @@ interface Database<T> {
 	MessageStatus getMessageStatus(T txn, ContactId c, MessageId m)
 			throws DbException;
 
+	/**
+	 * Returns the status of any of the given messages with respect to the
+	 * given contact, using a single query.
+	 * <p/>
+	 * Read-only.
+	 */
+	Map<MessageId, MessageStatus> getMessageStatus(T txn, ContactId c,
+			Collection<MessageId> messages) throws DbException;
+
 	/**
 	 * Returns the IDs of some messages received from the given contact that
 	 * need to be acknowledged, up to the given number of messages.
@@ -468,6 +625,23 @@ interface Database<T> {
 	Collection<MessageId> getRequestedMessagesToSend(T txn, ContactId c,
 			int maxLength) throws DbException;
 
+	/**
+	 * Returns the encoded protocol session with the given ID in the given
+	 * group, or null if there is no such session.
+	 * <p/>
+	 * Read-only.
+	 */
+	@Nullable
+	byte[] getSession(T txn, GroupId g, UniqueId sessionId)
+			throws DbException;
+
+	/**
+	 * Returns all encoded protocol sessions in the given group.
+	 * <p/>
+	 * Read-only.
+	 */
+	Collection<byte[]> getSessions(T txn, GroupId g) throws DbException;
+
 	/**
 	 * Returns all settings in the given namespace.
 	 * <p/>
@@ -483,6 +657,14 @@ interface Database<T> {
 	Map<ContactId, TransportKeys> getTransportKeys(T txn, TransportId t)
 			throws DbException;
 
+	/**
+	 * Adds the given amounts to the message counts for the given group and
+	 * raises the timestamp of the latest message to the given timestamp if
+	 * it's later. Returns false if no counts have been stored for the group.
+	 */
+	boolean incrementMessageCounts(T txn, GroupId g, int msgCount,
+			int unreadCount, long latestMsgTime) throws DbException;
+
 	/**
 	 * Increments the outgoing stream counter for the given contact and
 	 * transport in the given rotation period.
@@ -580,6 +762,12 @@ interface Database<T> {
 	void removeOfferedMessages(T txn, ContactId c,
 			Collection<MessageId> requested) throws DbException;
 
+	/**
+	 * Removes the protocol session with the given ID from the given group.
+	 */
+	void removeSession(T txn, GroupId g, UniqueId sessionId)
+			throws DbException;
+
 	/**
 	 * Removes the status of the given message with respect to the given
 	 * contact.
@@ -608,6 +796,12 @@ interface Database<T> {
 	void setContactActive(T txn, ContactId c, boolean active)
 			throws DbException;
 
+	/**
+	 * Sets the visibility of the given member of the given group.
+	 */
+	void setGroupMemberVisibility(T txn, GroupId g, AuthorId a,
+			int visibility) throws DbException;
+
 	/**
 	 * Sets the given group's visibility to the given contact to either
 	 * {@link Visibility VISIBLE} or {@link Visibility SHARED}.
@@ -615,6 +809,13 @@ interface Database<T> {
 	void setGroupVisibility(T txn, ContactId c, GroupId g, boolean shared)
 			throws DbException;
 
+	/**
+	 * Stores the given message counts for the given group, replacing any
+	 * existing counts.
+	 */
+	void setMessageCounts(T txn, GroupId g, MessageCounts c)
+			throws DbException;
+
 	/**
 	 * Marks the given message as shared.
 	 */
@@ -632,6 +833,13 @@ interface Database<T> {
 	void setReorderingWindow(T txn, ContactId c, TransportId t,
 			long rotationPeriod, long base, byte[] bitmap) throws DbException;
 
+	/**
+	 * Stores the given encoded protocol session in the given group,
+	 * replacing any existing session with the same ID.
+	 */
+	void setSession(T txn, GroupId g, UniqueId sessionId, byte[] session)
+			throws DbException;
+
 	/**
 	 * Updates the transmission count and expiry time of the given message
 	 * with respect to the given contact, using the latency of the transport
@@ -642,6 +850,8 @@ interface Database<T> {
 
 	/**
 	 * Stores the given transport keys, deleting any keys they have replaced.
+	 * Incoming keys for rotation periods that are already stored are left
+	 * unchanged.
 	 */
 	void updateTransportKeys(T txn, Map<ContactId, TransportKeys> keys)
 			throws DbException;
@@ -1,5 +1,6 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
@@ -10,6 +11,7 @@ import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.NoSuchLocalAuthorException;
@@ -34,6 +36,7 @@ import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.Offer;
@@ -59,6 +62,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
@@ -86,7 +90,10 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	private final Class<T> txnClass;
 	private final EventBus eventBus;
 	private final ShutdownManager shutdown;
+	private final boolean concurrent;
 	private final AtomicBoolean closed = new AtomicBoolean(false);
+	// Writers hold the lock exclusively. In the default mode readers share
+	// the lock, and in concurrent mode they don't take it
 	private final ReentrantReadWriteLock lock =
 			new ReentrantReadWriteLock(true);
 
@@ -95,10 +102,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 	@Inject
 	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
 			ShutdownManager shutdown) {
+		this(db, txnClass, eventBus, shutdown, false);
+	}
+
+	DatabaseComponentImpl(Database<T> db, Class<T> txnClass, EventBus eventBus,
+			ShutdownManager shutdown, boolean concurrent) {
 		this.db = db;
 		this.txnClass = txnClass;
 		this.eventBus = eventBus;
 		this.shutdown = shutdown;
+		this.concurrent = concurrent;
 	}
 
 	@Override
@@ -131,6 +144,9 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		// Don't allow reentrant locking
 		if (lock.getReadHoldCount() > 0) throw new IllegalStateException();
 		if (lock.getWriteHoldCount() > 0) throw new IllegalStateException();
+		// In concurrent mode, readers rely on H2's MVCC instead of the lock
+		if (readOnly && concurrent)
+			return new Transaction(db.startTransaction(), true);
 		long start = System.currentTimeMillis();
 		if (readOnly) lock.readLock().lock();
 		else lock.writeLock().lock();
@@ -158,6 +174,7 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (transaction.isCommitted()) throw new IllegalStateException();
 		transaction.setCommitted();
 		db.commitTransaction(txn);
+		for (Runnable r : transaction.getCommitActions()) r.run();
 	}
 
 	@Override
@@ -166,8 +183,8 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 			T txn = txnClass.cast(transaction.unbox());
 			if (!transaction.isCommitted()) db.abortTransaction(txn);
 		} finally {
-			if (transaction.isReadOnly()) lock.readLock().unlock();
-			else lock.writeLock().unlock();
+			if (!transaction.isReadOnly()) lock.writeLock().unlock();
+			else if (!concurrent) lock.readLock().unlock();
 		}
 		if (transaction.isCommitted())
 			for (Event e : transaction.getEvents()) eventBus.broadcast(e);
@@ -206,6 +223,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void addGroupMember(Transaction transaction, GroupId g, Author a,
+			int visibility) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.addGroupMember(txn, g, a, visibility);
+	}
+
 	@Override
 	public void addLocalAuthor(Transaction transaction, LocalAuthor a)
 			throws DbException {
@@ -265,6 +292,17 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.addTransportKeys(txn, c, k);
 	}
 
+	@Override
+	public void addVerifiedMessage(Transaction transaction, GroupId g,
+			MessageId m) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		if (!db.containsVerifiedMessage(txn, m))
+			db.addVerifiedMessage(txn, g, m);
+	}
+
 	@Override
 	public boolean containsContact(Transaction transaction, AuthorId remote,
 			AuthorId local) throws DbException {
@@ -281,6 +319,15 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.containsGroup(txn, g);
 	}
 
+	@Override
+	public boolean containsGroupMember(Transaction transaction, GroupId g,
+			AuthorId a) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.containsGroupMember(txn, g, a);
+	}
+
 	@Override
 	public boolean containsLocalAuthor(Transaction transaction, AuthorId local)
 			throws DbException {
@@ -288,6 +335,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.containsLocalAuthor(txn, local);
 	}
 
+	@Override
+	public boolean containsVerifiedMessage(Transaction transaction,
+			MessageId m) throws DbException {
+		T txn = unbox(transaction);
+		return db.containsVerifiedMessage(txn, m);
+	}
+
 	@Override
 	public void deleteMessage(Transaction transaction, MessageId m)
 			throws DbException {
@@ -415,6 +469,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getContactsByAuthorId(txn, remote);
 	}
 
+	@Override
+	public Collection<Contact> getContactsByAuthorIds(Transaction transaction,
+			Collection<AuthorId> remote) throws DbException {
+		T txn = unbox(transaction);
+		return db.getContactsByAuthorIds(txn, remote);
+	}
+
 	@Override
 	public Collection<ContactId> getContacts(Transaction transaction,
 			AuthorId a) throws DbException {
@@ -442,6 +503,34 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroupMetadata(txn, g);
 	}
 
+	@Override
+	public Map<Author, Integer> getGroupMembers(Transaction transaction,
+			GroupId g) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getGroupMembers(txn, g);
+	}
+
+	@Override
+	public int getGroupMemberVisibility(Transaction transaction, GroupId g,
+			AuthorId a) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getGroupMemberVisibility(txn, g, a);
+	}
+
+	@Override
+	public Map<AuthorId, Integer> getGroupMemberVisibilities(
+			Transaction transaction, GroupId g, Collection<AuthorId> authors)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getGroupMemberVisibilities(txn, g, authors);
+	}
+
 	@Override
 	public Collection<Group> getGroups(Transaction transaction, ClientId c)
 			throws DbException {
@@ -458,6 +547,13 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getGroupVisibility(txn, c, g);
 	}
 
+	@Override
+	public Collection<ContactId> getSharedWith(Transaction transaction,
+			GroupId g) throws DbException {
+		T txn = unbox(transaction);
+		return db.getSharedWith(txn, g);
+	}
+
 	@Override
 	public LocalAuthor getLocalAuthor(Transaction transaction, AuthorId a)
 			throws DbException {
@@ -505,6 +601,24 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getRawMessage(txn, m);
 	}
 
+	@Nullable
+	@Override
+	public MessageCounts getMessageCounts(Transaction transaction, GroupId g)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageCounts(txn, g);
+	}
+
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(
+			Transaction transaction, Collection<GroupId> groups)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getMessageCounts(txn, groups);
+	}
+
 	@Override
 	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
 			GroupId g) throws DbException {
@@ -523,6 +637,42 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageMetadata(txn, g, query);
 	}
 
+	@Override
+	public Map<ContactId, Map<MessageId, Metadata>> getContactMessageMetadata(
+			Transaction transaction, ClientId c, Metadata query)
+			throws DbException {
+		T txn = unbox(transaction);
+		return db.getContactMessageMetadata(txn, c, query);
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			GroupId g, MetadataQuery query) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageMetadata(txn, g, query);
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			GroupId g, Set<String> keys) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageMetadata(txn, g, keys);
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Transaction transaction,
+			GroupId g, MetadataQuery query, long beforeTimestamp, int limit)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getMessageMetadata(txn, g, query, beforeTimestamp, limit);
+	}
+
 	@Override
 	public Metadata getMessageMetadata(Transaction transaction, MessageId m)
 			throws DbException {
@@ -573,6 +723,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageStatus(txn, c, m);
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(
+			Transaction transaction, ContactId c,
+			Collection<MessageId> messages) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		return db.getMessageStatus(txn, c, messages);
+	}
+
 	@Override
 	public Map<MessageId, State> getMessageDependencies(Transaction transaction,
 			MessageId m) throws DbException {
@@ -591,6 +751,25 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getMessageDependents(txn, m);
 	}
 
+	@Nullable
+	@Override
+	public byte[] getSession(Transaction transaction, GroupId g,
+			UniqueId sessionId) throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getSession(txn, g, sessionId);
+	}
+
+	@Override
+	public Collection<byte[]> getSessions(Transaction transaction, GroupId g)
+			throws DbException {
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		return db.getSessions(txn, g);
+	}
+
 	@Override
 	public Settings getSettings(Transaction transaction, String namespace)
 			throws DbException {
@@ -607,6 +786,18 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		return db.getTransportKeys(txn, t);
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Transaction transaction, GroupId g,
+			int msgCount, int unreadCount, long latestMsgTime)
+			throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		// Counts can't be stored for a group that doesn't exist, so there's
+		// no need to check that the group exists
+		return db.incrementMessageCounts(txn, g, msgCount, unreadCount,
+				latestMsgTime);
+	}
+
 	@Override
 	public void incrementStreamCounter(Transaction transaction, ContactId c,
 			TransportId t, long rotationPeriod) throws DbException {
@@ -645,12 +836,14 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		if (transaction.isReadOnly()) throw new IllegalArgumentException();
 		T txn = unbox(transaction);
 		Settings old = db.getSettings(txn, namespace);
-		Settings merged = new Settings();
-		merged.putAll(old);
-		merged.putAll(s);
-		if (!merged.equals(old)) {
-			db.mergeSettings(txn, s, namespace);
-			transaction.attach(new SettingsUpdatedEvent(namespace));
+		Settings changed = new Settings();
+		for (Entry<String, String> e : s.entrySet()) {
+			if (!e.getValue().equals(old.get(e.getKey())))
+				changed.put(e.getKey(), e.getValue());
+		}
+		if (!changed.isEmpty()) {
+			db.mergeSettings(txn, changed, namespace);
+			transaction.attach(new SettingsUpdatedEvent(namespace, changed));
 		}
 	}
 
@@ -692,6 +885,36 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		}
 	}
 
+	@Override
+	public void receiveMessages(Transaction transaction, ContactId c,
+			Collection<Message> messages) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsContact(txn, c))
+			throw new NoSuchContactException();
+		Map<GroupId, Visibility> visibilities =
+				new HashMap<GroupId, Visibility>();
+		boolean ack = false;
+		for (Message m : messages) {
+			GroupId g = m.getGroupId();
+			Visibility v = visibilities.get(g);
+			if (v == null) {
+				v = db.getGroupVisibility(txn, c, g);
+				visibilities.put(g, v);
+			}
+			if (v == INVISIBLE) continue;
+			if (db.containsMessage(txn, m.getId())) {
+				db.raiseSeenFlag(txn, c, m.getId());
+				db.raiseAckFlag(txn, c, m.getId());
+			} else {
+				addMessage(txn, m, UNKNOWN, false, c);
+				transaction.attach(new MessageAddedEvent(m, c));
+			}
+			ack = true;
+		}
+		if (ack) transaction.attach(new MessageToAckEvent(c));
+	}
+
 	@Override
 	public void receiveOffer(Transaction transaction, ContactId c, Offer o)
 			throws DbException {
@@ -770,6 +993,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new LocalAuthorRemovedEvent(a));
 	}
 
+	@Override
+	public void removeSession(Transaction transaction, GroupId g,
+			UniqueId sessionId) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.removeSession(txn, g, sessionId);
+	}
+
 	@Override
 	public void removeTransport(Transaction transaction, TransportId t)
 			throws DbException {
@@ -802,6 +1035,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new ContactStatusChangedEvent(c, active));
 	}
 
+	@Override
+	public void setGroupMemberVisibility(Transaction transaction, GroupId g,
+			AuthorId a, int visibility) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.setGroupMemberVisibility(txn, g, a, visibility);
+	}
+
 	@Override
 	public void setGroupVisibility(Transaction transaction, ContactId c,
 			GroupId g, Visibility v) throws DbException {
@@ -830,6 +1073,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		transaction.attach(new GroupVisibilityUpdatedEvent(affected));
 	}
 
+	@Override
+	public void setMessageCounts(Transaction transaction, GroupId g,
+			MessageCounts c) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.setMessageCounts(txn, g, c);
+	}
+
 	@Override
 	public void setMessageShared(Transaction transaction, MessageId m)
 			throws DbException {
@@ -881,6 +1134,16 @@ class DatabaseComponentImpl<T> implements DatabaseComponent {
 		db.setReorderingWindow(txn, c, t, rotationPeriod, base, bitmap);
 	}
 
+	@Override
+	public void setSession(Transaction transaction, GroupId g,
+			UniqueId sessionId, byte[] session) throws DbException {
+		if (transaction.isReadOnly()) throw new IllegalArgumentException();
+		T txn = unbox(transaction);
+		if (!db.containsGroup(txn, g))
+			throw new NoSuchGroupException();
+		db.setSession(txn, g, sessionId, session);
+	}
+
 	@Override
 	public void updateTransportKeys(Transaction transaction,
 			Map<ContactId, TransportKeys> keys) throws DbException {
@@ -1,8 +1,10 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.KeyedExecutorImpl;
 import org.briarproject.bramble.TimeLoggingExecutor;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.lifecycle.LifecycleManager;
+import org.briarproject.bramble.api.system.KeyedExecutor;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Executor;
@@ -28,17 +30,31 @@ public class DatabaseExecutorModule {
 		ExecutorService executorService;
 	}
 
+	private static final int DEFAULT_THREADS = 4;
+
 	private final ExecutorService databaseExecutor;
 
 	public DatabaseExecutorModule() {
+		this(DEFAULT_THREADS);
+	}
+
+	/**
+	 * @param threads the maximum number of database tasks that can run
+	 * concurrently. Tasks with the same ordering key never run concurrently
+	 */
+	public DatabaseExecutorModule(int threads) {
 		// Use an unbounded queue
 		BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
-		// Discard tasks that are submitted during shutdown
+		// Reject tasks that are submitted during shutdown. The keyed executor
+		// discards rejected tasks, so they don't hold up their keys' queues
 		RejectedExecutionHandler policy =
-				new ThreadPoolExecutor.DiscardPolicy();
-		// Use a single thread and keep it in the pool for 60 secs
-		databaseExecutor = new TimeLoggingExecutor("DatabaseExecutor", 0, 1,
-				60, SECONDS, queue, policy);
+				new ThreadPoolExecutor.AbortPolicy();
+		// Use a fixed number of threads and keep them in the pool for 60 secs
+		ThreadPoolExecutor executor = new TimeLoggingExecutor(
+				"DatabaseExecutor", threads, threads, 60, SECONDS, queue,
+				policy);
+		executor.allowCoreThreadTimeOut(true);
+		databaseExecutor = executor;
 	}
 
 	@Provides
@@ -53,8 +69,17 @@ public class DatabaseExecutorModule {
 	@Provides
 	@Singleton
 	@DatabaseExecutor
-	Executor provideDatabaseExecutor(
+	KeyedExecutor provideKeyedDatabaseExecutor(
 			@DatabaseExecutor ExecutorService dbExecutor) {
+		return new KeyedExecutorImpl("KeyedDatabaseExecutor", dbExecutor);
+	}
+
+	@Provides
+	@Singleton
+	@DatabaseExecutor
+	Executor provideDatabaseExecutor(
+			@DatabaseExecutor KeyedExecutor dbExecutor) {
+		// Tasks submitted without a key run in order of submission
 		return dbExecutor;
 	}
 }
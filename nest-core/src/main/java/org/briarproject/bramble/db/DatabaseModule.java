@@ -25,8 +25,9 @@ public class DatabaseModule {
 	@Provides
 	@Singleton
 	DatabaseComponent provideDatabaseComponent(Database<Connection> db,
-			EventBus eventBus, ShutdownManager shutdown) {
+			DatabaseConfig config, EventBus eventBus,
+			ShutdownManager shutdown) {
 		return new DatabaseComponentImpl<Connection>(db, Connection.class,
-				eventBus, shutdown);
+				eventBus, shutdown, config.useConcurrentTransactions());
 	}
 }
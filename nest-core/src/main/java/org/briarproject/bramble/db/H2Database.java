@@ -35,8 +35,11 @@ class H2Database extends JdbcDatabase {
 		this.config = config;
 		File dir = config.getDatabaseDirectory();
 		String path = new File(dir, "db").getAbsolutePath();
-		url = "jdbc:h2:split:" + path + ";CIPHER=AES;MULTI_THREADED=1"
-				+ ";WRITE_DELAY=0;DB_CLOSE_ON_EXIT=false";
+		String options = ";CIPHER=AES;MULTI_THREADED=1;WRITE_DELAY=0"
+				+ ";DB_CLOSE_ON_EXIT=false";
+		// Readers see the last committed state instead of waiting for writers
+		if (config.useConcurrentTransactions()) options += ";MVCC=TRUE";
+		url = "jdbc:h2:split:" + path + options;
 	}
 
 	@Override
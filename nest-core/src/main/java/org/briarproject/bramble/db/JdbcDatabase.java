@@ -1,11 +1,15 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DbClosedException;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.db.MetadataQuery.Range;
+import org.briarproject.bramble.api.db.MetadataQuery.Term;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -17,6 +21,7 @@ import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.Group.Visibility;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
@@ -24,6 +29,7 @@ import org.briarproject.bramble.api.system.Clock;
 import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
+import org.briarproject.bramble.util.StringUtils;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -35,6 +41,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -68,8 +75,12 @@ import static org.briarproject.bramble.db.ExponentialBackoff.calculateExpiry;
 @NotNullByDefault
 abstract class JdbcDatabase implements Database<Connection> {
 
-	private static final int SCHEMA_VERSION = 30;
-	private static final int MIN_SCHEMA_VERSION = 30;
+	private static final int SCHEMA_VERSION = 35;
+	// Older code doesn't maintain the tables added by versions 31 to 35, so
+	// it mustn't open a database written by this code
+	private static final int MIN_SCHEMA_VERSION = 35;
+	// The oldest schema version that can be migrated to this version
+	private static final int MIN_MIGRATABLE_SCHEMA_VERSION = 30;
 
 	private static final String CREATE_SETTINGS =
 			"CREATE TABLE settings"
@@ -232,6 +243,85 @@ abstract class JdbcDatabase implements Database<Connection> {
 					+ " REFERENCES transports (transportId)"
 					+ " ON DELETE CASCADE)";
 
+	private static final String CREATE_VERIFIED_MESSAGES =
+			"CREATE TABLE verifiedMessages"
+					+ " (messageId HASH NOT NULL," // Not a foreign key
+					+ " groupId HASH NOT NULL,"
+					+ " PRIMARY KEY (messageId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
+	private static final String CREATE_GROUP_COUNTS =
+			"CREATE TABLE groupCounts"
+					+ " (groupId HASH NOT NULL,"
+					+ " msgCount INT NOT NULL,"
+					+ " unreadCount INT NOT NULL,"
+					+ " latestMsgTime BIGINT NOT NULL,"
+					+ " PRIMARY KEY (groupId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE,"
+					+ " CHECK (unreadCount >= 0))";
+
+	private static final String CREATE_GROUP_MEMBERS =
+			"CREATE TABLE groupMembers"
+					+ " (groupId HASH NOT NULL,"
+					+ " authorId HASH NOT NULL,"
+					+ " visibility INT NOT NULL,"
+					+ " name VARCHAR NOT NULL,"
+					+ " publicKey BINARY NOT NULL,"
+					+ " PRIMARY KEY (groupId, authorId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
+	private static final String CREATE_SESSIONS =
+			"CREATE TABLE sessions"
+					+ " (groupId HASH NOT NULL,"
+					+ " sessionId HASH NOT NULL,"
+					+ " session BINARY NOT NULL,"
+					+ " PRIMARY KEY (groupId, sessionId),"
+					+ " FOREIGN KEY (groupId)"
+					+ " REFERENCES groups (groupId)"
+					+ " ON DELETE CASCADE)";
+
+	private static final String INDEX_CONTACTS_BY_AUTHOR_ID =
+			"CREATE INDEX IF NOT EXISTS contactsByAuthorId"
+					+ " ON contacts (authorId)";
+
+	private static final String INDEX_GROUPS_BY_CLIENT_ID =
+			"CREATE INDEX IF NOT EXISTS groupsByClientId"
+					+ " ON groups (clientId)";
+
+	private static final String INDEX_GROUP_VISIBILITIES_BY_GROUP_ID =
+			"CREATE INDEX IF NOT EXISTS groupVisibilitiesByGroupId"
+					+ " ON groupVisibilities (groupId)";
+
+	private static final String INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP =
+			"CREATE INDEX IF NOT EXISTS messagesByGroupIdStateTimestamp"
+					+ " ON messages (groupId, state, timestamp)";
+
+	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_MESSAGE_ID =
+			"CREATE INDEX IF NOT EXISTS messageDependenciesByMessageId"
+					+ " ON messageDependencies (messageId)";
+
+	private static final String INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID =
+			"CREATE INDEX IF NOT EXISTS messageDependenciesByDependencyId"
+					+ " ON messageDependencies (dependencyId)";
+
+	private static final String INDEX_OFFERS_BY_CONTACT_ID =
+			"CREATE INDEX IF NOT EXISTS offersByContactId"
+					+ " ON offers (contactId)";
+
+	private static final String INDEX_STATUSES_BY_CONTACT_ID_ACK =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdAck"
+					+ " ON statuses (contactId, ack)";
+
+	private static final String INDEX_STATUSES_BY_CONTACT_ID_SEEN_EXPIRY =
+			"CREATE INDEX IF NOT EXISTS statusesByContactIdSeenExpiry"
+					+ " ON statuses (contactId, seen, expiry)";
+
 	private static final Logger LOG =
 			Logger.getLogger(JdbcDatabase.class.getName());
 
@@ -272,10 +362,13 @@ abstract class JdbcDatabase implements Database<Connection> {
 		try {
 			if (reopen) {
 				if (!checkSchemaVersion(txn)) throw new DbException();
+				migrateSchema(txn);
 			} else {
 				createTables(txn);
 				storeSchemaVersion(txn);
 			}
+			// Indexes are created if missing, so older databases gain them
+			createIndexes(txn);
 			commitTransaction(txn);
 		} catch (DbException e) {
 			abortTransaction(txn);
@@ -287,11 +380,42 @@ abstract class JdbcDatabase implements Database<Connection> {
 		Settings s = getSettings(txn, DB_SETTINGS_NAMESPACE);
 		int schemaVersion = s.getInt(SCHEMA_VERSION_KEY, -1);
 		if (schemaVersion == SCHEMA_VERSION) return true;
-		if (schemaVersion < MIN_SCHEMA_VERSION) return false;
+		if (schemaVersion < MIN_MIGRATABLE_SCHEMA_VERSION) return false;
 		int minSchemaVersion = s.getInt(MIN_SCHEMA_VERSION_KEY, -1);
 		return SCHEMA_VERSION >= minSchemaVersion;
 	}
 
+	private void migrateSchema(Connection txn) throws DbException {
+		Settings s = getSettings(txn, DB_SETTINGS_NAMESPACE);
+		int schemaVersion = s.getInt(SCHEMA_VERSION_KEY, -1);
+		if (schemaVersion >= SCHEMA_VERSION) return;
+		Statement st = null;
+		try {
+			st = txn.createStatement();
+			// Schema version 31 added the verifiedMessages table and
+			// version 35 linked its rows to groups. The table only saves
+			// work, so it's recreated rather than migrated
+			if (schemaVersion >= 31 && schemaVersion < 35)
+				st.executeUpdate("DROP TABLE verifiedMessages");
+			if (schemaVersion < 35)
+				st.executeUpdate(insertTypeNames(CREATE_VERIFIED_MESSAGES));
+			// Schema version 32 added the groupCounts table
+			if (schemaVersion < 32)
+				st.executeUpdate(insertTypeNames(CREATE_GROUP_COUNTS));
+			// Schema version 33 added the groupMembers table
+			if (schemaVersion < 33)
+				st.executeUpdate(insertTypeNames(CREATE_GROUP_MEMBERS));
+			// Schema version 34 added the sessions table
+			if (schemaVersion < 34)
+				st.executeUpdate(insertTypeNames(CREATE_SESSIONS));
+			st.close();
+		} catch (SQLException e) {
+			tryToClose(st);
+			throw new DbException(e);
+		}
+		storeSchemaVersion(txn);
+	}
+
 	private void storeSchemaVersion(Connection txn) throws DbException {
 		Settings s = new Settings();
 		s.putInt(SCHEMA_VERSION_KEY, SCHEMA_VERSION);
@@ -333,6 +457,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 			s.executeUpdate(insertTypeNames(CREATE_TRANSPORTS));
 			s.executeUpdate(insertTypeNames(CREATE_INCOMING_KEYS));
 			s.executeUpdate(insertTypeNames(CREATE_OUTGOING_KEYS));
+			s.executeUpdate(insertTypeNames(CREATE_VERIFIED_MESSAGES));
+			s.executeUpdate(insertTypeNames(CREATE_GROUP_COUNTS));
+			s.executeUpdate(insertTypeNames(CREATE_GROUP_MEMBERS));
+			s.executeUpdate(insertTypeNames(CREATE_SESSIONS));
+			s.close();
+		} catch (SQLException e) {
+			tryToClose(s);
+			throw new DbException(e);
+		}
+	}
+
+	private void createIndexes(Connection txn) throws DbException {
+		Statement s = null;
+		try {
+			s = txn.createStatement();
+			s.executeUpdate(INDEX_CONTACTS_BY_AUTHOR_ID);
+			s.executeUpdate(INDEX_GROUPS_BY_CLIENT_ID);
+			s.executeUpdate(INDEX_GROUP_VISIBILITIES_BY_GROUP_ID);
+			s.executeUpdate(INDEX_MESSAGES_BY_GROUP_ID_STATE_TIMESTAMP);
+			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_MESSAGE_ID);
+			s.executeUpdate(INDEX_MESSAGE_DEPENDENCIES_BY_DEPENDENCY_ID);
+			s.executeUpdate(INDEX_OFFERS_BY_CONTACT_ID);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_ACK);
+			s.executeUpdate(INDEX_STATUSES_BY_CONTACT_ID_SEEN_EXPIRY);
 			s.close();
 		} catch (SQLException e) {
 			tryToClose(s);
@@ -501,6 +649,38 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			// Start counting messages in the new group from zero
+			sql = "INSERT INTO groupCounts"
+					+ " (groupId, msgCount, unreadCount, latestMsgTime)"
+					+ " VALUES (?, 0, 0, 0)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getId().getBytes());
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public void addGroupMember(Connection txn, GroupId g, Author a,
+			int visibility) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO groupMembers"
+					+ " (groupId, authorId, visibility, name, publicKey)"
+					+ " VALUES (?, ?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, a.getId().getBytes());
+			ps.setInt(3, visibility);
+			ps.setString(4, a.getName());
+			ps.setBytes(5, a.getPublicKey());
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -732,6 +912,25 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void addVerifiedMessage(Connection txn, GroupId g, MessageId m)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "INSERT INTO verifiedMessages (messageId, groupId)"
+					+ " VALUES (?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			ps.setBytes(2, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean containsContact(Connection txn, AuthorId remote,
 			AuthorId local) throws DbException {
@@ -800,6 +999,30 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean containsGroupMember(Connection txn, GroupId g, AuthorId a)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT NULL FROM groupMembers"
+					+ " WHERE groupId = ? AND authorId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, a.getBytes());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return found;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean containsLocalAuthor(Connection txn, AuthorId a)
 			throws DbException {
@@ -866,6 +1089,29 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean containsVerifiedMessage(Connection txn, MessageId m)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT NULL FROM verifiedMessages"
+					+ " WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			rs = ps.executeQuery();
+			boolean found = rs.next();
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return found;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public boolean containsVisibleMessage(Connection txn, ContactId c,
 			MessageId m) throws DbException {
@@ -929,6 +1175,7 @@ abstract class JdbcDatabase implements Database<Connection> {
 			if (affected < 0) throw new DbStateException();
 			if (affected > 1) throw new DbStateException();
 			ps.close();
+			removeVerifiedMessage(txn, m);
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -1074,6 +1321,49 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<Contact> getContactsByAuthorIds(Connection txn,
+			Collection<AuthorId> remote) throws DbException {
+		if (remote.isEmpty()) return Collections.emptyList();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT contactId, authorId,")
+					.append(" name, publicKey, localAuthorId, verified, active")
+					.append(" FROM contacts")
+					.append(" WHERE authorId IN (");
+			for (int i = 0; i < remote.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append('?');
+			}
+			sql.append(')');
+			ps = txn.prepareStatement(sql.toString());
+			int index = 1;
+			for (AuthorId a : remote) ps.setBytes(index++, a.getBytes());
+			rs = ps.executeQuery();
+			List<Contact> contacts = new ArrayList<Contact>();
+			while (rs.next()) {
+				ContactId c = new ContactId(rs.getInt(1));
+				AuthorId authorId = new AuthorId(rs.getBytes(2));
+				String name = rs.getString(3);
+				byte[] publicKey = rs.getBytes(4);
+				AuthorId localAuthorId = new AuthorId(rs.getBytes(5));
+				boolean verified = rs.getBoolean(6);
+				boolean active = rs.getBoolean(7);
+				Author author = new Author(authorId, name, publicKey);
+				contacts.add(new Contact(c, author, localAuthorId, verified,
+						active));
+			}
+			rs.close();
+			ps.close();
+			return contacts;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Group getGroup(Connection txn, GroupId g) throws DbException {
 		PreparedStatement ps = null;
@@ -1173,6 +1463,29 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Collection<ContactId> getSharedWith(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId FROM groupVisibilities"
+					+ " WHERE groupId = ? AND shared = TRUE";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			List<ContactId> shared = new ArrayList<ContactId>();
+			while (rs.next()) shared.add(new ContactId(rs.getInt(1)));
+			rs.close();
+			ps.close();
+			return shared;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public LocalAuthor getLocalAuthor(Connection txn, AuthorId a)
 			throws DbException {
@@ -1279,39 +1592,398 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
-			Metadata query) throws DbException {
-		// If there are no query terms, return all delivered messages
-		if (query.isEmpty()) return getMessageIds(txn, g, DELIVERED);
+	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
+			Metadata query) throws DbException {
+		return getMessageIds(txn, g, new MetadataQuery(query));
+	}
+
+	@Override
+	public Collection<MessageId> getMessageIds(Connection txn, GroupId g,
+			MetadataQuery query) throws DbException {
+		// If there are no query terms, return all delivered messages
+		if (query.isEmpty()) return getMessageIds(txn, g, DELIVERED);
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT messageId FROM messages AS m"
+					+ " WHERE state = ? AND groupId = ?"
+					+ getQueryTerms(query);
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setBytes(2, g.getBytes());
+			setQueryTerms(ps, 3, query);
+			rs = ps.executeQuery();
+			List<MessageId> ids = new ArrayList<MessageId>();
+			while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
+			rs.close();
+			ps.close();
+			return ids;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Nullable
+	@Override
+	public MessageCounts getMessageCounts(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT msgCount, unreadCount, latestMsgTime"
+					+ " FROM groupCounts WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			MessageCounts counts = null;
+			if (rs.next()) {
+				counts = new MessageCounts(rs.getInt(1), rs.getInt(2),
+						rs.getLong(3));
+			}
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return counts;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<GroupId, MessageCounts> getMessageCounts(Connection txn,
+			Collection<GroupId> groups) throws DbException {
+		if (groups.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT groupId, msgCount,")
+					.append(" unreadCount, latestMsgTime FROM groupCounts")
+					.append(" WHERE groupId IN (");
+			for (int i = 0; i < groups.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append('?');
+			}
+			sql.append(')');
+			ps = txn.prepareStatement(sql.toString());
+			int index = 1;
+			for (GroupId g : groups) ps.setBytes(index++, g.getBytes());
+			rs = ps.executeQuery();
+			Map<GroupId, MessageCounts> counts =
+					new HashMap<GroupId, MessageCounts>();
+			while (rs.next()) {
+				counts.put(new GroupId(rs.getBytes(1)), new MessageCounts(
+						rs.getInt(2), rs.getInt(3), rs.getLong(4)));
+			}
+			rs.close();
+			ps.close();
+			return counts;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g) throws DbException {
+		return getMessageMetadata(txn, g, new MetadataQuery());
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, Metadata query) throws DbException {
+		return getMessageMetadata(txn, g, new MetadataQuery(query));
+	}
+
+	@Override
+	public Map<ContactId, Map<MessageId, Metadata>> getContactMessageMetadata(
+			Connection txn, ClientId c, Metadata query) throws DbException {
+		MetadataQuery q = new MetadataQuery(query);
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT contactId, m.messageId, key, value"
+					+ " FROM messages AS m"
+					+ " JOIN groups AS g"
+					+ " ON m.groupId = g.groupId"
+					+ " JOIN groupVisibilities AS gv"
+					+ " ON m.groupId = gv.groupId"
+					+ " JOIN messageMetadata AS md"
+					+ " ON m.messageId = md.messageId"
+					+ " WHERE state = ? AND clientId = ?"
+					+ getQueryTerms(q)
+					+ " ORDER BY contactId, m.messageId";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setString(2, c.getString());
+			setQueryTerms(ps, 3, q);
+			rs = ps.executeQuery();
+			Map<ContactId, Map<MessageId, Metadata>> all =
+					new HashMap<ContactId, Map<MessageId, Metadata>>();
+			Map<MessageId, Metadata> contactMetadata = null;
+			ContactId lastContactId = null;
+			Metadata metadata = null;
+			MessageId lastMessageId = null;
+			while (rs.next()) {
+				ContactId contactId = new ContactId(rs.getInt(1));
+				if (!contactId.equals(lastContactId)) {
+					contactMetadata = new LinkedHashMap<MessageId, Metadata>();
+					all.put(contactId, contactMetadata);
+					lastContactId = contactId;
+					lastMessageId = null;
+				}
+				MessageId messageId = new MessageId(rs.getBytes(2));
+				if (!messageId.equals(lastMessageId)) {
+					metadata = new Metadata();
+					contactMetadata.put(messageId, metadata);
+					lastMessageId = messageId;
+				}
+				metadata.put(rs.getString(3), rs.getBytes(4));
+			}
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, MetadataQuery query) throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT m.messageId, key, value"
+					+ " FROM messages AS m"
+					+ " JOIN messageMetadata AS md"
+					+ " ON m.messageId = md.messageId"
+					+ " WHERE state = ? AND groupId = ?"
+					+ getQueryTerms(query)
+					+ " ORDER BY m.messageId";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setBytes(2, g.getBytes());
+			setQueryTerms(ps, 3, query);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = readMessageMetadata(rs);
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, Set<String> keys) throws DbException {
+		if (keys.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT m.messageId, key,")
+					.append(" value FROM messages AS m")
+					.append(" JOIN messageMetadata AS md")
+					.append(" ON m.messageId = md.messageId")
+					.append(" WHERE state = ? AND groupId = ? AND key IN (");
+			for (int i = 0; i < keys.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append('?');
+			}
+			sql.append(") ORDER BY m.messageId");
+			ps = txn.prepareStatement(sql.toString());
+			ps.setInt(1, DELIVERED.getValue());
+			ps.setBytes(2, g.getBytes());
+			int index = 3;
+			for (String key : keys) ps.setString(index++, key);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = readMessageMetadata(rs);
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
+			GroupId g, MetadataQuery query, long beforeTimestamp, int limit)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			// The oldest timestamp on the page is found by the subquery, so
+			// messages sharing that timestamp are not split between pages
+			String terms = getQueryTerms(query);
+			String sql = "SELECT m.messageId, key, value"
+					+ " FROM messages AS m"
+					+ " JOIN messageMetadata AS md"
+					+ " ON m.messageId = md.messageId"
+					+ " WHERE state = ? AND groupId = ? AND timestamp < ?"
+					+ terms
+					+ " AND timestamp >= (SELECT MIN(timestamp) FROM"
+					+ " (SELECT timestamp FROM messages AS m"
+					+ " WHERE state = ? AND groupId = ? AND timestamp < ?"
+					+ terms
+					+ " ORDER BY timestamp DESC LIMIT ?))"
+					+ " ORDER BY timestamp DESC, m.messageId";
+			ps = txn.prepareStatement(sql);
+			int index = 1;
+			for (int i = 0; i < 2; i++) {
+				ps.setInt(index++, DELIVERED.getValue());
+				ps.setBytes(index++, g.getBytes());
+				ps.setLong(index++, beforeTimestamp);
+				index = setQueryTerms(ps, index, query);
+			}
+			ps.setInt(index, limit);
+			rs = ps.executeQuery();
+			Map<MessageId, Metadata> all = readMessageMetadata(rs);
+			rs.close();
+			ps.close();
+			return all;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	/**
+	 * Returns SQL conditions that restrict the messages aliased as m to those
+	 * with metadata matching the given query. Each key in the query becomes
+	 * a semi-join against the primary key of the metadata table, so the
+	 * whole query runs as a single statement.
+	 */
+	private String getQueryTerms(MetadataQuery query) {
+		StringBuilder sb = new StringBuilder();
+		for (String key : query.getKeys()) {
+			Term t = query.getTerm(key);
+			sb.append(" AND EXISTS (SELECT NULL FROM messageMetadata")
+					.append(" WHERE messageId = m.messageId AND key = ?")
+					.append(" AND (");
+			boolean first = true;
+			if (!t.getValues().isEmpty()) {
+				sb.append("value IN (");
+				for (int i = 0; i < t.getValues().size(); i++) {
+					if (i > 0) sb.append(", ");
+					sb.append('?');
+				}
+				sb.append(')');
+				first = false;
+			}
+			// Binary values are compared in hex so the comparison is unsigned
+			for (int i = 0; i < t.getRanges().size(); i++) {
+				if (!first) sb.append(" OR ");
+				sb.append("(LENGTH(CAST(value AS VARCHAR)) = ?")
+						.append(" AND UPPER(CAST(value AS VARCHAR))")
+						.append(" BETWEEN ? AND ?)");
+				first = false;
+			}
+			sb.append("))");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Sets the parameters for the conditions returned by
+	 * {@link #getQueryTerms(MetadataQuery)}, starting at the given index,
+	 * and returns the index of the next parameter.
+	 */
+	private int setQueryTerms(PreparedStatement ps, int index,
+			MetadataQuery query) throws SQLException {
+		for (String key : query.getKeys()) {
+			Term t = query.getTerm(key);
+			ps.setString(index++, key);
+			for (byte[] value : t.getValues()) ps.setBytes(index++, value);
+			for (Range r : t.getRanges()) {
+				ps.setInt(index++, r.getMin().length * 2);
+				ps.setString(index++, StringUtils.toHexString(r.getMin()));
+				ps.setString(index++, StringUtils.toHexString(r.getMax()));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Reads message IDs and metadata from a result set in which the rows
+	 * for each message are adjacent, preserving the order of the messages.
+	 */
+	private Map<MessageId, Metadata> readMessageMetadata(ResultSet rs)
+			throws SQLException {
+		Map<MessageId, Metadata> all = new LinkedHashMap<MessageId, Metadata>();
+		Metadata metadata = null;
+		MessageId lastMessageId = null;
+		while (rs.next()) {
+			MessageId messageId = new MessageId(rs.getBytes(1));
+			if (lastMessageId == null || !messageId.equals(lastMessageId)) {
+				metadata = new Metadata();
+				all.put(messageId, metadata);
+				lastMessageId = messageId;
+			}
+			metadata.put(rs.getString(2), rs.getBytes(3));
+		}
+		return all;
+	}
+
+	@Override
+	public Metadata getGroupMetadata(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT key, value FROM groupMetadata"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			Metadata metadata = new Metadata();
+			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
+			rs.close();
+			ps.close();
+			return metadata;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Map<Author, Integer> getGroupMembers(Connection txn, GroupId g)
+			throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			// Retrieve the message IDs for each query term and intersect
-			Set<MessageId> intersection = null;
-			String sql = "SELECT m.messageId"
-					+ " FROM messages AS m"
-					+ " JOIN messageMetadata AS md"
-					+ " ON m.messageId = md.messageId"
-					+ " WHERE state = ? AND groupId = ?"
-					+ " AND key = ? AND value = ?";
-			for (Entry<String, byte[]> e : query.entrySet()) {
-				ps = txn.prepareStatement(sql);
-				ps.setInt(1, DELIVERED.getValue());
-				ps.setBytes(2, g.getBytes());
-				ps.setString(3, e.getKey());
-				ps.setBytes(4, e.getValue());
-				rs = ps.executeQuery();
-				Set<MessageId> ids = new HashSet<MessageId>();
-				while (rs.next()) ids.add(new MessageId(rs.getBytes(1)));
-				rs.close();
-				ps.close();
-				if (intersection == null) intersection = ids;
-				else intersection.retainAll(ids);
-				// Return early if there are no matches
-				if (intersection.isEmpty()) return Collections.emptySet();
+			String sql = "SELECT authorId, name, publicKey, visibility"
+					+ " FROM groupMembers"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			Map<Author, Integer> members = new HashMap<Author, Integer>();
+			while (rs.next()) {
+				AuthorId authorId = new AuthorId(rs.getBytes(1));
+				String name = rs.getString(2);
+				byte[] publicKey = rs.getBytes(3);
+				members.put(new Author(authorId, name, publicKey),
+						rs.getInt(4));
 			}
-			if (intersection == null) throw new AssertionError();
-			return intersection;
+			rs.close();
+			ps.close();
+			return members;
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -1320,36 +1992,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
-			GroupId g) throws DbException {
+	public int getGroupMemberVisibility(Connection txn, GroupId g, AuthorId a)
+			throws DbException {
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT m.messageId, key, value"
-					+ " FROM messages AS m"
-					+ " JOIN messageMetadata AS md"
-					+ " ON m.messageId = md.messageId"
-					+ " WHERE state = ? AND groupId = ?"
-					+ " ORDER BY m.messageId";
+			String sql = "SELECT visibility FROM groupMembers"
+					+ " WHERE groupId = ? AND authorId = ?";
 			ps = txn.prepareStatement(sql);
-			ps.setInt(1, DELIVERED.getValue());
-			ps.setBytes(2, g.getBytes());
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, a.getBytes());
 			rs = ps.executeQuery();
-			Map<MessageId, Metadata> all = new HashMap<MessageId, Metadata>();
-			Metadata metadata = null;
-			MessageId lastMessageId = null;
-			while (rs.next()) {
-				MessageId messageId = new MessageId(rs.getBytes(1));
-				if (lastMessageId == null || !messageId.equals(lastMessageId)) {
-					metadata = new Metadata();
-					all.put(messageId, metadata);
-					lastMessageId = messageId;
-				}
-				metadata.put(rs.getString(2), rs.getBytes(3));
-			}
+			if (!rs.next()) throw new DbStateException();
+			int visibility = rs.getInt(1);
+			if (rs.next()) throw new DbStateException();
 			rs.close();
 			ps.close();
-			return all;
+			return visibility;
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -1358,34 +2017,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 	}
 
 	@Override
-	public Map<MessageId, Metadata> getMessageMetadata(Connection txn,
-			GroupId g, Metadata query) throws DbException {
-		// Retrieve the matching message IDs
-		Collection<MessageId> matches = getMessageIds(txn, g, query);
-		if (matches.isEmpty()) return Collections.emptyMap();
-		// Retrieve the metadata for each match
-		Map<MessageId, Metadata> all = new HashMap<MessageId, Metadata>(
-				matches.size());
-		for (MessageId m : matches) all.put(m, getMessageMetadata(txn, m));
-		return all;
-	}
-
-	@Override
-	public Metadata getGroupMetadata(Connection txn, GroupId g)
-			throws DbException {
+	public Map<AuthorId, Integer> getGroupMemberVisibilities(Connection txn,
+			GroupId g, Collection<AuthorId> authors) throws DbException {
+		if (authors.isEmpty()) return Collections.emptyMap();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT key, value FROM groupMetadata"
-					+ " WHERE groupId = ?";
-			ps = txn.prepareStatement(sql);
+			StringBuilder sql = new StringBuilder("SELECT authorId,")
+					.append(" visibility FROM groupMembers")
+					.append(" WHERE groupId = ? AND authorId IN (");
+			for (int i = 0; i < authors.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append('?');
+			}
+			sql.append(')');
+			ps = txn.prepareStatement(sql.toString());
 			ps.setBytes(1, g.getBytes());
+			int index = 2;
+			for (AuthorId a : authors) ps.setBytes(index++, a.getBytes());
 			rs = ps.executeQuery();
-			Metadata metadata = new Metadata();
-			while (rs.next()) metadata.put(rs.getString(1), rs.getBytes(2));
+			Map<AuthorId, Integer> visibilities =
+					new HashMap<AuthorId, Integer>();
+			while (rs.next())
+				visibilities.put(new AuthorId(rs.getBytes(1)), rs.getInt(2));
 			rs.close();
 			ps.close();
-			return metadata;
+			return visibilities;
 		} catch (SQLException e) {
 			tryToClose(rs);
 			tryToClose(ps);
@@ -1508,6 +2165,45 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public Map<MessageId, MessageStatus> getMessageStatus(Connection txn,
+			ContactId c, Collection<MessageId> messages) throws DbException {
+		if (messages.isEmpty()) return Collections.emptyMap();
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			StringBuilder sql = new StringBuilder("SELECT messageId,")
+					.append(" txCount > 0, seen FROM statuses")
+					.append(" WHERE contactId = ? AND messageId IN (");
+			for (int i = 0; i < messages.size(); i++) {
+				if (i > 0) sql.append(", ");
+				sql.append('?');
+			}
+			sql.append(')');
+			ps = txn.prepareStatement(sql.toString());
+			ps.setInt(1, c.getInt());
+			int index = 2;
+			for (MessageId m : messages) ps.setBytes(index++, m.getBytes());
+			rs = ps.executeQuery();
+			Map<MessageId, MessageStatus> statuses =
+					new HashMap<MessageId, MessageStatus>();
+			while (rs.next()) {
+				MessageId messageId = new MessageId(rs.getBytes(1));
+				boolean sent = rs.getBoolean(2);
+				boolean seen = rs.getBoolean(3);
+				statuses.put(messageId,
+						new MessageStatus(messageId, c, sent, seen));
+			}
+			rs.close();
+			ps.close();
+			return statuses;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Map<MessageId, State> getMessageDependencies(Connection txn,
 			MessageId m) throws DbException {
@@ -1857,6 +2553,54 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Nullable
+	@Override
+	public byte[] getSession(Connection txn, GroupId g, UniqueId sessionId)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT session FROM sessions"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, sessionId.getBytes());
+			rs = ps.executeQuery();
+			byte[] session = null;
+			if (rs.next()) session = rs.getBytes(1);
+			if (rs.next()) throw new DbStateException();
+			rs.close();
+			ps.close();
+			return session;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	@Override
+	public Collection<byte[]> getSessions(Connection txn, GroupId g)
+			throws DbException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			String sql = "SELECT session FROM sessions WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			rs = ps.executeQuery();
+			List<byte[]> sessions = new ArrayList<byte[]>();
+			while (rs.next()) sessions.add(rs.getBytes(1));
+			rs.close();
+			ps.close();
+			return sessions;
+		} catch (SQLException e) {
+			tryToClose(rs);
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public Settings getSettings(Connection txn, String namespace)
 			throws DbException {
@@ -1941,6 +2685,32 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public boolean incrementMessageCounts(Connection txn, GroupId g,
+			int msgCount, int unreadCount, long latestMsgTime)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE groupCounts"
+					+ " SET msgCount = msgCount + ?,"
+					+ " unreadCount = unreadCount + ?,"
+					+ " latestMsgTime = GREATEST(latestMsgTime, ?)"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, msgCount);
+			ps.setInt(2, unreadCount);
+			ps.setLong(3, latestMsgTime);
+			ps.setBytes(4, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			return affected == 1;
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void incrementStreamCounter(Connection txn, ContactId c,
 			TransportId t, long rotationPeriod) throws DbException {
@@ -2285,6 +3055,23 @@ abstract class JdbcDatabase implements Database<Connection> {
 			int affected = ps.executeUpdate();
 			if (affected != 1) throw new DbStateException();
 			ps.close();
+			removeVerifiedMessage(txn, m);
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
+	private void removeVerifiedMessage(Connection txn, MessageId m)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "DELETE FROM verifiedMessages WHERE messageId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, m.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
@@ -2336,6 +3123,25 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void removeSession(Connection txn, GroupId g, UniqueId sessionId)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "DELETE FROM sessions"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, sessionId.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void removeStatus(Connection txn, ContactId c, MessageId m)
 			throws DbException {
@@ -2427,6 +3233,26 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void setGroupMemberVisibility(Connection txn, GroupId g, AuthorId a,
+			int visibility) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			String sql = "UPDATE groupMembers SET visibility = ?"
+					+ " WHERE groupId = ? AND authorId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, visibility);
+			ps.setBytes(2, g.getBytes());
+			ps.setBytes(3, a.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void setGroupVisibility(Connection txn, ContactId c, GroupId g,
 			boolean shared) throws DbException {
@@ -2447,6 +3273,42 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void setMessageCounts(Connection txn, GroupId g, MessageCounts c)
+			throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Update the counts if they already exist
+			String sql = "UPDATE groupCounts SET msgCount = ?,"
+					+ " unreadCount = ?, latestMsgTime = ?"
+					+ " WHERE groupId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setInt(1, c.getMsgCount());
+			ps.setInt(2, c.getUnreadCount());
+			ps.setLong(3, c.getLatestMsgTime());
+			ps.setBytes(4, g.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			if (affected == 1) return;
+			// Insert the counts if they don't already exist
+			sql = "INSERT INTO groupCounts"
+					+ " (groupId, msgCount, unreadCount, latestMsgTime)"
+					+ " VALUES (?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setInt(2, c.getMsgCount());
+			ps.setInt(3, c.getUnreadCount());
+			ps.setLong(4, c.getLatestMsgTime());
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void setMessageShared(Connection txn, MessageId m) throws DbException {
 		PreparedStatement ps = null;
@@ -2504,6 +3366,38 @@ abstract class JdbcDatabase implements Database<Connection> {
 		}
 	}
 
+	@Override
+	public void setSession(Connection txn, GroupId g, UniqueId sessionId,
+			byte[] session) throws DbException {
+		PreparedStatement ps = null;
+		try {
+			// Update the session if it already exists
+			String sql = "UPDATE sessions SET session = ?"
+					+ " WHERE groupId = ? AND sessionId = ?";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, session);
+			ps.setBytes(2, g.getBytes());
+			ps.setBytes(3, sessionId.getBytes());
+			int affected = ps.executeUpdate();
+			if (affected < 0 || affected > 1) throw new DbStateException();
+			ps.close();
+			if (affected == 1) return;
+			// Insert the session if it doesn't already exist
+			sql = "INSERT INTO sessions (groupId, sessionId, session)"
+					+ " VALUES (?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			ps.setBytes(1, g.getBytes());
+			ps.setBytes(2, sessionId.getBytes());
+			ps.setBytes(3, session);
+			affected = ps.executeUpdate();
+			if (affected != 1) throw new DbStateException();
+			ps.close();
+		} catch (SQLException e) {
+			tryToClose(ps);
+			throw new DbException(e);
+		}
+	}
+
 	@Override
 	public void updateExpiryTime(Connection txn, ContactId c, MessageId m,
 			int maxLatency) throws DbException {
@@ -2541,43 +3435,125 @@ abstract class JdbcDatabase implements Database<Connection> {
 	@Override
 	public void updateTransportKeys(Connection txn,
 			Map<ContactId, TransportKeys> keys) throws DbException {
+		if (keys.isEmpty()) return;
 		PreparedStatement ps = null;
 		try {
-			// Delete any existing incoming keys
+			// Delete any incoming keys that have been replaced
 			String sql = "DELETE FROM incomingKeys"
-					+ " WHERE contactId = ?"
-					+ " AND transportId = ?";
+					+ " WHERE contactId = ? AND transportId = ?"
+					+ " AND period NOT IN (?, ?, ?)";
 			ps = txn.prepareStatement(sql);
 			for (Entry<ContactId, TransportKeys> e : keys.entrySet()) {
+				TransportKeys k = e.getValue();
 				ps.setInt(1, e.getKey().getInt());
-				ps.setString(2, e.getValue().getTransportId().getString());
+				ps.setString(2, k.getTransportId().getString());
+				ps.setLong(3, k.getPreviousIncomingKeys().getRotationPeriod());
+				ps.setLong(4, k.getCurrentIncomingKeys().getRotationPeriod());
+				ps.setLong(5, k.getNextIncomingKeys().getRotationPeriod());
 				ps.addBatch();
 			}
 			int[] batchAffected = ps.executeBatch();
 			if (batchAffected.length != keys.size())
 				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows < 0) throw new DbStateException();
+				if (rows > 3) throw new DbStateException();
+			}
 			ps.close();
-			// Delete any existing outgoing keys
-			sql = "DELETE FROM outgoingKeys"
-					+ " WHERE contactId = ?"
-					+ " AND transportId = ?";
+			// Insert any incoming keys that don't already exist. Existing
+			// rows are unchanged, as their reordering windows are kept up to
+			// date by setReorderingWindow()
+			sql = "INSERT INTO incomingKeys (contactId, transportId, period,"
+					+ " tagKey, headerKey, base, bitmap)"
+					+ " SELECT ?, ?, ?, ?, ?, ?, ?"
+					+ " WHERE NOT EXISTS (SELECT NULL FROM incomingKeys"
+					+ " WHERE contactId = ? AND transportId = ?"
+					+ " AND period = ?)";
 			ps = txn.prepareStatement(sql);
 			for (Entry<ContactId, TransportKeys> e : keys.entrySet()) {
-				ps.setInt(1, e.getKey().getInt());
-				ps.setString(2, e.getValue().getTransportId().getString());
+				ContactId c = e.getKey();
+				TransportKeys k = e.getValue();
+				TransportId t = k.getTransportId();
+				addIncomingKeysToBatch(ps, c, t, k.getPreviousIncomingKeys());
+				addIncomingKeysToBatch(ps, c, t, k.getCurrentIncomingKeys());
+				addIncomingKeysToBatch(ps, c, t, k.getNextIncomingKeys());
+			}
+			batchAffected = ps.executeBatch();
+			if (batchAffected.length != keys.size() * 3)
+				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows < 0) throw new DbStateException();
+				if (rows > 1) throw new DbStateException();
+			}
+			ps.close();
+			// Update any outgoing keys that already exist
+			sql = "UPDATE outgoingKeys"
+					+ " SET period = ?, tagKey = ?, headerKey = ?, stream = ?"
+					+ " WHERE contactId = ? AND transportId = ?";
+			ps = txn.prepareStatement(sql);
+			for (Entry<ContactId, TransportKeys> e : keys.entrySet()) {
+				TransportKeys k = e.getValue();
+				OutgoingKeys outCurr = k.getCurrentOutgoingKeys();
+				ps.setLong(1, outCurr.getRotationPeriod());
+				ps.setBytes(2, outCurr.getTagKey().getBytes());
+				ps.setBytes(3, outCurr.getHeaderKey().getBytes());
+				ps.setLong(4, outCurr.getStreamCounter());
+				ps.setInt(5, e.getKey().getInt());
+				ps.setString(6, k.getTransportId().getString());
 				ps.addBatch();
 			}
 			batchAffected = ps.executeBatch();
 			if (batchAffected.length != keys.size())
 				throw new DbStateException();
+			for (int rows : batchAffected) {
+				if (rows < 0) throw new DbStateException();
+				if (rows > 1) throw new DbStateException();
+			}
+			ps.close();
+			// Insert any outgoing keys that don't already exist
+			sql = "INSERT INTO outgoingKeys (contactId, transportId, period,"
+					+ " tagKey, headerKey, stream)"
+					+ " VALUES (?, ?, ?, ?, ?, ?)";
+			ps = txn.prepareStatement(sql);
+			int updateIndex = 0, inserted = 0;
+			for (Entry<ContactId, TransportKeys> e : keys.entrySet()) {
+				if (batchAffected[updateIndex] == 0) {
+					TransportKeys k = e.getValue();
+					OutgoingKeys outCurr = k.getCurrentOutgoingKeys();
+					ps.setInt(1, e.getKey().getInt());
+					ps.setString(2, k.getTransportId().getString());
+					ps.setLong(3, outCurr.getRotationPeriod());
+					ps.setBytes(4, outCurr.getTagKey().getBytes());
+					ps.setBytes(5, outCurr.getHeaderKey().getBytes());
+					ps.setLong(6, outCurr.getStreamCounter());
+					ps.addBatch();
+					inserted++;
+				}
+				updateIndex++;
+			}
+			batchAffected = ps.executeBatch();
+			if (batchAffected.length != inserted) throw new DbStateException();
+			for (int rows : batchAffected)
+				if (rows != 1) throw new DbStateException();
 			ps.close();
 		} catch (SQLException e) {
 			tryToClose(ps);
 			throw new DbException(e);
 		}
-		// Store the new keys
-		for (Entry<ContactId, TransportKeys> e : keys.entrySet()) {
-			addTransportKeys(txn, e.getKey(), e.getValue());
-		}
+	}
+
+	private void addIncomingKeysToBatch(PreparedStatement ps, ContactId c,
+			TransportId t, IncomingKeys in) throws SQLException {
+		ps.setInt(1, c.getInt());
+		ps.setString(2, t.getString());
+		ps.setLong(3, in.getRotationPeriod());
+		ps.setBytes(4, in.getTagKey().getBytes());
+		ps.setBytes(5, in.getHeaderKey().getBytes());
+		ps.setLong(6, in.getWindowBase());
+		ps.setBytes(7, in.getWindowBitmap());
+		ps.setInt(8, c.getInt());
+		ps.setString(9, t.getString());
+		ps.setLong(10, in.getRotationPeriod());
+		ps.addBatch();
 	}
 }
@@ -1,21 +1,31 @@
 package org.briarproject.bramble.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.event.ContactAddedEvent;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventListener;
 import org.briarproject.bramble.api.identity.Author.Status;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
-import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.identity.Author.Status.OURSELVES;
 import static org.briarproject.bramble.api.identity.Author.Status.UNKNOWN;
@@ -24,20 +34,35 @@ import static org.briarproject.bramble.api.identity.Author.Status.VERIFIED;
 
 @ThreadSafe
 @NotNullByDefault
-class IdentityManagerImpl implements IdentityManager {
+class IdentityManagerImpl implements IdentityManager, EventListener {
 
 	private static final Logger LOG =
 			Logger.getLogger(IdentityManagerImpl.class.getName());
 
 	private final DatabaseComponent db;
+	private final Object lock = new Object();
 
 	// The local author is immutable so we can cache it
 	@Nullable
 	private volatile LocalAuthor cachedAuthor;
 
-	@Inject
-	IdentityManagerImpl(DatabaseComponent db) {
+	// Statuses only change when contacts are added, removed or verified.
+	// Locking: lock
+	private final Map<AuthorId, Status> cachedStatuses;
+	// Incremented whenever the cached statuses are invalidated.
+	// Locking: lock
+	private long version = 0;
+
+	IdentityManagerImpl(DatabaseComponent db, final int maxCachedStatuses) {
 		this.db = db;
+		// Iterate in access order so the least recently used status is
+		// evicted
+		cachedStatuses = new LinkedHashMap<AuthorId, Status>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<AuthorId, Status> e) {
+				return size() > maxCachedStatuses;
+			}
+		};
 	}
 
 	@Override
@@ -101,12 +126,76 @@ class IdentityManagerImpl implements IdentityManager {
 	public Status getAuthorStatus(Transaction txn, AuthorId authorId)
 			throws DbException {
 		if (getLocalAuthor(txn).getId().equals(authorId)) return OURSELVES;
-		Collection<Contact> contacts = db.getContactsByAuthorId(txn, authorId);
-		if (contacts.isEmpty()) return UNKNOWN;
-		for (Contact c : contacts) {
-			if (c.isVerified()) return VERIFIED;
+		Status status;
+		long before;
+		synchronized (lock) {
+			status = cachedStatuses.get(authorId);
+			if (status != null) return status;
+			before = version;
+		}
+		status = UNKNOWN;
+		for (Contact c : db.getContactsByAuthorId(txn, authorId)) {
+			if (c.isVerified()) status = VERIFIED;
+			else if (status == UNKNOWN) status = UNVERIFIED;
+		}
+		cacheStatus(txn, authorId, status, before);
+		return status;
+	}
+
+	@Override
+	public Map<AuthorId, Status> getAuthorStatuses(Transaction txn,
+			Collection<AuthorId> authorIds) throws DbException {
+		AuthorId localAuthorId = getLocalAuthor(txn).getId();
+		Map<AuthorId, Status> statuses = new HashMap<AuthorId, Status>();
+		List<AuthorId> uncached = new ArrayList<AuthorId>();
+		long before;
+		synchronized (lock) {
+			for (AuthorId a : authorIds) {
+				Status status = a.equals(localAuthorId) ? OURSELVES :
+						cachedStatuses.get(a);
+				if (status == null) uncached.add(a);
+				else statuses.put(a, status);
+			}
+			before = version;
+		}
+		if (uncached.isEmpty()) return statuses;
+		Map<AuthorId, Status> loaded = new HashMap<AuthorId, Status>();
+		for (AuthorId a : uncached) loaded.put(a, UNKNOWN);
+		for (Contact c : db.getContactsByAuthorIds(txn, uncached)) {
+			AuthorId a = c.getAuthor().getId();
+			if (c.isVerified()) loaded.put(a, VERIFIED);
+			else if (loaded.get(a) == UNKNOWN) loaded.put(a, UNVERIFIED);
+		}
+		for (Entry<AuthorId, Status> e : loaded.entrySet())
+			cacheStatus(txn, e.getKey(), e.getValue(), before);
+		statuses.putAll(loaded);
+		return statuses;
+	}
+
+	private void cacheStatus(Transaction txn, AuthorId a, Status status,
+			long before) {
+		// A read-write transaction may be changing the contacts, and the
+		// change won't be visible to anyone else if it's aborted
+		if (txn.isReadOnly()) {
+			synchronized (lock) {
+				// A change that committed while we were loading may not be
+				// visible to our transaction, in which case the status may
+				// be stale
+				if (version == before) cachedStatuses.put(a, status);
+			}
+		}
+	}
+
+	@Override
+	public void eventOccurred(Event e) {
+		if (e instanceof ContactAddedEvent ||
+				e instanceof ContactRemovedEvent ||
+				e instanceof ContactVerifiedEvent) {
+			synchronized (lock) {
+				cachedStatuses.clear();
+				version++;
+			}
 		}
-		return UNVERIFIED;
 	}
 
 }
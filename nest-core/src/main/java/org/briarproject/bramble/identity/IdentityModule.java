@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.data.BdfWriterFactory;
 import org.briarproject.bramble.api.data.ObjectReader;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorFactory;
 import org.briarproject.bramble.api.identity.IdentityManager;
@@ -23,6 +24,12 @@ public class IdentityModule {
 		IdentityManager identityManager;
 	}
 
+	/**
+	 * The maximum number of author statuses to remember, so that displaying
+	 * posts doesn't require a database query for each author.
+	 */
+	private static final int MAX_CACHED_STATUSES = 1000;
+
 	@Provides
 	AuthorFactory provideAuthorFactory(CryptoComponent crypto,
 			BdfWriterFactory bdfWriterFactory, Clock clock) {
@@ -31,8 +38,12 @@ public class IdentityModule {
 
 	@Provides
 	@Singleton
-	IdentityManager provideIdentityModule(DatabaseComponent db) {
-		return new IdentityManagerImpl(db);
+	IdentityManager provideIdentityModule(DatabaseComponent db,
+			EventBus eventBus) {
+		IdentityManagerImpl identityManager = new IdentityManagerImpl(db,
+				MAX_CACHED_STATUSES);
+		eventBus.addListener(identityManager);
+		return identityManager;
 	}
 
 	@Provides
@@ -12,10 +12,17 @@ class Data extends Frame {
 	static final int MIN_LENGTH = HEADER_LENGTH + FOOTER_LENGTH;
 	static final int MAX_PAYLOAD_LENGTH = 1024;
 	static final int MAX_LENGTH = MIN_LENGTH + MAX_PAYLOAD_LENGTH;
+	// The largest payload length that can be negotiated in selective mode
+	static final int MAX_EXTENDED_PAYLOAD_LENGTH = 4096;
 
 	Data(byte[] buf) {
+		this(buf, MAX_PAYLOAD_LENGTH);
+	}
+
+	Data(byte[] buf, int maxPayloadLength) {
 		super(buf);
-		if (buf.length < MIN_LENGTH || buf.length > MAX_LENGTH)
+		if (buf.length < MIN_LENGTH
+				|| buf.length > MIN_LENGTH + maxPayloadLength)
 			throw new IllegalArgumentException();
 	}
 
@@ -9,7 +9,7 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotNullByDefault
 abstract class Frame {
 
-	static final byte ACK_FLAG = (byte) 128, FIN_FLAG = 64;
+	static final byte ACK_FLAG = (byte) 128, FIN_FLAG = 64, SACK_FLAG = 32;
 
 	protected final byte[] buf;
 
@@ -0,0 +1,24 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.reliability.ReadHandler;
+
+import java.io.IOException;
+
+/**
+ * The receiving half of a reliability layer, which acknowledges data frames
+ * and delivers them in order. Ack frames are passed to the sending half.
+ */
+@NotNullByDefault
+interface FrameReceiver extends ReadHandler {
+
+	/**
+	 * Waits for the next in-order data frame and returns it.
+	 */
+	Data read() throws IOException, InterruptedException;
+
+	/**
+	 * Wakes any threads waiting to read and causes further reads to fail.
+	 */
+	void invalidate();
+}
@@ -0,0 +1,34 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+
+/**
+ * The sending half of a reliability layer, which transmits data frames and
+ * retransmits them until they're acknowledged.
+ */
+@NotNullByDefault
+interface FrameSender {
+
+	/**
+	 * Returns the maximum payload length of the next data frame.
+	 */
+	int getMaxPayloadLength();
+
+	/**
+	 * Sends the given data frame, waiting for space in the send window.
+	 */
+	void write(Data d) throws IOException, InterruptedException;
+
+	/**
+	 * Waits for all data frames to be acknowledged.
+	 */
+	void flush() throws IOException, InterruptedException;
+
+	/**
+	 * Retransmits any data frames that have timed out and sends a window
+	 * probe if necessary. Called periodically by the reliability layer.
+	 */
+	void tick() throws IOException;
+}
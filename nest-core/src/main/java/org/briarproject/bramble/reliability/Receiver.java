@@ -1,7 +1,6 @@
 package org.briarproject.bramble.reliability;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
-import org.briarproject.bramble.api.reliability.ReadHandler;
 import org.briarproject.bramble.api.system.Clock;
 
 import java.io.IOException;
@@ -19,7 +18,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @ThreadSafe
 @NotNullByDefault
-class Receiver implements ReadHandler {
+class Receiver implements FrameReceiver {
 
 	private static final int READ_TIMEOUT = 5 * 60 * 1000; // Milliseconds
 	private static final int MAX_WINDOW_SIZE = 8 * Data.MAX_PAYLOAD_LENGTH;
@@ -44,7 +43,8 @@ class Receiver implements ReadHandler {
 		dataFrames = new TreeSet<Data>(new SequenceNumberComparator());
 	}
 
-	Data read() throws IOException, InterruptedException {
+	@Override
+	public Data read() throws IOException, InterruptedException {
 		windowLock.lock();
 		try {
 			long now = clock.currentTimeMillis(), end = now + READ_TIMEOUT;
@@ -75,7 +75,8 @@ class Receiver implements ReadHandler {
 		}
 	}
 
-	void invalidate() {
+	@Override
+	public void invalidate() {
 		valid = false;
 		windowLock.lock();
 		try {
@@ -12,13 +12,13 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotNullByDefault
 class ReceiverInputStream extends InputStream {
 
-	private final Receiver receiver;
+	private final FrameReceiver receiver;
 
 	@Nullable
 	private Data data = null;
 	private int offset = 0, length = 0;
 
-	ReceiverInputStream(Receiver receiver) {
+	ReceiverInputStream(FrameReceiver receiver) {
 		this.receiver = receiver;
 	}
 
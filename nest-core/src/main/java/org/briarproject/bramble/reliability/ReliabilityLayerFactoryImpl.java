@@ -28,6 +28,14 @@ class ReliabilityLayerFactoryImpl implements ReliabilityLayerFactory {
 
 	@Override
 	public ReliabilityLayer createReliabilityLayer(WriteHandler writeHandler) {
-		return new ReliabilityLayerImpl(ioExecutor, clock, writeHandler);
+		return new ReliabilityLayerImpl(ioExecutor, clock, writeHandler,
+				false);
+	}
+
+	@Override
+	public ReliabilityLayer createSelectiveReliabilityLayer(
+			WriteHandler writeHandler) {
+		return new ReliabilityLayerImpl(ioExecutor, clock, writeHandler,
+				true);
 	}
 }
@@ -30,29 +30,42 @@ class ReliabilityLayerImpl implements ReliabilityLayer, WriteHandler {
 	private final Clock clock;
 	private final WriteHandler writeHandler;
 	private final BlockingQueue<byte[]> writes;
+	private final FrameSender sender;
+	private final FrameReceiver receiver;
+	private final SlipDecoder decoder;
+	private final ReceiverInputStream inputStream;
+	private final SenderOutputStream outputStream;
 
-	private volatile Receiver receiver = null;
-	private volatile SlipDecoder decoder = null;
-	private volatile ReceiverInputStream inputStream = null;
-	private volatile SenderOutputStream outputStream = null;
 	private volatile boolean running = false;
 
 	ReliabilityLayerImpl(Executor executor, Clock clock,
-			WriteHandler writeHandler) {
+			WriteHandler writeHandler, boolean selective) {
 		this.executor = executor;
 		this.clock = clock;
 		this.writeHandler = writeHandler;
 		writes = new LinkedBlockingQueue<byte[]>();
+		SlipEncoder encoder = new SlipEncoder(this);
+		if (selective) {
+			SelectiveSender s = new SelectiveSender(clock, encoder,
+					Data.MAX_EXTENDED_PAYLOAD_LENGTH);
+			sender = s;
+			receiver = new SelectiveReceiver(clock, s,
+					Data.MAX_EXTENDED_PAYLOAD_LENGTH);
+			int maxLength = Math.max(SelectiveAck.MAX_LENGTH,
+					Data.MIN_LENGTH + Data.MAX_EXTENDED_PAYLOAD_LENGTH);
+			decoder = new SlipDecoder(receiver, maxLength);
+		} else {
+			Sender s = new Sender(clock, encoder);
+			sender = s;
+			receiver = new Receiver(clock, s);
+			decoder = new SlipDecoder(receiver, Data.MAX_LENGTH);
+		}
+		inputStream = new ReceiverInputStream(receiver);
+		outputStream = new SenderOutputStream(sender);
 	}
 
 	@Override
 	public void start() {
-		SlipEncoder encoder = new SlipEncoder(this);
-		final Sender sender = new Sender(clock, encoder);
-		receiver = new Receiver(clock, sender);
-		decoder = new SlipDecoder(receiver, Data.MAX_LENGTH);
-		inputStream = new ReceiverInputStream(receiver);
-		outputStream = new SenderOutputStream(sender);
 		running = true;
 		executor.execute(new Runnable() {
 			@Override
@@ -0,0 +1,75 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.util.ByteUtils;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An ack frame that acknowledges all data frames up to and including its
+ * sequence number, and up to {@link #MAX_BLOCKS} ranges of later data
+ * frames that have been received out of order. The frame also carries the
+ * receiver's window size and the largest payload length it accepts.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class SelectiveAck extends Frame {
+
+	static final int HEADER_LENGTH = 11, FOOTER_LENGTH = 4;
+	static final int BLOCK_LENGTH = 8, MAX_BLOCKS = 4;
+	static final int MIN_LENGTH = HEADER_LENGTH + FOOTER_LENGTH;
+	static final int MAX_LENGTH = MIN_LENGTH + MAX_BLOCKS * BLOCK_LENGTH;
+
+	SelectiveAck(int blocks) {
+		super(new byte[MIN_LENGTH + blocks * BLOCK_LENGTH]);
+		if (blocks < 0 || blocks > MAX_BLOCKS)
+			throw new IllegalArgumentException();
+		buf[0] = Frame.SACK_FLAG;
+	}
+
+	SelectiveAck(byte[] buf) {
+		super(buf);
+		if (!isValidLength(buf.length)) throw new IllegalArgumentException();
+		buf[0] = Frame.SACK_FLAG;
+	}
+
+	static boolean isValidLength(int length) {
+		return length >= MIN_LENGTH && length <= MAX_LENGTH
+				&& (length - MIN_LENGTH) % BLOCK_LENGTH == 0;
+	}
+
+	long getWindowSize() {
+		return ByteUtils.readUint32(buf, 5);
+	}
+
+	void setWindowSize(long windowSize) {
+		ByteUtils.writeUint32(windowSize, buf, 5);
+	}
+
+	int getMaxPayloadLength() {
+		return ByteUtils.readUint16(buf, 9);
+	}
+
+	void setMaxPayloadLength(int maxPayloadLength) {
+		ByteUtils.writeUint16(maxPayloadLength, buf, 9);
+	}
+
+	int getBlockCount() {
+		return (buf.length - MIN_LENGTH) / BLOCK_LENGTH;
+	}
+
+	long getBlockStart(int block) {
+		return ByteUtils.readUint32(buf, HEADER_LENGTH + block * BLOCK_LENGTH);
+	}
+
+	long getBlockEnd(int block) {
+		return ByteUtils.readUint32(buf,
+				HEADER_LENGTH + block * BLOCK_LENGTH + 4);
+	}
+
+	void setBlock(int block, long start, long end) {
+		int offset = HEADER_LENGTH + block * BLOCK_LENGTH;
+		ByteUtils.writeUint32(start, buf, offset);
+		ByteUtils.writeUint32(end, buf, offset + 4);
+	}
+}
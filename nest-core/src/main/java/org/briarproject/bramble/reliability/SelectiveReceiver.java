@@ -0,0 +1,204 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.io.IOException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A receiver that buffers out-of-order data frames in a ring buffer indexed
+ * by sequence number, and acknowledges them with selective acks so the
+ * sender only needs to retransmit the missing frames.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SelectiveReceiver implements FrameReceiver {
+
+	private static final int READ_TIMEOUT = 5 * 60 * 1000; // Milliseconds
+	// Must be a power of two
+	private static final int MAX_BUFFERED_FRAMES = 1024;
+	private static final int WINDOW_SIZE_IN_FRAMES = 64;
+
+	private final Clock clock;
+	private final SelectiveSender sender;
+	private final int maxPayloadLength;
+	private final Lock windowLock = new ReentrantLock();
+	private final Condition dataFrameAvailable = windowLock.newCondition();
+
+	// The following are locking: windowLock
+	private final Data[] dataFrames = new Data[MAX_BUFFERED_FRAMES];
+	private final long[] blocks = new long[SelectiveAck.MAX_BLOCKS * 2];
+	private int windowSize;
+
+	private long finalSequenceNumber = Long.MAX_VALUE;
+	private long nextSequenceNumber = 1;
+	// The highest sequence number up to which all frames have been received
+	private long cumulativeSequenceNumber = 0;
+	private long highestSequenceNumber = 0;
+
+	private volatile boolean valid = true;
+
+	SelectiveReceiver(Clock clock, SelectiveSender sender,
+			int maxPayloadLength) {
+		if (maxPayloadLength < Data.MAX_PAYLOAD_LENGTH
+				|| maxPayloadLength > Data.MAX_EXTENDED_PAYLOAD_LENGTH)
+			throw new IllegalArgumentException();
+		this.clock = clock;
+		this.sender = sender;
+		this.maxPayloadLength = maxPayloadLength;
+		windowSize = WINDOW_SIZE_IN_FRAMES * maxPayloadLength;
+	}
+
+	@Override
+	public Data read() throws IOException, InterruptedException {
+		windowLock.lock();
+		try {
+			long now = clock.currentTimeMillis(), end = now + READ_TIMEOUT;
+			while (now < end && valid) {
+				int i = getIndex(nextSequenceNumber);
+				Data d = dataFrames[i];
+				if (d == null) {
+					// Wait for the next in-order data frame
+					dataFrameAvailable.await(end - now, MILLISECONDS);
+				} else {
+					dataFrames[i] = null;
+					// Update the window
+					windowSize += d.getPayloadLength();
+					nextSequenceNumber++;
+					sendAck();
+					return d;
+				}
+				now = clock.currentTimeMillis();
+			}
+			if (valid) throw new IOException("Read timed out");
+			throw new IOException("Connection closed");
+		} finally {
+			windowLock.unlock();
+		}
+	}
+
+	@Override
+	public void invalidate() {
+		valid = false;
+		windowLock.lock();
+		try {
+			dataFrameAvailable.signalAll();
+		} finally {
+			windowLock.unlock();
+		}
+	}
+
+	@Override
+	public void handleRead(byte[] b) throws IOException {
+		if (!valid) throw new IOException("Connection closed");
+		switch (b[0]) {
+			case 0:
+			case Frame.FIN_FLAG:
+				handleData(b);
+				break;
+			case Frame.SACK_FLAG:
+				sender.handleAck(b);
+				break;
+			default:
+				// Ignore unknown frame type
+		}
+	}
+
+	private void handleData(byte[] b) throws IOException {
+		windowLock.lock();
+		try {
+			if (b.length < Data.MIN_LENGTH
+					|| b.length > Data.MIN_LENGTH + maxPayloadLength) {
+				// Ignore data frame with invalid length
+				return;
+			}
+			Data d = new Data(b, maxPayloadLength);
+			int payloadLength = d.getPayloadLength();
+			if (payloadLength > windowSize) return; // No space in the window
+			if (d.getChecksum() != d.calculateChecksum()) {
+				// Ignore data frame with invalid checksum
+				return;
+			}
+			long sequenceNumber = d.getSequenceNumber();
+			if (sequenceNumber == 0) {
+				// Window probe
+			} else if (sequenceNumber < nextSequenceNumber) {
+				// Duplicate data frame
+			} else if (sequenceNumber - nextSequenceNumber
+					>= MAX_BUFFERED_FRAMES) {
+				// No space in the buffer
+			} else if (sequenceNumber <= finalSequenceNumber) {
+				if (d.isLastFrame()) {
+					finalSequenceNumber = sequenceNumber;
+					// Remove any data frames with higher sequence numbers
+					for (long s = sequenceNumber + 1;
+							s <= highestSequenceNumber; s++) {
+						int i = getIndex(s);
+						Data d1 = dataFrames[i];
+						if (d1 != null) {
+							dataFrames[i] = null;
+							windowSize += d1.getPayloadLength();
+						}
+					}
+					if (highestSequenceNumber > sequenceNumber)
+						highestSequenceNumber = sequenceNumber;
+					if (cumulativeSequenceNumber > sequenceNumber)
+						cumulativeSequenceNumber = sequenceNumber;
+				}
+				int i = getIndex(sequenceNumber);
+				if (dataFrames[i] == null) {
+					dataFrames[i] = d;
+					windowSize -= payloadLength;
+					if (sequenceNumber > highestSequenceNumber)
+						highestSequenceNumber = sequenceNumber;
+					while (cumulativeSequenceNumber < highestSequenceNumber
+							&& dataFrames[getIndex(
+							cumulativeSequenceNumber + 1)] != null) {
+						cumulativeSequenceNumber++;
+					}
+					dataFrameAvailable.signalAll();
+				}
+			}
+			// Acknowledge the data frame even if it's a duplicate
+			sendAck();
+		} finally {
+			windowLock.unlock();
+		}
+	}
+
+	// Locking: windowLock
+	private void sendAck() throws IOException {
+		// Describe the ranges of frames received after the first gap
+		int blockCount = 0;
+		long s = cumulativeSequenceNumber + 2;
+		while (s <= highestSequenceNumber
+				&& blockCount < SelectiveAck.MAX_BLOCKS) {
+			if (dataFrames[getIndex(s)] == null) {
+				s++;
+			} else {
+				long start = s;
+				while (s < highestSequenceNumber
+						&& dataFrames[getIndex(s + 1)] != null) {
+					s++;
+				}
+				blocks[blockCount * 2] = start;
+				blocks[blockCount * 2 + 1] = s;
+				blockCount++;
+				s++;
+			}
+		}
+		sender.sendAck(cumulativeSequenceNumber, windowSize, maxPayloadLength,
+				blocks, blockCount);
+	}
+
+	private int getIndex(long sequenceNumber) {
+		return (int) (sequenceNumber & (MAX_BUFFERED_FRAMES - 1));
+	}
+}
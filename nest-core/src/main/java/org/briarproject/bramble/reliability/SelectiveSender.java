@@ -0,0 +1,338 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.reliability.WriteHandler;
+import org.briarproject.bramble.api.system.Clock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A sender that uses selective acks to retransmit only the data frames
+ * that have been lost. Outstanding frames are kept in a ring buffer indexed
+ * by sequence number. The send window is the smaller of the receiver's
+ * window and a congestion window that grows additively while frames are
+ * acked and shrinks multiplicatively when frames are lost.
+ * <p/>
+ * Serial links deliver frames in order, so a frame is considered lost as
+ * soon as a frame that was transmitted after it has been acked.
+ */
+@ThreadSafe
+@NotNullByDefault
+class SelectiveSender implements FrameSender {
+
+	// All times are in milliseconds
+	private static final int WRITE_TIMEOUT = 5 * 60 * 1000;
+	private static final int MIN_RTO = 1000;
+	private static final int MAX_RTO = 60 * 1000;
+	private static final int INITIAL_RTT = 0;
+	private static final int INITIAL_RTT_VAR = 3 * 1000;
+	// Must be a power of two
+	private static final int MAX_OUTSTANDING_FRAMES = 1024;
+	private static final int MAX_WINDOW_SIZE = 1024 * 1024;
+	private static final int INITIAL_CONGESTION_WINDOW =
+			2 * Data.MAX_PAYLOAD_LENGTH;
+
+	private final Clock clock;
+	private final WriteHandler writeHandler;
+	private final int maxPayloadLength;
+	private final Lock windowLock = new ReentrantLock();
+	private final Condition sendWindowAvailable = windowLock.newCondition();
+
+	// The following are locking: windowLock
+	private final Outstanding[] outstanding =
+			new Outstanding[MAX_OUTSTANDING_FRAMES];
+	// The lowest unacked sequence number and the next unused one
+	private long base = 1, next = 1;
+	private long recoveryPoint = 0;
+	// Counts transmissions, including retransmissions
+	private long transmissions = 0, lastAckedTransmission = 0;
+	private int outstandingBytes = 0;
+	// Every peer accepts the default payload length until it says otherwise
+	private int payloadLength = Data.MAX_PAYLOAD_LENGTH;
+	private int windowSize = Data.MAX_PAYLOAD_LENGTH;
+	private int congestionWindow = INITIAL_CONGESTION_WINDOW;
+	private int slowStartThreshold = MAX_WINDOW_SIZE;
+	private int rtt = INITIAL_RTT, rttVar = INITIAL_RTT_VAR;
+	private int rto = rtt + (rttVar << 2);
+	private long lastWindowUpdateOrProbe = Long.MAX_VALUE;
+	private boolean dataWaiting = false;
+
+	SelectiveSender(Clock clock, WriteHandler writeHandler,
+			int maxPayloadLength) {
+		if (maxPayloadLength < Data.MAX_PAYLOAD_LENGTH
+				|| maxPayloadLength > Data.MAX_EXTENDED_PAYLOAD_LENGTH)
+			throw new IllegalArgumentException();
+		this.clock = clock;
+		this.writeHandler = writeHandler;
+		this.maxPayloadLength = maxPayloadLength;
+	}
+
+	void sendAck(long sequenceNumber, long windowSize, int maxPayloadLength,
+			long[] blocks, int blockCount) throws IOException {
+		SelectiveAck a = new SelectiveAck(blockCount);
+		a.setSequenceNumber(sequenceNumber);
+		a.setWindowSize(windowSize);
+		a.setMaxPayloadLength(maxPayloadLength);
+		for (int i = 0; i < blockCount; i++)
+			a.setBlock(i, blocks[i * 2], blocks[i * 2 + 1]);
+		a.setChecksum(a.calculateChecksum());
+		writeHandler.handleWrite(a.getBuffer());
+	}
+
+	void handleAck(byte[] b) throws IOException {
+		if (!SelectiveAck.isValidLength(b.length)) {
+			// Ignore ack frame with invalid length
+			return;
+		}
+		SelectiveAck a = new SelectiveAck(b);
+		if (a.getChecksum() != a.calculateChecksum()) {
+			// Ignore ack frame with invalid checksum
+			return;
+		}
+		long now = clock.currentTimeMillis();
+		List<Data> fastRetransmit = null;
+		windowLock.lock();
+		try {
+			int ackedFrames = 0, ackedBytes = 0;
+			// Remove the data frames that have been acked cumulatively
+			long acked = Math.min(a.getSequenceNumber(), next - 1);
+			for (; base <= acked; base++) {
+				int i = getIndex(base);
+				Outstanding o = outstanding[i];
+				outstanding[i] = null;
+				if (o != null && !o.acked) {
+					ackedFrames++;
+					ackedBytes += acknowledge(o, now);
+				}
+			}
+			// Mark the data frames that have been acked selectively
+			for (int i = 0; i < a.getBlockCount(); i++) {
+				long start = Math.max(a.getBlockStart(i), base);
+				long end = Math.min(a.getBlockEnd(i), next - 1);
+				for (long s = start; s <= end; s++) {
+					Outstanding o = outstanding[getIndex(s)];
+					if (o != null && !o.acked) {
+						ackedFrames++;
+						ackedBytes += acknowledge(o, now);
+					}
+				}
+			}
+			// Retransmit any data frames that were transmitted before an
+			// acked frame
+			if (ackedFrames > 0) {
+				for (long s = base; s < next; s++) {
+					Outstanding o = outstanding[getIndex(s)];
+					if (o == null || o.acked) continue;
+					if (o.transmission > lastAckedTransmission) continue;
+					o.transmission = ++transmissions;
+					o.lastTransmitted = now;
+					o.retransmitted = true;
+					if (fastRetransmit == null)
+						fastRetransmit = new ArrayList<Data>();
+					fastRetransmit.add(o.data);
+				}
+			}
+			// Update the congestion window
+			if (fastRetransmit != null) {
+				// Multiplicative decrease, at most once per window of frames
+				if (base > recoveryPoint) {
+					slowStartThreshold =
+							Math.max(congestionWindow / 2, 2 * payloadLength);
+					congestionWindow = slowStartThreshold;
+					recoveryPoint = next - 1;
+				}
+			} else if (ackedBytes > 0) {
+				if (congestionWindow < slowStartThreshold) {
+					// Slow start
+					congestionWindow += ackedBytes;
+				} else {
+					// Additive increase, by about one frame per window
+					congestionWindow += Math.max(1, (int) ((long) payloadLength
+							* ackedBytes / congestionWindow));
+				}
+				if (congestionWindow > MAX_WINDOW_SIZE)
+					congestionWindow = MAX_WINDOW_SIZE;
+			}
+			// Use the largest payload length both sides accept
+			if (a.getMaxPayloadLength() >= Data.MAX_PAYLOAD_LENGTH) {
+				payloadLength =
+						Math.min(a.getMaxPayloadLength(), maxPayloadLength);
+			}
+			// Update the window
+			lastWindowUpdateOrProbe = now;
+			int oldWindowSize = windowSize;
+			// Don't accept an unreasonably large window size
+			windowSize = (int) Math.min(a.getWindowSize(), MAX_WINDOW_SIZE);
+			// If space has become available, notify any waiting writers
+			if (windowSize > oldWindowSize || ackedFrames > 0)
+				sendWindowAvailable.signalAll();
+		} finally {
+			windowLock.unlock();
+		}
+		// Fast retransmission
+		if (fastRetransmit != null) {
+			for (Data d : fastRetransmit)
+				writeHandler.handleWrite(d.getBuffer());
+		}
+	}
+
+	@Override
+	public int getMaxPayloadLength() {
+		windowLock.lock();
+		try {
+			return payloadLength;
+		} finally {
+			windowLock.unlock();
+		}
+	}
+
+	@Override
+	public void tick() throws IOException {
+		long now = clock.currentTimeMillis();
+		List<Data> retransmit = null;
+		boolean sendProbe = false;
+		windowLock.lock();
+		try {
+			if (base == next) {
+				if (dataWaiting && now - lastWindowUpdateOrProbe > rto) {
+					sendProbe = true;
+					rto <<= 1;
+					if (rto > MAX_RTO) rto = MAX_RTO;
+				}
+			} else {
+				for (long s = base; s < next; s++) {
+					Outstanding o = outstanding[getIndex(s)];
+					if (o == null || o.acked) continue;
+					if (now - o.lastTransmitted > rto) {
+						o.transmission = ++transmissions;
+						o.lastTransmitted = now;
+						o.retransmitted = true;
+						if (retransmit == null)
+							retransmit = new ArrayList<Data>();
+						retransmit.add(o.data);
+					}
+				}
+				if (retransmit != null) {
+					// Update the retransmission timeout
+					rto <<= 1;
+					if (rto > MAX_RTO) rto = MAX_RTO;
+					// Start again from a single frame
+					slowStartThreshold =
+							Math.max(congestionWindow / 2, 2 * payloadLength);
+					congestionWindow = payloadLength;
+					recoveryPoint = next - 1;
+				}
+			}
+		} finally {
+			windowLock.unlock();
+		}
+		// Send a window probe if necessary
+		if (sendProbe) {
+			byte[] buf = new byte[Data.MIN_LENGTH];
+			Data probe = new Data(buf);
+			probe.setChecksum(probe.calculateChecksum());
+			writeHandler.handleWrite(buf);
+		}
+		// Retransmit any lost data frames
+		if (retransmit != null) {
+			for (Data d : retransmit) writeHandler.handleWrite(d.getBuffer());
+		}
+	}
+
+	@Override
+	public void write(Data d) throws IOException, InterruptedException {
+		int length = d.getPayloadLength();
+		windowLock.lock();
+		try {
+			// Wait for space in the window
+			long now = clock.currentTimeMillis(), end = now + WRITE_TIMEOUT;
+			while (now < end && !hasSpace(length)) {
+				dataWaiting = true;
+				sendWindowAvailable.await(end - now, MILLISECONDS);
+				now = clock.currentTimeMillis();
+			}
+			if (!hasSpace(length))
+				throw new IOException("Write timed out");
+			long sequenceNumber = d.getSequenceNumber();
+			if (sequenceNumber != next) throw new IllegalArgumentException();
+			outstanding[getIndex(sequenceNumber)] =
+					new Outstanding(d, now, ++transmissions);
+			next++;
+			outstandingBytes += length;
+			dataWaiting = false;
+		} finally {
+			windowLock.unlock();
+		}
+		writeHandler.handleWrite(d.getBuffer());
+	}
+
+	@Override
+	public void flush() throws IOException, InterruptedException {
+		windowLock.lock();
+		try {
+			while (dataWaiting || base < next) sendWindowAvailable.await();
+		} finally {
+			windowLock.unlock();
+		}
+	}
+
+	// Locking: windowLock
+	private boolean hasSpace(int length) {
+		if (next - base >= MAX_OUTSTANDING_FRAMES) return false;
+		// The congestion window always has room for at least one frame
+		int window = Math.min(windowSize, Math.max(congestionWindow, length));
+		return outstandingBytes + length <= window;
+	}
+
+	// Locking: windowLock
+	private int acknowledge(Outstanding o, long now) {
+		o.acked = true;
+		int length = o.data.getPayloadLength();
+		outstandingBytes -= length;
+		// If the frame was retransmitted we don't know which transmission
+		// was acked, so don't use it for timing or loss detection
+		if (!o.retransmitted) {
+			if (o.transmission > lastAckedTransmission)
+				lastAckedTransmission = o.transmission;
+			// Update the round-trip time and retransmission timeout
+			int sample = (int) (now - o.lastTransmitted);
+			int error = sample - rtt;
+			rtt += (error >> 3);
+			rttVar += (Math.abs(error) - rttVar) >> 2;
+			rto = rtt + (rttVar << 2);
+			if (rto < MIN_RTO) rto = MIN_RTO;
+			else if (rto > MAX_RTO) rto = MAX_RTO;
+		}
+		return length;
+	}
+
+	private int getIndex(long sequenceNumber) {
+		return (int) (sequenceNumber & (MAX_OUTSTANDING_FRAMES - 1));
+	}
+
+	@NotThreadSafe
+	private static class Outstanding {
+
+		private final Data data;
+
+		private long lastTransmitted, transmission;
+		private boolean retransmitted = false, acked = false;
+
+		private Outstanding(Data data, long lastTransmitted,
+				long transmission) {
+			this.data = data;
+			this.lastTransmitted = lastTransmitted;
+			this.transmission = transmission;
+		}
+	}
+}
@@ -19,7 +19,7 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 @ThreadSafe
 @NotNullByDefault
-class Sender {
+class Sender implements FrameSender {
 
 	// All times are in milliseconds
 	private static final int WRITE_TIMEOUT = 5 * 60 * 1000;
@@ -117,7 +117,13 @@ class Sender {
 			writeHandler.handleWrite(fastRetransmit.data.getBuffer());
 	}
 
-	void tick() throws IOException {
+	@Override
+	public int getMaxPayloadLength() {
+		return Data.MAX_PAYLOAD_LENGTH;
+	}
+
+	@Override
+	public void tick() throws IOException {
 		long now = clock.currentTimeMillis();
 		List<Outstanding> retransmit = null;
 		boolean sendProbe = false;
@@ -168,7 +174,8 @@ class Sender {
 		}
 	}
 
-	void write(Data d) throws IOException, InterruptedException {
+	@Override
+	public void write(Data d) throws IOException, InterruptedException {
 		int payloadLength = d.getPayloadLength();
 		windowLock.lock();
 		try {
@@ -191,7 +198,8 @@ class Sender {
 		writeHandler.handleWrite(d.getBuffer());
 	}
 
-	void flush() throws IOException, InterruptedException {
+	@Override
+	public void flush() throws IOException, InterruptedException {
 		windowLock.lock();
 		try {
 			while (dataWaiting || !outstanding.isEmpty())
@@ -11,14 +11,18 @@ import javax.annotation.concurrent.NotThreadSafe;
 @NotNullByDefault
 class SenderOutputStream extends OutputStream {
 
-	private final Sender sender;
-	private final byte[] buf = new byte[Data.MAX_LENGTH];
+	private final FrameSender sender;
+	private final byte[] buf =
+			new byte[Data.MIN_LENGTH + Data.MAX_EXTENDED_PAYLOAD_LENGTH];
 
 	private int offset = Data.HEADER_LENGTH;
 	private long sequenceNumber = 1;
+	// The sender may change the payload length between frames
+	private int payloadLength;
 
-	SenderOutputStream(Sender sender) {
+	SenderOutputStream(FrameSender sender) {
 		this.sender = sender;
+		payloadLength = sender.getMaxPayloadLength();
 	}
 
 	@Override
@@ -47,7 +51,7 @@ class SenderOutputStream extends OutputStream {
 	public void write(int b) throws IOException {
 		buf[offset] = (byte) b;
 		offset++;
-		if (offset == Data.HEADER_LENGTH + Data.MAX_PAYLOAD_LENGTH) send(false);
+		if (offset == Data.HEADER_LENGTH + payloadLength) send(false);
 	}
 
 	@Override
@@ -57,14 +61,14 @@ class SenderOutputStream extends OutputStream {
 
 	@Override
 	public void write(byte[] b, int off, int len) throws IOException {
-		int available = Data.MAX_LENGTH - offset - Data.FOOTER_LENGTH;
+		int available = Data.HEADER_LENGTH + payloadLength - offset;
 		while (available <= len) {
 			System.arraycopy(b, off, buf, offset, available);
 			offset += available;
 			send(false);
 			off += available;
 			len -= available;
-			available = Data.MAX_LENGTH - offset - Data.FOOTER_LENGTH;
+			available = Data.HEADER_LENGTH + payloadLength - offset;
 		}
 		System.arraycopy(b, off, buf, offset, len);
 		offset += len;
@@ -73,7 +77,7 @@ class SenderOutputStream extends OutputStream {
 	private void send(boolean lastFrame) throws IOException {
 		byte[] frame = new byte[offset + Data.FOOTER_LENGTH];
 		System.arraycopy(buf, 0, frame, 0, frame.length);
-		Data d = new Data(frame);
+		Data d = new Data(frame, payloadLength);
 		d.setLastFrame(lastFrame);
 		d.setSequenceNumber(sequenceNumber++);
 		d.setChecksum(d.calculateChecksum());
@@ -84,5 +88,6 @@ class SenderOutputStream extends OutputStream {
 			throw new IOException("Interrupted while writing");
 		}
 		offset = Data.HEADER_LENGTH;
+		payloadLength = sender.getMaxPayloadLength();
 	}
 }
@@ -7,14 +7,24 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.settings.Settings;
 import org.briarproject.bramble.api.settings.SettingsManager;
 
-import javax.annotation.concurrent.Immutable;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
-@Immutable
+@ThreadSafe
 @NotNullByDefault
 class SettingsManagerImpl implements SettingsManager {
 
 	private final DatabaseComponent db;
+	private final Object lock = new Object();
+
+	// Locking: lock
+	private final Map<String, Settings> cache =
+			new HashMap<String, Settings>();
+	// Incremented whenever the cache is changed by a merge. Locking: lock
+	private long version = 0;
 
 	@Inject
 	SettingsManagerImpl(DatabaseComponent db) {
@@ -23,25 +33,56 @@ class SettingsManagerImpl implements SettingsManager {
 
 	@Override
 	public Settings getSettings(String namespace) throws DbException {
-		Settings s;
+		long before;
+		synchronized (lock) {
+			Settings cached = cache.get(namespace);
+			if (cached != null) return copy(cached);
+			before = version;
+		}
+		Settings loaded;
 		Transaction txn = db.startTransaction(true);
 		try {
-			s = db.getSettings(txn, namespace);
+			loaded = db.getSettings(txn, namespace);
 			db.commitTransaction(txn);
 		} finally {
 			db.endTransaction(txn);
 		}
-		return s;
+		synchronized (lock) {
+			// A merge that committed while we were loading may have changed
+			// the settings, in which case we don't know if they're current
+			if (version == before && !cache.containsKey(namespace))
+				cache.put(namespace, loaded);
+			return copy(loaded);
+		}
 	}
 
 	@Override
-	public void mergeSettings(Settings s, String namespace) throws DbException {
+	public void mergeSettings(final Settings s, final String namespace)
+			throws DbException {
 		Transaction txn = db.startTransaction(false);
 		try {
 			db.mergeSettings(txn, s, namespace);
+			// Update the cache before any events are broadcast
+			txn.addCommitAction(new Runnable() {
+				@Override
+				public void run() {
+					synchronized (lock) {
+						Settings cached = cache.get(namespace);
+						if (cached != null) cached.putAll(s);
+						version++;
+					}
+				}
+			});
 			db.commitTransaction(txn);
 		} finally {
 			db.endTransaction(txn);
 		}
 	}
+
+	// Return a copy so the caller can't modify the cached settings
+	private Settings copy(Settings cached) {
+		Settings s = new Settings();
+		s.putAll(cached);
+		return s;
+	}
 }
@@ -3,6 +3,8 @@ package org.briarproject.bramble.settings;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.settings.SettingsManager;
 
+import javax.inject.Singleton;
+
 import dagger.Module;
 import dagger.Provides;
 
@@ -10,6 +12,7 @@ import dagger.Provides;
 public class SettingsModule {
 
 	@Provides
+	@Singleton
 	SettingsManager provideSettingsManager(DatabaseComponent db) {
 		return new SettingsManagerImpl(db);
 	}
@@ -15,12 +15,18 @@ import org.briarproject.bramble.api.lifecycle.event.ShutdownEvent;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.Offer;
 import org.briarproject.bramble.api.sync.RecordReader;
 import org.briarproject.bramble.api.sync.Request;
 import org.briarproject.bramble.api.sync.SyncSession;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.logging.Logger;
 
@@ -38,19 +44,46 @@ class IncomingSession implements SyncSession, EventListener {
 	private static final Logger LOG =
 			Logger.getLogger(IncomingSession.class.getName());
 
+	/**
+	 * The maximum number of records that will be received in a single
+	 * database transaction.
+	 */
+	private static final int MAX_BATCH_RECORDS = 256;
+
+	/**
+	 * The maximum total length in bytes of the messages that will be received
+	 * in a single database transaction, unless a single message exceeds it.
+	 */
+	private static final int MAX_BATCH_LENGTH = 1024 * 1024;
+
+	/**
+	 * The maximum total length in bytes of the messages that may be waiting
+	 * for the database executor. When this is reached, the IO thread stops
+	 * reading until the queue drains, which pushes back on the contact.
+	 */
+	private static final int MAX_QUEUED_LENGTH = 4 * MAX_BATCH_LENGTH;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor;
+	private final MessageFactory messageFactory;
 	private final EventBus eventBus;
 	private final ContactId contactId;
 	private final RecordReader recordReader;
 
+	private final Object lock = new Object();
+	private final Queue<QueuedRecord> queue =
+			new LinkedList<QueuedRecord>(); // Locking: lock
+
+	private int queuedLength = 0; // Locking: lock
+	private boolean receiving = false; // Locking: lock
 	private volatile boolean interrupted = false;
 
 	IncomingSession(DatabaseComponent db, Executor dbExecutor,
-			EventBus eventBus, ContactId contactId,
-			RecordReader recordReader) {
+			MessageFactory messageFactory, EventBus eventBus,
+			ContactId contactId, RecordReader recordReader) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.messageFactory = messageFactory;
 		this.eventBus = eventBus;
 		this.contactId = contactId;
 		this.recordReader = recordReader;
@@ -64,17 +97,15 @@ class IncomingSession implements SyncSession, EventListener {
 			// Read records until interrupted or EOF
 			while (!interrupted && !recordReader.eof()) {
 				if (recordReader.hasAck()) {
-					Ack a = recordReader.readAck();
-					dbExecutor.execute(new ReceiveAck(a));
+					queueRecord(recordReader.readAck(), 0);
 				} else if (recordReader.hasMessage()) {
-					Message m = recordReader.readMessage();
-					dbExecutor.execute(new ReceiveMessage(m));
+					// The message ID is calculated by the database task
+					byte[] raw = recordReader.readRawMessage();
+					queueRecord(raw, raw.length);
 				} else if (recordReader.hasOffer()) {
-					Offer o = recordReader.readOffer();
-					dbExecutor.execute(new ReceiveOffer(o));
+					queueRecord(recordReader.readOffer(), 0);
 				} else if (recordReader.hasRequest()) {
-					Request r = recordReader.readRequest();
-					dbExecutor.execute(new ReceiveRequest(r));
+					queueRecord(recordReader.readRequest(), 0);
 				} else {
 					// unknown records are ignored in RecordReader#eof()
 					throw new FormatException();
@@ -85,10 +116,38 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
+	/**
+	 * Queues a record for the database executor, scheduling a task to
+	 * receive the queued records if one isn't already scheduled. Blocks while
+	 * the queue is full.
+	 */
+	@IoExecutor
+	private void queueRecord(Object record, int length) throws IOException {
+		synchronized (lock) {
+			while (queuedLength >= MAX_QUEUED_LENGTH && !interrupted) {
+				try {
+					lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+			}
+			queue.add(new QueuedRecord(record, length));
+			queuedLength += length;
+			if (receiving) return;
+			receiving = true;
+		}
+		dbExecutor.execute(new ReceiveRecords());
+	}
+
 	@Override
 	public void interrupt() {
 		// FIXME: This won't interrupt a blocking read
 		interrupted = true;
+		// Wake the IO thread if it's waiting for the queue to drain
+		synchronized (lock) {
+			lock.notifyAll();
+		}
 	}
 
 	@Override
@@ -101,21 +160,22 @@ class IncomingSession implements SyncSession, EventListener {
 		}
 	}
 
-	private class ReceiveAck implements Runnable {
-
-		private final Ack ack;
-
-		private ReceiveAck(Ack ack) {
-			this.ack = ack;
-		}
+	private class ReceiveRecords implements Runnable {
 
 		@DatabaseExecutor
 		@Override
 		public void run() {
+			List<Object> batch = takeBatch();
+			// Calculate the IDs of any messages before locking the database
+			for (int i = 0; i < batch.size(); i++) {
+				Object record = batch.get(i);
+				if (record instanceof byte[])
+					batch.set(i, messageFactory.createMessage((byte[]) record));
+			}
 			try {
 				Transaction txn = db.startTransaction(false);
 				try {
-					db.receiveAck(txn, contactId, ack);
+					receiveBatch(txn, batch);
 					db.commitTransaction(txn);
 				} finally {
 					db.endTransaction(txn);
@@ -124,84 +184,80 @@ class IncomingSession implements SyncSession, EventListener {
 				if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
 				interrupt();
 			}
-		}
-	}
-
-	private class ReceiveMessage implements Runnable {
-
-		private final Message message;
-
-		private ReceiveMessage(Message message) {
-			this.message = message;
-		}
-
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveMessage(txn, contactId, message);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
+			// Yield to other tasks before receiving any more records
+			synchronized (lock) {
+				if (queue.isEmpty()) {
+					receiving = false;
+					return;
 				}
-			} catch (DbException e) {
-				if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
-				interrupt();
 			}
+			dbExecutor.execute(this);
 		}
-	}
-
-	private class ReceiveOffer implements Runnable {
-
-		private final Offer offer;
 
-		private ReceiveOffer(Offer offer) {
-			this.offer = offer;
+		/**
+		 * Removes records from the head of the queue until the count or
+		 * length limit for a batch is reached. At least one record is
+		 * removed.
+		 */
+		private List<Object> takeBatch() {
+			List<Object> batch = new ArrayList<Object>();
+			int length = 0;
+			synchronized (lock) {
+				while (!queue.isEmpty() && batch.size() < MAX_BATCH_RECORDS) {
+					QueuedRecord q = queue.peek();
+					if (!batch.isEmpty() && length + q.length > MAX_BATCH_LENGTH)
+						break;
+					queue.poll();
+					batch.add(q.record);
+					length += q.length;
+				}
+				// Wake the IO thread if it's waiting for the queue to drain
+				queuedLength -= length;
+				lock.notifyAll();
+			}
+			return batch;
 		}
 
+		/**
+		 * Receives a batch of records in order, passing each run of
+		 * consecutive messages to the database as a single call.
+		 */
 		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveOffer(txn, contactId, offer);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
+		private void receiveBatch(Transaction txn, List<Object> batch)
+				throws DbException {
+			List<Message> messages = new ArrayList<Message>();
+			for (Object record : batch) {
+				if (record instanceof Message) {
+					messages.add((Message) record);
+					continue;
+				}
+				if (!messages.isEmpty()) {
+					db.receiveMessages(txn, contactId, messages);
+					messages = new ArrayList<Message>();
+				}
+				if (record instanceof Ack) {
+					db.receiveAck(txn, contactId, (Ack) record);
+				} else if (record instanceof Offer) {
+					db.receiveOffer(txn, contactId, (Offer) record);
+				} else if (record instanceof Request) {
+					db.receiveRequest(txn, contactId, (Request) record);
+				} else {
+					throw new AssertionError();
 				}
-			} catch (DbException e) {
-				if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
-				interrupt();
 			}
+			if (!messages.isEmpty())
+				db.receiveMessages(txn, contactId, messages);
 		}
 	}
 
-	private class ReceiveRequest implements Runnable {
-
-		private final Request request;
+	private static class QueuedRecord {
 
-		private ReceiveRequest(Request request) {
-			this.request = request;
-		}
+		private final Object record;
+		private final int length;
 
-		@DatabaseExecutor
-		@Override
-		public void run() {
-			try {
-				Transaction txn = db.startTransaction(false);
-				try {
-					db.receiveRequest(txn, contactId, request);
-					db.commitTransaction(txn);
-				} finally {
-					db.endTransaction(txn);
-				}
-			} catch (DbException e) {
-				if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
-				interrupt();
-			}
+		private QueuedRecord(Object record, int length) {
+			this.record = record;
+			this.length = length;
 		}
 	}
 }
@@ -30,11 +30,7 @@ class MessageFactoryImpl implements MessageFactory {
 	public Message createMessage(GroupId g, long timestamp, byte[] body) {
 		if (body.length > MAX_MESSAGE_BODY_LENGTH)
 			throw new IllegalArgumentException();
-		byte[] timeBytes = new byte[ByteUtils.INT_64_BYTES];
-		ByteUtils.writeUint64(timestamp, timeBytes, 0);
-		byte[] idHash =
-				crypto.hash(MessageId.LABEL, g.getBytes(), timeBytes, body);
-		MessageId id = new MessageId(idHash);
+		MessageId id = getMessageId(g.getBytes(), timestamp, body);
 		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + body.length];
 		System.arraycopy(g.getBytes(), 0, raw, 0, UniqueId.LENGTH);
 		ByteUtils.writeUint64(timestamp, raw, UniqueId.LENGTH);
@@ -51,4 +47,27 @@ class MessageFactoryImpl implements MessageFactory {
 		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
 		return new Message(m, new GroupId(groupId), timestamp, raw);
 	}
+
+	@Override
+	public Message createMessage(byte[] raw) {
+		if (raw.length < MESSAGE_HEADER_LENGTH)
+			throw new IllegalArgumentException();
+		if (raw.length > MESSAGE_HEADER_LENGTH + MAX_MESSAGE_BODY_LENGTH)
+			throw new IllegalArgumentException();
+		byte[] groupId = new byte[UniqueId.LENGTH];
+		System.arraycopy(raw, 0, groupId, 0, UniqueId.LENGTH);
+		long timestamp = ByteUtils.readUint64(raw, UniqueId.LENGTH);
+		byte[] body = new byte[raw.length - MESSAGE_HEADER_LENGTH];
+		System.arraycopy(raw, MESSAGE_HEADER_LENGTH, body, 0, body.length);
+		MessageId id = getMessageId(groupId, timestamp, body);
+		return new Message(id, new GroupId(groupId), timestamp, raw);
+	}
+
+	private MessageId getMessageId(byte[] groupId, long timestamp,
+			byte[] body) {
+		byte[] timeBytes = new byte[ByteUtils.INT_64_BYTES];
+		ByteUtils.writeUint64(timestamp, timeBytes, 0);
+		return new MessageId(crypto.hash(MessageId.LABEL, groupId, timeBytes,
+				body));
+	}
 }
@@ -4,7 +4,6 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Ack;
-import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.MessageId;
@@ -133,21 +132,21 @@ class RecordReaderImpl implements RecordReader {
 
 	@Override
 	public Message readMessage() throws IOException {
+		return messageFactory.createMessage(readRawMessage());
+	}
+
+	@Override
+	public byte[] readRawMessage() throws IOException {
 		if (!hasMessage()) throw new FormatException();
 		if (payloadLength <= MESSAGE_HEADER_LENGTH) throw new FormatException();
-		// Group ID
-		byte[] id = new byte[UniqueId.LENGTH];
-		System.arraycopy(payload, 0, id, 0, UniqueId.LENGTH);
-		GroupId groupId = new GroupId(id);
 		// Timestamp
 		long timestamp = ByteUtils.readUint64(payload, UniqueId.LENGTH);
 		if (timestamp < 0) throw new FormatException();
-		// Body
-		byte[] body = new byte[payloadLength - MESSAGE_HEADER_LENGTH];
-		System.arraycopy(payload, MESSAGE_HEADER_LENGTH, body, 0,
-				payloadLength - MESSAGE_HEADER_LENGTH);
+		// Group ID, timestamp and body
+		byte[] raw = new byte[payloadLength];
+		System.arraycopy(payload, 0, raw, 0, payloadLength);
 		state = State.BUFFER_EMPTY;
-		return messageFactory.createMessage(groupId, timestamp, body);
+		return raw;
 	}
 
 	@Override
@@ -14,6 +14,7 @@ import org.briarproject.bramble.api.sync.RecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.KeyedExecutor;
 
 import java.util.concurrent.Executor;
 
@@ -65,11 +66,12 @@ public class SyncModule {
 	@Provides
 	@Singleton
 	SyncSessionFactory provideSyncSessionFactory(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
-			Clock clock, RecordReaderFactory recordReaderFactory,
+			@DatabaseExecutor KeyedExecutor dbExecutor,
+			MessageFactory messageFactory, EventBus eventBus, Clock clock,
+			RecordReaderFactory recordReaderFactory,
 			RecordWriterFactory recordWriterFactory) {
-		return new SyncSessionFactoryImpl(db, dbExecutor, eventBus, clock,
-				recordReaderFactory, recordWriterFactory);
+		return new SyncSessionFactoryImpl(db, dbExecutor, messageFactory,
+				eventBus, clock, recordReaderFactory, recordWriterFactory);
 	}
 
 	@Provides
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.sync.MessageFactory;
 import org.briarproject.bramble.api.sync.RecordReader;
 import org.briarproject.bramble.api.sync.RecordReaderFactory;
 import org.briarproject.bramble.api.sync.RecordWriter;
@@ -12,10 +13,10 @@ import org.briarproject.bramble.api.sync.RecordWriterFactory;
 import org.briarproject.bramble.api.sync.SyncSession;
 import org.briarproject.bramble.api.sync.SyncSessionFactory;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.system.KeyedExecutor;
 
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
@@ -25,7 +26,10 @@ import javax.inject.Inject;
 class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	private final DatabaseComponent db;
-	private final Executor dbExecutor;
+	// The database tasks of each contact's sessions run in order, while
+	// the tasks of different contacts can run concurrently
+	private final KeyedExecutor dbExecutor;
+	private final MessageFactory messageFactory;
 	private final EventBus eventBus;
 	private final Clock clock;
 	private final RecordReaderFactory recordReaderFactory;
@@ -33,11 +37,13 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 
 	@Inject
 	SyncSessionFactoryImpl(DatabaseComponent db,
-			@DatabaseExecutor Executor dbExecutor, EventBus eventBus,
-			Clock clock, RecordReaderFactory recordReaderFactory,
+			@DatabaseExecutor KeyedExecutor dbExecutor,
+			MessageFactory messageFactory, EventBus eventBus, Clock clock,
+			RecordReaderFactory recordReaderFactory,
 			RecordWriterFactory recordWriterFactory) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
+		this.messageFactory = messageFactory;
 		this.eventBus = eventBus;
 		this.clock = clock;
 		this.recordReaderFactory = recordReaderFactory;
@@ -47,22 +53,23 @@ class SyncSessionFactoryImpl implements SyncSessionFactory {
 	@Override
 	public SyncSession createIncomingSession(ContactId c, InputStream in) {
 		RecordReader recordReader = recordReaderFactory.createRecordReader(in);
-		return new IncomingSession(db, dbExecutor, eventBus, c, recordReader);
+		return new IncomingSession(db, dbExecutor.getExecutor(c),
+				messageFactory, eventBus, c, recordReader);
 	}
 
 	@Override
 	public SyncSession createSimplexOutgoingSession(ContactId c,
 			int maxLatency, OutputStream out) {
 		RecordWriter recordWriter = recordWriterFactory.createRecordWriter(out);
-		return new SimplexOutgoingSession(db, dbExecutor, eventBus, c,
-				maxLatency, recordWriter);
+		return new SimplexOutgoingSession(db, dbExecutor.getExecutor(c),
+				eventBus, c, maxLatency, recordWriter);
 	}
 
 	@Override
 	public SyncSession createDuplexOutgoingSession(ContactId c, int maxLatency,
 			int maxIdleTime, OutputStream out) {
 		RecordWriter recordWriter = recordWriterFactory.createRecordWriter(out);
-		return new DuplexOutgoingSession(db, dbExecutor, eventBus, clock, c,
-				maxLatency, maxIdleTime, recordWriter);
+		return new DuplexOutgoingSession(db, dbExecutor.getExecutor(c),
+				eventBus, clock, c, maxLatency, maxIdleTime, recordWriter);
 	}
 }
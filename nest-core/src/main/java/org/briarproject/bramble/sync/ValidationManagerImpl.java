@@ -1,5 +1,7 @@
 package org.briarproject.bramble.sync;
 
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
 import org.briarproject.bramble.api.db.DbException;
@@ -21,8 +23,12 @@ import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.ValidationManager;
 import org.briarproject.bramble.api.sync.event.MessageAddedEvent;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -31,6 +37,7 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
@@ -39,6 +46,7 @@ import static java.util.logging.Level.WARNING;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.DELIVERED;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.INVALID;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.PENDING;
+import static org.briarproject.bramble.api.sync.ValidationManager.State.UNKNOWN;
 
 @ThreadSafe
 @NotNullByDefault
@@ -48,22 +56,64 @@ class ValidationManagerImpl implements ValidationManager, Service,
 	private static final Logger LOG =
 			Logger.getLogger(ValidationManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of messages whose groups will be loaded, or whose
+	 * validation results will be stored, in a single database transaction.
+	 */
+	private static final int MAX_BATCH_SIZE = 64;
+
+	/**
+	 * The maximum number of incoming messages that will be held in memory
+	 * while waiting for validation. Any further messages are left in the
+	 * database and validated when the backlog has cleared.
+	 */
+	static final int MAX_QUEUED_MESSAGES = 1000;
+
+	/**
+	 * The maximum number of deferred signatures that will be verified in a
+	 * single batch.
+	 */
+	private static final int MAX_SIGNATURE_BATCH_SIZE = 256;
+
 	private final DatabaseComponent db;
 	private final Executor dbExecutor, validationExecutor;
 	private final MessageFactory messageFactory;
+	private final CryptoComponent crypto;
 	private final Map<ClientId, MessageValidator> validators;
 	private final Map<ClientId, IncomingMessageHook> hooks;
 	private final AtomicBoolean used = new AtomicBoolean(false);
 
+	private final Object lock = new Object();
+	// Incoming messages waiting for their groups to be loaded
+	private final Queue<Message> toLoad =
+			new LinkedList<Message>(); // Locking: lock
+	// Validation results waiting to see which signatures are already verified
+	private final Queue<ValidationResult> toCheck =
+			new LinkedList<ValidationResult>(); // Locking: lock
+	// Validation results waiting for their signatures to be verified
+	private final Queue<ValidationResult> toVerify =
+			new LinkedList<ValidationResult>(); // Locking: lock
+	// Validation results waiting to be stored
+	private final Queue<ValidationResult> toStore =
+			new LinkedList<ValidationResult>(); // Locking: lock
+
+	private boolean loading = false, checking = false; // Locking: lock
+	private boolean verifying = false, storing = false; // Locking: lock
+	// The number of messages between arriving and being stored
+	private int queuedMessages = 0; // Locking: lock
+	// True if any incoming messages were left in the database
+	private boolean overflowed = false; // Locking: lock
+
 	@Inject
 	ValidationManagerImpl(DatabaseComponent db,
 			@DatabaseExecutor Executor dbExecutor,
 			@ValidationExecutor Executor validationExecutor,
-			MessageFactory messageFactory) {
+			MessageFactory messageFactory, CryptoComponent crypto) {
 		this.db = db;
 		this.dbExecutor = dbExecutor;
 		this.validationExecutor = validationExecutor;
 		this.messageFactory = messageFactory;
+		this.crypto = crypto;
 		validators = new ConcurrentHashMap<ClientId, MessageValidator>();
 		hooks = new ConcurrentHashMap<ClientId, IncomingMessageHook>();
 	}
@@ -131,6 +181,15 @@ class ValidationManagerImpl implements ValidationManager, Service,
 
 	@DatabaseExecutor
 	private void validateNextMessage(Queue<MessageId> unvalidated) {
+		synchronized (lock) {
+			// Leave the rest of the messages in the database to be loaded
+			// again when the backlog has cleared
+			if (queuedMessages >= MAX_QUEUED_MESSAGES) {
+				overflowed = true;
+				return;
+			}
+			queuedMessages++;
+		}
 		try {
 			Message m;
 			Group g;
@@ -149,12 +208,15 @@ class ValidationManagerImpl implements ValidationManager, Service,
 			validateNextMessageAsync(unvalidated);
 		} catch (NoSuchMessageException e) {
 			LOG.info("Message removed before validation");
+			messagesProcessed(1);
 			validateNextMessageAsync(unvalidated);
 		} catch (NoSuchGroupException e) {
 			LOG.info("Group removed before validation");
+			messagesProcessed(1);
 			validateNextMessageAsync(unvalidated);
 		} catch (DbException e) {
 			if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
+			messagesProcessed(1);
 		}
 	}
 
@@ -270,93 +332,326 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		if (v == null) {
 			if (LOG.isLoggable(WARNING))
 				LOG.warning("No validator for " + g.getClientId().getString());
+			messagesProcessed(1);
 		} else {
 			try {
 				MessageContext context = v.validateMessage(m, g);
-				storeMessageContextAsync(m, g.getClientId(), context);
+				ValidationResult result =
+						new ValidationResult(m, g.getClientId(), context);
+				if (result.signatures.isEmpty()) storeResultAsync(result);
+				else if (result.hasSignedMessages()) checkResultAsync(result);
+				else verifyResultAsync(result);
 			} catch (InvalidMessageException e) {
 				if (LOG.isLoggable(INFO))
 					LOG.log(INFO, e.toString(), e);
-				Queue<MessageId> invalidate = new LinkedList<MessageId>();
-				invalidate.add(m.getId());
-				invalidateNextMessageAsync(invalidate);
+				storeResultAsync(new ValidationResult(m, g.getClientId()));
 			}
 		}
 	}
 
-	private void storeMessageContextAsync(final Message m, final ClientId c,
-			final MessageContext result) {
+	/**
+	 * Queues a validation result with signatures carried by other messages,
+	 * scheduling a task to check which of those messages have already been
+	 * verified if one isn't already scheduled.
+	 */
+	private void checkResultAsync(ValidationResult result) {
+		synchronized (lock) {
+			toCheck.add(result);
+			if (checking) return;
+			checking = true;
+		}
+		checkResultsAsync();
+	}
+
+	private void checkResultsAsync() {
 		dbExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
-				storeMessageContext(m, c, result);
+				checkResults();
 			}
 		});
 	}
 
+	/**
+	 * Removes from a batch of validation results any signatures carried by
+	 * messages that have already been verified, and queues the results to
+	 * have their remaining signatures verified.
+	 */
 	@DatabaseExecutor
-	private void storeMessageContext(Message m, ClientId c,
-			MessageContext context) {
+	private void checkResults() {
+		List<ValidationResult> batch = new ArrayList<ValidationResult>();
+		synchronized (lock) {
+			while (!toCheck.isEmpty() && batch.size() < MAX_BATCH_SIZE)
+				batch.add(toCheck.poll());
+		}
+		List<ValidationResult> checked = new ArrayList<ValidationResult>();
 		try {
-			MessageId id = m.getId();
-			boolean anyInvalid = false, allDelivered = true;
-			Queue<MessageId> invalidate = null;
-			Queue<MessageId> pending = null;
-			Queue<MessageId> toShare = null;
+			Transaction txn = db.startTransaction(true);
+			try {
+				for (ValidationResult result : batch)
+					checked.add(removeVerifiedSignatures(txn, result));
+				db.commitTransaction(txn);
+			} finally {
+				db.endTransaction(txn);
+			}
+		} catch (DbException e) {
+			// Fall back to verifying all the signatures
+			if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
+			checked = batch;
+		}
+		for (ValidationResult result : checked) {
+			if (result.signatures.isEmpty()) storeResultAsync(result);
+			else verifyResultAsync(result);
+		}
+		// Yield to other tasks before checking any more results
+		synchronized (lock) {
+			if (toCheck.isEmpty()) {
+				checking = false;
+				return;
+			}
+		}
+		checkResultsAsync();
+	}
+
+	@DatabaseExecutor
+	private ValidationResult removeVerifiedSignatures(Transaction txn,
+			ValidationResult result) throws DbException {
+		List<SignedData> unverified = new ArrayList<SignedData>();
+		for (SignedData s : result.signatures) {
+			MessageId m = s.getMessageId();
+			if (m == null || !db.containsVerifiedMessage(txn, m))
+				unverified.add(s);
+		}
+		if (unverified.size() == result.signatures.size()) return result;
+		return new ValidationResult(result.message, result.clientId,
+				result.context, unverified);
+	}
+
+	/**
+	 * Queues a validation result whose signatures need to be verified,
+	 * scheduling a task to verify the queued signatures if one isn't
+	 * already scheduled.
+	 */
+	private void verifyResultAsync(ValidationResult result) {
+		synchronized (lock) {
+			toVerify.add(result);
+			if (verifying) return;
+			verifying = true;
+		}
+		verifyResultsAsync();
+	}
+
+	private void verifyResultsAsync() {
+		validationExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				verifyResults();
+			}
+		});
+	}
+
+	/**
+	 * Verifies the signatures of a batch of validation results and queues
+	 * the results to be stored. Results with any invalid signatures are
+	 * stored as invalid.
+	 */
+	@ValidationExecutor
+	private void verifyResults() {
+		List<ValidationResult> batch = new ArrayList<ValidationResult>();
+		List<SignedData> signatures = new ArrayList<SignedData>();
+		synchronized (lock) {
+			while (!toVerify.isEmpty()
+					&& signatures.size() < MAX_SIGNATURE_BATCH_SIZE) {
+				ValidationResult result = toVerify.poll();
+				batch.add(result);
+				signatures.addAll(result.signatures);
+			}
+		}
+		boolean[] valid = crypto.verifyBatch(signatures);
+		int i = 0;
+		for (ValidationResult result : batch) {
+			boolean allValid = true;
+			int count = result.signatures.size();
+			for (int j = 0; j < count; j++) if (!valid[i++]) allValid = false;
+			if (allValid) {
+				storeResultAsync(result);
+			} else {
+				LOG.info("Invalid signature");
+				storeResultAsync(new ValidationResult(result.message,
+						result.clientId));
+			}
+		}
+		// Yield to other tasks before verifying any more signatures
+		synchronized (lock) {
+			if (toVerify.isEmpty()) {
+				verifying = false;
+				return;
+			}
+		}
+		verifyResultsAsync();
+	}
+
+	/**
+	 * Queues a validation result to be stored, scheduling a task to store
+	 * the queued results if one isn't already scheduled.
+	 */
+	private void storeResultAsync(ValidationResult result) {
+		synchronized (lock) {
+			toStore.add(result);
+			if (storing) return;
+			storing = true;
+		}
+		storeResultsAsync();
+	}
+
+	private void storeResultsAsync() {
+		dbExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				storeResults();
+			}
+		});
+	}
+
+	@DatabaseExecutor
+	private void storeResults() {
+		List<ValidationResult> batch = new ArrayList<ValidationResult>();
+		synchronized (lock) {
+			while (!toStore.isEmpty() && batch.size() < MAX_BATCH_SIZE)
+				batch.add(toStore.poll());
+		}
+		storeBatch(batch);
+		messagesProcessed(batch.size());
+		// Yield to other tasks before storing any more results
+		synchronized (lock) {
+			if (toStore.isEmpty()) {
+				storing = false;
+				return;
+			}
+		}
+		storeResultsAsync();
+	}
+
+	/**
+	 * Stores a batch of validation results in a single transaction. If the
+	 * transaction fails, for example because a message or group in the batch
+	 * has been removed, the results are stored one at a time instead.
+	 */
+	@DatabaseExecutor
+	private void storeBatch(List<ValidationResult> batch) {
+		try {
+			Queue<MessageId> invalidate = new LinkedList<MessageId>();
+			Queue<MessageId> pending = new LinkedList<MessageId>();
+			Queue<MessageId> toShare = new LinkedList<MessageId>();
 			Transaction txn = db.startTransaction(false);
 			try {
-				// Check if message has any dependencies
-				Collection<MessageId> dependencies = context.getDependencies();
-				if (!dependencies.isEmpty()) {
-					db.addMessageDependencies(txn, m, dependencies);
-					// Check if dependencies are valid and delivered
-					Map<MessageId, State> states =
-							db.getMessageDependencies(txn, id);
-					for (Entry<MessageId, State> e : states.entrySet()) {
-						if (e.getValue() == INVALID) anyInvalid = true;
-						if (e.getValue() != DELIVERED) allDelivered = false;
-					}
-				}
-				if (anyInvalid) {
-					if (db.getMessageState(txn, id) != INVALID) {
-						invalidateMessage(txn, id);
-						invalidate = getDependentsToInvalidate(txn, id);
-					}
-				} else {
-					Metadata meta = context.getMetadata();
-					db.mergeMessageMetadata(txn, id, meta);
-					if (allDelivered) {
-						DeliveryResult result = deliverMessage(txn, m, c, meta);
-						if (result.valid) {
-							pending = getPendingDependents(txn, id);
-							if (result.share) {
-								db.setMessageShared(txn, id);
-								toShare =
-										new LinkedList<MessageId>(dependencies);
-							}
-						} else {
-							invalidate = getDependentsToInvalidate(txn, id);
-						}
-					} else {
-						db.setMessageState(txn, id, PENDING);
-					}
-				}
+				for (ValidationResult result : batch)
+					storeResult(txn, result, invalidate, pending, toShare);
 				db.commitTransaction(txn);
 			} finally {
 				db.endTransaction(txn);
 			}
-			if (invalidate != null) invalidateNextMessageAsync(invalidate);
-			if (pending != null) deliverNextPendingMessageAsync(pending);
-			if (toShare != null) shareNextMessageAsync(toShare);
+			invalidateNextMessageAsync(invalidate);
+			deliverNextPendingMessageAsync(pending);
+			shareNextMessageAsync(toShare);
 		} catch (NoSuchMessageException e) {
-			LOG.info("Message removed during validation");
+			if (batch.size() == 1) {
+				LOG.info("Message removed during validation");
+			} else {
+				for (ValidationResult result : batch)
+					storeBatch(Collections.singletonList(result));
+			}
 		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed during validation");
+			if (batch.size() == 1) {
+				LOG.info("Group removed during validation");
+			} else {
+				for (ValidationResult result : batch)
+					storeBatch(Collections.singletonList(result));
+			}
 		} catch (DbException e) {
-			if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
+			if (batch.size() == 1) {
+				if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
+			} else {
+				for (ValidationResult result : batch)
+					storeBatch(Collections.singletonList(result));
+			}
 		}
 	}
 
+	/**
+	 * Stores a validation result, adding any messages that need to be
+	 * invalidated, delivered or shared as a result to the given queues.
+	 */
+	@DatabaseExecutor
+	private void storeResult(Transaction txn, ValidationResult result,
+			Queue<MessageId> invalidate, Queue<MessageId> pending,
+			Queue<MessageId> toShare) throws DbException {
+		Message m = result.message;
+		MessageId id = m.getId();
+		MessageContext context = result.context;
+		if (context == null) {
+			// The message is invalid
+			if (db.getMessageState(txn, id) != INVALID) {
+				invalidateMessage(txn, id);
+				invalidate.addAll(getDependentsToInvalidate(txn, id));
+			}
+			return;
+		}
+		// The message may have been queued more than once if it was loaded
+		// from the database while a backlog was being cleared
+		if (db.getMessageState(txn, id) != UNKNOWN) return;
+		boolean anyInvalid = false, allDelivered = true;
+		// Check if message has any dependencies
+		Collection<MessageId> dependencies = context.getDependencies();
+		if (!dependencies.isEmpty()) {
+			db.addMessageDependencies(txn, m, dependencies);
+			// Check if dependencies are valid and delivered
+			Map<MessageId, State> states = db.getMessageDependencies(txn, id);
+			for (Entry<MessageId, State> e : states.entrySet()) {
+				if (e.getValue() == INVALID) anyInvalid = true;
+				if (e.getValue() != DELIVERED) allDelivered = false;
+			}
+		}
+		if (anyInvalid) {
+			invalidateMessage(txn, id);
+			invalidate.addAll(getDependentsToInvalidate(txn, id));
+		} else {
+			Metadata meta = context.getMetadata();
+			db.mergeMessageMetadata(txn, id, meta);
+			if (allDelivered) {
+				DeliveryResult delivery =
+						deliverMessage(txn, m, result.clientId, meta);
+				if (delivery.valid) {
+					pending.addAll(getPendingDependents(txn, id));
+					if (delivery.share) {
+						db.setMessageShared(txn, id);
+						toShare.addAll(dependencies);
+					}
+				} else {
+					invalidate.addAll(getDependentsToInvalidate(txn, id));
+				}
+			} else {
+				db.setMessageState(txn, id, PENDING);
+			}
+		}
+	}
+
+	/**
+	 * Records that the given number of messages have left the validation
+	 * pipeline. If any incoming messages were left in the database because
+	 * the pipeline was full, they're validated once the pipeline is empty.
+	 */
+	private void messagesProcessed(int count) {
+		synchronized (lock) {
+			queuedMessages -= count;
+			if (queuedMessages > 0 || !overflowed) return;
+			overflowed = false;
+		}
+		LOG.info("Validation backlog cleared, loading unvalidated messages");
+		for (ClientId c : validators.keySet())
+			validateOutstandingMessagesAsync(c);
+	}
+
 	@DatabaseExecutor
 	private DeliveryResult deliverMessage(Transaction txn, Message m,
 			ClientId c, Metadata meta) throws DbException {
@@ -509,36 +804,111 @@ class ValidationManagerImpl implements ValidationManager, Service,
 		if (e instanceof MessageAddedEvent) {
 			// Validate the message if it wasn't created locally
 			MessageAddedEvent m = (MessageAddedEvent) e;
-			if (m.getContactId() != null)
-				loadGroupAndValidateAsync(m.getMessage());
+			if (m.getContactId() != null) loadGroupAsync(m.getMessage());
 		}
 	}
 
-	private void loadGroupAndValidateAsync(final Message m) {
+	/**
+	 * Queues an incoming message for validation, scheduling a task to load
+	 * the groups of the queued messages if one isn't already scheduled. If
+	 * too many messages are already queued, the message is left in the
+	 * database to be validated later.
+	 */
+	private void loadGroupAsync(Message m) {
+		synchronized (lock) {
+			if (overflowed || queuedMessages >= MAX_QUEUED_MESSAGES) {
+				overflowed = true;
+				return;
+			}
+			queuedMessages++;
+			toLoad.add(m);
+			if (loading) return;
+			loading = true;
+		}
+		loadGroupsAsync();
+	}
+
+	private void loadGroupsAsync() {
 		dbExecutor.execute(new Runnable() {
 			@Override
 			public void run() {
-				loadGroupAndValidate(m);
+				loadGroupsAndValidate();
 			}
 		});
 	}
 
 	@DatabaseExecutor
-	private void loadGroupAndValidate(final Message m) {
+	private void loadGroupsAndValidate() {
+		List<Message> batch = new ArrayList<Message>();
+		synchronized (lock) {
+			while (!toLoad.isEmpty() && batch.size() < MAX_BATCH_SIZE)
+				batch.add(toLoad.poll());
+		}
+		Map<Message, Group> groups = new LinkedHashMap<Message, Group>();
 		try {
-			Group g;
 			Transaction txn = db.startTransaction(true);
 			try {
-				g = db.getGroup(txn, m.getGroupId());
+				for (Message m : batch) {
+					try {
+						groups.put(m, db.getGroup(txn, m.getGroupId()));
+					} catch (NoSuchGroupException e) {
+						LOG.info("Group removed before validation");
+					}
+				}
 				db.commitTransaction(txn);
 			} finally {
 				db.endTransaction(txn);
 			}
-			validateMessageAsync(m, g);
-		} catch (NoSuchGroupException e) {
-			LOG.info("Group removed before validation");
 		} catch (DbException e) {
 			if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
+			groups.clear();
+		}
+		messagesProcessed(batch.size() - groups.size());
+		for (Entry<Message, Group> e : groups.entrySet())
+			validateMessageAsync(e.getKey(), e.getValue());
+		// Yield to other tasks before loading any more groups
+		synchronized (lock) {
+			if (toLoad.isEmpty()) {
+				loading = false;
+				return;
+			}
+		}
+		loadGroupsAsync();
+	}
+
+	private static class ValidationResult {
+
+		private final Message message;
+		private final ClientId clientId;
+		@Nullable
+		private final MessageContext context; // Null if the message is invalid
+		// The signatures that still need to be verified
+		private final Collection<SignedData> signatures;
+
+		private ValidationResult(Message message, ClientId clientId,
+				@Nullable MessageContext context,
+				Collection<SignedData> signatures) {
+			this.message = message;
+			this.clientId = clientId;
+			this.context = context;
+			this.signatures = signatures;
+		}
+
+		private ValidationResult(Message message, ClientId clientId,
+				MessageContext context) {
+			this(message, clientId, context, context.getSignatures());
+		}
+
+		// Creates a result for an invalid message
+		private ValidationResult(Message message, ClientId clientId) {
+			this(message, clientId, null,
+					Collections.<SignedData>emptyList());
+		}
+
+		private boolean hasSignedMessages() {
+			for (SignedData s : signatures)
+				if (s.getMessageId() != null) return true;
+			return false;
 		}
 	}
 
@@ -2,6 +2,7 @@ package org.briarproject.bramble.transport;
 
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.plugin.TransportId;
+import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -22,6 +23,26 @@ class MutableTransportKeys {
 		outCurr = new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
 	}
 
+	/**
+	 * Creates mutable keys from the given keys, reusing the old incoming keys
+	 * for any rotation periods the old and new keys have in common.
+	 */
+	MutableTransportKeys(TransportKeys k, MutableTransportKeys old) {
+		transportId = k.getTransportId();
+		inPrev = old.getIncomingKeys(k.getPreviousIncomingKeys());
+		inCurr = old.getIncomingKeys(k.getCurrentIncomingKeys());
+		inNext = old.getIncomingKeys(k.getNextIncomingKeys());
+		outCurr = new MutableOutgoingKeys(k.getCurrentOutgoingKeys());
+	}
+
+	private MutableIncomingKeys getIncomingKeys(IncomingKeys in) {
+		long rotationPeriod = in.getRotationPeriod();
+		if (inPrev.getRotationPeriod() == rotationPeriod) return inPrev;
+		if (inCurr.getRotationPeriod() == rotationPeriod) return inCurr;
+		if (inNext.getRotationPeriod() == rotationPeriod) return inNext;
+		return new MutableIncomingKeys(in);
+	}
+
 	TransportKeys snapshot() {
 		return new TransportKeys(transportId, inPrev.snapshot(),
 				inCurr.snapshot(), inNext.snapshot(), outCurr.snapshot());
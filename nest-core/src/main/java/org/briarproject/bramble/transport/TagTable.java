@@ -0,0 +1,310 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.util.ByteUtils.readUint64;
+
+/**
+ * An open-addressing hash table that maps tags to the incoming keys and
+ * stream numbers they were derived from.
+ * <p/>
+ * The tags, stream numbers and owners are stored in parallel primitive
+ * arrays, so the number of objects held by the table does not grow with the
+ * number of tags. Each set of incoming keys added to the table is identified
+ * by an integer handle, and the slots holding its tags are linked together,
+ * so a contact's tags can be removed without scanning the table.
+ */
+@NotThreadSafe
+@NotNullByDefault
+class TagTable {
+
+	static final int NOT_FOUND = -1;
+
+	private static final int INITIAL_CAPACITY = 64; // Must be a power of 2
+	private static final int INITIAL_HANDLES = 16;
+	private static final int EMPTY = -1, DELETED = -2, NONE = -1;
+
+	// The following arrays are indexed by slot
+	private long[] tags; // Two longs per slot
+	private long[] streamNumbers;
+	private int[] owners; // The owning handle, EMPTY or DELETED
+	private int[] nextSlots, previousSlots;
+	private int size, deleted;
+
+	// The following arrays are indexed by handle
+	private ContactId[] contacts;
+	private MutableIncomingKeys[] inKeys;
+	private int[] firstSlots;
+	// The next handle belonging to the same contact, or the next free handle
+	private int[] nextHandles;
+	private int allocatedHandles, freeHandle;
+
+	private final Map<ContactId, Integer> firstHandles;
+
+	TagTable() {
+		firstHandles = new HashMap<ContactId, Integer>();
+		clear();
+	}
+
+	/**
+	 * Returns the number of tags in the table.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all tags and incoming keys from the table.
+	 */
+	void clear() {
+		allocateSlots(INITIAL_CAPACITY);
+		size = 0;
+		deleted = 0;
+		contacts = new ContactId[INITIAL_HANDLES];
+		inKeys = new MutableIncomingKeys[INITIAL_HANDLES];
+		firstSlots = new int[INITIAL_HANDLES];
+		nextHandles = new int[INITIAL_HANDLES];
+		allocatedHandles = 0;
+		freeHandle = NONE;
+		firstHandles.clear();
+	}
+
+	/**
+	 * Adds a set of incoming keys belonging to the given contact and returns
+	 * a handle for adding tags derived from the keys.
+	 */
+	int addIncomingKeys(ContactId c, MutableIncomingKeys k) {
+		int handle;
+		if (freeHandle == NONE) {
+			if (allocatedHandles == contacts.length) growHandles();
+			handle = allocatedHandles++;
+		} else {
+			handle = freeHandle;
+			freeHandle = nextHandles[handle];
+		}
+		contacts[handle] = c;
+		inKeys[handle] = k;
+		firstSlots[handle] = NONE;
+		Integer first = firstHandles.get(c);
+		nextHandles[handle] = first == null ? NONE : first;
+		firstHandles.put(c, handle);
+		return handle;
+	}
+
+	/**
+	 * Returns the handle of the given incoming keys belonging to the given
+	 * contact, or {@link #NOT_FOUND} if the keys are not in the table.
+	 */
+	int findIncomingKeys(ContactId c, MutableIncomingKeys k) {
+		Integer first = firstHandles.get(c);
+		int handle = first == null ? NONE : first;
+		while (handle != NONE && inKeys[handle] != k)
+			handle = nextHandles[handle];
+		return handle == NONE ? NOT_FOUND : handle;
+	}
+
+	/**
+	 * Removes the given incoming keys belonging to the given contact, and all
+	 * tags derived from them.
+	 */
+	void removeIncomingKeys(ContactId c, MutableIncomingKeys k) {
+		Integer first = firstHandles.get(c);
+		if (first == null) return;
+		int previous = NONE, handle = first;
+		while (handle != NONE && inKeys[handle] != k) {
+			previous = handle;
+			handle = nextHandles[handle];
+		}
+		if (handle == NONE) return;
+		int next = nextHandles[handle];
+		if (previous != NONE) nextHandles[previous] = next;
+		else if (next == NONE) firstHandles.remove(c);
+		else firstHandles.put(c, next);
+		releaseHandle(handle);
+	}
+
+	/**
+	 * Adds a tag derived from the incoming keys with the given handle,
+	 * replacing any existing mapping for the tag.
+	 */
+	void put(byte[] tag, int handle, long streamNumber) {
+		if (handle < 0 || handle >= allocatedHandles
+				|| contacts[handle] == null)
+			throw new IllegalArgumentException();
+		long high = readHigh(tag), low = readLow(tag);
+		int existing = find(high, low);
+		if (existing != NOT_FOUND) remove(existing);
+		if ((size + deleted + 1) * 4 > owners.length * 3) rehash();
+		int mask = owners.length - 1;
+		int slot = hash(high, low) & mask;
+		while (owners[slot] >= 0) slot = (slot + 1) & mask;
+		if (owners[slot] == DELETED) deleted--;
+		store(slot, high, low, handle, streamNumber);
+		size++;
+	}
+
+	/**
+	 * Returns the slot holding the given tag, or {@link #NOT_FOUND} if the
+	 * tag is not in the table. The slot is valid until the table is next
+	 * modified.
+	 */
+	int find(byte[] tag) {
+		return find(readHigh(tag), readLow(tag));
+	}
+
+	ContactId getContactId(int slot) {
+		return contacts[owners[slot]];
+	}
+
+	MutableIncomingKeys getIncomingKeys(int slot) {
+		return inKeys[owners[slot]];
+	}
+
+	int getHandle(int slot) {
+		return owners[slot];
+	}
+
+	long getStreamNumber(int slot) {
+		return streamNumbers[slot];
+	}
+
+	/**
+	 * Removes the given tag from the table, if it is present.
+	 */
+	void remove(byte[] tag) {
+		int slot = find(tag);
+		if (slot != NOT_FOUND) remove(slot);
+	}
+
+	/**
+	 * Removes the tag in the given slot from the table.
+	 */
+	void remove(int slot) {
+		int handle = owners[slot];
+		if (handle < 0) throw new IllegalArgumentException();
+		unlink(slot, handle);
+		// If the next slot is empty, no probe sequence passes through this one
+		if (owners[(slot + 1) & (owners.length - 1)] == EMPTY) {
+			owners[slot] = EMPTY;
+		} else {
+			owners[slot] = DELETED;
+			deleted++;
+		}
+		size--;
+	}
+
+	/**
+	 * Removes all tags and incoming keys belonging to the given contact.
+	 */
+	void removeContact(ContactId c) {
+		Integer first = firstHandles.remove(c);
+		if (first == null) return;
+		int handle = first;
+		while (handle != NONE) {
+			int next = nextHandles[handle];
+			releaseHandle(handle);
+			handle = next;
+		}
+	}
+
+	private void releaseHandle(int handle) {
+		while (firstSlots[handle] != NONE) remove(firstSlots[handle]);
+		contacts[handle] = null;
+		inKeys[handle] = null;
+		nextHandles[handle] = freeHandle;
+		freeHandle = handle;
+	}
+
+	private int find(long high, long low) {
+		int mask = owners.length - 1;
+		int slot = hash(high, low) & mask;
+		while (owners[slot] != EMPTY) {
+			if (owners[slot] >= 0 && tags[slot * 2] == high
+					&& tags[slot * 2 + 1] == low) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return NOT_FOUND;
+	}
+
+	private void store(int slot, long high, long low, int handle,
+			long streamNumber) {
+		tags[slot * 2] = high;
+		tags[slot * 2 + 1] = low;
+		streamNumbers[slot] = streamNumber;
+		owners[slot] = handle;
+		// Link the slot into the handle's list
+		int first = firstSlots[handle];
+		nextSlots[slot] = first;
+		previousSlots[slot] = NONE;
+		if (first != NONE) previousSlots[first] = slot;
+		firstSlots[handle] = slot;
+	}
+
+	private void unlink(int slot, int handle) {
+		int next = nextSlots[slot], previous = previousSlots[slot];
+		if (previous == NONE) firstSlots[handle] = next;
+		else nextSlots[previous] = next;
+		if (next != NONE) previousSlots[next] = previous;
+	}
+
+	private void rehash() {
+		long[] oldTags = tags, oldStreamNumbers = streamNumbers;
+		int[] oldOwners = owners;
+		// Double the capacity if more than half the slots are full,
+		// otherwise rehash at the same capacity to clear deleted slots
+		int capacity = oldOwners.length;
+		while ((size + 1) * 2 > capacity) capacity *= 2;
+		allocateSlots(capacity);
+		deleted = 0;
+		Arrays.fill(firstSlots, 0, allocatedHandles, NONE);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldOwners.length; i++) {
+			if (oldOwners[i] < 0) continue;
+			long high = oldTags[i * 2], low = oldTags[i * 2 + 1];
+			int slot = hash(high, low) & mask;
+			while (owners[slot] != EMPTY) slot = (slot + 1) & mask;
+			store(slot, high, low, oldOwners[i], oldStreamNumbers[i]);
+		}
+	}
+
+	private void allocateSlots(int capacity) {
+		tags = new long[capacity * 2];
+		streamNumbers = new long[capacity];
+		owners = new int[capacity];
+		Arrays.fill(owners, EMPTY);
+		nextSlots = new int[capacity];
+		previousSlots = new int[capacity];
+	}
+
+	private void growHandles() {
+		int length = contacts.length * 2;
+		contacts = Arrays.copyOf(contacts, length);
+		inKeys = Arrays.copyOf(inKeys, length);
+		firstSlots = Arrays.copyOf(firstSlots, length);
+		nextHandles = Arrays.copyOf(nextHandles, length);
+	}
+
+	private static long readHigh(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		return readUint64(tag, 0);
+	}
+
+	private static long readLow(byte[] tag) {
+		if (tag.length != TAG_LENGTH) throw new IllegalArgumentException();
+		return readUint64(tag, 8);
+	}
+
+	private static int hash(long high, long low) {
+		// Tags are pseudo-random, but mix the bits in case they're not
+		long h = (high ^ low) * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32);
+	}
+}
@@ -1,6 +1,5 @@
 package org.briarproject.bramble.transport;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.SecretKey;
@@ -16,9 +15,10 @@ import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.transport.ReorderingWindow.Change;
 
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
@@ -39,6 +39,23 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private static final Logger LOG =
 			Logger.getLogger(TransportKeyManagerImpl.class.getName());
 
+	/**
+	 * The maximum number of contacts whose keys are rotated in each
+	 * transaction.
+	 */
+	static final int ROTATION_BATCH_SIZE = 100;
+
+	/**
+	 * The delay between rotating batches of keys, in milliseconds.
+	 */
+	static final long ROTATION_BATCH_INTERVAL = 1000;
+
+	/**
+	 * The maximum number of sets of incoming keys whose tags are encoded in
+	 * each background task.
+	 */
+	private static final int ENCODING_BATCH_SIZE = 100;
+
 	private final DatabaseComponent db;
 	private final CryptoComponent crypto;
 	private final Executor dbExecutor;
@@ -49,9 +66,12 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 	private final ReentrantLock lock;
 
 	// The following are locking: lock
-	private final Map<Bytes, TagContext> inContexts;
+	private final TagTable inContexts;
 	private final Map<ContactId, MutableOutgoingKeys> outContexts;
 	private final Map<ContactId, MutableTransportKeys> keys;
+	private final Queue<ContactId> rotationQueue;
+	private final Queue<PendingTags> pendingTags;
+	private boolean encodingTags = false;
 
 	TransportKeyManagerImpl(DatabaseComponent db, CryptoComponent crypto,
 			Executor dbExecutor, @Scheduler ScheduledExecutorService scheduler,
@@ -64,9 +84,11 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		this.transportId = transportId;
 		rotationPeriodLength = maxLatency + MAX_CLOCK_DIFFERENCE;
 		lock = new ReentrantLock();
-		inContexts = new HashMap<Bytes, TagContext>();
+		inContexts = new TagTable();
 		outContexts = new HashMap<ContactId, MutableOutgoingKeys>();
 		keys = new HashMap<ContactId, MutableTransportKeys>();
+		rotationQueue = new LinkedList<ContactId>();
+		pendingTags = new LinkedList<PendingTags>();
 	}
 
 	@Override
@@ -121,13 +143,53 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		keys.put(c, m);
 	}
 
+	// Locking: lock
+	private void replaceKeys(ContactId c, MutableTransportKeys old,
+			TransportKeys k) {
+		MutableTransportKeys m = new MutableTransportKeys(k, old);
+		// Remove the tags for any incoming keys that were not reused
+		removeTagsIfReplaced(c, old.getPreviousIncomingKeys(), m);
+		removeTagsIfReplaced(c, old.getCurrentIncomingKeys(), m);
+		removeTagsIfReplaced(c, old.getNextIncomingKeys(), m);
+		// Encode the tags for any new incoming keys. The tags for the next
+		// rotation period aren't needed yet, so they're encoded later
+		if (!containsIncomingKeys(old, m.getPreviousIncomingKeys()))
+			encodeTags(c, m.getPreviousIncomingKeys());
+		if (!containsIncomingKeys(old, m.getCurrentIncomingKeys()))
+			encodeTags(c, m.getCurrentIncomingKeys());
+		if (!containsIncomingKeys(old, m.getNextIncomingKeys())) {
+			inContexts.addIncomingKeys(c, m.getNextIncomingKeys());
+			pendingTags.add(new PendingTags(c, m.getNextIncomingKeys()));
+		}
+		outContexts.put(c, m.getCurrentOutgoingKeys());
+		keys.put(c, m);
+	}
+
+	// Locking: lock
+	private void removeTagsIfReplaced(ContactId c, MutableIncomingKeys inKeys,
+			MutableTransportKeys m) {
+		if (!containsIncomingKeys(m, inKeys))
+			inContexts.removeIncomingKeys(c, inKeys);
+	}
+
+	private boolean containsIncomingKeys(MutableTransportKeys m,
+			MutableIncomingKeys inKeys) {
+		return m.getPreviousIncomingKeys() == inKeys
+				|| m.getCurrentIncomingKeys() == inKeys
+				|| m.getNextIncomingKeys() == inKeys;
+	}
+
 	// Locking: lock
 	private void encodeTags(ContactId c, MutableIncomingKeys inKeys) {
+		encodeTags(inContexts.addIncomingKeys(c, inKeys), inKeys);
+	}
+
+	// Locking: lock
+	private void encodeTags(int handle, MutableIncomingKeys inKeys) {
 		for (long streamNumber : inKeys.getWindow().getUnseen()) {
-			TagContext tagCtx = new TagContext(c, inKeys, streamNumber);
 			byte[] tag = new byte[TAG_LENGTH];
 			crypto.encodeTag(tag, inKeys.getTagKey(), streamNumber);
-			inContexts.put(new Bytes(tag), tagCtx);
+			inContexts.put(tag, handle, streamNumber);
 		}
 	}
 
@@ -135,13 +197,24 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		Runnable task = new Runnable() {
 			@Override
 			public void run() {
-				rotateKeys();
+				startKeyRotation();
 			}
 		};
 		long delay = rotationPeriodLength - now % rotationPeriodLength;
 		scheduler.schedule(task, delay, MILLISECONDS);
 	}
 
+	private void startKeyRotation() {
+		lock.lock();
+		try {
+			// Rotate the keys of all current contacts, a batch at a time
+			rotationQueue.addAll(keys.keySet());
+		} finally {
+			lock.unlock();
+		}
+		rotateKeys();
+	}
+
 	private void rotateKeys() {
 		dbExecutor.execute(new Runnable() {
 			@Override
@@ -162,6 +235,42 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		});
 	}
 
+	private void scheduleNextRotationBatch() {
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				rotateKeys();
+			}
+		};
+		scheduler.schedule(task, ROTATION_BATCH_INTERVAL, MILLISECONDS);
+	}
+
+	private void encodePendingTags() {
+		dbExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (encodePendingTagBatch()) encodePendingTags();
+			}
+		});
+	}
+
+	private boolean encodePendingTagBatch() {
+		lock.lock();
+		try {
+			for (int i = 0; i < ENCODING_BATCH_SIZE; i++) {
+				PendingTags p = pendingTags.poll();
+				if (p == null) break;
+				// The keys may have been removed since they were queued
+				int handle = inContexts.findIncomingKeys(p.contactId, p.inKeys);
+				if (handle != TagTable.NOT_FOUND) encodeTags(handle, p.inKeys);
+			}
+			if (pendingTags.isEmpty()) encodingTags = false;
+			return encodingTags;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	@Override
 	public void addContact(Transaction txn, ContactId c, SecretKey master,
 			long timestamp, boolean alice) throws DbException {
@@ -189,10 +298,7 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Remove mutable state for the contact
-			Iterator<Entry<Bytes, TagContext>> it =
-					inContexts.entrySet().iterator();
-			while (it.hasNext())
-				if (it.next().getValue().contactId.equals(c)) it.remove();
+			inContexts.removeContact(c);
 			outContexts.remove(c);
 			keys.remove(c);
 		} finally {
@@ -229,32 +335,34 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 		lock.lock();
 		try {
 			// Look up the incoming keys for the tag
-			TagContext tagCtx = inContexts.remove(new Bytes(tag));
-			if (tagCtx == null) return null;
-			MutableIncomingKeys inKeys = tagCtx.inKeys;
+			int slot = inContexts.find(tag);
+			if (slot == TagTable.NOT_FOUND) return null;
+			ContactId c = inContexts.getContactId(slot);
+			MutableIncomingKeys inKeys = inContexts.getIncomingKeys(slot);
+			int handle = inContexts.getHandle(slot);
+			long seen = inContexts.getStreamNumber(slot);
+			inContexts.remove(slot);
 			// Create a stream context
-			StreamContext ctx = new StreamContext(tagCtx.contactId, transportId,
-					inKeys.getTagKey(), inKeys.getHeaderKey(),
-					tagCtx.streamNumber);
+			StreamContext ctx = new StreamContext(c, transportId,
+					inKeys.getTagKey(), inKeys.getHeaderKey(), seen);
 			// Update the reordering window
 			ReorderingWindow window = inKeys.getWindow();
-			Change change = window.setSeen(tagCtx.streamNumber);
+			Change change = window.setSeen(seen);
 			// Add tags for any stream numbers added to the window
 			for (long streamNumber : change.getAdded()) {
 				byte[] addTag = new byte[TAG_LENGTH];
 				crypto.encodeTag(addTag, inKeys.getTagKey(), streamNumber);
-				inContexts.put(new Bytes(addTag), new TagContext(
-						tagCtx.contactId, inKeys, streamNumber));
+				inContexts.put(addTag, handle, streamNumber);
 			}
 			// Remove tags for any stream numbers removed from the window
 			for (long streamNumber : change.getRemoved()) {
-				if (streamNumber == tagCtx.streamNumber) continue;
+				if (streamNumber == seen) continue;
 				byte[] removeTag = new byte[TAG_LENGTH];
 				crypto.encodeTag(removeTag, inKeys.getTagKey(), streamNumber);
-				inContexts.remove(new Bytes(removeTag));
+				inContexts.remove(removeTag);
 			}
 			// Write the window back to the DB
-			db.setReorderingWindow(txn, tagCtx.contactId, transportId,
+			db.setReorderingWindow(txn, c, transportId,
 					inKeys.getRotationPeriod(), window.getBase(),
 					window.getBitmap());
 			return ctx;
@@ -265,40 +373,54 @@ class TransportKeyManagerImpl implements TransportKeyManager {
 
 	private void rotateKeys(Transaction txn) throws DbException {
 		long now = clock.currentTimeMillis();
+		long rotationPeriod = now / rotationPeriodLength;
+		boolean done, encode = false;
 		lock.lock();
 		try {
-			// Rotate the keys to the current rotation period
-			Map<ContactId, TransportKeys> snapshot =
+			// Rotate the next batch of keys to the current rotation period.
+			// Keys that haven't been rotated yet can still recognise tags for
+			// the current period, which was their next period
+			Map<ContactId, TransportKeys> rotated =
 					new HashMap<ContactId, TransportKeys>();
-			for (Entry<ContactId, MutableTransportKeys> e : keys.entrySet())
-				snapshot.put(e.getKey(), e.getValue().snapshot());
-			RotationResult rotationResult = rotateKeys(snapshot, now);
-			// Rebuild the mutable state for all contacts
-			inContexts.clear();
-			outContexts.clear();
-			keys.clear();
-			addKeys(rotationResult.current);
+			for (int i = 0; i < ROTATION_BATCH_SIZE; i++) {
+				ContactId c = rotationQueue.poll();
+				if (c == null) break;
+				// The contact may have been removed since rotation started
+				MutableTransportKeys m = keys.get(c);
+				if (m == null) continue;
+				TransportKeys k = m.snapshot();
+				TransportKeys k1 =
+						crypto.rotateTransportKeys(k, rotationPeriod);
+				if (k1.getRotationPeriod() > k.getRotationPeriod()) {
+					replaceKeys(c, m, k1);
+					rotated.put(c, k1);
+				}
+			}
+			done = rotationQueue.isEmpty();
+			if (!pendingTags.isEmpty() && !encodingTags) {
+				encodingTags = true;
+				encode = true;
+			}
 			// Write any rotated keys back to the DB
-			if (!rotationResult.rotated.isEmpty())
-				db.updateTransportKeys(txn, rotationResult.rotated);
+			if (!rotated.isEmpty()) db.updateTransportKeys(txn, rotated);
 		} finally {
 			lock.unlock();
 		}
-		// Schedule the next key rotation
-		scheduleKeyRotation(now);
+		// Encode the tags for the next rotation period in the background
+		if (encode) encodePendingTags();
+		// Rotate the next batch, or schedule the next key rotation
+		if (done) scheduleKeyRotation(now);
+		else scheduleNextRotationBatch();
 	}
 
-	private static class TagContext {
+	private static class PendingTags {
 
 		private final ContactId contactId;
 		private final MutableIncomingKeys inKeys;
-		private final long streamNumber;
 
-		private TagContext(ContactId contactId, MutableIncomingKeys inKeys,
-				long streamNumber) {
+		private PendingTags(ContactId contactId, MutableIncomingKeys inKeys) {
 			this.contactId = contactId;
 			this.inKeys = inKeys;
-			this.streamNumber = streamNumber;
 		}
 	}
 
@@ -0,0 +1,204 @@
+package org.briarproject.bramble;
+
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KeyedExecutorImplTest extends BrambleTestCase {
+
+	private static final String TAG = "Test";
+	private static final int TASKS = 10;
+
+	@Test
+	public void testTasksWithTheSameKeyRunInOrderOfSubmission()
+			throws Exception {
+		// Delegate to a multi-threaded executor
+		Executor delegate = Executors.newCachedThreadPool();
+		KeyedExecutorImpl keyed = new KeyedExecutorImpl(TAG, delegate);
+		final List<Integer> list = new Vector<Integer>();
+		final CountDownLatch latch = new CountDownLatch(TASKS);
+		for (int i = 0; i < TASKS; i++) {
+			final int result = i;
+			keyed.execute("key", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// Each task runs faster than the previous task
+						Thread.sleep(TASKS - result);
+						list.add(result);
+					} catch (InterruptedException e) {
+						fail();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		// Wait for all the tasks to finish
+		latch.await();
+		// The tasks should have finished in the order they were submitted
+		assertEquals(ascendingOrder(), list);
+	}
+
+	@Test
+	public void testTasksWithoutKeysRunInOrderOfSubmission()
+			throws Exception {
+		// Delegate to a multi-threaded executor
+		Executor delegate = Executors.newCachedThreadPool();
+		KeyedExecutorImpl keyed = new KeyedExecutorImpl(TAG, delegate);
+		final List<Integer> list = new Vector<Integer>();
+		final CountDownLatch latch = new CountDownLatch(TASKS);
+		for (int i = 0; i < TASKS; i++) {
+			final int result = i;
+			keyed.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// Each task runs faster than the previous task
+						Thread.sleep(TASKS - result);
+						list.add(result);
+					} catch (InterruptedException e) {
+						fail();
+					}
+					latch.countDown();
+				}
+			});
+		}
+		// Wait for all the tasks to finish
+		latch.await();
+		// The tasks should have finished in the order they were submitted
+		assertEquals(ascendingOrder(), list);
+	}
+
+	@Test
+	public void testTasksWithDifferentKeysRunInParallel() throws Exception {
+		// Delegate to a multi-threaded executor
+		Executor delegate = Executors.newCachedThreadPool();
+		KeyedExecutorImpl keyed = new KeyedExecutorImpl(TAG, delegate);
+		final List<Integer> list = new Vector<Integer>();
+		final CountDownLatch[] latches = new CountDownLatch[TASKS];
+		for (int i = 0; i < TASKS; i++) latches[i] = new CountDownLatch(1);
+		for (int i = 0; i < TASKS; i++) {
+			final int result = i;
+			keyed.execute(result, new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// Each task waits for the next task, if any, to finish
+						if (result < TASKS - 1) latches[result + 1].await();
+						list.add(result);
+					} catch (InterruptedException e) {
+						fail();
+					}
+					latches[result].countDown();
+				}
+			});
+		}
+		// Wait for all the tasks to finish
+		for (int i = 0; i < TASKS; i++) latches[i].await();
+		// The tasks should have finished in reverse order
+		assertEquals(descendingOrder(), list);
+	}
+
+	@Test
+	public void testQueueDepthAndWaitTimeArePerKey() throws Exception {
+		// Delegate to a multi-threaded executor
+		Executor delegate = Executors.newCachedThreadPool();
+		KeyedExecutorImpl keyed = new KeyedExecutorImpl(TAG, delegate);
+		final CountDownLatch firstTaskHasStarted = new CountDownLatch(1);
+		final CountDownLatch firstTaskCanFinish = new CountDownLatch(1);
+		final CountDownLatch allTasksHaveFinished = new CountDownLatch(TASKS);
+		Runnable first = new Runnable() {
+			@Override
+			public void run() {
+				firstTaskHasStarted.countDown();
+				try {
+					assertTrue(firstTaskCanFinish.await(10, SECONDS));
+				} catch (InterruptedException e) {
+					fail();
+				}
+				allTasksHaveFinished.countDown();
+			}
+		};
+		Runnable next = new Runnable() {
+			@Override
+			public void run() {
+				allTasksHaveFinished.countDown();
+			}
+		};
+		// Block the key with the first task, then queue the rest behind it
+		keyed.execute("key", first);
+		assertTrue(firstTaskHasStarted.await(10, SECONDS));
+		for (int i = 1; i < TASKS; i++) keyed.execute("key", next);
+		Thread.sleep(10);
+		// The running task should not be counted
+		assertEquals(TASKS - 1, keyed.getQueueDepth("key"));
+		assertTrue(keyed.getWaitTime("key") >= 10);
+		// Other keys should be unaffected
+		assertEquals(0, keyed.getQueueDepth("other"));
+		assertEquals(0, keyed.getWaitTime("other"));
+		// Allow the tasks to finish
+		firstTaskCanFinish.countDown();
+		assertTrue(allTasksHaveFinished.await(10, SECONDS));
+		assertEquals(0, keyed.getQueueDepth("key"));
+		assertEquals(0, keyed.getWaitTime("key"));
+	}
+
+	@Test
+	public void testRejectedTasksDoNotHoldUpTheirKeys() throws Exception {
+		// Delegate to an executor that rejects the first task
+		final AtomicBoolean reject = new AtomicBoolean(true);
+		Executor delegate = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				if (reject.getAndSet(false))
+					throw new RejectedExecutionException();
+				r.run();
+			}
+		};
+		KeyedExecutorImpl keyed = new KeyedExecutorImpl(TAG, delegate);
+		final AtomicBoolean rejectedTaskRan = new AtomicBoolean(false);
+		final AtomicBoolean nextTaskRan = new AtomicBoolean(false);
+		keyed.execute("key", new Runnable() {
+			@Override
+			public void run() {
+				rejectedTaskRan.set(true);
+			}
+		});
+		// The rejected task should not leave a queue behind
+		assertEquals(0, keyed.getQueueDepth("key"));
+		keyed.execute("key", new Runnable() {
+			@Override
+			public void run() {
+				nextTaskRan.set(true);
+			}
+		});
+		assertFalse(rejectedTaskRan.get());
+		assertTrue(nextTaskRan.get());
+	}
+
+	private List<Integer> ascendingOrder() {
+		Integer[] array = new Integer[TASKS];
+		for (int i = 0; i < TASKS; i++) array[i] = i;
+		return Arrays.asList(array);
+	}
+
+	private List<Integer> descendingOrder() {
+		Integer[] array = new Integer[TASKS];
+		for (int i = 0; i < TASKS; i++) array[i] = TASKS - 1 - i;
+		return Arrays.asList(array);
+	}
+}
@@ -25,13 +25,13 @@ import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.junit.Test;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
 import static org.briarproject.bramble.test.TestUtils.getRandomId;
 import static org.junit.Assert.assertArrayEquals;
@@ -109,7 +109,7 @@ public class ClientHelperImplTest extends BrambleTestCase {
 	public void testGetMessageAsList() throws Exception {
 		final Transaction txn = new Transaction(null, true);
 
-		expectToList(true);
+		expectToList(true, MESSAGE_HEADER_LENGTH);
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(true);
 			will(returnValue(txn));
@@ -215,6 +215,26 @@ public class ClientHelperImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 	}
 
+	@Test
+	public void testGetMessageMetadataAsDictionaryKeys() throws Exception {
+		final Map<MessageId, BdfDictionary> map =
+				new HashMap<MessageId, BdfDictionary>();
+		map.put(messageId, dictionary);
+		final Set<String> keys = Collections.singleton("key");
+		final Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageMetadata(txn, groupId, keys);
+			will(returnValue(Collections.singletonMap(messageId, metadata)));
+			oneOf(metadataParser).parse(metadata);
+			will(returnValue(dictionary));
+		}});
+
+		assertEquals(map,
+				clientHelper.getMessageMetadataAsDictionary(txn, groupId, keys));
+		context.assertIsSatisfied();
+	}
+
 	@Test
 	public void testMergeGroupMetadata() throws Exception {
 		final Transaction txn = new Transaction(null, false);
@@ -261,7 +281,7 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 	@Test
 	public void testToList() throws Exception {
-		expectToList(true);
+		expectToList(true, 0);
 
 		assertEquals(list, clientHelper.toList(rawMessage));
 		context.assertIsSatisfied();
@@ -269,7 +289,7 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 	@Test
 	public void testToListWithNoEof() throws Exception {
-		expectToList(false); // no EOF after list
+		expectToList(false, 0); // no EOF after list
 
 		try {
 			clientHelper.toList(rawMessage);
@@ -331,22 +351,26 @@ public class ClientHelperImplTest extends BrambleTestCase {
 
 	private byte[] expectToByteArray(final BdfList list) throws Exception {
 		final BdfWriter bdfWriter = context.mock(BdfWriter.class);
+		final int length = 123;
 
 		context.checking(new Expectations() {{
-			oneOf(bdfWriterFactory)
-					.createWriter(with(any(ByteArrayOutputStream.class)));
+			oneOf(bdfWriterFactory).getEncodedLength(list);
+			will(returnValue(length));
+			oneOf(bdfWriterFactory).createWriter(with(any(byte[].class)),
+					with(equal(0)));
 			will(returnValue(bdfWriter));
 			oneOf(bdfWriter).writeList(list);
 		}});
-		return new byte[0];
+		return new byte[length];
 	}
 
-	private void expectToList(final boolean eof) throws Exception {
+	private void expectToList(final boolean eof, final int offset)
+			throws Exception {
 		final BdfReader bdfReader = context.mock(BdfReader.class);
 
 		context.checking(new Expectations() {{
-			oneOf(bdfReaderFactory)
-					.createReader(with(any(InputStream.class)));
+			oneOf(bdfReaderFactory).createReader(rawMessage, offset,
+					rawMessage.length - offset);
 			will(returnValue(bdfReader));
 			oneOf(bdfReader).readList();
 			will(returnValue(list));
@@ -0,0 +1,179 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.client.BdfQuery;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupFactory;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseModule;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ClientHelperIntegrationTest extends BrambleTestCase {
+
+	private static final String KEY = "key";
+
+	// Values at both edges of each length in which longs are encoded
+	private static final long[] VALUES = {
+			Long.MIN_VALUE,
+			Integer.MIN_VALUE - 1L, Integer.MIN_VALUE,
+			Short.MIN_VALUE - 1, Short.MIN_VALUE,
+			Byte.MIN_VALUE - 1, Byte.MIN_VALUE,
+			-1, 0, 1,
+			Byte.MAX_VALUE, Byte.MAX_VALUE + 1,
+			Short.MAX_VALUE, Short.MAX_VALUE + 1,
+			Integer.MAX_VALUE, Integer.MAX_VALUE + 1L,
+			Long.MAX_VALUE
+	};
+
+	private final File testDir = TestUtils.getTestDirectory();
+	private final Map<MessageId, Long> values =
+			new HashMap<MessageId, Long>();
+
+	@Inject
+	DatabaseComponent db;
+	@Inject
+	ClientHelper clientHelper;
+	@Inject
+	GroupFactory groupFactory;
+
+	private Group group;
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		ClientHelperIntegrationTestComponent component =
+				DaggerClientHelperIntegrationTestComponent.builder()
+						.testDatabaseModule(new TestDatabaseModule(testDir))
+						.build();
+		component.inject(this);
+		db.open();
+		ClientId clientId = new ClientId(TestUtils.getRandomString(5));
+		group = groupFactory.createGroup(clientId, new byte[0]);
+		// Store a message with each value
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addGroup(txn, group);
+			for (int i = 0; i < VALUES.length; i++) {
+				Message m = clientHelper.createMessage(group.getId(), i,
+						BdfList.of(i));
+				BdfDictionary meta = new BdfDictionary();
+				meta.put(KEY, VALUES[i]);
+				clientHelper.addLocalMessage(txn, m, meta, false);
+				values.put(m.getId(), VALUES[i]);
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@Test
+	public void testRangeWithinOneEncodingLength() throws Exception {
+		testRange(1, Byte.MAX_VALUE);
+		testRange(Byte.MIN_VALUE, -1);
+		testRange(Short.MAX_VALUE + 1, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testRangesCrossingZero() throws Exception {
+		testRange(-1, 0);
+		testRange(-1, 1);
+		testRange(Byte.MIN_VALUE, Byte.MAX_VALUE);
+	}
+
+	@Test
+	public void testRangesCrossingByteBounds() throws Exception {
+		testRange(Byte.MAX_VALUE, Byte.MAX_VALUE + 1);
+		testRange(Byte.MIN_VALUE - 1, Byte.MIN_VALUE);
+		testRange(Byte.MIN_VALUE - 1, Byte.MAX_VALUE + 1);
+		testRange(0, Short.MAX_VALUE);
+	}
+
+	@Test
+	public void testRangesCrossingShortBounds() throws Exception {
+		testRange(Short.MAX_VALUE, Short.MAX_VALUE + 1);
+		testRange(Short.MIN_VALUE - 1, Short.MIN_VALUE);
+		testRange(Short.MIN_VALUE - 1, -1);
+		testRange(Short.MIN_VALUE, Short.MAX_VALUE + 1);
+	}
+
+	@Test
+	public void testRangesCrossingIntegerBounds() throws Exception {
+		testRange(Integer.MAX_VALUE, Integer.MAX_VALUE + 1L);
+		testRange(Integer.MIN_VALUE - 1L, Integer.MIN_VALUE);
+		testRange(Integer.MIN_VALUE - 1L, Integer.MAX_VALUE + 1L);
+		testRange(Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testMultipleRangesForOneKey() throws Exception {
+		BdfQuery query = new BdfQuery()
+				.addRange(KEY, Long.MIN_VALUE, Integer.MIN_VALUE)
+				.addRange(KEY, -1, 1);
+		Set<Long> expected = new HashSet<Long>();
+		for (long value : VALUES) {
+			if (value <= Integer.MIN_VALUE || (value >= -1 && value <= 1))
+				expected.add(value);
+		}
+		assertEquals(expected, query(query));
+	}
+
+	@Test
+	public void testEmptyRange() throws Exception {
+		assertTrue(query(new BdfQuery().addRange(KEY, 2, 126)).isEmpty());
+	}
+
+	private void testRange(long min, long max) throws Exception {
+		Set<Long> expected = new HashSet<Long>();
+		for (long value : VALUES)
+			if (value >= min && value <= max) expected.add(value);
+		assertEquals(expected, query(new BdfQuery().addRange(KEY, min, max)));
+	}
+
+	private Set<Long> query(BdfQuery query) throws Exception {
+		Map<MessageId, BdfDictionary> metadata;
+		Transaction txn = db.startTransaction(true);
+		try {
+			metadata = clientHelper.getMessageMetadataAsDictionary(txn,
+					group.getId(), query);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		Set<Long> found = new HashSet<Long>();
+		for (Entry<MessageId, BdfDictionary> e : metadata.entrySet()) {
+			long value = e.getValue().getLong(KEY);
+			assertEquals(values.get(e.getKey()).longValue(), value);
+			found.add(value);
+		}
+		return found;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		db.close();
+		TestUtils.deleteTestDirectory(testDir);
+	}
+}
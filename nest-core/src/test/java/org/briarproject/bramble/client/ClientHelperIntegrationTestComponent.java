@@ -0,0 +1,33 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.crypto.CryptoModule;
+import org.briarproject.bramble.data.DataModule;
+import org.briarproject.bramble.db.DatabaseModule;
+import org.briarproject.bramble.event.EventModule;
+import org.briarproject.bramble.sync.SyncModule;
+import org.briarproject.bramble.system.SystemModule;
+import org.briarproject.bramble.test.TestDatabaseModule;
+import org.briarproject.bramble.test.TestLifecycleModule;
+import org.briarproject.bramble.test.TestSeedProviderModule;
+
+import javax.inject.Singleton;
+
+import dagger.Component;
+
+@Singleton
+@Component(modules = {
+		TestDatabaseModule.class,
+		TestLifecycleModule.class,
+		TestSeedProviderModule.class,
+		ClientModule.class,
+		CryptoModule.class,
+		DataModule.class,
+		DatabaseModule.class,
+		EventModule.class,
+		SyncModule.class,
+		SystemModule.class
+})
+interface ClientHelperIntegrationTestComponent {
+
+	void inject(ClientHelperIntegrationTest testCase);
+}
@@ -0,0 +1,100 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupFactory;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getRandomString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ContactGroupFactoryImplTest extends BrambleMockTestCase {
+
+	private final GroupFactory groupFactory =
+			context.mock(GroupFactory.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+
+	private final ClientId clientId = new ClientId("clientId");
+	private final AuthorId localAuthorId = new AuthorId(getRandomId());
+	private final Author remote = new Author(new AuthorId(getRandomId()),
+			getRandomString(20), getRandomBytes(MAX_PUBLIC_KEY_LENGTH));
+	private final ContactId contactId = new ContactId(123);
+	private final Contact contact =
+			new Contact(contactId, remote, localAuthorId, true, true);
+	private final byte[] descriptor = getRandomBytes(42);
+	private final Group group = new Group(new GroupId(getRandomId()),
+			clientId, descriptor);
+	private final GroupId groupId = group.getId();
+
+	private final ContactGroupFactoryImpl contactGroupFactory =
+			new ContactGroupFactoryImpl(groupFactory, clientHelper, 10);
+
+	@Test
+	public void testContactGroupIsCreatedOnce() throws Exception {
+		expectCreateGroup();
+
+		assertSame(group,
+				contactGroupFactory.createContactGroup(clientId, contact));
+		assertSame(group,
+				contactGroupFactory.createContactGroup(clientId, contact));
+		// The order of the authors doesn't matter
+		assertSame(group, contactGroupFactory.createContactGroup(clientId,
+				remote.getId(), localAuthorId));
+	}
+
+	@Test
+	public void testContactIdIsUnknownUntilGroupIsCreated()
+			throws Exception {
+		assertNull(contactGroupFactory.getContactId(groupId));
+
+		expectCreateGroup();
+
+		// Creating the group from the authors doesn't identify the contact
+		contactGroupFactory.createContactGroup(clientId, localAuthorId,
+				remote.getId());
+		assertNull(contactGroupFactory.getContactId(groupId));
+
+		contactGroupFactory.createContactGroup(clientId, contact);
+		assertEquals(contactId, contactGroupFactory.getContactId(groupId));
+	}
+
+	@Test
+	public void testRemovingContactForgetsContactId() throws Exception {
+		expectCreateGroup();
+
+		contactGroupFactory.createContactGroup(clientId, contact);
+		assertEquals(contactId, contactGroupFactory.getContactId(groupId));
+
+		// Removing another contact has no effect
+		contactGroupFactory.eventOccurred(
+				new ContactRemovedEvent(new ContactId(234)));
+		assertEquals(contactId, contactGroupFactory.getContactId(groupId));
+
+		contactGroupFactory.eventOccurred(new ContactRemovedEvent(contactId));
+		assertNull(contactGroupFactory.getContactId(groupId));
+	}
+
+	private void expectCreateGroup() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).toByteArray(with(any(BdfList.class)));
+			will(returnValue(descriptor));
+			oneOf(groupFactory).createGroup(clientId, descriptor);
+			will(returnValue(group));
+		}});
+	}
+}
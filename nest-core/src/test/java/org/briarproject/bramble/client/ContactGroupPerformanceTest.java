@@ -0,0 +1,98 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupFactory;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+
+// Not a JUnit test
+public class ContactGroupPerformanceTest {
+
+	private static final int[] CONTACTS = {100, 500, 1000};
+	private static final int RENDERS = 100;
+	private static final int MAX_CACHED_CONTACT_GROUPS = 10 * 1000;
+
+	// The clients that look up each contact's group when the conversation
+	// list is rendered
+	private static final ClientId[] CLIENTS = {
+			new ClientId("org.briarproject.briar.messaging"),
+			new ClientId("org.briarproject.briar.introduction"),
+			new ClientId("org.briarproject.briar.privategroup.invitation"),
+			new ClientId("org.briarproject.briar.forum.sharing"),
+			new ClientId("org.briarproject.briar.blog.sharing")
+	};
+
+	public static void main(String[] args) throws Exception {
+		ContactGroupPerformanceTestComponent component =
+				DaggerContactGroupPerformanceTestComponent.builder().build();
+		GroupFactory groupFactory = component.getGroupFactory();
+		ClientHelper clientHelper = component.getClientHelper();
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			for (int contacts : CONTACTS) {
+				List<Contact> list = createContacts(contacts);
+				// Every lookup encodes and hashes the descriptor, as
+				// before the cache was added
+				long uncached = runTest(list, new ContactGroupFactoryImpl(
+						groupFactory, clientHelper, 0));
+				// Every lookup is served from the contact group cache
+				long cached = runTest(list, new ContactGroupFactoryImpl(
+						groupFactory, clientHelper,
+						MAX_CACHED_CONTACT_GROUPS));
+				System.out.println(contacts + " contacts, renders per second: "
+						+ (RENDERS * 1000L / uncached) + " uncached, "
+						+ (RENDERS * 1000L / cached)
+						+ " with contact groups cached");
+			}
+		}
+	}
+
+	private static long runTest(List<Contact> contacts,
+			ContactGroupFactory contactGroupFactory) {
+		// Render the list once before timing, as the app would have done
+		// when it started
+		render(contacts, contactGroupFactory);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < RENDERS; i++)
+			render(contacts, contactGroupFactory);
+		return Math.max(1, System.currentTimeMillis() - start);
+	}
+
+	// Each row of the conversation list needs each client's group for the
+	// contact, and the contact of each group with unread messages
+	private static void render(List<Contact> contacts,
+			ContactGroupFactory contactGroupFactory) {
+		for (Contact c : contacts) {
+			for (ClientId clientId : CLIENTS) {
+				Group g = contactGroupFactory.createContactGroup(clientId, c);
+				ContactId id = contactGroupFactory.getContactId(g.getId());
+				if (id != null && !id.equals(c.getId()))
+					throw new AssertionError();
+			}
+		}
+	}
+
+	private static List<Contact> createContacts(int count) {
+		AuthorId localAuthorId = new AuthorId(TestUtils.getRandomId());
+		List<Contact> contacts = new ArrayList<Contact>(count);
+		for (int i = 0; i < count; i++) {
+			AuthorId id = new AuthorId(TestUtils.getRandomId());
+			Author remote = new Author(id, TestUtils.getRandomString(20),
+					TestUtils.getRandomBytes(MAX_PUBLIC_KEY_LENGTH));
+			contacts.add(new Contact(new ContactId(i), remote, localAuthorId,
+					true, true));
+		}
+		return contacts;
+	}
+}
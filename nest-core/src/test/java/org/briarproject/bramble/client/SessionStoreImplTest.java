@@ -0,0 +1,172 @@
+package org.briarproject.bramble.client;
+
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.event.GroupRemovedEvent;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public class SessionStoreImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+
+	private final Group group = new Group(new GroupId(getRandomId()),
+			new ClientId("clientId"), getRandomBytes(42));
+	private final GroupId groupId = group.getId();
+	private final MessageId sessionId = new MessageId(getRandomId());
+	private final BdfDictionary session =
+			BdfDictionary.of(new BdfEntry("foo", "bar"));
+	private final byte[] encoded = getRandomBytes(42);
+
+	private final SessionStoreImpl sessionStore =
+			new SessionStoreImpl(db, clientHelper, 10);
+
+	@Test
+	public void testReadOnlyTransactionPopulatesCache() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			// The first read goes to the database
+			oneOf(db).getSession(txn, groupId, sessionId);
+			will(returnValue(encoded));
+			// Each read decodes a fresh copy of the session
+			exactly(2).of(clientHelper).toDictionary(encoded, 0,
+					encoded.length);
+			will(onConsecutiveCalls(returnValue(session),
+					returnValue(new BdfDictionary(session))));
+		}});
+
+		BdfDictionary first = sessionStore.getSession(txn, groupId, sessionId);
+		BdfDictionary second =
+				sessionStore.getSession(txn1, groupId, sessionId);
+		assertEquals(first, second);
+		assertNotSame(first, second);
+	}
+
+	@Test
+	public void testReadWriteTransactionDoesNotPopulateCache()
+			throws Exception {
+		final Transaction txn = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(db).getSession(txn, groupId, sessionId);
+			will(returnValue(encoded));
+			exactly(2).of(clientHelper).toDictionary(encoded, 0,
+					encoded.length);
+			will(returnValue(session));
+		}});
+
+		sessionStore.getSession(txn, groupId, sessionId);
+		sessionStore.getSession(txn, groupId, sessionId);
+	}
+
+	@Test
+	public void testMissingSessionIsNotCached() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			exactly(2).of(db).getSession(txn, groupId, sessionId);
+			will(returnValue(null));
+		}});
+
+		assertNull(sessionStore.getSession(txn, groupId, sessionId));
+		assertNull(sessionStore.getSession(txn, groupId, sessionId));
+	}
+
+	@Test
+	public void testStoredSessionIsCachedWhenTransactionCommits()
+			throws Exception {
+		final Transaction txn = new Transaction(null, false);
+		final Transaction txn1 = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).toByteArray(session);
+			will(returnValue(encoded));
+			oneOf(db).setSession(txn, groupId, sessionId, encoded);
+		}});
+
+		sessionStore.storeSession(txn, groupId, sessionId, session);
+		assertEquals(1, txn.getCommitActions().size());
+
+		// Until the transaction commits, reads go to the database
+		context.checking(new Expectations() {{
+			oneOf(db).getSession(txn, groupId, sessionId);
+			will(returnValue(encoded));
+			oneOf(clientHelper).toDictionary(encoded, 0, encoded.length);
+			will(returnValue(session));
+		}});
+
+		sessionStore.getSession(txn, groupId, sessionId);
+
+		// Once the transaction commits, reads are served from the cache
+		for (Runnable r : txn.getCommitActions()) r.run();
+
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).toDictionary(encoded, 0, encoded.length);
+			will(returnValue(session));
+		}});
+
+		assertEquals(session,
+				sessionStore.getSession(txn1, groupId, sessionId));
+	}
+
+	@Test
+	public void testRemovedSessionIsDroppedFromCache() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, false);
+
+		expectCacheSession(txn);
+
+		context.checking(new Expectations() {{
+			oneOf(db).removeSession(txn1, groupId, sessionId);
+			oneOf(db).getSession(txn, groupId, sessionId);
+			will(returnValue(null));
+		}});
+
+		sessionStore.removeSession(txn1, groupId, sessionId);
+		for (Runnable r : txn1.getCommitActions()) r.run();
+		assertNull(sessionStore.getSession(txn, groupId, sessionId));
+	}
+
+	@Test
+	public void testRemovingGroupDropsSessionsFromCache() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+
+		expectCacheSession(txn);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getSession(txn, groupId, sessionId);
+			will(returnValue(null));
+		}});
+
+		sessionStore.eventOccurred(new GroupRemovedEvent(group));
+		assertNull(sessionStore.getSession(txn, groupId, sessionId));
+	}
+
+	private void expectCacheSession(final Transaction txn) throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).getSession(txn, groupId, sessionId);
+			will(returnValue(encoded));
+			oneOf(clientHelper).toDictionary(encoded, 0, encoded.length);
+			will(returnValue(session));
+		}});
+
+		sessionStore.getSession(txn, groupId, sessionId);
+	}
+}
@@ -114,6 +114,24 @@ public class Blake2sDigestTest extends BrambleTestCase {
 		assertArrayEquals(hash, hash1);
 	}
 
+	@Test
+	public void testSetKey() {
+		// Start with a different key, then replace it
+		Blake2sDigest digest = new Blake2sDigest(new byte[16]);
+		digest.update(new byte[100], 0, 100);
+		for (String[] keyedTestVector : keyedTestVectors) {
+			byte[] input = StringUtils.fromHexString(keyedTestVector[0]);
+			digest.setKey(StringUtils.fromHexString(keyedTestVector[1]));
+
+			digest.update(input, 0, input.length);
+			byte[] hash = new byte[32];
+			digest.doFinal(hash, 0);
+
+			assertArrayEquals(StringUtils.fromHexString(keyedTestVector[2]),
+					hash);
+		}
+	}
+
 	// Self-test routine from https://tools.ietf.org/html/rfc7693#appendix-E
 	private static final String SELF_TEST_RESULT =
 			"6A411F08CE25ADCDFB02ABA641451CEC53C598B24F4FC787FBDC88797F4C1DFE";
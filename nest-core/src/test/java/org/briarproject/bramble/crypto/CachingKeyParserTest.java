@@ -0,0 +1,80 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.KeyParser;
+import org.briarproject.bramble.api.crypto.PublicKey;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.TestUtils;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class CachingKeyParserTest extends BrambleMockTestCase {
+
+	private final KeyParser delegate = context.mock(KeyParser.class);
+	private final PublicKey publicKey = context.mock(PublicKey.class, "key");
+	private final PublicKey publicKey1 =
+			context.mock(PublicKey.class, "key1");
+	private final byte[] encoded = TestUtils.getRandomBytes(65);
+	private final byte[] encoded1 = TestUtils.getRandomBytes(65);
+
+	@Test
+	public void testValidKeyIsOnlyParsedOnce() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(delegate).parsePublicKey(with(equal(encoded)));
+			will(returnValue(publicKey));
+		}});
+
+		KeyParser parser = new CachingKeyParser(delegate, 10);
+		assertSame(publicKey, parser.parsePublicKey(encoded));
+		// A copy of the encoding should hit the cache
+		assertSame(publicKey, parser.parsePublicKey(encoded.clone()));
+	}
+
+	@Test
+	public void testInvalidKeyIsNotCached() throws Exception {
+		context.checking(new Expectations() {{
+			exactly(2).of(delegate).parsePublicKey(with(equal(encoded)));
+			will(throwException(new GeneralSecurityException()));
+		}});
+
+		KeyParser parser = new CachingKeyParser(delegate, 10);
+		for (int i = 0; i < 2; i++) {
+			try {
+				parser.parsePublicKey(encoded);
+				fail();
+			} catch (GeneralSecurityException expected) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testLeastRecentlyUsedKeyIsEvicted() throws Exception {
+		final byte[] encoded2 = TestUtils.getRandomBytes(65);
+		final PublicKey publicKey2 = context.mock(PublicKey.class, "key2");
+		context.checking(new Expectations() {{
+			// The first key is parsed twice because it's evicted
+			exactly(2).of(delegate).parsePublicKey(with(equal(encoded)));
+			will(returnValue(publicKey));
+			oneOf(delegate).parsePublicKey(with(equal(encoded1)));
+			will(returnValue(publicKey1));
+			oneOf(delegate).parsePublicKey(with(equal(encoded2)));
+			will(returnValue(publicKey2));
+		}});
+
+		KeyParser parser = new CachingKeyParser(delegate, 2);
+		parser.parsePublicKey(encoded);
+		parser.parsePublicKey(encoded1);
+		// Use the second key again so the first key is least recently used
+		assertSame(publicKey1, parser.parsePublicKey(encoded1));
+		// Adding a third key should evict the first key
+		parser.parsePublicKey(encoded2);
+		assertSame(publicKey1, parser.parsePublicKey(encoded1));
+		assertSame(publicKey2, parser.parsePublicKey(encoded2));
+		assertSame(publicKey, parser.parsePublicKey(encoded));
+	}
+}
@@ -0,0 +1,109 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SecretKey;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.MAC_LENGTH;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+// Not a JUnit test
+public class CryptoPerformanceTest {
+
+	private static final String LABEL = "label";
+	private static final int INPUT_LENGTH = 1024;
+	private static final int FAST_OPS = 100 * 1000;
+	private static final int SLOW_OPS = 500;
+
+	public static void main(String[] args) throws Exception {
+		final CryptoComponent crypto =
+				new CryptoComponentImpl(new TestSecureRandomProvider());
+		final byte[] input = TestUtils.getRandomBytes(INPUT_LENGTH);
+		final byte[] output = new byte[INPUT_LENGTH + MAC_LENGTH];
+		final byte[] hash = new byte[crypto.getHashLength()];
+		final byte[] tag = new byte[TAG_LENGTH];
+		final byte[] iv = new byte[24];
+		final SecretKey key = TestUtils.getSecretKey();
+		KeyPair keyPair = crypto.generateSignatureKeyPair();
+		final byte[] privateKey = keyPair.getPrivate().getEncoded();
+		final byte[] publicKey = keyPair.getPublic().getEncoded();
+		final byte[] signature = crypto.sign(LABEL, input, privateKey);
+		final AuthenticatedCipher cipher =
+				new XSalsa20Poly1305AuthenticatedCipher();
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			runTest("hash", FAST_OPS, new Op() {
+				@Override
+				public void run(int i) {
+					crypto.hash(LABEL, input);
+				}
+			});
+			runTest("hash into buffer", FAST_OPS, new Op() {
+				@Override
+				public void run(int i) {
+					crypto.hash(LABEL, hash, 0, input);
+				}
+			});
+			runTest("mac", FAST_OPS, new Op() {
+				@Override
+				public void run(int i) {
+					crypto.mac(key, input);
+				}
+			});
+			runTest("encodeTag", FAST_OPS, new Op() {
+				@Override
+				public void run(int i) {
+					crypto.encodeTag(tag, key, i);
+				}
+			});
+			runTest("encrypt frame", FAST_OPS, new Op() {
+				@Override
+				public void run(int i) throws GeneralSecurityException {
+					cipher.init(true, key, iv);
+					cipher.process(input, 0, INPUT_LENGTH, output, 0);
+				}
+			});
+			runTest("sign", SLOW_OPS, new Op() {
+				@Override
+				public void run(int i) throws GeneralSecurityException {
+					crypto.sign(LABEL, input, privateKey);
+				}
+			});
+			runTest("verify", SLOW_OPS, new Op() {
+				@Override
+				public void run(int i) throws GeneralSecurityException {
+					crypto.verify(LABEL, input, publicKey, signature);
+				}
+			});
+		}
+	}
+
+	private static void runTest(String name, int ops, Op op)
+			throws GeneralSecurityException {
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < ops; i++) op.run(i);
+		long duration = Math.max(1, System.nanoTime() - start);
+		long allocated = getAllocatedBytes() - allocatedBefore;
+		System.out.println(name + ": " + ops * 1000L * 1000 * 1000 / duration
+				+ " ops/s, " + allocated / ops + " bytes allocated/op");
+	}
+
+	private static long getAllocatedBytes() {
+		// Only supported on HotSpot-based JVMs
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)
+						ManagementFactory.getThreadMXBean();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private interface Op {
+
+		void run(int i) throws GeneralSecurityException;
+	}
+}
@@ -1,5 +1,8 @@
 package org.briarproject.bramble.crypto;
 
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
 import org.spongycastle.asn1.sec.SECNamedCurves;
 import org.spongycastle.asn1.teletrust.TeleTrusTNamedCurves;
 import org.spongycastle.asn1.x9.X9ECParameters;
@@ -21,6 +24,7 @@ import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.math.ec.MontgomeryLadderMultiplier;
 
 import java.math.BigInteger;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -33,12 +37,16 @@ public class EllipticCurvePerformanceTest {
 	private static final SecureRandom random = new SecureRandom();
 	private static final int SAMPLES = 50;
 	private static final int BYTES_TO_SIGN = 1024;
+	private static final int VERIFICATIONS = 500;
+	private static final String LABEL = "label";
 	private static final List<String> SEC_NAMES = Arrays.asList(
 			"secp256k1", "secp256r1", "secp384r1", "secp521r1");
 	private static final List<String> BRAINPOOL_NAMES = Arrays.asList(
 			"brainpoolp256r1", "brainpoolp384r1", "brainpoolp512r1");
 
-	public static void main(String[] args) {
+	public static void main(String[] args) throws GeneralSecurityException {
+		System.out.println("Operations per second: agreement, signature,"
+				+ " verification");
 		for (String name : SEC_NAMES) {
 			ECDomainParameters params =
 					convertParams(SECNamedCurves.getByName(name));
@@ -52,6 +60,36 @@ public class EllipticCurvePerformanceTest {
 			runTest(name + " constant", constantTime(params));
 		}
 		runTest("ours", EllipticCurveConstants.PARAMETERS);
+		runTest("ours public", EllipticCurveConstants.PUBLIC_PARAMETERS);
+		// Run twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) runVerificationTest();
+	}
+
+	// Verifies signatures by a few authors, as a validator would
+	private static void runVerificationTest() throws GeneralSecurityException {
+		CryptoComponent crypto =
+				new CryptoComponentImpl(new TestSecureRandomProvider());
+		int authors = 10;
+		byte[][] publicKeys = new byte[authors][];
+		byte[][] signatures = new byte[authors][];
+		byte[] toSign = new byte[BYTES_TO_SIGN];
+		for (int i = 0; i < authors; i++) {
+			KeyPair keyPair = crypto.generateSignatureKeyPair();
+			publicKeys[i] = keyPair.getPublic().getEncoded();
+			byte[] privateKey = keyPair.getPrivate().getEncoded();
+			signatures[i] = crypto.sign(LABEL, toSign, privateKey);
+		}
+		long start = System.nanoTime();
+		for (int i = 0; i < VERIFICATIONS; i++) {
+			int author = i % authors;
+			if (!crypto.verify(LABEL, toSign, publicKeys[author],
+					signatures[author])) {
+				throw new AssertionError();
+			}
+		}
+		long duration = System.nanoTime() - start;
+		System.out.println("CryptoComponent verification: "
+				+ VERIFICATIONS * 1000L * 1000 * 1000 / duration + " ops/s");
 	}
 
 	private static void runTest(String name, ECDomainParameters params) {
@@ -109,9 +147,13 @@ public class EllipticCurvePerformanceTest {
 		}
 		long verificationMedian = median(samples);
 		System.out.println(name + ": "
-				+ agreementMedian + " "
-				+ signatureMedian + " "
-				+ verificationMedian);
+				+ opsPerSecond(agreementMedian) + " "
+				+ opsPerSecond(signatureMedian) + " "
+				+ opsPerSecond(verificationMedian));
+	}
+
+	private static long opsPerSecond(long nanosPerOp) {
+		return 1000L * 1000 * 1000 / Math.max(1, nanosPerOp);
 	}
 
 	private static long median(List<Long> list) {
@@ -47,4 +47,18 @@ public class HashTest extends BrambleTestCase {
 		assertFalse(Arrays.equals(hash1, hash2));
 	}
 
+	@Test
+	public void testHashingIntoBufferProducesIdenticalHash() {
+		byte[] hash1 = crypto.hash(label, inputBytes, inputBytes1, inputBytes2);
+		byte[] buffer = new byte[hash1.length + 10];
+		crypto.hash(label, buffer, 10, inputBytes, inputBytes1, inputBytes2);
+		assertArrayEquals(hash1, Arrays.copyOfRange(buffer, 10, buffer.length));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testHashingIntoShortBufferThrowsException() {
+		byte[] buffer = new byte[crypto.getHashLength() - 1];
+		crypto.hash(label, buffer, 0, inputBytes);
+	}
+
 }
@@ -0,0 +1,109 @@
+package org.briarproject.bramble.crypto;
+
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SignedData;
+import org.briarproject.bramble.test.TestSecureRandomProvider;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Not a JUnit test
+public class SignatureBatchPerformanceTest {
+
+	private static final String LABEL = "label";
+	private static final int AUTHORS = 100;
+	private static final int POSTS = 10 * 1000;
+	private static final int POST_LENGTH = 1000;
+	// The same as ValidationManagerImpl.MAX_SIGNATURE_BATCH_SIZE
+	private static final int BATCH_SIZE = 256;
+	// The same as SyncModule.MAX_CONCURRENT_VALIDATION_TASKS
+	private static final int THREADS =
+			Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			CryptoComponent crypto = new CryptoComponentImpl(
+					new TestSecureRandomProvider(), executor);
+			List<SignedData> posts = createPosts(crypto);
+			System.out.println(POSTS + " posts by " + AUTHORS + " authors, "
+					+ THREADS + " validation threads");
+			// Run each test twice so the second run is measured with a
+			// warm JIT
+			for (int i = 0; i < 2; i++) {
+				long single = verifySeparately(crypto, executor, posts);
+				long batch = verifyInBatches(crypto, posts);
+				System.out.println("Posts per second: separately "
+						+ POSTS * 1000L / single + ", in batches "
+						+ POSTS * 1000L / batch);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static List<SignedData> createPosts(CryptoComponent crypto)
+			throws GeneralSecurityException {
+		byte[][] publicKeys = new byte[AUTHORS][];
+		byte[][] privateKeys = new byte[AUTHORS][];
+		for (int i = 0; i < AUTHORS; i++) {
+			KeyPair keyPair = crypto.generateSignatureKeyPair();
+			publicKeys[i] = keyPair.getPublic().getEncoded();
+			privateKeys[i] = keyPair.getPrivate().getEncoded();
+		}
+		List<SignedData> posts = new ArrayList<SignedData>(POSTS);
+		for (int i = 0; i < POSTS; i++) {
+			int author = i % AUTHORS;
+			byte[] post = TestUtils.getRandomBytes(POST_LENGTH);
+			byte[] sig = crypto.sign(LABEL, post, privateKeys[author]);
+			posts.add(new SignedData(LABEL, post, publicKeys[author], sig));
+		}
+		return posts;
+	}
+
+	// Verifies each post in its own task, as validators do at present
+	private static long verifySeparately(final CryptoComponent crypto,
+			ExecutorService executor, List<SignedData> posts)
+			throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(posts.size());
+		long start = System.currentTimeMillis();
+		for (final SignedData d : posts) {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (!crypto.verify(d.getLabel(), d.getSignedData(),
+								d.getPublicKey(), d.getSignature())) {
+							throw new AssertionError();
+						}
+					} catch (GeneralSecurityException e) {
+						throw new AssertionError(e);
+					} finally {
+						latch.countDown();
+					}
+				}
+			});
+		}
+		latch.await();
+		return Math.max(1, System.currentTimeMillis() - start);
+	}
+
+	// Verifies the posts in batches, as ValidationManagerImpl does for
+	// deferred signatures
+	private static long verifyInBatches(CryptoComponent crypto,
+			List<SignedData> posts) {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < posts.size(); i += BATCH_SIZE) {
+			int end = Math.min(posts.size(), i + BATCH_SIZE);
+			for (boolean valid : crypto.verifyBatch(posts.subList(i, end)))
+				if (!valid) throw new AssertionError();
+		}
+		return Math.max(1, System.currentTimeMillis() - start);
+	}
+}
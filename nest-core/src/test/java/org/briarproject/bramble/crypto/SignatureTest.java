@@ -2,14 +2,21 @@ package org.briarproject.bramble.crypto;
 
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.crypto.KeyPair;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestSecureRandomProvider;
 import org.briarproject.bramble.test.TestUtils;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -106,4 +113,37 @@ public class SignatureTest extends BrambleTestCase {
 		assertFalse(crypto.verify(label2, inputBytes, publicKey, sig));
 	}
 
+	@Test
+	public void testBatchVerificationFindsInvalidSignatures() throws Exception {
+		byte[] inputBytes2 = TestUtils.getRandomBytes(123);
+		byte[] sig = crypto.sign(label, inputBytes, privateKey);
+		byte[] sig2 = crypto.sign(label, inputBytes2, privateKey);
+		byte[] invalidKey = TestUtils.getRandomBytes(publicKey.length);
+		List<SignedData> batch = new ArrayList<SignedData>();
+		for (int i = 0; i < 10; i++) {
+			// Valid
+			batch.add(new SignedData(label, inputBytes, publicKey, sig));
+			// Wrong signature
+			batch.add(new SignedData(label, inputBytes, publicKey, sig2));
+			// Invalid public key
+			batch.add(new SignedData(label, inputBytes, invalidKey, sig));
+		}
+		// Verify the batch with and without helper threads
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		CryptoComponent[] components = {crypto,
+				new CryptoComponentImpl(new TestSecureRandomProvider(),
+						executor)};
+		try {
+			for (CryptoComponent c : components) {
+				boolean[] valid = c.verifyBatch(batch);
+				assertEquals(batch.size(), valid.length);
+				for (int i = 0; i < valid.length; i++)
+					assertEquals(i % 3 == 0, valid[i]);
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(0, crypto.verifyBatch(
+				Collections.<SignedData>emptyList()).length);
+	}
 }
@@ -0,0 +1,154 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfWriter;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.briarproject.bramble.api.data.BdfReader.DEFAULT_NESTED_LIMIT;
+
+// Not a JUnit test
+public class BdfPerformanceTest {
+
+	private static final int OPS = 200 * 1000;
+
+	public static void main(String[] args) throws Exception {
+		// Shaped like a forum post: type, parent ID, author, content and
+		// signature
+		BdfList post = BdfList.of(1, TestUtils.getRandomId(),
+				BdfList.of("Author", TestUtils.getRandomBytes(91)),
+				TestUtils.getRandomString(1000),
+				TestUtils.getRandomBytes(72));
+		// Shaped like the metadata of a blog post
+		BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry("type", 0),
+				new BdfEntry("timestamp", System.currentTimeMillis()),
+				new BdfEntry("read", false),
+				new BdfEntry("originalMessageId", TestUtils.getRandomId()),
+				new BdfEntry("author", BdfDictionary.of(
+						new BdfEntry("id", TestUtils.getRandomId()),
+						new BdfEntry("name", "Author"),
+						new BdfEntry("publicKey",
+								TestUtils.getRandomBytes(91)))));
+		final byte[] postBytes = writeToStream(post);
+		final byte[] metaBytes = writeToStream(meta);
+		final BdfList postList = post;
+		final BdfDictionary metaDict = meta;
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			runTest("read post from stream", new Op() {
+				@Override
+				public void run() throws IOException {
+					new BdfReaderImpl(new ByteArrayInputStream(postBytes),
+							DEFAULT_NESTED_LIMIT).readList();
+				}
+			});
+			runTest("read post from array", new Op() {
+				@Override
+				public void run() throws IOException {
+					new ByteArrayBdfReader(postBytes, 0, postBytes.length,
+							DEFAULT_NESTED_LIMIT).readList();
+				}
+			});
+			runTest("read metadata from stream", new Op() {
+				@Override
+				public void run() throws IOException {
+					new BdfReaderImpl(new ByteArrayInputStream(metaBytes),
+							DEFAULT_NESTED_LIMIT).readDictionary();
+				}
+			});
+			runTest("read metadata from array", new Op() {
+				@Override
+				public void run() throws IOException {
+					new ByteArrayBdfReader(metaBytes, 0, metaBytes.length,
+							DEFAULT_NESTED_LIMIT).readDictionary();
+				}
+			});
+			// Compare the old and new storage for BdfDictionary
+			runTest("copy metadata into skip list map", new Op() {
+				@Override
+				public void run() {
+					new ConcurrentSkipListMap<String, Object>(metaDict);
+				}
+			});
+			runTest("copy metadata into dictionary", new Op() {
+				@Override
+				public void run() {
+					new BdfDictionary(metaDict);
+				}
+			});
+			runTest("write post to stream", new Op() {
+				@Override
+				public void run() throws IOException {
+					writeToStream(postList);
+				}
+			});
+			runTest("write post to array", new Op() {
+				@Override
+				public void run() throws IOException {
+					writeToArray(postList);
+				}
+			});
+			runTest("write metadata to stream", new Op() {
+				@Override
+				public void run() throws IOException {
+					writeToStream(metaDict);
+				}
+			});
+			runTest("write metadata to array", new Op() {
+				@Override
+				public void run() throws IOException {
+					writeToArray(metaDict);
+				}
+			});
+		}
+	}
+
+	// As ClientHelperImpl.toByteArray() used to do
+	private static byte[] writeToStream(Object o) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BdfWriter w = new BdfWriterImpl(out);
+		if (o instanceof BdfList) w.writeList((BdfList) o);
+		else w.writeDictionary((BdfDictionary) o);
+		return out.toByteArray();
+	}
+
+	// As ClientHelperImpl.toByteArray() now does
+	private static byte[] writeToArray(Object o) throws IOException {
+		byte[] b = new byte[ByteArrayBdfWriter.getEncodedLength(o)];
+		BdfWriter w = new ByteArrayBdfWriter(b, 0);
+		if (o instanceof BdfList) w.writeList((BdfList) o);
+		else w.writeDictionary((BdfDictionary) o);
+		return b;
+	}
+
+	private static void runTest(String name, Op op) throws IOException {
+		long allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < OPS; i++) op.run();
+		long duration = Math.max(1, System.nanoTime() - start);
+		long allocated = getAllocatedBytes() - allocatedBefore;
+		System.out.println(name + ": " + OPS * 1000L * 1000 * 1000 / duration
+				+ " ops/s, " + allocated / OPS + " bytes allocated/op");
+	}
+
+	private static long getAllocatedBytes() {
+		// Only supported on HotSpot-based JVMs
+		com.sun.management.ThreadMXBean threads =
+				(com.sun.management.ThreadMXBean)
+						ManagementFactory.getThreadMXBean();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private interface Op {
+
+		void run() throws IOException;
+	}
+}
@@ -3,6 +3,7 @@ package org.briarproject.bramble.data;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.util.StringUtils;
@@ -19,7 +20,7 @@ import static org.junit.Assert.assertTrue;
 
 public class BdfReaderImplTest extends BrambleTestCase {
 
-	private BdfReaderImpl r = null;
+	private BdfReader r = null;
 
 	@Test
 	public void testReadEmptyInput() throws Exception {
@@ -538,8 +539,11 @@ public class BdfReaderImplTest extends BrambleTestCase {
 	}
 
 	private void setContents(String hex) {
-		ByteArrayInputStream in = new ByteArrayInputStream(
-				StringUtils.fromHexString(hex));
-		r = new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT);
+		r = createReader(StringUtils.fromHexString(hex));
+	}
+
+	BdfReader createReader(byte[] b) {
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		return new BdfReaderImpl(in, DEFAULT_NESTED_LIMIT);
 	}
 }
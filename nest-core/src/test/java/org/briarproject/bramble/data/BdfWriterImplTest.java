@@ -1,5 +1,6 @@
 package org.briarproject.bramble.data;
 
+import org.briarproject.bramble.api.data.BdfWriter;
 import org.briarproject.bramble.test.BrambleTestCase;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.util.StringUtils;
@@ -19,7 +20,7 @@ import static org.junit.Assert.assertArrayEquals;
 public class BdfWriterImplTest extends BrambleTestCase {
 
 	private ByteArrayOutputStream out = null;
-	private BdfWriterImpl w = null;
+	BdfWriter w = null;
 
 	@Before
 	public void setUp() {
@@ -232,10 +233,14 @@ public class BdfWriterImplTest extends BrambleTestCase {
 	}
 
 	private void checkContents(String hex) throws IOException {
+		byte[] actual = getContents();
+		byte[] expected = StringUtils.fromHexString(hex);
+		assertArrayEquals(StringUtils.toHexString(actual), expected, actual);
+	}
+
+	byte[] getContents() throws IOException {
 		out.flush();
 		out.close();
-		byte[] expected = StringUtils.fromHexString(hex);
-		assertArrayEquals(StringUtils.toHexString(out.toByteArray()),
-				expected, out.toByteArray());
+		return out.toByteArray();
 	}
 }
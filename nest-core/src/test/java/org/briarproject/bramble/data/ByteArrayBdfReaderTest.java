@@ -0,0 +1,47 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfReader;
+import org.briarproject.bramble.util.StringUtils;
+import org.junit.Test;
+
+import static org.briarproject.bramble.data.BdfReaderImpl.DEFAULT_NESTED_LIMIT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Runs the BdfReaderImpl tests against the byte array reader
+public class ByteArrayBdfReaderTest extends BdfReaderImplTest {
+
+	@Override
+	BdfReader createReader(byte[] b) {
+		return new ByteArrayBdfReader(b, 0, b.length, DEFAULT_NESTED_LIMIT);
+	}
+
+	@Test
+	public void testReadsOnlyTheGivenSlice() throws Exception {
+		// A list containing "foo", surrounded by bytes that are not BDF
+		byte[] b = StringUtils.fromHexString("FFFF" + "60" + "41" + "03"
+				+ "666F6F" + "80" + "FFFF");
+		BdfReader r = new ByteArrayBdfReader(b, 2, b.length - 4,
+				DEFAULT_NESTED_LIMIT);
+		assertEquals(BdfList.of("foo"), r.readList());
+		assertTrue(r.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testStringLongerThanSliceIsRejected() throws Exception {
+		// A string of length 3 in a slice that ends after two bytes
+		byte[] b = StringUtils.fromHexString("41" + "03" + "666F6F");
+		new ByteArrayBdfReader(b, 0, b.length - 1, DEFAULT_NESTED_LIMIT)
+				.readString(Integer.MAX_VALUE);
+	}
+
+	@Test(expected = FormatException.class)
+	public void testRawLongerThanSliceIsRejected() throws Exception {
+		// A raw value of length 2^31 - 1 in a short slice
+		byte[] b = StringUtils.fromHexString("54" + "7FFFFFFF" + "00");
+		new ByteArrayBdfReader(b, 0, b.length, DEFAULT_NESTED_LIMIT)
+				.readRaw(Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,100 @@
+package org.briarproject.bramble.data;
+
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.BdfWriter;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+// Runs the BdfWriterImpl tests against the byte array writer
+public class ByteArrayBdfWriterTest extends BdfWriterImplTest {
+
+	private static final int OFFSET = 3;
+
+	private byte[] buf = null;
+
+	@Before
+	@Override
+	public void setUp() {
+		// Leave room before the output to check the offset is respected
+		buf = new byte[1024 * 1024];
+		w = new ByteArrayBdfWriter(buf, OFFSET);
+	}
+
+	@Override
+	byte[] getContents() {
+		int end = ((ByteArrayBdfWriter) w).getOffset();
+		return Arrays.copyOfRange(buf, OFFSET, end);
+	}
+
+	@Test
+	public void testOutputMatchesStreamWriter() throws Exception {
+		BdfList list = BdfList.of(null, NULL_VALUE, true, (byte) 1,
+				(short) 1000, 100000, Long.MAX_VALUE, 1.5f, 2.5,
+				"\u00E9\u20AC\uD83D\uDE00", new byte[200],
+				BdfDictionary.of(new BdfEntry("foo", BdfList.of("bar"))));
+		byte[] expected = writeWithStreamWriter(list);
+		assertEquals(expected.length,
+				ByteArrayBdfWriter.getEncodedLength(list));
+		w.writeList(list);
+		assertArrayEquals(expected, getContents());
+	}
+
+	@Test
+	public void testUnpairedSurrogatesAreEncodedLikeGetBytes()
+			throws Exception {
+		// The last string is long enough to be encoded with getBytes()
+		String[] strings = {"\uD83D", "a\uDE00b", "\uDE00\uD83D",
+				"\uD83D\uD83D\uDE00",
+				TestUtils.getRandomString(100) + "\uD83D\u00E9\uDE00"};
+		for (String s : strings) {
+			setUp();
+			byte[] expected = writeWithStreamWriter(s);
+			assertEquals(expected.length,
+					ByteArrayBdfWriter.getEncodedLength(s));
+			w.writeString(s);
+			assertArrayEquals(expected, getContents());
+		}
+	}
+
+	@Test
+	public void testEncodedLengthMatchesRandomStrings() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			String s = TestUtils.getRandomString(i * 10);
+			assertEquals(writeWithStreamWriter(s).length,
+					ByteArrayBdfWriter.getEncodedLength(s));
+		}
+	}
+
+	@Test
+	public void testWritingPastEndOfBufferThrowsException() throws Exception {
+		byte[] b = new byte[5];
+		BdfWriter writer = new ByteArrayBdfWriter(b, 0);
+		writer.writeString("foo");
+		try {
+			writer.writeString("bar");
+			fail();
+		} catch (IOException expected) {
+			// Expected
+		}
+	}
+
+	private byte[] writeWithStreamWriter(Object o) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BdfWriter writer = new BdfWriterImpl(out);
+		if (o instanceof String) writer.writeString((String) o);
+		else writer.writeList((BdfList) o);
+		return out.toByteArray();
+	}
+}
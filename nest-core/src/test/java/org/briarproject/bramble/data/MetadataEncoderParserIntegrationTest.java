@@ -31,9 +31,11 @@ public class MetadataEncoderParserIntegrationTest extends BrambleTestCase {
 	@Test
 	public void testBoolean() throws FormatException {
 		d.put("test", true);
+		d.put("test1", false);
 		Metadata metadata = e.encode(d);
 
 		assertEquals(true, p.parse(metadata).getBoolean("test", false));
+		assertEquals(false, p.parse(metadata).getBoolean("test1", true));
 	}
 
 	@Test
@@ -53,6 +55,21 @@ public class MetadataEncoderParserIntegrationTest extends BrambleTestCase {
 				(long) p.parse(metadata).getLong("test", 0L));
 	}
 
+	@Test
+	public void testIntegerBoundaries() throws FormatException {
+		// Each integer width is decoded without a reader
+		long[] values = {0, -1, Byte.MIN_VALUE, Byte.MAX_VALUE,
+				Byte.MIN_VALUE - 1, Byte.MAX_VALUE + 1, Short.MIN_VALUE,
+				Short.MAX_VALUE, Short.MIN_VALUE - 1, Short.MAX_VALUE + 1,
+				Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE - 1L,
+				Integer.MAX_VALUE + 1L, Long.MIN_VALUE, Long.MAX_VALUE};
+		for (int i = 0; i < values.length; i++) d.put("test" + i, values[i]);
+		BdfDictionary parsed = p.parse(e.encode(d));
+
+		for (int i = 0; i < values.length; i++)
+			assertEquals(values[i], (long) parsed.getLong("test" + i));
+	}
+
 	@Test
 	public void testDouble() throws FormatException {
 		d.put("test", Double.MAX_VALUE);
@@ -8,6 +8,7 @@ import org.briarproject.bramble.api.contact.event.ContactStatusChangedEvent;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.ContactExistsException;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
@@ -48,6 +49,7 @@ import org.briarproject.bramble.api.transport.IncomingKeys;
 import org.briarproject.bramble.api.transport.OutgoingKeys;
 import org.briarproject.bramble.api.transport.TransportKeys;
 import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.TestUtils;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -58,6 +60,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.bramble.api.sync.Group.Visibility.INVISIBLE;
@@ -1178,6 +1181,57 @@ public class DatabaseComponentImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 	}
 
+	@Test
+	public void testReceiveMessages() throws Exception {
+		final Message message1 = new Message(messageId1, groupId,
+				message.getTimestamp(), raw);
+		Mockery context = new Mockery();
+		@SuppressWarnings("unchecked")
+		final Database<Object> database = context.mock(Database.class);
+		final ShutdownManager shutdown = context.mock(ShutdownManager.class);
+		final EventBus eventBus = context.mock(EventBus.class);
+		context.checking(new Expectations() {{
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			// The contact and the group are only checked once
+			oneOf(database).containsContact(txn, contactId);
+			will(returnValue(true));
+			oneOf(database).getGroupVisibility(txn, contactId, groupId);
+			will(returnValue(VISIBLE));
+			// The first message is new
+			oneOf(database).containsMessage(txn, messageId);
+			will(returnValue(false));
+			oneOf(database).addMessage(txn, message, UNKNOWN, false);
+			oneOf(database).getGroupVisibility(txn, groupId);
+			will(returnValue(Collections.singletonList(contactId)));
+			oneOf(database).removeOfferedMessage(txn, contactId, messageId);
+			will(returnValue(false));
+			oneOf(database).addStatus(txn, contactId, messageId, true, true);
+			// The second message is a duplicate
+			oneOf(database).containsMessage(txn, messageId1);
+			will(returnValue(true));
+			oneOf(database).raiseSeenFlag(txn, contactId, messageId1);
+			oneOf(database).raiseAckFlag(txn, contactId, messageId1);
+			oneOf(database).commitTransaction(txn);
+			// One event for the new message, one ack event for the batch
+			oneOf(eventBus).broadcast(with(any(MessageAddedEvent.class)));
+			oneOf(eventBus).broadcast(with(any(MessageToAckEvent.class)));
+		}});
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				shutdown);
+
+		Transaction transaction = db.startTransaction(false);
+		try {
+			db.receiveMessages(transaction, contactId,
+					Arrays.asList(message, message1));
+			db.commitTransaction(transaction);
+		} finally {
+			db.endTransaction(transaction);
+		}
+
+		context.assertIsSatisfied();
+	}
+
 	@Test
 	public void testReceiveDuplicateMessage() throws Exception {
 		Mockery context = new Mockery();
@@ -1484,6 +1538,8 @@ public class DatabaseComponentImplTest extends BrambleTestCase {
 		final Database<Object> database = context.mock(Database.class);
 		final ShutdownManager shutdown = context.mock(ShutdownManager.class);
 		final EventBus eventBus = context.mock(EventBus.class);
+		final AtomicReference<SettingsUpdatedEvent> event =
+				new AtomicReference<SettingsUpdatedEvent>();
 		context.checking(new Expectations() {{
 			// startTransaction()
 			oneOf(database).startTransaction();
@@ -1493,6 +1549,8 @@ public class DatabaseComponentImplTest extends BrambleTestCase {
 			will(returnValue(before));
 			oneOf(database).mergeSettings(txn, update, "namespace");
 			oneOf(eventBus).broadcast(with(any(SettingsUpdatedEvent.class)));
+			will(new CaptureArgumentAction<SettingsUpdatedEvent>(event,
+					SettingsUpdatedEvent.class, 0));
 			// mergeSettings() again
 			oneOf(database).getSettings(txn, "namespace");
 			will(returnValue(merged));
@@ -1514,6 +1572,64 @@ public class DatabaseComponentImplTest extends BrambleTestCase {
 			db.endTransaction(transaction);
 		}
 
+		// The event should contain the changed settings
+		assertEquals("namespace", event.get().getNamespace());
+		assertEquals(update, event.get().getSettings());
+
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testMergeSettingsOnlyWritesChangedSettings()
+			throws Exception {
+		final Settings before = new Settings();
+		before.put("foo", "bar");
+		before.put("baz", "bam");
+		final Settings update = new Settings();
+		update.put("foo", "bar");
+		update.put("baz", "qux");
+		update.put("new", "value");
+		final Settings changed = new Settings();
+		changed.put("baz", "qux");
+		changed.put("new", "value");
+		Mockery context = new Mockery();
+		@SuppressWarnings("unchecked")
+		final Database<Object> database = context.mock(Database.class);
+		final ShutdownManager shutdown = context.mock(ShutdownManager.class);
+		final EventBus eventBus = context.mock(EventBus.class);
+		final AtomicReference<SettingsUpdatedEvent> event =
+				new AtomicReference<SettingsUpdatedEvent>();
+		context.checking(new Expectations() {{
+			// startTransaction()
+			oneOf(database).startTransaction();
+			will(returnValue(txn));
+			// mergeSettings()
+			oneOf(database).getSettings(txn, "namespace");
+			will(returnValue(before));
+			// Only the changed settings should be written
+			oneOf(database).mergeSettings(txn, changed, "namespace");
+			oneOf(eventBus).broadcast(with(any(SettingsUpdatedEvent.class)));
+			will(new CaptureArgumentAction<SettingsUpdatedEvent>(event,
+					SettingsUpdatedEvent.class, 0));
+			// endTransaction()
+			oneOf(database).commitTransaction(txn);
+		}});
+
+		DatabaseComponent db = createDatabaseComponent(database, eventBus,
+				shutdown);
+
+		Transaction transaction = db.startTransaction(false);
+		try {
+			db.mergeSettings(transaction, update, "namespace");
+			db.commitTransaction(transaction);
+		} finally {
+			db.endTransaction(transaction);
+		}
+
+		// The event should only contain the changed settings
+		assertEquals("namespace", event.get().getNamespace());
+		assertEquals(changed, event.get().getSettings());
+
 		context.assertIsSatisfied();
 	}
 
@@ -0,0 +1,164 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestUtils;
+import org.briarproject.bramble.util.StringUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+
+// Not a JUnit test
+public class GroupMembersPerformanceTest {
+
+	private static final int[] MEMBERS = {1000, 2000, 4000};
+	private static final long MAX_SIZE = 1024 * 1024 * 1024;
+	private static final String KEY_MEMBERS = "members";
+	private static final int VISIBLE = 1;
+
+	public static void main(String[] args) throws Exception {
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			for (int members : MEMBERS) {
+				List<Author> authors = createAuthors(members);
+				long list = runTest(authors, false);
+				long table = runTest(authors, true);
+				System.out.println(members + " members, joins per second: "
+						+ (members * 1000L / list) + " in group metadata, "
+						+ (members * 1000L / table) + " in groupMembers");
+			}
+		}
+	}
+
+	private static long runTest(List<Author> authors, boolean table)
+			throws Exception {
+		File testDir = TestUtils.getTestDirectory();
+		Database<Connection> database = new H2Database(
+				new TestDatabaseConfig(testDir, MAX_SIZE), new SystemClock());
+		DatabaseComponent db = new DatabaseComponentImpl<Connection>(database,
+				Connection.class, new NoOpEventBus(),
+				new NoOpShutdownManager());
+		try {
+			db.open();
+			GroupId g = addGroup(db);
+			long start = System.currentTimeMillis();
+			// Each join message is delivered in its own transaction
+			for (Author a : authors) {
+				Transaction txn = db.startTransaction(false);
+				try {
+					if (table) addToTable(db, txn, g, a);
+					else addToList(db, txn, g, a);
+					db.commitTransaction(txn);
+				} finally {
+					db.endTransaction(txn);
+				}
+			}
+			return Math.max(1, System.currentTimeMillis() - start);
+		} finally {
+			db.close();
+			TestUtils.deleteTestDirectory(testDir);
+		}
+	}
+
+	// As PrivateGroupManagerImpl.addMember() does now
+	private static void addToTable(DatabaseComponent db, Transaction txn,
+			GroupId g, Author a) throws DbException {
+		if (!db.containsGroupMember(txn, g, a.getId()))
+			db.addGroupMember(txn, g, a, VISIBLE);
+	}
+
+	// As PrivateGroupManagerImpl.addMember() used to do, reading, extending
+	// and rewriting the whole member list. The members are concatenated
+	// rather than encoded as BDF, so this is a lower bound on the old cost
+	private static void addToList(DatabaseComponent db, Transaction txn,
+			GroupId g, Author a) throws DbException {
+		byte[] old = db.getGroupMetadata(txn, g).get(KEY_MEMBERS);
+		if (old == null) old = new byte[0];
+		byte[] id = a.getId().getBytes();
+		byte[] name = StringUtils.toUtf8(a.getName());
+		byte[] publicKey = a.getPublicKey();
+		byte[] list = new byte[old.length + id.length + name.length
+				+ publicKey.length + 1];
+		int off = 0;
+		System.arraycopy(old, 0, list, off, old.length);
+		off += old.length;
+		System.arraycopy(id, 0, list, off, id.length);
+		off += id.length;
+		System.arraycopy(name, 0, list, off, name.length);
+		off += name.length;
+		System.arraycopy(publicKey, 0, list, off, publicKey.length);
+		off += publicKey.length;
+		list[off] = VISIBLE;
+		Metadata meta = new Metadata();
+		meta.put(KEY_MEMBERS, list);
+		db.mergeGroupMetadata(txn, g, meta);
+	}
+
+	private static GroupId addGroup(DatabaseComponent db) throws DbException {
+		GroupId g = new GroupId(TestUtils.getRandomId());
+		Group group = new Group(g, new ClientId("clientId"), new byte[0]);
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addGroup(txn, group);
+			db.commitTransaction(txn);
+			return g;
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private static List<Author> createAuthors(int count) {
+		List<Author> authors = new ArrayList<Author>(count);
+		for (int i = 0; i < count; i++) {
+			AuthorId id = new AuthorId(TestUtils.getRandomId());
+			authors.add(new Author(id, TestUtils.getRandomString(20),
+					TestUtils.getRandomBytes(MAX_PUBLIC_KEY_LENGTH)));
+		}
+		return authors;
+	}
+
+	private static class NoOpEventBus implements EventBus {
+
+		@Override
+		public void addListener(EventListener l) {
+		}
+
+		@Override
+		public void removeListener(EventListener l) {
+		}
+
+		@Override
+		public void broadcast(Event e) {
+		}
+	}
+
+	private static class NoOpShutdownManager implements ShutdownManager {
+
+		@Override
+		public int addShutdownHook(Runnable hook) {
+			return 0;
+		}
+
+		@Override
+		public boolean removeShutdownHook(int handle) {
+			return true;
+		}
+	}
+}
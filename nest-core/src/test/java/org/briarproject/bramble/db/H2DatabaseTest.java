@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.SecretKey;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.LocalAuthor;
@@ -14,6 +15,7 @@ import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.sync.MessageStatus;
 import org.briarproject.bramble.api.sync.ValidationManager.State;
@@ -30,14 +32,17 @@ import org.junit.Test;
 
 import java.io.File;
 import java.sql.Connection;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -53,6 +58,9 @@ import static org.briarproject.bramble.api.sync.ValidationManager.State.DELIVERE
 import static org.briarproject.bramble.api.sync.ValidationManager.State.INVALID;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.PENDING;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.UNKNOWN;
+import static org.briarproject.bramble.db.DatabaseConstants.DB_SETTINGS_NAMESPACE;
+import static org.briarproject.bramble.db.DatabaseConstants.MIN_SCHEMA_VERSION_KEY;
+import static org.briarproject.bramble.db.DatabaseConstants.SCHEMA_VERSION_KEY;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -151,6 +159,75 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMigrationFromSchemaVersion30() throws Exception {
+		// Store some records
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true);
+		db.commitTransaction(txn);
+
+		// Remove the tables added since version 30 and mark the database
+		// as version 30
+		txn = db.startTransaction();
+		Statement s = txn.createStatement();
+		s.executeUpdate("DROP TABLE verifiedMessages");
+		s.executeUpdate("DROP TABLE groupCounts");
+		s.executeUpdate("DROP TABLE groupMembers");
+		s.executeUpdate("DROP TABLE sessions");
+		s.close();
+		Settings version = new Settings();
+		version.putInt(SCHEMA_VERSION_KEY, 30);
+		version.putInt(MIN_SCHEMA_VERSION_KEY, 30);
+		db.mergeSettings(txn, version, DB_SETTINGS_NAMESPACE);
+		db.commitTransaction(txn);
+		db.close();
+
+		// Reopen the database - the missing tables should be created
+		db = open(true);
+		txn = db.startTransaction();
+		assertTrue(db.containsMessage(txn, messageId));
+		Settings migrated = db.getSettings(txn, DB_SETTINGS_NAMESPACE);
+		assertEquals(35, migrated.getInt(SCHEMA_VERSION_KEY, -1));
+		assertEquals(35, migrated.getInt(MIN_SCHEMA_VERSION_KEY, -1));
+		// The existing group has no counts until they're set
+		assertNull(db.getMessageCounts(txn, groupId));
+		db.setMessageCounts(txn, groupId, new MessageCounts(1, 0, timestamp));
+		MessageCounts counts = db.getMessageCounts(txn, groupId);
+		assertNotNull(counts);
+		assertEquals(1, counts.getMsgCount());
+		db.addVerifiedMessage(txn, groupId, messageId);
+		assertTrue(db.containsVerifiedMessage(txn, messageId));
+		db.addGroupMember(txn, groupId, author, 0);
+		assertEquals(1, db.getGroupMembers(txn, groupId).size());
+		MessageId sessionId = new MessageId(TestUtils.getRandomId());
+		db.setSession(txn, groupId, sessionId, new byte[123]);
+		assertArrayEquals(new byte[123],
+				db.getSession(txn, groupId, sessionId));
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSchemaVersionBelow30IsNotMigrated() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+		Settings version = new Settings();
+		version.putInt(SCHEMA_VERSION_KEY, 29);
+		version.putInt(MIN_SCHEMA_VERSION_KEY, 29);
+		db.mergeSettings(txn, version, DB_SETTINGS_NAMESPACE);
+		db.commitTransaction(txn);
+		db.close();
+
+		try {
+			open(true);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+	}
+
 	@Test
 	public void testRemovingGroupRemovesMessage() throws Exception {
 		Database<Connection> db = open(false);
@@ -804,6 +881,57 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testUpdateTransportKeysOnlyWritesChangedRows()
+			throws Exception {
+		TransportKeys keys = createTransportKeys();
+		IncomingKeys inCurr = keys.getCurrentIncomingKeys();
+		IncomingKeys inNext = keys.getNextIncomingKeys();
+		// Rotate the keys: the current and next keys are reused
+		IncomingKeys inNext1 = new IncomingKeys(TestUtils.getSecretKey(),
+				TestUtils.getSecretKey(), 4, 567, new byte[4]);
+		OutgoingKeys outCurr1 = new OutgoingKeys(TestUtils.getSecretKey(),
+				TestUtils.getSecretKey(), 3, 0);
+		TransportKeys rotated = new TransportKeys(transportId, inCurr, inNext,
+				inNext1, outCurr1);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add the contact, transport and transport keys
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthorId,
+				true, true));
+		db.addTransport(txn, transportId, 123);
+		db.addTransportKeys(txn, contactId, keys);
+
+		// Update the reordering window of the current keys
+		byte[] bitmap = new byte[4];
+		new Random().nextBytes(bitmap);
+		db.setReorderingWindow(txn, contactId, transportId,
+				inCurr.getRotationPeriod(), inCurr.getWindowBase() + 1, bitmap);
+
+		// Store the rotated keys and retrieve them
+		db.updateTransportKeys(txn,
+				Collections.singletonMap(contactId, rotated));
+		Map<ContactId, TransportKeys> newKeys =
+				db.getTransportKeys(txn, transportId);
+		assertEquals(1, newKeys.size());
+		TransportKeys k = newKeys.get(contactId);
+		assertNotNull(k);
+		// The window of the reused keys should not have been overwritten
+		IncomingKeys inPrev = k.getPreviousIncomingKeys();
+		assertEquals(inCurr.getRotationPeriod(), inPrev.getRotationPeriod());
+		assertEquals(inCurr.getWindowBase() + 1, inPrev.getWindowBase());
+		assertArrayEquals(bitmap, inPrev.getWindowBitmap());
+		assertKeysEquals(inNext, k.getCurrentIncomingKeys());
+		assertKeysEquals(inNext1, k.getNextIncomingKeys());
+		assertKeysEquals(outCurr1, k.getCurrentOutgoingKeys());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGetContactsByAuthorId() throws Exception {
 		Database<Connection> db = open(false);
@@ -831,6 +959,45 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testGetContactsByAuthorIds() throws Exception {
+		Author author1 = new Author(new AuthorId(TestUtils.getRandomId()),
+				"Bob", new byte[MAX_PUBLIC_KEY_LENGTH]);
+		AuthorId unknownId = new AuthorId(TestUtils.getRandomId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a local author and two contacts
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthorId,
+				true, true));
+		ContactId contactId1 = db.addContact(txn, author1, localAuthorId,
+				false, true);
+
+		// Both contacts should be returned in a single query
+		Collection<Contact> contacts = db.getContactsByAuthorIds(txn,
+				Arrays.asList(author.getId(), author1.getId(), unknownId));
+		assertEquals(2, contacts.size());
+		for (Contact c : contacts) {
+			if (c.getId().equals(contactId)) {
+				assertEquals(author.getId(), c.getAuthor().getId());
+				assertTrue(c.isVerified());
+			} else {
+				assertEquals(contactId1, c.getId());
+				assertEquals(author1.getId(), c.getAuthor().getId());
+				assertFalse(c.isVerified());
+			}
+		}
+
+		// No author IDs, no contacts
+		List<AuthorId> none = Collections.emptyList();
+		assertTrue(db.getContactsByAuthorIds(txn, none).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testGetContactsByLocalAuthorId() throws Exception {
 		Database<Connection> db = open(false);
@@ -925,6 +1092,269 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMessageCounts() throws Exception {
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add two groups - the counts should start at zero
+		db.addGroup(txn, group);
+		GroupId groupId1 = new GroupId(TestUtils.getRandomId());
+		Group group1 = new Group(groupId1, clientId,
+				TestUtils.getRandomBytes(MAX_GROUP_DESCRIPTOR_LENGTH));
+		db.addGroup(txn, group1);
+		assertMessageCountsEqual(0, 0, 0, db.getMessageCounts(txn, groupId));
+		db.commitTransaction(txn);
+		txn = db.startTransaction();
+
+		// Count a read message and an unread message in the first group
+		assertTrue(db.incrementMessageCounts(txn, groupId, 1, 0, 123));
+		assertTrue(db.incrementMessageCounts(txn, groupId, 1, 1, 100));
+		assertMessageCountsEqual(2, 1, 123,
+				db.getMessageCounts(txn, groupId));
+
+		// Mark the unread message as read
+		assertTrue(db.incrementMessageCounts(txn, groupId, 0, -1, 0));
+		assertMessageCountsEqual(2, 0, 123,
+				db.getMessageCounts(txn, groupId));
+
+		// The unread count must not become negative
+		try {
+			db.incrementMessageCounts(txn, groupId, 0, -1, 0);
+			fail();
+		} catch (DbException expected) {
+			// Expected
+		}
+		db.abortTransaction(txn);
+		txn = db.startTransaction();
+
+		// Overwrite the counts of the second group
+		db.setMessageCounts(txn, groupId1, new MessageCounts(5, 3, 456));
+
+		// Retrieve the counts of both groups in a single query
+		Map<GroupId, MessageCounts> counts =
+				db.getMessageCounts(txn, Arrays.asList(groupId, groupId1));
+		assertEquals(2, counts.size());
+		assertMessageCountsEqual(0, 0, 0, counts.get(groupId));
+		assertMessageCountsEqual(5, 3, 456, counts.get(groupId1));
+
+		// Removing a group should remove its counts
+		db.removeGroup(txn, groupId1);
+		assertNull(db.getMessageCounts(txn, groupId1));
+		assertFalse(db.incrementMessageCounts(txn, groupId1, 1, 1, 789));
+		counts = db.getMessageCounts(txn, Arrays.asList(groupId, groupId1));
+		assertEquals(1, counts.size());
+		assertTrue(counts.containsKey(groupId));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGroupMembers() throws Exception {
+		Author author1 = new Author(new AuthorId(TestUtils.getRandomId()),
+				"Bob", new byte[MAX_PUBLIC_KEY_LENGTH]);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group - it should have no members
+		db.addGroup(txn, group);
+		assertTrue(db.getGroupMembers(txn, groupId).isEmpty());
+		assertFalse(db.containsGroupMember(txn, groupId, author.getId()));
+
+		// Add two members
+		db.addGroupMember(txn, groupId, author, 1);
+		db.addGroupMember(txn, groupId, author1, 0);
+		assertTrue(db.containsGroupMember(txn, groupId, author.getId()));
+		assertTrue(db.containsGroupMember(txn, groupId, author1.getId()));
+		Map<Author, Integer> members = db.getGroupMembers(txn, groupId);
+		assertEquals(2, members.size());
+		assertEquals(Integer.valueOf(1), members.get(author));
+		assertEquals(Integer.valueOf(0), members.get(author1));
+		for (Author a : members.keySet()) {
+			Author expected = a.equals(author) ? author : author1;
+			assertEquals(expected.getName(), a.getName());
+			assertArrayEquals(expected.getPublicKey(), a.getPublicKey());
+		}
+
+		// Change the visibility of the second member
+		assertEquals(0, db.getGroupMemberVisibility(txn, groupId,
+				author1.getId()));
+		db.setGroupMemberVisibility(txn, groupId, author1.getId(), 2);
+		assertEquals(2, db.getGroupMemberVisibility(txn, groupId,
+				author1.getId()));
+		assertEquals(1, db.getGroupMemberVisibility(txn, groupId,
+				author.getId()));
+
+		// Only the visibilities of the requested members should be returned
+		AuthorId nonMember = new AuthorId(TestUtils.getRandomId());
+		Map<AuthorId, Integer> visibilities =
+				db.getGroupMemberVisibilities(txn, groupId,
+						Arrays.asList(author1.getId(), nonMember));
+		assertEquals(Collections.singletonMap(author1.getId(), 2),
+				visibilities);
+
+		// Removing the group should remove its members
+		db.removeGroup(txn, groupId);
+		db.addGroup(txn, group);
+		assertTrue(db.getGroupMembers(txn, groupId).isEmpty());
+		assertFalse(db.containsGroupMember(txn, groupId, author.getId()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testSessions() throws Exception {
+		MessageId sessionId = new MessageId(TestUtils.getRandomId());
+		MessageId sessionId1 = new MessageId(TestUtils.getRandomId());
+		byte[] session = TestUtils.getRandomBytes(123);
+		byte[] session1 = TestUtils.getRandomBytes(123);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group - it should have no sessions
+		db.addGroup(txn, group);
+		assertNull(db.getSession(txn, groupId, sessionId));
+		assertTrue(db.getSessions(txn, groupId).isEmpty());
+
+		// Store two sessions
+		db.setSession(txn, groupId, sessionId, session);
+		db.setSession(txn, groupId, sessionId1, session1);
+		assertArrayEquals(session, db.getSession(txn, groupId, sessionId));
+		assertArrayEquals(session1, db.getSession(txn, groupId, sessionId1));
+		assertEquals(2, db.getSessions(txn, groupId).size());
+
+		// Replace the first session
+		db.setSession(txn, groupId, sessionId, session1);
+		assertArrayEquals(session1, db.getSession(txn, groupId, sessionId));
+		assertEquals(2, db.getSessions(txn, groupId).size());
+
+		// Remove the first session
+		db.removeSession(txn, groupId, sessionId);
+		assertNull(db.getSession(txn, groupId, sessionId));
+		assertEquals(1, db.getSessions(txn, groupId).size());
+
+		// Removing the group should remove its sessions
+		db.removeGroup(txn, groupId);
+		db.addGroup(txn, group);
+		assertNull(db.getSession(txn, groupId, sessionId1));
+		assertTrue(db.getSessions(txn, groupId).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetSharedWith() throws Exception {
+		Author author1 = new Author(new AuthorId(TestUtils.getRandomId()),
+				"Carol", new byte[MAX_PUBLIC_KEY_LENGTH]);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a contact and a group - the group isn't shared
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthorId,
+				true, true));
+		db.addGroup(txn, group);
+		assertTrue(db.getSharedWith(txn, groupId).isEmpty());
+
+		// Make the group visible to the contact - it still isn't shared
+		db.addGroupVisibility(txn, contactId, groupId, false);
+		assertTrue(db.getSharedWith(txn, groupId).isEmpty());
+
+		// Share the group with a second contact
+		ContactId contactId1 = db.addContact(txn, author1, localAuthorId,
+				true, true);
+		db.addGroupVisibility(txn, contactId1, groupId, true);
+		assertEquals(Collections.singletonList(contactId1),
+				db.getSharedWith(txn, groupId));
+
+		// Share the group with the first contact
+		db.setGroupVisibility(txn, contactId, groupId, true);
+		assertEquals(2, db.getSharedWith(txn, groupId).size());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testGetContactMessageMetadata() throws Exception {
+		Author author1 = new Author(new AuthorId(TestUtils.getRandomId()),
+				"Carol", new byte[MAX_PUBLIC_KEY_LENGTH]);
+		// A second group belonging to the same client
+		GroupId groupId1 = new GroupId(TestUtils.getRandomId());
+		Group group1 = new Group(groupId1, clientId, new byte[0]);
+		MessageId messageId1 = new MessageId(TestUtils.getRandomId());
+		Message message1 = new Message(messageId1, groupId1, timestamp, raw);
+		// A group belonging to another client
+		GroupId groupId2 = new GroupId(TestUtils.getRandomId());
+		ClientId clientId2 = new ClientId(TestUtils.getRandomString(6));
+		Group group2 = new Group(groupId2, clientId2, new byte[0]);
+		MessageId messageId2 = new MessageId(TestUtils.getRandomId());
+		Message message2 = new Message(messageId2, groupId2, timestamp, raw);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add two contacts, each with a contact group of the client
+		db.addLocalAuthor(txn, localAuthor);
+		assertEquals(contactId, db.addContact(txn, author, localAuthorId,
+				true, true));
+		ContactId contactId1 = db.addContact(txn, author1, localAuthorId,
+				true, true);
+		db.addGroup(txn, group);
+		db.addGroupVisibility(txn, contactId, groupId, true);
+		db.addGroup(txn, group1);
+		db.addGroupVisibility(txn, contactId1, groupId1, true);
+		// The other client's group is also visible to the first contact
+		db.addGroup(txn, group2);
+		db.addGroupVisibility(txn, contactId, groupId2, true);
+
+		// Add a message with matching metadata to each group
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[] {'b', 'a', 'r'});
+		metadata.put("baz", new byte[] {'b', 'a', 'm'});
+		for (Message m : Arrays.asList(message, message1, message2)) {
+			db.addMessage(txn, m, DELIVERED, true);
+			db.mergeMessageMetadata(txn, m.getId(), metadata);
+		}
+
+		// Query across the client's groups
+		Metadata query = new Metadata();
+		query.put("foo", metadata.get("foo"));
+		Map<ContactId, Map<MessageId, Metadata>> all =
+				db.getContactMessageMetadata(txn, clientId, query);
+		assertEquals(2, all.size());
+		Map<MessageId, Metadata> forContact = all.get(contactId);
+		assertEquals(Collections.singleton(messageId), forContact.keySet());
+		Metadata retrieved = forContact.get(messageId);
+		assertEquals(2, retrieved.size());
+		assertArrayEquals(metadata.get("foo"), retrieved.get("foo"));
+		assertArrayEquals(metadata.get("baz"), retrieved.get("baz"));
+		Map<MessageId, Metadata> forContact1 = all.get(contactId1);
+		assertEquals(Collections.singleton(messageId1), forContact1.keySet());
+
+		// A query that doesn't match returns nothing
+		query.put("foo", new byte[] {'q', 'u', 'x'});
+		assertTrue(db.getContactMessageMetadata(txn, clientId, query)
+				.isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private void assertMessageCountsEqual(int msgCount, int unreadCount,
+			long latestMsgTime, MessageCounts c) {
+		assertNotNull(c);
+		assertEquals(msgCount, c.getMsgCount());
+		assertEquals(unreadCount, c.getUnreadCount());
+		assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
+
 	@Test
 	public void testMessageMetadata() throws Exception {
 		Database<Connection> db = open(false);
@@ -1222,6 +1652,189 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testMetadataForKeys() throws Exception {
+		MessageId messageId1 = new MessageId(TestUtils.getRandomId());
+		Message message1 = new Message(messageId1, groupId, timestamp, raw);
+		MessageId messageId2 = new MessageId(TestUtils.getRandomId());
+		Message message2 = new Message(messageId2, groupId, timestamp, raw);
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and three messages, one of which is pending
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true);
+		db.addMessage(txn, message1, DELIVERED, true);
+		db.addMessage(txn, message2, PENDING, true);
+
+		// Attach some metadata to the messages
+		Metadata metadata = new Metadata();
+		metadata.put("foo", new byte[]{'b', 'a', 'r'});
+		metadata.put("baz", new byte[]{'b', 'a', 'm'});
+		metadata.put("qux", new byte[]{'q', 'u', 'x'});
+		db.mergeMessageMetadata(txn, messageId, metadata);
+		Metadata metadata1 = new Metadata();
+		metadata1.put("qux", new byte[]{'q', 'u', 'x'});
+		db.mergeMessageMetadata(txn, messageId1, metadata1);
+		db.mergeMessageMetadata(txn, messageId2, metadata);
+
+		// Only the requested keys of delivered messages should be returned
+		Set<String> keys = new HashSet<String>(Arrays.asList("foo", "baz"));
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, keys);
+		assertEquals(1, all.size());
+		Metadata retrieved = all.get(messageId);
+		assertEquals(2, retrieved.size());
+		assertArrayEquals(metadata.get("foo"), retrieved.get("foo"));
+		assertArrayEquals(metadata.get("baz"), retrieved.get("baz"));
+
+		// Messages with any of the keys should be returned
+		keys = Collections.singleton("qux");
+		all = db.getMessageMetadata(txn, groupId, keys);
+		assertEquals(2, all.size());
+		assertMetadataEquals(metadata1, all.get(messageId));
+		assertMetadataEquals(metadata1, all.get(messageId1));
+
+		// No keys, no metadata
+		keys = Collections.emptySet();
+		assertTrue(db.getMessageMetadata(txn, groupId, keys).isEmpty());
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMetadataPages() throws Exception {
+		// Five messages with four distinct timestamps, two sharing the same
+		MessageId[] ids = new MessageId[5];
+		long[] timestamps = {timestamp, timestamp + 1, timestamp + 2,
+				timestamp + 2, timestamp + 3};
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and the messages, with metadata
+		db.addGroup(txn, group);
+		Metadata even = new Metadata();
+		even.put("even", new byte[] {1});
+		Metadata odd = new Metadata();
+		odd.put("even", new byte[] {0});
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = new MessageId(TestUtils.getRandomId());
+			Message m = new Message(ids[i], groupId, timestamps[i], raw);
+			db.addMessage(txn, m, DELIVERED, true);
+			db.mergeMessageMetadata(txn, ids[i], i % 2 == 0 ? even : odd);
+		}
+		// Add a message that isn't delivered
+		MessageId unknown = new MessageId(TestUtils.getRandomId());
+		db.addMessage(txn, new Message(unknown, groupId, timestamp + 4, raw),
+				UNKNOWN, false);
+		db.mergeMessageMetadata(txn, unknown, even);
+
+		// The first page should contain the newest delivered message
+		MetadataQuery query = new MetadataQuery();
+		Map<MessageId, Metadata> page =
+				db.getMessageMetadata(txn, groupId, query, Long.MAX_VALUE, 1);
+		assertEquals(Collections.singletonList(ids[4]),
+				new ArrayList<MessageId>(page.keySet()));
+		assertMetadataEquals(even, page.get(ids[4]));
+
+		// The second page should contain both messages with the same
+		// timestamp, even though that exceeds the limit
+		page = db.getMessageMetadata(txn, groupId, query, timestamp + 3, 1);
+		assertEquals(2, page.size());
+		assertTrue(page.containsKey(ids[2]));
+		assertTrue(page.containsKey(ids[3]));
+
+		// The last page should contain the two oldest messages, newest first
+		page = db.getMessageMetadata(txn, groupId, query, timestamp + 2, 10);
+		assertEquals(Arrays.asList(ids[1], ids[0]),
+				new ArrayList<MessageId>(page.keySet()));
+
+		// There should be no more pages
+		page = db.getMessageMetadata(txn, groupId, query, timestamp, 10);
+		assertTrue(page.isEmpty());
+
+		// A query should be applied before the limit
+		query.addValue("even", new byte[] {1});
+		page = db.getMessageMetadata(txn, groupId, query, Long.MAX_VALUE, 2);
+		assertEquals(Arrays.asList(ids[4], ids[2]),
+				new ArrayList<MessageId>(page.keySet()));
+		page = db.getMessageMetadata(txn, groupId, query, timestamp + 2, 2);
+		assertEquals(Collections.singletonList(ids[0]),
+				new ArrayList<MessageId>(page.keySet()));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	@Test
+	public void testMetadataQueriesWithValuesAndRanges() throws Exception {
+		// Values chosen so that signed and unsigned byte order differ
+		byte[][] values = {
+				{0x00, 0x01}, {0x00, 0x7F}, {0x00, (byte) 0x80},
+				{0x00, (byte) 0xFF}, {0x01, 0x00}, {0x00}
+		};
+		MessageId[] ids = new MessageId[values.length];
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and a message for each value
+		db.addGroup(txn, group);
+		for (int i = 0; i < values.length; i++) {
+			ids[i] = new MessageId(TestUtils.getRandomId());
+			Message m = new Message(ids[i], groupId, timestamp, raw);
+			db.addMessage(txn, m, DELIVERED, true);
+			Metadata meta = new Metadata();
+			meta.put("foo", values[i]);
+			meta.put("bar", new byte[] {(byte) (i % 2)});
+			db.mergeMessageMetadata(txn, ids[i], meta);
+		}
+
+		// A query with several values for a key should match any of them
+		MetadataQuery query = new MetadataQuery()
+				.addValue("foo", values[0])
+				.addValue("foo", values[3]);
+		assertEquals(setOf(ids[0], ids[3]),
+				db.getMessageMetadata(txn, groupId, query).keySet());
+		assertEquals(setOf(ids[0], ids[3]),
+				new HashSet<MessageId>(db.getMessageIds(txn, groupId, query)));
+
+		// Ranges should compare bytes as unsigned, and shouldn't match
+		// values of other lengths
+		query = new MetadataQuery()
+				.addRange("foo", values[1], values[3]);
+		assertEquals(setOf(ids[1], ids[2], ids[3]),
+				db.getMessageMetadata(txn, groupId, query).keySet());
+
+		// Values and ranges for the same key should be combined
+		query = new MetadataQuery()
+				.addValue("foo", values[5])
+				.addRange("foo", values[2], values[4]);
+		assertEquals(setOf(ids[2], ids[3], ids[4], ids[5]),
+				db.getMessageMetadata(txn, groupId, query).keySet());
+
+		// Terms for different keys should all have to match
+		query.addValue("bar", new byte[] {0});
+		Map<MessageId, Metadata> all =
+				db.getMessageMetadata(txn, groupId, query);
+		assertEquals(setOf(ids[2], ids[4]), all.keySet());
+		// All the metadata for each match should be returned
+		Metadata retrieved = all.get(ids[2]);
+		assertEquals(2, retrieved.size());
+		assertArrayEquals(values[2], retrieved.get("foo"));
+		assertArrayEquals(new byte[] {0}, retrieved.get("bar"));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
+	private Set<MessageId> setOf(MessageId... ids) {
+		return new HashSet<MessageId>(Arrays.asList(ids));
+	}
+
 	private void assertMetadataEquals(Metadata m1, Metadata m2) {
 		assertEquals(m1.keySet(), m2.keySet());
 		for (Entry<String, byte[]> e : m1.entrySet()) {
@@ -1486,6 +2099,17 @@ public class H2DatabaseTest extends BrambleTestCase {
 		assertTrue(status.isSent());
 		assertFalse(status.isSeen());
 
+		// The same status should be returned when querying by message IDs
+		MessageId missingId = new MessageId(TestUtils.getRandomId());
+		Map<MessageId, MessageStatus> byId = db.getMessageStatus(txn,
+				contactId, Arrays.asList(messageId, missingId));
+		assertEquals(1, byId.size());
+		status = byId.get(messageId);
+		assertNotNull(status);
+		assertEquals(contactId, status.getContactId());
+		assertTrue(status.isSent());
+		assertFalse(status.isSeen());
+
 		// Pretend the message was acked by the contact
 		db.raiseSeenFlag(txn, contactId, messageId);
 
@@ -1585,6 +2209,47 @@ public class H2DatabaseTest extends BrambleTestCase {
 		db.close();
 	}
 
+	@Test
+	public void testVerifiedMessages() throws Exception {
+		// A message that isn't stored locally, such as the original of a
+		// wrapped message, can be recorded as verified
+		MessageId messageId1 = new MessageId(TestUtils.getRandomId());
+
+		Database<Connection> db = open(false);
+		Connection txn = db.startTransaction();
+
+		// Add a group and a message
+		db.addGroup(txn, group);
+		db.addMessage(txn, message, DELIVERED, true);
+
+		// Neither message should be verified
+		assertFalse(db.containsVerifiedMessage(txn, messageId));
+		assertFalse(db.containsVerifiedMessage(txn, messageId1));
+
+		// Record both messages as verified
+		db.addVerifiedMessage(txn, groupId, messageId);
+		db.addVerifiedMessage(txn, groupId, messageId1);
+		assertTrue(db.containsVerifiedMessage(txn, messageId));
+		assertTrue(db.containsVerifiedMessage(txn, messageId1));
+
+		// Deleting the stored message should invalidate its record
+		db.deleteMessage(txn, messageId);
+		assertFalse(db.containsVerifiedMessage(txn, messageId));
+		assertTrue(db.containsVerifiedMessage(txn, messageId1));
+
+		// Removing a message should also invalidate its record
+		db.addVerifiedMessage(txn, groupId, messageId);
+		db.removeMessage(txn, messageId);
+		assertFalse(db.containsVerifiedMessage(txn, messageId));
+
+		// Removing the group should remove the remaining record
+		db.removeGroup(txn, groupId);
+		assertFalse(db.containsVerifiedMessage(txn, messageId1));
+
+		db.commitTransaction(txn);
+		db.close();
+	}
+
 	@Test
 	public void testSetContactActive() throws Exception {
 		Database<Connection> db = open(false);
@@ -0,0 +1,318 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.Metadata;
+import org.briarproject.bramble.api.db.MetadataQuery;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+import static org.briarproject.bramble.api.sync.ValidationManager.State.DELIVERED;
+import static org.briarproject.bramble.api.sync.ValidationManager.State.PENDING;
+import static org.briarproject.bramble.api.sync.ValidationManager.State.UNKNOWN;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Seeds a database with enough rows for H2's optimiser to make realistic
+ * choices, then checks the plan of every query issued by the hot
+ * {@link Database} methods. A query fails the test if any table in its plan
+ * is read by a full table scan or an unconditioned index scan, so schema
+ * changes can't silently turn index lookups into scans.
+ */
+public class H2QueryPlanTest extends BrambleTestCase {
+
+	private static final int MAX_SIZE = 100 * 1024 * 1024;
+	private static final int CONTACTS = 10;
+	private static final int GROUPS = 10;
+	private static final int MESSAGES_PER_GROUP = 200;
+	private static final int MEMBERS_PER_GROUP = 100;
+	private static final int MESSAGE_LENGTH = 100;
+
+	// Matches plan comments that name a table or index without a condition
+	private static final Pattern SCAN =
+			Pattern.compile("/\\* PUBLIC\\.[\\w.\"]+ \\*/");
+
+	private final File testDir = TestUtils.getTestDirectory();
+	private final ClientId clientId = new ClientId("clientId");
+	private final List<RecordedQuery> queries = new ArrayList<RecordedQuery>();
+	private final List<ContactId> contactIds = new ArrayList<ContactId>();
+	private final List<AuthorId> remoteAuthorIds = new ArrayList<AuthorId>();
+	private final List<GroupId> groupIds = new ArrayList<GroupId>();
+	private final List<MessageId> messageIds = new ArrayList<MessageId>();
+
+	private volatile boolean recording = false;
+	private Database<Connection> db = null;
+
+	@Before
+	public void setUp() throws Exception {
+		assertTrue(testDir.mkdirs());
+		db = new H2Database(new TestDatabaseConfig(testDir, MAX_SIZE),
+				new SystemClock()) {
+			@Override
+			protected Connection createConnection() throws SQLException {
+				return recordQueries(super.createConnection());
+			}
+		};
+		db.open();
+		Connection txn = db.startTransaction();
+		seed(txn);
+		db.commitTransaction(txn);
+	}
+
+	@Test
+	public void testSyncQueriesUseIndexes() throws Exception {
+		Connection txn = db.startTransaction();
+		ContactId c = contactIds.get(0);
+		startRecording();
+		db.getMessagesToAck(txn, c, 100);
+		db.getMessagesToOffer(txn, c, 100);
+		db.getMessagesToRequest(txn, c, 100);
+		db.getMessagesToSend(txn, c, 100 * MESSAGE_LENGTH);
+		db.getRequestedMessagesToSend(txn, c, 100 * MESSAGE_LENGTH);
+		db.countOfferedMessages(txn, c);
+		db.containsVisibleMessage(txn, c, messageIds.get(0));
+		db.getMessageStatus(txn, c, messageIds.get(0));
+		db.getMessageStatus(txn, c, groupIds.get(0));
+		stopRecording();
+		assertQueriesUseIndexes(txn);
+		db.commitTransaction(txn);
+	}
+
+	@Test
+	public void testValidationQueriesUseIndexes() throws Exception {
+		Connection txn = db.startTransaction();
+		MessageId m = messageIds.get(1);
+		startRecording();
+		db.getMessagesToValidate(txn, clientId);
+		db.getPendingMessages(txn, clientId);
+		db.getMessagesToShare(txn, clientId);
+		db.getMessageDependencies(txn, m);
+		db.getMessageDependents(txn, m);
+		db.getMessageState(txn, m);
+		db.getMessageMetadataForValidator(txn, m);
+		stopRecording();
+		assertQueriesUseIndexes(txn);
+		db.commitTransaction(txn);
+	}
+
+	@Test
+	public void testClientQueriesUseIndexes() throws Exception {
+		Connection txn = db.startTransaction();
+		GroupId g = groupIds.get(0);
+		Metadata query = new Metadata();
+		query.put("key", new byte[] {1});
+		startRecording();
+		db.getGroups(txn, clientId);
+		db.getGroupVisibility(txn, g);
+		db.getGroupVisibility(txn, contactIds.get(0), g);
+		db.getGroupMetadata(txn, g);
+		db.getMessageIds(txn, g);
+		db.getMessageIds(txn, g, query);
+		db.getMessageMetadata(txn, g);
+		db.getMessageMetadata(txn, g, query);
+		MetadataQuery range = new MetadataQuery(query)
+				.addRange("key", new byte[] {0}, new byte[] {1});
+		db.getMessageMetadata(txn, g, range);
+		db.getMessageMetadata(txn, g, new MetadataQuery(), Long.MAX_VALUE,
+				50);
+		db.getMessageMetadata(txn, g, range, Long.MAX_VALUE, 50);
+		db.getMessageMetadata(txn, messageIds.get(0));
+		db.getContactsByAuthorId(txn, remoteAuthorIds.get(0));
+		db.getGroupMembers(txn, g);
+		db.containsGroupMember(txn, g, remoteAuthorIds.get(0));
+		db.getGroupMemberVisibility(txn, g, remoteAuthorIds.get(0));
+		stopRecording();
+		assertQueriesUseIndexes(txn);
+		db.commitTransaction(txn);
+	}
+
+	private void seed(Connection txn) throws Exception {
+		AuthorId localAuthorId = new AuthorId(TestUtils.getRandomId());
+		LocalAuthor localAuthor = new LocalAuthor(localAuthorId, "Alice",
+				new byte[MAX_PUBLIC_KEY_LENGTH], new byte[123],
+				System.currentTimeMillis());
+		db.addLocalAuthor(txn, localAuthor);
+		for (int i = 0; i < CONTACTS; i++) {
+			AuthorId remoteAuthorId = new AuthorId(TestUtils.getRandomId());
+			Author remote = new Author(remoteAuthorId, "Bob" + i,
+					new byte[MAX_PUBLIC_KEY_LENGTH]);
+			remoteAuthorIds.add(remoteAuthorId);
+			contactIds.add(db.addContact(txn, remote, localAuthorId, true,
+					true));
+		}
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < GROUPS; i++) {
+			GroupId g = new GroupId(TestUtils.getRandomId());
+			db.addGroup(txn, new Group(g, clientId, new byte[0]));
+			groupIds.add(g);
+			for (ContactId c : contactIds)
+				db.addGroupVisibility(txn, c, g, true);
+			for (int j = 0; j < MEMBERS_PER_GROUP; j++) {
+				AuthorId memberId = j < CONTACTS ? remoteAuthorIds.get(j) :
+						new AuthorId(TestUtils.getRandomId());
+				db.addGroupMember(txn, g, new Author(memberId, "Carol" + j,
+						new byte[MAX_PUBLIC_KEY_LENGTH]), j % 4);
+			}
+			MessageId previous = null;
+			for (int j = 0; j < MESSAGES_PER_GROUP; j++) {
+				MessageId m = new MessageId(TestUtils.getRandomId());
+				byte[] raw = TestUtils.getRandomBytes(MESSAGE_LENGTH);
+				// Leave a few messages in each of the other states
+				if (j % 20 == 0) db.addMessage(txn, new Message(m, g,
+						timestamp + j, raw), UNKNOWN, false);
+				else if (j % 20 == 1) db.addMessage(txn, new Message(m, g,
+						timestamp + j, raw), PENDING, false);
+				else db.addMessage(txn, new Message(m, g, timestamp + j, raw),
+							DELIVERED, true);
+				Metadata meta = new Metadata();
+				meta.put("key", new byte[] {(byte) (j % 2)});
+				db.mergeMessageMetadata(txn, m, meta);
+				if (previous != null)
+					db.addMessageDependency(txn, g, m, previous);
+				for (ContactId c : contactIds)
+					db.addStatus(txn, c, m, j % 3 == 0, j % 5 == 0);
+				messageIds.add(m);
+				previous = m;
+			}
+		}
+		for (ContactId c : contactIds) {
+			for (int i = 0; i < 100; i++) {
+				MessageId m = new MessageId(TestUtils.getRandomId());
+				db.addOfferedMessage(txn, c, m);
+			}
+		}
+		// Give the optimiser up to date statistics
+		Statement s = txn.createStatement();
+		s.execute("ANALYZE");
+		s.close();
+	}
+
+	private void startRecording() {
+		queries.clear();
+		recording = true;
+	}
+
+	private void stopRecording() {
+		recording = false;
+	}
+
+	private void assertQueriesUseIndexes(Connection txn) throws Exception {
+		assertFalse(queries.isEmpty());
+		for (RecordedQuery q : queries) {
+			PreparedStatement ps = txn.prepareStatement("EXPLAIN " + q.sql);
+			for (Entry<Integer, Object> e : q.parameters.entrySet())
+				ps.setObject(e.getKey(), e.getValue());
+			ResultSet rs = ps.executeQuery();
+			assertTrue(rs.next());
+			String plan = rs.getString(1);
+			rs.close();
+			ps.close();
+			Matcher m = SCAN.matcher(plan);
+			if (m.find()) fail("Query scans " + m.group() + ": " + plan);
+		}
+	}
+
+	private Connection recordQueries(final Connection c) {
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				Object result = invokeDelegate(c, method, args);
+				if (method.getName().equals("prepareStatement")
+						&& args.length == 1) {
+					String sql = (String) args[0];
+					if (sql.startsWith("SELECT")) {
+						return recordParameters((PreparedStatement) result,
+								sql);
+					}
+				}
+				return result;
+			}
+		};
+		return (Connection) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] {Connection.class}, handler);
+	}
+
+	private PreparedStatement recordParameters(final PreparedStatement ps,
+			final String sql) {
+		final Map<Integer, Object> parameters = new HashMap<Integer, Object>();
+		InvocationHandler handler = new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args)
+					throws Throwable {
+				String name = method.getName();
+				if (name.startsWith("set") && args != null && args.length == 2
+						&& args[0] instanceof Integer) {
+					parameters.put((Integer) args[0], args[1]);
+				} else if (name.equals("executeQuery") && recording) {
+					queries.add(new RecordedQuery(sql,
+							new HashMap<Integer, Object>(parameters)));
+				}
+				return invokeDelegate(ps, method, args);
+			}
+		};
+		return (PreparedStatement) Proxy.newProxyInstance(
+				getClass().getClassLoader(),
+				new Class<?>[] {PreparedStatement.class}, handler);
+	}
+
+	private Object invokeDelegate(Object delegate, Method method,
+			Object[] args) throws Throwable {
+		try {
+			return method.invoke(delegate, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (db != null) db.close();
+		TestUtils.deleteTestDirectory(testDir);
+	}
+
+	private static class RecordedQuery {
+
+		private final String sql;
+		private final Map<Integer, Object> parameters;
+
+		private RecordedQuery(String sql, Map<Integer, Object> parameters) {
+			this.sql = sql;
+			this.parameters = parameters;
+		}
+	}
+}
@@ -1,6 +1,14 @@
 package org.briarproject.bramble.db;
 
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
 import org.briarproject.bramble.test.BrambleTestCase;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.junit.Test;
 
 import java.util.concurrent.CountDownLatch;
@@ -162,4 +170,81 @@ public class LockFairnessTest extends BrambleTestCase {
 		assertTrue(secondReaderHasFinished.await(10, SECONDS));
 		assertTrue(writerHasFinished.await(10, SECONDS));
 	}
+
+	@Test
+	public void testReadersDoNotWaitForWritersInConcurrentMode()
+			throws Exception {
+		final DatabaseComponent db = createConcurrentDatabaseComponent();
+		final CountDownLatch writerHasStarted = new CountDownLatch(1);
+		final CountDownLatch readerHasFinished = new CountDownLatch(1);
+		final CountDownLatch writerHasFinished = new CountDownLatch(1);
+		// Writer
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Transaction txn = db.startTransaction(false);
+					try {
+						// Allow the reader to start a transaction
+						writerHasStarted.countDown();
+						// Wait for the reader to finish without waiting for us
+						assertTrue(readerHasFinished.await(10, SECONDS));
+						db.commitTransaction(txn);
+					} finally {
+						db.endTransaction(txn);
+					}
+				} catch (DbException e) {
+					fail();
+				} catch (InterruptedException e) {
+					fail();
+				}
+				writerHasFinished.countDown();
+			}
+		};
+		writer.start();
+		// Reader
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					// Wait for the writer to start a transaction
+					assertTrue(writerHasStarted.await(10, SECONDS));
+					Transaction txn = db.startTransaction(true);
+					try {
+						db.commitTransaction(txn);
+					} finally {
+						db.endTransaction(txn);
+					}
+				} catch (DbException e) {
+					fail();
+				} catch (InterruptedException e) {
+					fail();
+				}
+				readerHasFinished.countDown();
+			}
+		};
+		reader.start();
+		// Wait for both threads to finish
+		assertTrue(readerHasFinished.await(10, SECONDS));
+		assertTrue(writerHasFinished.await(10, SECONDS));
+	}
+
+	private DatabaseComponent createConcurrentDatabaseComponent()
+			throws Exception {
+		Mockery context = new Mockery() {{
+			setThreadingPolicy(new Synchroniser());
+		}};
+		@SuppressWarnings("unchecked")
+		final Database<Object> database = context.mock(Database.class);
+		final EventBus eventBus = context.mock(EventBus.class);
+		final ShutdownManager shutdown = context.mock(ShutdownManager.class);
+		context.checking(new Expectations() {{
+			allowing(database).startTransaction();
+			will(returnValue(new Object()));
+			allowing(database).commitTransaction(with(any(Object.class)));
+			allowing(database).abortTransaction(with(any(Object.class)));
+		}});
+		return new DatabaseComponentImpl<Object>(database, Object.class,
+				eventBus, shutdown, true);
+	}
 }
@@ -0,0 +1,153 @@
+package org.briarproject.bramble.db;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.Event;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.event.EventListener;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.lifecycle.ShutdownManager;
+import org.briarproject.bramble.api.sync.ClientId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestDatabaseConfig;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
+
+// Not a JUnit test
+public class ReceiveMessagesPerformanceTest {
+
+	private static final int MESSAGES = 10 * 1000;
+	private static final int MESSAGE_LENGTH = 1024;
+	private static final int BATCH_SIZE = 256;
+	private static final long MAX_SIZE = 1024 * 1024 * 1024;
+
+	public static void main(String[] args) throws Exception {
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			long single = runTest(1);
+			long batched = runTest(BATCH_SIZE);
+			System.out.println("Messages per second: "
+					+ (MESSAGES * 1000L / single) + " one per transaction, "
+					+ (MESSAGES * 1000L / batched) + " " + BATCH_SIZE
+					+ " per transaction");
+		}
+	}
+
+	private static long runTest(int batchSize) throws Exception {
+		File testDir = TestUtils.getTestDirectory();
+		Database<Connection> database = new H2Database(
+				new TestDatabaseConfig(testDir, MAX_SIZE), new SystemClock());
+		DatabaseComponent db = new DatabaseComponentImpl<Connection>(database,
+				Connection.class, new NoOpEventBus(),
+				new NoOpShutdownManager());
+		try {
+			db.open();
+			ContactId c = addContact(db);
+			GroupId g = addGroup(db, c);
+			List<Message> messages = createMessages(g);
+			long start = System.currentTimeMillis();
+			for (int i = 0; i < MESSAGES; i += batchSize) {
+				int end = Math.min(i + batchSize, MESSAGES);
+				Transaction txn = db.startTransaction(false);
+				try {
+					db.receiveMessages(txn, c, messages.subList(i, end));
+					db.commitTransaction(txn);
+				} finally {
+					db.endTransaction(txn);
+				}
+			}
+			return Math.max(1, System.currentTimeMillis() - start);
+		} finally {
+			db.close();
+			TestUtils.deleteTestDirectory(testDir);
+		}
+	}
+
+	private static ContactId addContact(DatabaseComponent db)
+			throws DbException {
+		AuthorId localAuthorId = new AuthorId(TestUtils.getRandomId());
+		LocalAuthor localAuthor = new LocalAuthor(localAuthorId, "Alice",
+				new byte[MAX_PUBLIC_KEY_LENGTH], new byte[123],
+				System.currentTimeMillis());
+		Author remote = new Author(new AuthorId(TestUtils.getRandomId()),
+				"Bob", new byte[MAX_PUBLIC_KEY_LENGTH]);
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addLocalAuthor(txn, localAuthor);
+			ContactId c = db.addContact(txn, remote, localAuthorId, true,
+					true);
+			db.commitTransaction(txn);
+			return c;
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private static GroupId addGroup(DatabaseComponent db, ContactId c)
+			throws DbException {
+		GroupId g = new GroupId(TestUtils.getRandomId());
+		Group group = new Group(g, new ClientId("clientId"), new byte[0]);
+		Transaction txn = db.startTransaction(false);
+		try {
+			db.addGroup(txn, group);
+			db.setGroupVisibility(txn, c, g, Group.Visibility.SHARED);
+			db.commitTransaction(txn);
+			return g;
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private static List<Message> createMessages(GroupId g) {
+		List<Message> messages = new ArrayList<Message>(MESSAGES);
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < MESSAGES; i++) {
+			MessageId m = new MessageId(TestUtils.getRandomId());
+			byte[] raw = TestUtils.getRandomBytes(MESSAGE_LENGTH);
+			messages.add(new Message(m, g, timestamp + i, raw));
+		}
+		return messages;
+	}
+
+	private static class NoOpEventBus implements EventBus {
+
+		@Override
+		public void addListener(EventListener l) {
+		}
+
+		@Override
+		public void removeListener(EventListener l) {
+		}
+
+		@Override
+		public void broadcast(Event e) {
+		}
+	}
+
+	private static class NoOpShutdownManager implements ShutdownManager {
+
+		@Override
+		public int addShutdownHook(Runnable hook) {
+			return 0;
+		}
+
+		@Override
+		public boolean removeShutdownHook(int handle) {
+			return true;
+		}
+	}
+}
@@ -38,6 +38,9 @@ public class TransactionIsolationTest extends BrambleTestCase {
 			+ ";MV_STORE=TRUE;MVCC=TRUE";
 	private final String withoutMvcc = "jdbc:h2:" + db.getAbsolutePath()
 			+ ";MV_STORE=FALSE;MVCC=FALSE;LOCK_MODE=1";
+	// The settings used by H2Database when concurrent transactions are enabled
+	private final String concurrent = "jdbc:h2:" + db.getAbsolutePath()
+			+ ";MULTI_THREADED=1;MVCC=TRUE";
 
 	@Before
 	public void setUp() throws Exception {
@@ -243,6 +246,40 @@ public class TransactionIsolationTest extends BrambleTestCase {
 		}
 	}
 
+	@Test
+	public void testReaderDoesNotWaitForWriterInConcurrentMode()
+			throws Exception {
+		Connection connection = DriverManager.getConnection(concurrent);
+		try {
+			createTableAndInsertRow(connection);
+		} finally {
+			connection.close();
+		}
+		// Start the writer
+		Connection writer = DriverManager.getConnection(concurrent);
+		try {
+			writer.setAutoCommit(false);
+			// The writer updates the value but doesn't commit it
+			assertEquals(1, setCounter(writer, 234));
+			// Start the reader
+			Connection reader = DriverManager.getConnection(concurrent);
+			try {
+				reader.setAutoCommit(false);
+				// The reader should read the committed value without waiting
+				assertEquals(123, getCounter(reader));
+				// Commit the writer
+				writer.commit();
+				// The reader should now read the new value
+				assertEquals(234, getCounter(reader));
+				reader.commit();
+			} finally {
+				reader.close();
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
 	private Connection openConnection(boolean mvcc) throws SQLException {
 		return DriverManager.getConnection(mvcc ? withMvcc : withoutMvcc);
 	}
@@ -2,21 +2,28 @@ package org.briarproject.bramble.identity;
 
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.event.ContactVerifiedEvent;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.Author.Status;
 import org.briarproject.bramble.api.identity.AuthorId;
-import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.test.BrambleMockTestCase;
 import org.briarproject.bramble.test.TestUtils;
+import org.hamcrest.Description;
 import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import static org.briarproject.bramble.api.identity.Author.Status.OURSELVES;
 import static org.briarproject.bramble.api.identity.Author.Status.UNKNOWN;
@@ -26,7 +33,7 @@ import static org.junit.Assert.assertEquals;
 
 public class IdentityManagerImplTest extends BrambleMockTestCase {
 
-	private final IdentityManager identityManager;
+	private final IdentityManagerImpl identityManager;
 	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
 	private final Transaction txn = new Transaction(null, false);
 	private final LocalAuthor localAuthor =
@@ -37,7 +44,7 @@ public class IdentityManagerImplTest extends BrambleMockTestCase {
 			Collections.singletonList(localAuthor);
 
 	public IdentityManagerImplTest() {
-		identityManager = new IdentityManagerImpl(db);
+		identityManager = new IdentityManagerImpl(db, 10);
 	}
 
 	@Test
@@ -123,6 +130,140 @@ public class IdentityManagerImplTest extends BrambleMockTestCase {
 				identityManager.getAuthorStatus(localAuthor.getId()));
 	}
 
+	@Test
+	public void testGetAuthorStatuses() throws DbException {
+		final Transaction txn = new Transaction(null, true);
+		final Author unknown = createAuthor();
+		final Author unverified = createAuthor();
+		final Author verified = createAuthor();
+		final List<AuthorId> remote = Arrays.asList(unknown.getId(),
+				unverified.getId(), verified.getId());
+		final Collection<Contact> contacts = Arrays.asList(
+				new Contact(new ContactId(1), unverified, localAuthor.getId(),
+						false, true),
+				new Contact(new ContactId(2), verified, localAuthor.getId(),
+						false, true),
+				new Contact(new ContactId(3), verified, localAuthor.getId(),
+						true, true));
+		List<AuthorId> all = new ArrayList<AuthorId>(remote);
+		all.add(localAuthor.getId());
+
+		// The statuses of all remote authors should be loaded at once
+		context.checking(new Expectations() {{
+			oneOf(db).getLocalAuthors(txn);
+			will(returnValue(localAuthors));
+			oneOf(db).getContactsByAuthorIds(txn, remote);
+			will(returnValue(contacts));
+		}});
+		Map<AuthorId, Status> statuses =
+				identityManager.getAuthorStatuses(txn, all);
+		assertEquals(4, statuses.size());
+		assertEquals(UNKNOWN, statuses.get(unknown.getId()));
+		assertEquals(UNVERIFIED, statuses.get(unverified.getId()));
+		assertEquals(VERIFIED, statuses.get(verified.getId()));
+		assertEquals(OURSELVES, statuses.get(localAuthor.getId()));
+		context.assertIsSatisfied();
+
+		// The statuses should now be cached
+		assertEquals(statuses, identityManager.getAuthorStatuses(txn, all));
+		assertEquals(UNVERIFIED,
+				identityManager.getAuthorStatus(txn, unverified.getId()));
+		context.assertIsSatisfied();
+
+		// Verifying a contact should invalidate the cache
+		identityManager.eventOccurred(new ContactVerifiedEvent(
+				new ContactId(1)));
+		context.checking(new Expectations() {{
+			oneOf(db).getContactsByAuthorId(txn, unverified.getId());
+			will(returnValue(Collections.singletonList(
+					new Contact(new ContactId(1), unverified,
+							localAuthor.getId(), true, true))));
+		}});
+		assertEquals(VERIFIED,
+				identityManager.getAuthorStatus(txn, unverified.getId()));
+	}
+
+	@Test
+	public void testStatusInvalidatedDuringLoadIsNotCached()
+			throws DbException {
+		final Transaction txn = new Transaction(null, true);
+		final Author author = createAuthor();
+		final Contact verified = new Contact(new ContactId(1), author,
+				localAuthor.getId(), true, true);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getLocalAuthors(txn);
+			will(returnValue(localAuthors));
+			// Verify the contact while the status is being loaded
+			oneOf(db).getContactsByAuthorId(txn, author.getId());
+			will(new Action() {
+				@Override
+				public Object invoke(Invocation invocation)
+						throws Throwable {
+					identityManager.eventOccurred(
+							new ContactVerifiedEvent(new ContactId(1)));
+					return Collections.emptyList();
+				}
+
+				@Override
+				public void describeTo(Description description) {
+					description.appendText("verifies contact");
+				}
+			});
+			oneOf(db).getContactsByAuthorId(txn, author.getId());
+			will(returnValue(Collections.singletonList(verified)));
+		}});
+
+		// The stale status should not be cached, so it's loaded again
+		assertEquals(UNKNOWN,
+				identityManager.getAuthorStatus(txn, author.getId()));
+		assertEquals(VERIFIED,
+				identityManager.getAuthorStatus(txn, author.getId()));
+		assertEquals(VERIFIED,
+				identityManager.getAuthorStatus(txn, author.getId()));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedStatusIsEvicted() throws DbException {
+		final Transaction txn = new Transaction(null, true);
+		final AuthorId first = createAuthor().getId();
+		final AuthorId second = createAuthor().getId();
+		final AuthorId third = createAuthor().getId();
+		IdentityManagerImpl identityManager =
+				new IdentityManagerImpl(db, 2);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getLocalAuthors(txn);
+			will(returnValue(localAuthors));
+			oneOf(db).getContactsByAuthorId(txn, first);
+			will(returnValue(Collections.emptyList()));
+			oneOf(db).getContactsByAuthorId(txn, second);
+			will(returnValue(Collections.emptyList()));
+			oneOf(db).getContactsByAuthorId(txn, third);
+			will(returnValue(Collections.emptyList()));
+		}});
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, first));
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, second));
+		// Use the first status so the second is the least recently used
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, first));
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, third));
+		context.assertIsSatisfied();
+
+		// The second status should have been evicted
+		context.checking(new Expectations() {{
+			oneOf(db).getContactsByAuthorId(txn, second);
+			will(returnValue(Collections.emptyList()));
+		}});
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, first));
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, third));
+		assertEquals(UNKNOWN, identityManager.getAuthorStatus(txn, second));
+	}
+
+	private Author createAuthor() {
+		return new Author(new AuthorId(TestUtils.getRandomId()),
+				TestUtils.getRandomString(8), TestUtils.getRandomBytes(42));
+	}
+
 	private void checkAuthorStatusContext(final AuthorId authorId,
 			final Collection<Contact> contacts) throws DbException {
 		context.checking(new Expectations() {{
@@ -0,0 +1,72 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.reliability.ReadHandler;
+import org.briarproject.bramble.api.reliability.WriteHandler;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * One direction of a simulated serial link, which delivers each write to a
+ * read handler after the time needed to transmit it at the link's bandwidth
+ * plus the link's latency. Writes are lost at random with the given
+ * probability. Writes that aren't lost are delivered in order.
+ */
+@ThreadSafe
+@NotNullByDefault
+class LossyLink implements WriteHandler {
+
+	private final ScheduledExecutorService scheduler;
+	private final Random random;
+	private final double lossRate;
+	private final long latencyNanos, nanosPerByte;
+
+	@Nullable
+	private volatile ReadHandler readHandler = null;
+
+	// Locking: this
+	private long linkFree = 0;
+
+	LossyLink(ScheduledExecutorService scheduler, Random random,
+			double lossRate, long latencyMillis, int bytesPerSecond) {
+		this.scheduler = scheduler;
+		this.random = random;
+		this.lossRate = lossRate;
+		latencyNanos = latencyMillis * 1000 * 1000;
+		nanosPerByte = 1000L * 1000 * 1000 / bytesPerSecond;
+	}
+
+	void setReadHandler(ReadHandler readHandler) {
+		this.readHandler = readHandler;
+	}
+
+	@Override
+	public void handleWrite(final byte[] b) {
+		long now = System.nanoTime(), delay;
+		synchronized (this) {
+			// The write occupies the link until it has been transmitted
+			linkFree = Math.max(now, linkFree) + b.length * nanosPerByte;
+			if (random.nextDouble() < lossRate) return;
+			delay = linkFree + latencyNanos - now;
+		}
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				ReadHandler r = readHandler;
+				if (r == null) return;
+				try {
+					r.handleRead(b);
+				} catch (IOException e) {
+					// The receiving end has been stopped
+				}
+			}
+		}, delay, NANOSECONDS);
+	}
+}
@@ -0,0 +1,110 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class ReliabilityLayerImplTest extends BrambleTestCase {
+
+	private static final int BYTES_PER_SECOND = 1024 * 1024;
+
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testTransfersDataOverReliableLink() throws Exception {
+		testTransfer(false, 0, 0, 64 * 1024);
+	}
+
+	@Test
+	public void testSelectiveModeTransfersDataOverReliableLink()
+			throws Exception {
+		testTransfer(true, 0, 0, 256 * 1024);
+	}
+
+	@Test
+	public void testSelectiveModeTransfersDataOverLossyLink()
+			throws Exception {
+		testTransfer(true, 0.05, 20, 256 * 1024);
+	}
+
+	private void testTransfer(boolean selective, double lossRate,
+			long latencyMillis, int length) throws Exception {
+		Random random = new Random(length);
+		LossyLink aliceToBob = new LossyLink(scheduler, random, lossRate,
+				latencyMillis, BYTES_PER_SECOND);
+		LossyLink bobToAlice = new LossyLink(scheduler, random, lossRate,
+				latencyMillis, BYTES_PER_SECOND);
+		ReliabilityLayerImpl alice = new ReliabilityLayerImpl(executor,
+				new SystemClock(), aliceToBob, selective);
+		ReliabilityLayerImpl bob = new ReliabilityLayerImpl(executor,
+				new SystemClock(), bobToAlice, selective);
+		alice.start();
+		bob.start();
+		aliceToBob.setReadHandler(bob);
+		bobToAlice.setReadHandler(alice);
+		try {
+			final byte[] data = TestUtils.getRandomBytes(length);
+			final OutputStream out = alice.getOutputStream();
+			final AtomicReference<Exception> error =
+					new AtomicReference<Exception>();
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						// The legacy sender can't send a full frame until
+						// it has heard from the receiver, so start small
+						out.write(data, 0, 1000);
+						out.flush();
+						// Write in pieces that don't line up with the frames
+						for (int off = 1000; off < data.length; off += 1000)
+							out.write(data, off,
+									Math.min(1000, data.length - off));
+						out.close();
+					} catch (Exception e) {
+						error.set(e);
+					}
+				}
+			};
+			writer.start();
+			InputStream in = bob.getInputStream();
+			ByteArrayOutputStream received = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) != -1) received.write(buf, 0, read);
+			writer.join();
+			assertNull(error.get());
+			assertArrayEquals(data, received.toByteArray());
+		} finally {
+			alice.stop();
+			bob.stop();
+		}
+	}
+}
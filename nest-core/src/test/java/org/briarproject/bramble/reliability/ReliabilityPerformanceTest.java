@@ -0,0 +1,108 @@
+package org.briarproject.bramble.reliability;
+
+import org.briarproject.bramble.system.SystemClock;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+// Not a JUnit test
+public class ReliabilityPerformanceTest {
+
+	private static final int LENGTH = 128 * 1024;
+	// Serial links at 115,200 and 921,600 baud with 8N1 framing, with loss
+	// rates and one-way latencies in milliseconds
+	private static final int[] BAUD_RATES =
+			{115200, 115200, 115200, 115200, 115200, 921600, 921600};
+	private static final double[] LOSS_RATES =
+			{0, 0, 0.01, 0.05, 0.05, 0, 0.01};
+	private static final long[] LATENCIES = {0, 100, 100, 100, 300, 100, 100};
+
+	public static void main(String[] args) throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		ScheduledExecutorService scheduler =
+				Executors.newSingleThreadScheduledExecutor();
+		byte[] data = TestUtils.getRandomBytes(LENGTH);
+		try {
+			for (int i = 0; i < BAUD_RATES.length; i++) {
+				int bytesPerSecond = BAUD_RATES[i] / 10;
+				double lossRate = LOSS_RATES[i];
+				long latency = LATENCIES[i];
+				long legacy = runTest(executor, scheduler, data,
+						bytesPerSecond, lossRate, latency, false);
+				long selective = runTest(executor, scheduler, data,
+						bytesPerSecond, lossRate, latency, true);
+				System.out.println(BAUD_RATES[i] + " baud, "
+						+ (int) (lossRate * 100) + "% loss, "
+						+ latency + " ms latency, bytes per second: "
+						+ (LENGTH * 1000L / legacy) + " legacy, "
+						+ (LENGTH * 1000L / selective) + " selective");
+			}
+		} finally {
+			executor.shutdownNow();
+			scheduler.shutdownNow();
+		}
+	}
+
+	private static long runTest(ExecutorService executor,
+			ScheduledExecutorService scheduler, final byte[] data,
+			int bytesPerSecond, double lossRate, long latency,
+			boolean selective)
+			throws Exception {
+		// Use the same losses for both kinds of reliability layer
+		Random random = new Random(0);
+		LossyLink aliceToBob = new LossyLink(scheduler, random, lossRate,
+				latency, bytesPerSecond);
+		LossyLink bobToAlice = new LossyLink(scheduler, random, lossRate,
+				latency, bytesPerSecond);
+		ReliabilityLayerImpl alice = new ReliabilityLayerImpl(executor,
+				new SystemClock(), aliceToBob, selective);
+		ReliabilityLayerImpl bob = new ReliabilityLayerImpl(executor,
+				new SystemClock(), bobToAlice, selective);
+		alice.start();
+		bob.start();
+		aliceToBob.setReadHandler(bob);
+		bobToAlice.setReadHandler(alice);
+		try {
+			final OutputStream out = alice.getOutputStream();
+			long start = System.currentTimeMillis();
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						// The legacy sender can't send a full frame until
+						// it has heard from the receiver, so start small
+						out.write(data, 0, 1000);
+						out.flush();
+						out.write(data, 1000, data.length - 1000);
+						out.close();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			writer.start();
+			InputStream in = bob.getInputStream();
+			byte[] received = new byte[data.length];
+			int offset = 0, read;
+			while ((read = in.read(received, offset,
+					received.length - offset)) > 0) {
+				offset += read;
+			}
+			long duration = System.currentTimeMillis() - start;
+			// Wait for the last acks to reach the sender
+			writer.join();
+			if (!Arrays.equals(data, received)) throw new AssertionError();
+			return Math.max(1, duration);
+		} finally {
+			alice.stop();
+			bob.stop();
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package org.briarproject.bramble.settings;
+
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.hamcrest.Description;
+import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SettingsManagerImplTest extends BrambleMockTestCase {
+
+	private static final String NAMESPACE = "namespace";
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final Transaction txn = new Transaction(null, true);
+	private final Transaction txn1 = new Transaction(null, false);
+	private final SettingsManagerImpl settingsManager;
+
+	public SettingsManagerImplTest() {
+		settingsManager = new SettingsManagerImpl(db);
+	}
+
+	@Test
+	public void testSettingsAreLoadedOnce() throws DbException {
+		final Settings stored = new Settings();
+		stored.put("foo", "bar");
+		expectLoadSettings(stored);
+
+		Settings s = settingsManager.getSettings(NAMESPACE);
+		assertEquals(stored, s);
+		// Modifying the returned settings should not affect the cache
+		s.put("foo", "baz");
+		assertEquals(stored, settingsManager.getSettings(NAMESPACE));
+	}
+
+	@Test
+	public void testMergedSettingsAreWrittenThroughToCache()
+			throws DbException {
+		final Settings stored = new Settings();
+		stored.put("foo", "bar");
+		stored.put("baz", "bam");
+		final Settings update = new Settings();
+		update.put("baz", "qux");
+		expectLoadSettings(stored);
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).mergeSettings(txn1, update, NAMESPACE);
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		assertEquals(stored, settingsManager.getSettings(NAMESPACE));
+		settingsManager.mergeSettings(update, NAMESPACE);
+		// The cache is updated when the transaction commits
+		assertEquals(1, txn1.getCommitActions().size());
+		for (Runnable r : txn1.getCommitActions()) r.run();
+		Settings merged = settingsManager.getSettings(NAMESPACE);
+		assertEquals(2, merged.size());
+		assertEquals("bar", merged.get("foo"));
+		assertEquals("qux", merged.get("baz"));
+	}
+
+	@Test
+	public void testSettingsMergedDuringLoadAreNotCached()
+			throws DbException {
+		final Settings stale = new Settings();
+		stale.put("foo", "bar");
+		final Settings update = new Settings();
+		update.put("foo", "baz");
+		context.checking(new Expectations() {{
+			exactly(2).of(db).startTransaction(true);
+			will(returnValue(txn));
+			// Merge the update while the settings are being loaded
+			oneOf(db).getSettings(txn, NAMESPACE);
+			will(new Action() {
+				@Override
+				public Object invoke(Invocation invocation)
+						throws Throwable {
+					settingsManager.mergeSettings(update, NAMESPACE);
+					for (Runnable r : txn1.getCommitActions()) r.run();
+					return stale;
+				}
+
+				@Override
+				public void describeTo(Description description) {
+					description.appendText("merges settings");
+				}
+			});
+			oneOf(db).getSettings(txn, NAMESPACE);
+			will(returnValue(update));
+			exactly(2).of(db).commitTransaction(txn);
+			exactly(2).of(db).endTransaction(txn);
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).mergeSettings(txn1, update, NAMESPACE);
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		// The stale settings should not be cached, so they're loaded again
+		assertEquals(stale, settingsManager.getSettings(NAMESPACE));
+		assertEquals(update, settingsManager.getSettings(NAMESPACE));
+		assertEquals(update, settingsManager.getSettings(NAMESPACE));
+	}
+
+	private void expectLoadSettings(final Settings stored)
+			throws DbException {
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getSettings(txn, NAMESPACE);
+			will(returnValue(stored));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+	}
+}
@@ -0,0 +1,289 @@
+package org.briarproject.bramble.sync;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.event.EventBus;
+import org.briarproject.bramble.api.sync.Ack;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageFactory;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.RecordReader;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.ImmediateExecutor;
+import org.briarproject.bramble.test.TestUtils;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static java.lang.Thread.State.WAITING;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IncomingSessionTest extends BrambleTestCase {
+
+	private final Mockery context;
+	private final DatabaseComponent db;
+	private final MessageFactory messageFactory;
+	private final EventBus eventBus;
+	private final RecordReader recordReader;
+	private final ContactId contactId;
+	private final byte[] raw, raw1;
+	private final Message message, message1;
+	private final Ack ack;
+
+	public IncomingSessionTest() {
+		context = new Mockery();
+		db = context.mock(DatabaseComponent.class);
+		messageFactory = context.mock(MessageFactory.class);
+		eventBus = context.mock(EventBus.class);
+		recordReader = context.mock(RecordReader.class);
+		contactId = new ContactId(234);
+		GroupId groupId = new GroupId(TestUtils.getRandomId());
+		long timestamp = System.currentTimeMillis();
+		raw = TestUtils.getRandomBytes(1234);
+		raw1 = TestUtils.getRandomBytes(1234);
+		message = new Message(new MessageId(TestUtils.getRandomId()),
+				groupId, timestamp, raw);
+		message1 = new Message(new MessageId(TestUtils.getRandomId()),
+				groupId, timestamp, raw1);
+		ack = new Ack(Collections.singletonList(
+				new MessageId(TestUtils.getRandomId())));
+	}
+
+	@Test
+	public void testQueuedRecordsAreReceivedInOneTransaction()
+			throws Exception {
+		final Queue<Runnable> tasks = new LinkedList<Runnable>();
+		Executor dbExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				tasks.add(r);
+			}
+		};
+		final IncomingSession session = new IncomingSession(db, dbExecutor,
+				messageFactory, eventBus, contactId, recordReader);
+		final Transaction txn = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Read two messages and an ack
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readRawMessage();
+			will(returnValue(raw));
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readRawMessage();
+			will(returnValue(raw1));
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(true));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		// All three records should be waiting for a single task
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Calculate the message IDs before starting the transaction
+			oneOf(messageFactory).createMessage(raw);
+			will(returnValue(message));
+			oneOf(messageFactory).createMessage(raw1);
+			will(returnValue(message1));
+			// Receive the messages together, then the ack, in one transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(db).receiveMessages(txn, contactId,
+					Arrays.asList(message, message1));
+			oneOf(db).receiveAck(txn, contactId, ack);
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+
+		tasks.poll().run();
+		assertEquals(0, tasks.size());
+
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testRecordsAreReceivedImmediatelyIfExecutorIsIdle()
+			throws Exception {
+		final IncomingSession session = new IncomingSession(db,
+				new ImmediateExecutor(), messageFactory, eventBus, contactId,
+				recordReader);
+		final Transaction txn = new Transaction(null, false);
+		final Transaction txn1 = new Transaction(null, false);
+		final Transaction txn2 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Read two messages and an ack
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readRawMessage();
+			will(returnValue(raw));
+			oneOf(messageFactory).createMessage(raw);
+			will(returnValue(message));
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(false));
+			oneOf(recordReader).hasMessage();
+			will(returnValue(true));
+			oneOf(recordReader).readRawMessage();
+			will(returnValue(raw1));
+			oneOf(messageFactory).createMessage(raw1);
+			will(returnValue(message1));
+			oneOf(recordReader).eof();
+			will(returnValue(false));
+			oneOf(recordReader).hasAck();
+			will(returnValue(true));
+			oneOf(recordReader).readAck();
+			will(returnValue(ack));
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Each record is received in its own transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn));
+			oneOf(db).receiveMessages(txn, contactId,
+					Collections.singletonList(message));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).receiveMessages(txn1, contactId,
+					Collections.singletonList(message1));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn2));
+			oneOf(db).receiveAck(txn2, contactId, ack);
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+		}});
+
+		session.run();
+
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void testReadingBlocksWhileQueueIsFull() throws Exception {
+		Mockery context = new Mockery() {{
+			setThreadingPolicy(new Synchroniser());
+		}};
+		final DatabaseComponent db = context.mock(DatabaseComponent.class);
+		final MessageFactory messageFactory =
+				context.mock(MessageFactory.class);
+		final EventBus eventBus = context.mock(EventBus.class);
+		final RecordReader recordReader = context.mock(RecordReader.class);
+		final BlockingQueue<Runnable> tasks =
+				new LinkedBlockingQueue<Runnable>();
+		Executor dbExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				tasks.add(r);
+			}
+		};
+		final IncomingSession session = new IncomingSession(db, dbExecutor,
+				messageFactory, eventBus, contactId, recordReader);
+		final Transaction txn = new Transaction(null, false);
+		// Each message fills a batch, so the queue is full after four
+		final int messages = 5;
+		final byte[] big = new byte[1024 * 1024];
+
+		context.checking(new Expectations() {{
+			// Add listener
+			oneOf(eventBus).addListener(session);
+			// Read five messages
+			exactly(messages).of(recordReader).eof();
+			will(returnValue(false));
+			exactly(messages).of(recordReader).hasAck();
+			will(returnValue(false));
+			exactly(messages).of(recordReader).hasMessage();
+			will(returnValue(true));
+			exactly(messages).of(recordReader).readRawMessage();
+			will(returnValue(big));
+			oneOf(recordReader).eof();
+			will(returnValue(true));
+			// Remove listener
+			oneOf(eventBus).removeListener(session);
+			// Receive each message in its own transaction
+			exactly(messages).of(messageFactory).createMessage(big);
+			will(returnValue(message));
+			exactly(messages).of(db).startTransaction(false);
+			will(returnValue(txn));
+			exactly(messages).of(db).receiveMessages(txn, contactId,
+					Collections.singletonList(message));
+			exactly(messages).of(db).commitTransaction(txn);
+			exactly(messages).of(db).endTransaction(txn);
+		}});
+
+		Thread reader = new Thread() {
+			@Override
+			public void run() {
+				try {
+					session.run();
+				} catch (IOException e) {
+					fail();
+				}
+			}
+		};
+		reader.start();
+		// The reader should block when the fifth message is queued
+		long deadline = System.currentTimeMillis() + 10 * 1000;
+		while (reader.getState() != WAITING) {
+			assertTrue(System.currentTimeMillis() < deadline);
+			Thread.sleep(1);
+		}
+		assertEquals(1, tasks.size());
+		// Receiving a message should unblock the reader
+		tasks.take().run();
+		reader.join(10 * 1000);
+		assertFalse(reader.isAlive());
+		// Receive the rest of the messages
+		for (int i = 1; i < messages; i++) tasks.take().run();
+		assertEquals(0, tasks.size());
+
+		context.assertIsSatisfied();
+	}
+}
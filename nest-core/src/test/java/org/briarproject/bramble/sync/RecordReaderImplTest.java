@@ -13,12 +13,15 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 
 import static org.briarproject.bramble.api.sync.RecordTypes.ACK;
+import static org.briarproject.bramble.api.sync.RecordTypes.MESSAGE;
 import static org.briarproject.bramble.api.sync.RecordTypes.OFFER;
 import static org.briarproject.bramble.api.sync.RecordTypes.REQUEST;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_MESSAGE_IDS;
 import static org.briarproject.bramble.api.sync.SyncConstants.MAX_RECORD_PAYLOAD_LENGTH;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
 import static org.briarproject.bramble.api.sync.SyncConstants.PROTOCOL_VERSION;
 import static org.briarproject.bramble.api.sync.SyncConstants.RECORD_HEADER_LENGTH;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -174,6 +177,31 @@ public class RecordReaderImplTest extends BrambleMockTestCase {
 		assertEquals(MAX_MESSAGE_IDS, a.getMessageIds().size());
 	}
 
+	@Test
+	public void testReadRawMessageDoesNotCalculateId() throws Exception {
+		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + 123];
+		ByteUtils.writeUint64(System.currentTimeMillis(), raw,
+				UniqueId.LENGTH);
+		byte[] b = createRecord(PROTOCOL_VERSION, MESSAGE, raw);
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		RecordReaderImpl reader = new RecordReaderImpl(messageFactory, in);
+		// The message factory should not be called
+		assertTrue(reader.hasMessage());
+		assertArrayEquals(raw, reader.readRawMessage());
+		assertTrue(reader.eof());
+	}
+
+	@Test(expected = FormatException.class)
+	public void testFormatExceptionIfTimestampIsNegative() throws Exception {
+		byte[] raw = new byte[MESSAGE_HEADER_LENGTH + 123];
+		// Set the sign bit of the timestamp
+		raw[UniqueId.LENGTH] = (byte) 0x80;
+		byte[] b = createRecord(PROTOCOL_VERSION, MESSAGE, raw);
+		ByteArrayInputStream in = new ByteArrayInputStream(b);
+		RecordReaderImpl reader = new RecordReaderImpl(messageFactory, in);
+		reader.readRawMessage();
+	}
+
 	private byte[] createAck(boolean tooBig) throws Exception {
 		return createRecord(PROTOCOL_VERSION, ACK, createPayload(tooBig));
 	}
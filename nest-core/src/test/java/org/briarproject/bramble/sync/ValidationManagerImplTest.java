@@ -2,7 +2,10 @@ package org.briarproject.bramble.sync;
 
 import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.crypto.CryptoComponent;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.NoSuchMessageException;
@@ -27,16 +30,21 @@ import org.jmock.Expectations;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.Executor;
 
 import static org.briarproject.bramble.api.sync.ValidationManager.State.DELIVERED;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.INVALID;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.PENDING;
 import static org.briarproject.bramble.api.sync.ValidationManager.State.UNKNOWN;
+import static org.junit.Assert.assertEquals;
 
 public class ValidationManagerImplTest extends BrambleMockTestCase {
 
@@ -47,6 +55,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			context.mock(MessageValidator.class);
 	private final IncomingMessageHook hook =
 			context.mock(IncomingMessageHook.class);
+	private final CryptoComponent crypto = context.mock(CryptoComponent.class);
 
 	private final Executor dbExecutor = new ImmediateExecutor();
 	private final Executor validationExecutor = new ImmediateExecutor();
@@ -84,7 +93,7 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 	@Before
 	public void setUp() {
 		vm = new ValidationManagerImpl(db, dbExecutor, validationExecutor,
-				messageFactory);
+				messageFactory, crypto);
 		vm.registerMessageValidator(clientId, validator);
 		vm.registerIncomingMessageHook(clientId, hook);
 	}
@@ -158,6 +167,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result for the first message
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn2));
+			oneOf(db).getMessageState(txn2, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
 			// Deliver the first message
 			oneOf(hook).incomingMessage(txn2, message, metadata);
@@ -372,6 +383,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).addMessageDependencies(txn1, message,
 					validResultWithDependencies.getDependencies());
 			oneOf(db).getMessageDependencies(txn1, messageId);
@@ -567,6 +580,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
 			// Deliver the message
 			oneOf(hook).incomingMessage(txn1, message, metadata);
@@ -582,6 +597,383 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 		vm.eventOccurred(new MessageAddedEvent(message, contactId));
 	}
 
+	@Test
+	public void testMessagesAreNotDeliveredTwice() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Load the group
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the message: valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			// Store the validation result: the message has already been
+			// delivered, so the result should be discarded
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(DELIVERED));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+	}
+
+	@Test
+	public void testOutstandingMessagesAreLimitedByQueueSize()
+			throws Exception {
+		final Queue<Runnable> dbTasks = new LinkedList<Runnable>();
+		Executor dbExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				dbTasks.add(r);
+			}
+		};
+		final Queue<Runnable> validationTasks = new LinkedList<Runnable>();
+		Executor validationExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				validationTasks.add(r);
+			}
+		};
+		ValidationManagerImpl vm = new ValidationManagerImpl(db, dbExecutor,
+				validationExecutor, messageFactory, crypto);
+		vm.registerMessageValidator(clientId, validator);
+		final int max = ValidationManagerImpl.MAX_QUEUED_MESSAGES;
+		final List<MessageId> unvalidated = new ArrayList<MessageId>();
+		for (int i = 0; i <= max; i++)
+			unvalidated.add(new MessageId(TestUtils.getRandomId()));
+		final Transaction txn = new Transaction(null, true);
+
+		context.checking(new Expectations() {{
+			allowing(db).startTransaction(true);
+			will(returnValue(txn));
+			allowing(db).commitTransaction(txn);
+			allowing(db).endTransaction(txn);
+			oneOf(db).getMessagesToValidate(txn, clientId);
+			will(returnValue(unvalidated));
+			oneOf(db).getPendingMessages(txn, clientId);
+			will(returnValue(Collections.emptyList()));
+			oneOf(db).getMessagesToShare(txn, clientId);
+			will(returnValue(Collections.emptyList()));
+			// Only as many messages as the queue can hold should be loaded
+			exactly(max).of(db).getRawMessage(with(txn),
+					with(any(MessageId.class)));
+			will(returnValue(raw));
+			exactly(max).of(messageFactory).createMessage(
+					with(any(MessageId.class)), with(any(byte[].class)));
+			will(returnValue(message));
+			exactly(max).of(db).getGroup(txn, groupId);
+			will(returnValue(group));
+		}});
+
+		vm.startService();
+		while (!dbTasks.isEmpty()) dbTasks.poll().run();
+		assertEquals(max, validationTasks.size());
+	}
+
+	@Test
+	public void testIncomingMessagesAreValidatedInBatches() throws Exception {
+		final Queue<Runnable> tasks = new LinkedList<Runnable>();
+		Executor dbExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				tasks.add(r);
+			}
+		};
+		ValidationManagerImpl vm = new ValidationManagerImpl(db, dbExecutor,
+				validationExecutor, messageFactory, crypto);
+		vm.registerMessageValidator(clientId, validator);
+		vm.registerIncomingMessageHook(clientId, hook);
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, false);
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+
+		// Both messages should be waiting for a single task
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Load the groups in one transaction
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+		}});
+
+		tasks.poll().run();
+
+		// Both results should be waiting for a single task
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Store the validation results in one transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
+			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
+			oneOf(hook).incomingMessage(txn1, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn1, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn1, messageId);
+			will(returnValue(Collections.emptyMap()));
+			oneOf(db).getMessageState(txn1, messageId1);
+			will(returnValue(UNKNOWN));
+			oneOf(db).mergeMessageMetadata(txn1, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn1, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn1, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn1, messageId1);
+			will(returnValue(Collections.emptyMap()));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		tasks.poll().run();
+		assertEquals(0, tasks.size());
+	}
+
+	@Test
+	public void testResultsAreStoredOneAtATimeIfBatchFails()
+			throws Exception {
+		final Queue<Runnable> tasks = new LinkedList<Runnable>();
+		Executor dbExecutor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				tasks.add(r);
+			}
+		};
+		ValidationManagerImpl vm = new ValidationManagerImpl(db, dbExecutor,
+				validationExecutor, messageFactory, crypto);
+		vm.registerMessageValidator(clientId, validator);
+		vm.registerIncomingMessageHook(clientId, hook);
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, false);
+		final Transaction txn2 = new Transaction(null, false);
+		final Transaction txn3 = new Transaction(null, false);
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+
+		context.checking(new Expectations() {{
+			// Load the groups in one transaction
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			exactly(2).of(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the messages: valid
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(validResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(validResult));
+		}});
+
+		tasks.poll().run();
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Store the validation results in one transaction: DB error
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(throwException(new DbException()));
+			oneOf(db).endTransaction(txn1);
+			// Store the first result on its own: DB error
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn2));
+			oneOf(db).getMessageState(txn2, messageId);
+			will(throwException(new DbException()));
+			oneOf(db).endTransaction(txn2);
+			// Store the second result on its own
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn3));
+			oneOf(db).getMessageState(txn3, messageId1);
+			will(returnValue(UNKNOWN));
+			oneOf(db).mergeMessageMetadata(txn3, messageId1, metadata);
+			oneOf(hook).incomingMessage(txn3, message1, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn3, messageId1, DELIVERED);
+			oneOf(db).getMessageDependents(txn3, messageId1);
+			will(returnValue(Collections.emptyMap()));
+			oneOf(db).commitTransaction(txn3);
+			oneOf(db).endTransaction(txn3);
+		}});
+
+		tasks.poll().run();
+		assertEquals(0, tasks.size());
+	}
+
+	@Test
+	public void testDeferredSignaturesAreVerifiedInBatches() throws Exception {
+		final Queue<Runnable> tasks = new LinkedList<Runnable>();
+		Executor executor = new Executor() {
+			@Override
+			public void execute(Runnable r) {
+				tasks.add(r);
+			}
+		};
+		ValidationManagerImpl vm = new ValidationManagerImpl(db, executor,
+				executor, messageFactory, crypto);
+		vm.registerMessageValidator(clientId, validator);
+		vm.registerIncomingMessageHook(clientId, hook);
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, false);
+		final SignedData signedData = new SignedData("label",
+				TestUtils.getRandomBytes(123), TestUtils.getRandomBytes(123),
+				TestUtils.getRandomBytes(123));
+		final SignedData signedData1 = new SignedData("label",
+				TestUtils.getRandomBytes(123), TestUtils.getRandomBytes(123),
+				TestUtils.getRandomBytes(123));
+		final MessageContext signedResult = new MessageContext(metadata,
+				Collections.<MessageId>emptyList(),
+				Collections.singletonList(signedData));
+		final MessageContext signedResult1 = new MessageContext(metadata,
+				Collections.<MessageId>emptyList(),
+				Collections.singletonList(signedData1));
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+		vm.eventOccurred(new MessageAddedEvent(message1, contactId));
+
+		context.checking(new Expectations() {{
+			// Load the groups in one transaction
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			exactly(2).of(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the messages, deferring the signatures
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(signedResult));
+			oneOf(validator).validateMessage(message1, group);
+			will(returnValue(signedResult1));
+		}});
+
+		// Load the groups, then validate the messages
+		for (int i = 0; i < 3; i++) tasks.poll().run();
+
+		// Both results should be waiting for a single task
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Verify the signatures in one batch: the second is invalid
+			oneOf(crypto).verifyBatch(Arrays.asList(signedData, signedData1));
+			will(returnValue(new boolean[] {true, false}));
+		}});
+
+		tasks.poll().run();
+
+		// Both results should be waiting for a single task
+		assertEquals(1, tasks.size());
+
+		context.checking(new Expectations() {{
+			// Store the validation results in one transaction
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			// The first message is valid
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
+			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
+			oneOf(hook).incomingMessage(txn1, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn1, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn1, messageId);
+			will(returnValue(Collections.emptyMap()));
+			// The second message is invalid
+			oneOf(db).getMessageState(txn1, messageId1);
+			will(returnValue(UNKNOWN));
+			oneOf(db).setMessageState(txn1, messageId1, INVALID);
+			oneOf(db).deleteMessage(txn1, messageId1);
+			oneOf(db).deleteMessageMetadata(txn1, messageId1);
+			oneOf(db).getMessageDependents(txn1, messageId1);
+			will(returnValue(Collections.emptyMap()));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		tasks.poll().run();
+		assertEquals(0, tasks.size());
+	}
+
+	@Test
+	public void testSignaturesOfVerifiedMessagesAreNotVerifiedAgain()
+			throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final Transaction txn1 = new Transaction(null, true);
+		final Transaction txn2 = new Transaction(null, false);
+		// The signatures are carried by other messages, which may already
+		// have been verified
+		final SignedData signedData = new SignedData("label",
+				TestUtils.getRandomBytes(123), TestUtils.getRandomBytes(123),
+				TestUtils.getRandomBytes(123), messageId1);
+		final SignedData signedData1 = new SignedData("label",
+				TestUtils.getRandomBytes(123), TestUtils.getRandomBytes(123),
+				TestUtils.getRandomBytes(123), messageId2);
+		final MessageContext signedResult = new MessageContext(metadata,
+				Collections.<MessageId>emptyList(),
+				Arrays.asList(signedData, signedData1));
+
+		context.checking(new Expectations() {{
+			// Load the group
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getGroup(txn, groupId);
+			will(returnValue(group));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+			// Validate the message, deferring the signatures
+			oneOf(validator).validateMessage(message, group);
+			will(returnValue(signedResult));
+			// Check which signatures have already been verified
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(db).containsVerifiedMessage(txn1, messageId1);
+			will(returnValue(true));
+			oneOf(db).containsVerifiedMessage(txn1, messageId2);
+			will(returnValue(false));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+			// Verify the remaining signature
+			oneOf(crypto).verifyBatch(Collections.singletonList(signedData1));
+			will(returnValue(new boolean[] {true}));
+			// Store the validation result
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn2));
+			oneOf(db).getMessageState(txn2, messageId);
+			will(returnValue(UNKNOWN));
+			oneOf(db).mergeMessageMetadata(txn2, messageId, metadata);
+			oneOf(hook).incomingMessage(txn2, message, metadata);
+			will(returnValue(false));
+			oneOf(db).setMessageState(txn2, messageId, DELIVERED);
+			oneOf(db).getMessageDependents(txn2, messageId);
+			will(returnValue(Collections.emptyMap()));
+			oneOf(db).commitTransaction(txn2);
+			oneOf(db).endTransaction(txn2);
+		}});
+
+		vm.eventOccurred(new MessageAddedEvent(message, contactId));
+	}
+
 	@Test
 	public void testLocalMessagesAreNotValidatedWhenAdded() throws Exception {
 		vm.eventOccurred(new MessageAddedEvent(message, null));
@@ -607,6 +999,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).addMessageDependencies(txn1, message,
 					validResultWithDependencies.getDependencies());
 			oneOf(db).getMessageDependencies(txn1, messageId);
@@ -640,6 +1034,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).addMessageDependencies(txn1, message,
 					validResultWithDependencies.getDependencies());
 			oneOf(db).getMessageDependencies(txn1, messageId);
@@ -855,6 +1251,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
 			// Deliver the message
 			oneOf(hook).incomingMessage(txn1, message, metadata);
@@ -1000,6 +1398,8 @@ public class ValidationManagerImplTest extends BrambleMockTestCase {
 			// Store the validation result
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn1));
+			oneOf(db).getMessageState(txn1, messageId);
+			will(returnValue(UNKNOWN));
 			oneOf(db).mergeMessageMetadata(txn1, messageId, metadata);
 			// Deliver the message
 			oneOf(hook).incomingMessage(txn1, message, metadata);
@@ -11,11 +11,17 @@ public class TestDatabaseConfig implements DatabaseConfig {
 
 	private final File dir;
 	private final long maxSize;
+	private final boolean concurrent;
 	private volatile SecretKey key = new SecretKey(new byte[SecretKey.LENGTH]);
 
 	public TestDatabaseConfig(File dir, long maxSize) {
+		this(dir, maxSize, false);
+	}
+
+	public TestDatabaseConfig(File dir, long maxSize, boolean concurrent) {
 		this.dir = dir;
 		this.maxSize = maxSize;
+		this.concurrent = concurrent;
 	}
 
 	@Override
@@ -54,4 +60,9 @@ public class TestDatabaseConfig implements DatabaseConfig {
 	public long getMaxSize() {
 		return maxSize;
 	}
+
+	@Override
+	public boolean useConcurrentTransactions() {
+		return concurrent;
+	}
 }
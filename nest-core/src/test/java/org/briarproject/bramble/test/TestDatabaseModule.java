@@ -1,7 +1,9 @@
 package org.briarproject.bramble.test;
 
+import org.briarproject.bramble.KeyedExecutorImpl;
 import org.briarproject.bramble.api.db.DatabaseConfig;
 import org.briarproject.bramble.api.db.DatabaseExecutor;
+import org.briarproject.bramble.api.system.KeyedExecutor;
 
 import java.io.File;
 import java.util.concurrent.Executor;
@@ -29,6 +31,14 @@ public class TestDatabaseModule {
 		return config;
 	}
 
+	@Provides
+	@Singleton
+	@DatabaseExecutor
+	KeyedExecutor provideKeyedDatabaseExecutor() {
+		return new KeyedExecutorImpl("DatabaseExecutor",
+				new ImmediateExecutor());
+	}
+
 	@Provides
 	@Singleton
 	@DatabaseExecutor
@@ -0,0 +1,155 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.Bytes;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.transport.IncomingKeys;
+import org.briarproject.bramble.test.TestUtils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+
+// Not a JUnit test
+public class TagTablePerformanceTest {
+
+	private static final int CONTACTS = 2000;
+	private static final int PERIODS = 3;
+	private static final int TAGS = CONTACTS * PERIODS * REORDERING_WINDOW_SIZE;
+	private static final int LOOKUPS = 1000 * 1000;
+	private static final int REMOVALS = 100;
+
+	public static void main(String[] args) {
+		byte[][] tags = new byte[TAGS][];
+		for (int i = 0; i < TAGS; i++)
+			tags[i] = TestUtils.getRandomBytes(TAG_LENGTH);
+		byte[][] absent = new byte[TAGS][];
+		for (int i = 0; i < TAGS; i++)
+			absent[i] = TestUtils.getRandomBytes(TAG_LENGTH);
+		MutableIncomingKeys[] inKeys =
+				new MutableIncomingKeys[CONTACTS * PERIODS];
+		for (int i = 0; i < inKeys.length; i++) {
+			inKeys[i] = new MutableIncomingKeys(new IncomingKeys(
+					TestUtils.getSecretKey(), TestUtils.getSecretKey(), i));
+		}
+		// Run each test twice so the second run is measured with a warm JIT
+		for (int i = 0; i < 2; i++) {
+			long before = usedMemory();
+			Map<Bytes, TagContext> map = createMap(tags, inKeys);
+			long mapBytes = usedMemory() - before;
+			long mapHit = lookUp(map, tags), mapMiss = lookUp(map, absent);
+			long mapRemove = removeContacts(map);
+			map = null;
+			before = usedMemory();
+			TagTable table = createTable(tags, inKeys);
+			long tableBytes = usedMemory() - before;
+			long tableHit = lookUp(table, tags);
+			long tableMiss = lookUp(table, absent);
+			long tableRemove = removeContacts(table);
+			table = null;
+			System.out.println(TAGS + " tags");
+			System.out.println("Heap bytes per tag: map "
+					+ mapBytes / TAGS + ", table " + tableBytes / TAGS);
+			System.out.println("Hit ns per lookup: map "
+					+ mapHit / LOOKUPS + ", table " + tableHit / LOOKUPS);
+			System.out.println("Miss ns per lookup: map "
+					+ mapMiss / LOOKUPS + ", table " + tableMiss / LOOKUPS);
+			System.out.println("Microseconds per contact removal: map "
+					+ mapRemove / REMOVALS / 1000 + ", table "
+					+ tableRemove / REMOVALS / 1000);
+		}
+	}
+
+	private static Map<Bytes, TagContext> createMap(byte[][] tags,
+			MutableIncomingKeys[] inKeys) {
+		Map<Bytes, TagContext> map = new HashMap<Bytes, TagContext>();
+		for (int i = 0; i < TAGS; i++) {
+			int keys = i / REORDERING_WINDOW_SIZE;
+			ContactId c = new ContactId(keys / PERIODS);
+			map.put(new Bytes(tags[i].clone()),
+					new TagContext(c, inKeys[keys], i));
+		}
+		return map;
+	}
+
+	private static TagTable createTable(byte[][] tags,
+			MutableIncomingKeys[] inKeys) {
+		TagTable table = new TagTable();
+		int handle = 0;
+		for (int i = 0; i < TAGS; i++) {
+			int keys = i / REORDERING_WINDOW_SIZE;
+			if (i % REORDERING_WINDOW_SIZE == 0) {
+				ContactId c = new ContactId(keys / PERIODS);
+				handle = table.addIncomingKeys(c, inKeys[keys]);
+			}
+			table.put(tags[i], handle, i);
+		}
+		return table;
+	}
+
+	private static long lookUp(Map<Bytes, TagContext> map, byte[][] tags) {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			TagContext ctx = map.get(new Bytes(tags[i % TAGS]));
+			if (ctx != null) sum += ctx.streamNumber;
+		}
+		long duration = System.nanoTime() - start;
+		if (sum == 42) System.out.println(); // Keep the result alive
+		return duration;
+	}
+
+	private static long lookUp(TagTable table, byte[][] tags) {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			int slot = table.find(tags[i % TAGS]);
+			if (slot != TagTable.NOT_FOUND)
+				sum += table.getStreamNumber(slot);
+		}
+		long duration = System.nanoTime() - start;
+		if (sum == 42) System.out.println(); // Keep the result alive
+		return duration;
+	}
+
+	private static long removeContacts(Map<Bytes, TagContext> map) {
+		long start = System.nanoTime();
+		for (int i = 0; i < REMOVALS; i++) {
+			ContactId c = new ContactId(i);
+			// The whole map has to be scanned to find the contact's tags
+			Iterator<TagContext> it = map.values().iterator();
+			while (it.hasNext())
+				if (it.next().contactId.equals(c)) it.remove();
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long removeContacts(TagTable table) {
+		long start = System.nanoTime();
+		for (int i = 0; i < REMOVALS; i++)
+			table.removeContact(new ContactId(i));
+		return System.nanoTime() - start;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static class TagContext {
+
+		private final ContactId contactId;
+		private final MutableIncomingKeys inKeys;
+		private final long streamNumber;
+
+		private TagContext(ContactId contactId, MutableIncomingKeys inKeys,
+				long streamNumber) {
+			this.contactId = contactId;
+			this.inKeys = inKeys;
+			this.streamNumber = streamNumber;
+		}
+	}
+}
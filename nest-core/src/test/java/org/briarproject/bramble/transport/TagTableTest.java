@@ -0,0 +1,157 @@
+package org.briarproject.bramble.transport;
+
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.transport.IncomingKeys;
+import org.briarproject.bramble.test.BrambleTestCase;
+import org.briarproject.bramble.test.TestUtils;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.transport.TagTable.NOT_FOUND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class TagTableTest extends BrambleTestCase {
+
+	private final ContactId contactId = new ContactId(123);
+	private final ContactId contactId1 = new ContactId(234);
+
+	@Test
+	public void testTagsCanBeFoundAndRemoved() {
+		TagTable table = new TagTable();
+		MutableIncomingKeys inKeys = createIncomingKeys();
+		int handle = table.addIncomingKeys(contactId, inKeys);
+		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+		byte[] tag1 = TestUtils.getRandomBytes(TAG_LENGTH);
+		table.put(tag, handle, 123);
+		table.put(tag1, handle, 456);
+		assertEquals(2, table.size());
+		// Both tags should be found
+		int slot = table.find(tag);
+		assertNotEquals(NOT_FOUND, slot);
+		assertEquals(contactId, table.getContactId(slot));
+		assertSame(inKeys, table.getIncomingKeys(slot));
+		assertEquals(handle, table.getHandle(slot));
+		assertEquals(123, table.getStreamNumber(slot));
+		int slot1 = table.find(tag1);
+		assertNotEquals(NOT_FOUND, slot1);
+		assertEquals(456, table.getStreamNumber(slot1));
+		// Remove the first tag - the second should still be found
+		table.remove(slot);
+		assertEquals(1, table.size());
+		assertEquals(NOT_FOUND, table.find(tag));
+		assertEquals(456, table.getStreamNumber(table.find(tag1)));
+		// Remove the second tag by value
+		table.remove(tag1);
+		assertEquals(0, table.size());
+		assertEquals(NOT_FOUND, table.find(tag1));
+	}
+
+	@Test
+	public void testPutReplacesExistingTag() {
+		TagTable table = new TagTable();
+		int handle = table.addIncomingKeys(contactId, createIncomingKeys());
+		int handle1 = table.addIncomingKeys(contactId1, createIncomingKeys());
+		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+		table.put(tag, handle, 123);
+		table.put(tag, handle1, 456);
+		assertEquals(1, table.size());
+		int slot = table.find(tag);
+		assertEquals(contactId1, table.getContactId(slot));
+		assertEquals(456, table.getStreamNumber(slot));
+		// Removing the first contact should not affect the tag
+		table.removeContact(contactId);
+		assertEquals(1, table.size());
+		assertEquals(slot, table.find(tag));
+	}
+
+	@Test
+	public void testRemovingContactRemovesOnlyItsTags() {
+		TagTable table = new TagTable();
+		List<byte[]> tags = new ArrayList<byte[]>();
+		List<byte[]> tags1 = new ArrayList<byte[]>();
+		// Add three sets of keys per contact, enough tags to force rehashing
+		for (int i = 0; i < 3; i++) {
+			int handle = table.addIncomingKeys(contactId,
+					createIncomingKeys());
+			int handle1 = table.addIncomingKeys(contactId1,
+					createIncomingKeys());
+			for (int j = 0; j < 100; j++) {
+				byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+				table.put(tag, handle, j);
+				tags.add(tag);
+				byte[] tag1 = TestUtils.getRandomBytes(TAG_LENGTH);
+				table.put(tag1, handle1, j);
+				tags1.add(tag1);
+			}
+		}
+		assertEquals(600, table.size());
+		table.removeContact(contactId);
+		assertEquals(300, table.size());
+		for (byte[] tag : tags) assertEquals(NOT_FOUND, table.find(tag));
+		for (byte[] tag1 : tags1) {
+			int slot = table.find(tag1);
+			assertNotEquals(NOT_FOUND, slot);
+			assertEquals(contactId1, table.getContactId(slot));
+		}
+		// Handles freed by the removed contact should be reused
+		int handle = table.addIncomingKeys(contactId, createIncomingKeys());
+		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+		table.put(tag, handle, 789);
+		int slot = table.find(tag);
+		assertEquals(contactId, table.getContactId(slot));
+		assertEquals(789, table.getStreamNumber(slot));
+		table.removeContact(contactId1);
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void testRemovingIncomingKeysRemovesOnlyTheirTags() {
+		TagTable table = new TagTable();
+		MutableIncomingKeys inKeys = createIncomingKeys();
+		MutableIncomingKeys inKeys1 = createIncomingKeys();
+		int handle = table.addIncomingKeys(contactId, inKeys);
+		int handle1 = table.addIncomingKeys(contactId, inKeys1);
+		assertEquals(handle, table.findIncomingKeys(contactId, inKeys));
+		assertEquals(handle1, table.findIncomingKeys(contactId, inKeys1));
+		assertEquals(NOT_FOUND, table.findIncomingKeys(contactId1, inKeys));
+		byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+		byte[] tag1 = TestUtils.getRandomBytes(TAG_LENGTH);
+		table.put(tag, handle, 123);
+		table.put(tag1, handle1, 456);
+		// Remove the first set of keys - the second should be unaffected
+		table.removeIncomingKeys(contactId, inKeys);
+		assertEquals(1, table.size());
+		assertEquals(NOT_FOUND, table.findIncomingKeys(contactId, inKeys));
+		assertEquals(handle1, table.findIncomingKeys(contactId, inKeys1));
+		assertEquals(NOT_FOUND, table.find(tag));
+		assertSame(inKeys1, table.getIncomingKeys(table.find(tag1)));
+		// Removing the contact should remove the second set of keys
+		table.removeContact(contactId);
+		assertEquals(0, table.size());
+		assertEquals(NOT_FOUND, table.findIncomingKeys(contactId, inKeys1));
+	}
+
+	@Test
+	public void testTagsCanBeAddedAndRemovedRepeatedly() {
+		TagTable table = new TagTable();
+		int handle = table.addIncomingKeys(contactId, createIncomingKeys());
+		for (int i = 0; i < 10000; i++) {
+			byte[] tag = TestUtils.getRandomBytes(TAG_LENGTH);
+			table.put(tag, handle, i);
+			int slot = table.find(tag);
+			assertEquals(i, table.getStreamNumber(slot));
+			table.remove(slot);
+		}
+		assertEquals(0, table.size());
+	}
+
+	private MutableIncomingKeys createIncomingKeys() {
+		return new MutableIncomingKeys(new IncomingKeys(
+				TestUtils.getSecretKey(), TestUtils.getSecretKey(), 1000));
+	}
+}
@@ -35,6 +35,8 @@ import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.briarproject.bramble.api.transport.TransportConstants.MAX_CLOCK_DIFFERENCE;
 import static org.briarproject.bramble.api.transport.TransportConstants.REORDERING_WINDOW_SIZE;
 import static org.briarproject.bramble.api.transport.TransportConstants.TAG_LENGTH;
+import static org.briarproject.bramble.transport.TransportKeyManagerImpl.ROTATION_BATCH_INTERVAL;
+import static org.briarproject.bramble.transport.TransportKeyManagerImpl.ROTATION_BATCH_SIZE;
 import static org.briarproject.bramble.util.ByteUtils.MAX_32_BIT_UNSIGNED;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
@@ -435,7 +437,8 @@ public class TransportKeyManagerImplTest extends BrambleTestCase {
 			oneOf(scheduler).schedule(with(any(Runnable.class)),
 					with(rotationPeriodLength), with(MILLISECONDS));
 			will(new RunAction());
-			oneOf(dbExecutor).execute(with(any(Runnable.class)));
+			// Rotate the keys, then encode the new tags in the background
+			exactly(2).of(dbExecutor).execute(with(any(Runnable.class)));
 			will(new RunAction());
 			// Start a transaction for key rotation
 			oneOf(db).startTransaction(false);
@@ -447,9 +450,10 @@ public class TransportKeyManagerImplTest extends BrambleTestCase {
 			oneOf(crypto).rotateTransportKeys(with(any(TransportKeys.class)),
 					with(1001L));
 			will(returnValue(rotated));
-			// Encode the tags (3 sets)
+			// Encode the tags for the new rotation period (1 set) - the
+			// other sets are reused
 			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
-				exactly(3).of(crypto).encodeTag(with(any(byte[].class)),
+				oneOf(crypto).encodeTag(with(any(byte[].class)),
 						with(tagKey), with(i));
 				will(new EncodeTagAction());
 			}
@@ -472,6 +476,85 @@ public class TransportKeyManagerImplTest extends BrambleTestCase {
 		context.assertIsSatisfied();
 	}
 
+	@Test
+	public void testKeysAreRotatedInBatches() throws Exception {
+		Mockery context = new Mockery();
+		final DatabaseComponent db = context.mock(DatabaseComponent.class);
+		final CryptoComponent crypto = context.mock(CryptoComponent.class);
+		final Executor dbExecutor = context.mock(Executor.class);
+		final ScheduledExecutorService scheduler =
+				context.mock(ScheduledExecutorService.class);
+		final Clock clock = context.mock(Clock.class);
+
+		// One more contact than fits in a batch
+		final int contacts = ROTATION_BATCH_SIZE + 1;
+		final TransportKeys transportKeys = createTransportKeys(1000, 0);
+		final Map<ContactId, TransportKeys> loaded =
+				new LinkedHashMap<ContactId, TransportKeys>();
+		for (int i = 0; i < contacts; i++)
+			loaded.put(new ContactId(i), transportKeys);
+		final TransportKeys rotated = createTransportKeys(1001, 0);
+		final Transaction txn = new Transaction(null, false);
+		final Transaction txn1 = new Transaction(null, false);
+
+		context.checking(new Expectations() {{
+			// Get the current time (the start of rotation period 1000)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(rotationPeriodLength * 1000));
+			// Load the transport keys
+			oneOf(db).getTransportKeys(txn, transportId);
+			will(returnValue(loaded));
+			// Rotate the transport keys (the keys are unaffected)
+			exactly(contacts).of(crypto).rotateTransportKeys(transportKeys,
+					1000);
+			will(returnValue(transportKeys));
+			// Encode the tags (3 sets per contact)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(3 * contacts).of(crypto).encodeTag(
+						with(any(byte[].class)), with(tagKey), with(i));
+				will(new EncodeTagAction());
+			}
+			// Schedule key rotation at the start of the next rotation period
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(rotationPeriodLength), with(MILLISECONDS));
+			will(new RunAction());
+			// Rotate the first batch, then encode the new tags
+			exactly(2).of(dbExecutor).execute(with(any(Runnable.class)));
+			will(new RunAction());
+			// Start a transaction for the first batch
+			oneOf(db).startTransaction(false);
+			will(returnValue(txn1));
+			// Get the current time (the start of rotation period 1001)
+			oneOf(clock).currentTimeMillis();
+			will(returnValue(rotationPeriodLength * 1001));
+			// Rotate the transport keys in the first batch
+			exactly(ROTATION_BATCH_SIZE).of(crypto).rotateTransportKeys(
+					with(any(TransportKeys.class)), with(1001L));
+			will(returnValue(rotated));
+			// Encode the tags for the new rotation period (1 set per contact)
+			for (long i = 0; i < REORDERING_WINDOW_SIZE; i++) {
+				exactly(ROTATION_BATCH_SIZE).of(crypto).encodeTag(
+						with(any(byte[].class)), with(tagKey), with(i));
+				will(new EncodeTagAction());
+			}
+			// Save the keys that were rotated
+			oneOf(db).updateTransportKeys(with(txn1), with(any(Map.class)));
+			// Schedule the next batch
+			oneOf(scheduler).schedule(with(any(Runnable.class)),
+					with(ROTATION_BATCH_INTERVAL), with(MILLISECONDS));
+			// Commit the first batch
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		TransportKeyManager
+				transportKeyManager = new TransportKeyManagerImpl(db,
+				crypto, dbExecutor, scheduler, clock, transportId, maxLatency);
+		transportKeyManager.start(txn);
+
+		context.assertIsSatisfied();
+	}
+
 	private TransportKeys createTransportKeys(long rotationPeriod,
 			long streamCounter) {
 		IncomingKeys inPrev = new IncomingKeys(tagKey, headerKey,
@@ -126,6 +126,11 @@ public class AppModule {
 			public long getMaxSize() {
 				return Long.MAX_VALUE;
 			}
+
+			@Override
+			public boolean useConcurrentTransactions() {
+				return false;
+			}
 		};
 		return databaseConfig;
 	}
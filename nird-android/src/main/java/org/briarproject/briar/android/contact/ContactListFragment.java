@@ -20,7 +20,6 @@ import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.contact.event.ContactRemovedEvent;
 import org.briarproject.bramble.api.contact.event.ContactStatusChangedEvent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.NoSuchContactException;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventBus;
 import org.briarproject.bramble.api.event.EventListener;
@@ -51,7 +50,9 @@ import org.briarproject.briar.api.sharing.event.InvitationRequestReceivedEvent;
 import org.briarproject.briar.api.sharing.event.InvitationResponseReceivedEvent;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import javax.annotation.Nullable;
@@ -203,18 +204,16 @@ public class ContactListFragment extends BaseFragment implements EventListener {
 				try {
 					long now = System.currentTimeMillis();
 					List<ContactListItem> contacts = new ArrayList<>();
-					for (Contact c : contactManager.getActiveContacts()) {
-						try {
-							ContactId id = c.getId();
-							GroupCount count =
-									conversationManager.getGroupCount(id);
-							boolean connected =
-									connectionRegistry.isConnected(c.getId());
-							contacts.add(new ContactListItem(c, connected,
-									count));
-						} catch (NoSuchContactException e) {
-							// Continue
-						}
+					Collection<Contact> active =
+							contactManager.getActiveContacts();
+					Map<ContactId, GroupCount> counts =
+							conversationManager.getGroupCounts(active);
+					for (Contact c : active) {
+						GroupCount count = counts.get(c.getId());
+						if (count == null) continue; // Contact was removed
+						boolean connected =
+								connectionRegistry.isConnected(c.getId());
+						contacts.add(new ContactListItem(c, connected, count));
 					}
 					long duration = System.currentTimeMillis() - now;
 					if (LOG.isLoggable(INFO))
@@ -103,6 +103,15 @@ public interface BlogManager {
 	 */
 	Collection<BlogPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * blog that are older than the given timestamp, newest first. Posts
+	 * sharing the timestamp of the oldest post are all returned, so that
+	 * timestamp can be used to fetch the next page.
+	 */
+	Collection<BlogPostHeader> getPostHeaders(GroupId g, long beforeTimestamp,
+			int limit) throws DbException;
+
 	/**
 	 * Marks a blog post as read or unread.
 	 */
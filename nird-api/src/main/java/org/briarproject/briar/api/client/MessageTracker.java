@@ -7,6 +7,9 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 
+import java.util.Collection;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 
 @NotNullByDefault
@@ -24,6 +27,14 @@ public interface MessageTracker {
 	 **/
 	GroupCount getGroupCount(Transaction txn, GroupId g) throws DbException;
 
+	/**
+	 * Gets the group counts of all the given groups, reading the counts of
+	 * groups that have been tracked since the last upgrade in a single query.
+	 * Groups that have been removed are omitted from the result.
+	 */
+	Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> groups) throws DbException;
+
 	/**
 	 * Updates the group count for the given incoming message.
 	 */
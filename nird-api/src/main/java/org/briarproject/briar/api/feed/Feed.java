@@ -16,12 +16,13 @@ public class Feed {
 	private final Blog blog;
 	private final LocalAuthor localAuthor;
 	@Nullable
-	private final String description, author;
+	private final String description, author, etag, lastModified;
 	private final long added, updated, lastEntryTime;
 
 	public Feed(String url, Blog blog, LocalAuthor localAuthor,
 			@Nullable String description, @Nullable String author, long added,
-			long updated, long lastEntryTime) {
+			long updated, long lastEntryTime, @Nullable String etag,
+			@Nullable String lastModified) {
 
 		this.url = url;
 		this.blog = blog;
@@ -31,6 +32,15 @@ public class Feed {
 		this.added = added;
 		this.updated = updated;
 		this.lastEntryTime = lastEntryTime;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	public Feed(String url, Blog blog, LocalAuthor localAuthor,
+			@Nullable String description, @Nullable String author, long added,
+			long updated, long lastEntryTime) {
+		this(url, blog, localAuthor, description, author, added, updated,
+				lastEntryTime, null, null);
 	}
 
 	public Feed(String url, Blog blog, LocalAuthor localAuthor,
@@ -84,6 +94,24 @@ public class Feed {
 		return lastEntryTime;
 	}
 
+	/**
+	 * Returns the ETag header of the last response that contained the feed,
+	 * or null if the server didn't send one.
+	 */
+	@Nullable
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Returns the Last-Modified header of the last response that contained
+	 * the feed, or null if the server didn't send one.
+	 */
+	@Nullable
+	public String getLastModified() {
+		return lastModified;
+	}
+
 	@Override
 	public boolean equals(Object o) {
 		if (this == o) return true;
@@ -26,5 +26,7 @@ public interface FeedConstants {
 	String KEY_FEED_ADDED = "feedAdded";
 	String KEY_FEED_UPDATED = "feedUpdated";
 	String KEY_FEED_LAST_ENTRY = "feedLastEntryTime";
+	String KEY_FEED_ETAG = "feedEtag";
+	String KEY_FEED_LAST_MODIFIED = "feedLastModified";
 
 }
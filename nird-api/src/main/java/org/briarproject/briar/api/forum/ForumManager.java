@@ -74,6 +74,15 @@ public interface ForumManager {
 	 */
 	Collection<ForumPostHeader> getPostHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of posts in the given
+	 * forum that are older than the given timestamp, newest first. Posts
+	 * sharing the timestamp of the oldest post are all returned, so that
+	 * timestamp can be used to fetch the next page.
+	 */
+	Collection<ForumPostHeader> getPostHeaders(GroupId g, long beforeTimestamp,
+			int limit) throws DbException;
+
 	/**
 	 * Registers a hook to be called whenever a forum is removed.
 	 */
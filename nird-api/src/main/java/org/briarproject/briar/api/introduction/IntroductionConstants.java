@@ -63,7 +63,6 @@ public interface IntroductionConstants {
 	String PUBLIC_KEY2 = "publicKey2";
 
 	/* Introducee Local State Metadata (without those already defined) */
-	String STORAGE_ID = "storageId";
 	String INTRODUCER = "introducer";
 	String LOCAL_AUTHOR_ID = "localAuthorId";
 	String REMOTE_AUTHOR_ID = "remoteAuthorId";
@@ -86,4 +85,7 @@ public interface IntroductionConstants {
 	int TASK_ACTIVATE_CONTACT = 1;
 	int TASK_ABORT = 2;
 
+	/* Local Group Metadata */
+	String SESSIONS_MIGRATED = "sessionsMigrated";
+
 }
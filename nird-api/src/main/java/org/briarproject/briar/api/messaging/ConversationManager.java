@@ -10,6 +10,9 @@ import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 
+import java.util.Collection;
+import java.util.Map;
+
 @NotNullByDefault
 public interface ConversationManager {
 
@@ -24,6 +27,14 @@ public interface ConversationManager {
 	 */
 	GroupCount getGroupCount(ContactId c) throws DbException;
 
+	/**
+	 * Returns the unified group counts for all private conversation messages
+	 * with the given contacts, using a constant number of queries. Contacts
+	 * that have been removed are omitted from the result.
+	 */
+	Map<ContactId, GroupCount> getGroupCounts(Collection<Contact> contacts)
+			throws DbException;
+
 	@NotNullByDefault
 	interface ConversationClient {
 
@@ -32,6 +43,9 @@ public interface ConversationManager {
 		GroupCount getGroupCount(Transaction txn, ContactId c)
 				throws DbException;
 
+		Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+				Collection<Contact> contacts) throws DbException;
+
 		void setReadFlag(GroupId g, MessageId m, boolean read)
 				throws DbException;
 	}
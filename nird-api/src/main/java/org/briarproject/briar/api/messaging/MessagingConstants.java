@@ -8,4 +8,8 @@ public interface MessagingConstants {
 	 * The maximum length of a private message's body in bytes.
 	 */
 	int MAX_PRIVATE_MESSAGE_BODY_LENGTH = MAX_MESSAGE_BODY_LENGTH - 1024;
+
+	// Message metadata keys
+	String MSG_KEY_TIMESTAMP = "timestamp";
+	String MSG_KEY_LOCAL = "local";
 }
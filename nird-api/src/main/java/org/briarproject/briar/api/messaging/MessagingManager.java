@@ -39,6 +39,15 @@ public interface MessagingManager extends ConversationClient {
 	Collection<PrivateMessageHeader> getMessageHeaders(ContactId c)
 			throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the
+	 * given private conversation that are older than the given timestamp,
+	 * newest first. Messages sharing the timestamp of the oldest message
+	 * are all returned, so that timestamp can be used to fetch the next page.
+	 */
+	Collection<PrivateMessageHeader> getMessageHeaders(ContactId c,
+			long beforeTimestamp, int limit) throws DbException;
+
 	/**
 	 * Returns the body of the private message with the given ID.
 	 */
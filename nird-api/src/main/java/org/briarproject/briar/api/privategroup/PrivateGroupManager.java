@@ -91,6 +91,15 @@ public interface PrivateGroupManager {
 	 */
 	Collection<GroupMessageHeader> getHeaders(GroupId g) throws DbException;
 
+	/**
+	 * Returns the headers of up to the given number of messages in the given
+	 * private group that are older than the given timestamp, newest first.
+	 * Messages sharing the timestamp of the oldest message are all returned,
+	 * so that timestamp can be used to fetch the next page.
+	 */
+	Collection<GroupMessageHeader> getHeaders(GroupId g, long beforeTimestamp,
+			int limit) throws DbException;
+
 	/**
 	 * Returns all members of the given private group.
 	 */
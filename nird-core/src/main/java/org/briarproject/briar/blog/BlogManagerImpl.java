@@ -1,10 +1,10 @@
 package org.briarproject.briar.blog;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfQuery;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
@@ -37,7 +37,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -148,6 +147,10 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 					new BlogPostAddedEvent(groupId, h, false);
 			txn.attach(event);
 
+			// Copies of the post or comment wrapped by other blogs don't
+			// need their signatures verified again
+			db.addVerifiedMessage(txn, groupId, m.getId());
+
 			// shares message and its dependencies
 			return true;
 		} else if (type == WRAPPED_COMMENT) {
@@ -163,6 +166,9 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 				throw new FormatException();
 			}
 		}
+		// The signature of the wrapped message was verified by the validator
+		db.addVerifiedMessage(txn, groupId,
+				new MessageId(meta.getRaw(KEY_ORIGINAL_MSG_ID)));
 		// don't share message until parent arrives
 		return false;
 	}
@@ -502,48 +508,32 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 	public Collection<BlogPostHeader> getPostHeaders(GroupId g)
 			throws DbException {
 
-		// Query for posts and comments only
-		BdfDictionary query1 = BdfDictionary.of(
-				new BdfEntry(KEY_TYPE, POST.getInt())
-		);
-		BdfDictionary query2 = BdfDictionary.of(
-				new BdfEntry(KEY_TYPE, COMMENT.getInt())
-		);
+		Transaction txn = db.startTransaction(true);
+		try {
+			Map<MessageId, BdfDictionary> metadata = clientHelper
+					.getMessageMetadataAsDictionary(txn, g, getPostsQuery());
+			Collection<BlogPostHeader> headers =
+					getPostHeaders(txn, g, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	@Override
+	public Collection<BlogPostHeader> getPostHeaders(GroupId g,
+			long beforeTimestamp, int limit) throws DbException {
 
-		Collection<BlogPostHeader> headers = new ArrayList<BlogPostHeader>();
 		Transaction txn = db.startTransaction(true);
 		try {
-			Map<MessageId, BdfDictionary> metadata1 =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query1);
-			Map<MessageId, BdfDictionary> metadata2 =
-					clientHelper.getMessageMetadataAsDictionary(txn, g, query2);
 			Map<MessageId, BdfDictionary> metadata =
-					new HashMap<MessageId, BdfDictionary>(
-							metadata1.size() + metadata2.size());
-			metadata.putAll(metadata1);
-			metadata.putAll(metadata2);
-			// get all authors we need to get the status for
-			Set<AuthorId> authors = new HashSet<AuthorId>();
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				authors.add(new AuthorId(
-						entry.getValue().getDictionary(KEY_AUTHOR)
-								.getRaw(KEY_AUTHOR_ID)));
-			}
-			// get statuses for all authors
-			Map<AuthorId, Status> authorStatuses =
-					new HashMap<AuthorId, Status>();
-			for (AuthorId authorId : authors) {
-				authorStatuses.put(authorId,
-						identityManager.getAuthorStatus(txn, authorId));
-			}
-			// get post headers
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				BlogPostHeader h =
-						getPostHeaderFromMetadata(txn, g, entry.getKey(), meta,
-								authorStatuses);
-				headers.add(h);
-			}
+					clientHelper.getMessageMetadataAsDictionary(txn, g,
+							getPostsQuery(), beforeTimestamp, limit);
+			Collection<BlogPostHeader> headers =
+					getPostHeaders(txn, g, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -553,6 +543,38 @@ class BlogManagerImpl extends BdfIncomingMessageHook implements BlogManager,
 		}
 	}
 
+	private BdfQuery getPostsQuery() {
+		// Query for posts and comments only
+		return new BdfQuery()
+				.addValue(KEY_TYPE, POST.getInt())
+				.addValue(KEY_TYPE, COMMENT.getInt());
+	}
+
+	private Collection<BlogPostHeader> getPostHeaders(Transaction txn,
+			GroupId g, Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+
+		Collection<BlogPostHeader> headers = new ArrayList<BlogPostHeader>();
+		// get all authors we need to get the status for
+		Set<AuthorId> authors = new HashSet<AuthorId>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			authors.add(new AuthorId(
+					entry.getValue().getDictionary(KEY_AUTHOR)
+							.getRaw(KEY_AUTHOR_ID)));
+		}
+		// get statuses for all authors
+		Map<AuthorId, Status> authorStatuses =
+				identityManager.getAuthorStatuses(txn, authors);
+		// get post headers
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			BlogPostHeader h = getPostHeaderFromMetadata(txn, g,
+					entry.getKey(), meta, authorStatuses);
+			headers.add(h);
+		}
+		return headers;
+	}
+
 	@Override
 	public void setReadFlag(MessageId m, boolean read) throws DbException {
 		try {
@@ -4,6 +4,7 @@ import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.BdfMessageContext;
 import org.briarproject.bramble.api.client.BdfMessageValidator;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -75,14 +76,14 @@ class BlogPostValidator extends BdfMessageValidator {
 		BdfMessageContext c;
 
 		int type = body.getLong(0).intValue();
-		body.removeElementAt(0);
+		body.remove(0);
 		switch (MessageType.valueOf(type)) {
 			case POST:
-				c = validatePost(m, g, body);
+				c = validatePost(m, g, body, false);
 				addMessageMetadata(c, m.getTimestamp());
 				break;
 			case COMMENT:
-				c = validateComment(m, g, body);
+				c = validateComment(m, g, body, false);
 				addMessageMetadata(c, m.getTimestamp());
 				break;
 			case WRAPPED_POST:
@@ -98,8 +99,8 @@ class BlogPostValidator extends BdfMessageValidator {
 		return c;
 	}
 
-	private BdfMessageContext validatePost(Message m, Group g, BdfList body)
-			throws InvalidMessageException, FormatException {
+	private BdfMessageContext validatePost(Message m, Group g, BdfList body,
+			boolean wrapped) throws InvalidMessageException, FormatException {
 
 		// Content, Signature
 		checkSize(body, 2);
@@ -112,12 +113,16 @@ class BlogPostValidator extends BdfMessageValidator {
 		BdfList signed = BdfList.of(g.getId(), m.getTimestamp(), postBody);
 		Blog b = blogFactory.parseBlog(g);
 		Author a = b.getAuthor();
-		try {
-			clientHelper
-					.verifySignature(SIGNING_LABEL_POST, sig, a.getPublicKey(),
-							signed);
-		} catch (GeneralSecurityException e) {
-			throw new InvalidMessageException(e);
+		Collection<SignedData> signatures = Collections.emptyList();
+		if (wrapped) {
+			signatures = deferSignature(m, SIGNING_LABEL_POST, sig, a, signed);
+		} else {
+			try {
+				clientHelper.verifySignature(SIGNING_LABEL_POST, sig,
+						a.getPublicKey(), signed);
+			} catch (GeneralSecurityException e) {
+				throw new InvalidMessageException(e);
+			}
 		}
 
 		// Return the metadata and dependencies
@@ -125,10 +130,12 @@ class BlogPostValidator extends BdfMessageValidator {
 		meta.put(KEY_ORIGINAL_MSG_ID, m.getId());
 		meta.put(KEY_AUTHOR, authorToBdfDictionary(a));
 		meta.put(KEY_RSS_FEED, b.isRssFeed());
-		return new BdfMessageContext(meta);
+		return new BdfMessageContext(meta,
+				Collections.<MessageId>emptyList(), signatures);
 	}
 
-	private BdfMessageContext validateComment(Message m, Group g, BdfList body)
+	private BdfMessageContext validateComment(Message m, Group g,
+			BdfList body, boolean wrapped)
 			throws InvalidMessageException, FormatException {
 
 		// comment, parent_original_id, parent_id, signature
@@ -160,11 +167,17 @@ class BlogPostValidator extends BdfMessageValidator {
 						currentId);
 		Blog b = blogFactory.parseBlog(g);
 		Author a = b.getAuthor();
-		try {
-			clientHelper.verifySignature(SIGNING_LABEL_COMMENT, sig,
-					a.getPublicKey(), signed);
-		} catch (GeneralSecurityException e) {
-			throw new InvalidMessageException(e);
+		Collection<SignedData> signatures = Collections.emptyList();
+		if (wrapped) {
+			signatures =
+					deferSignature(m, SIGNING_LABEL_COMMENT, sig, a, signed);
+		} else {
+			try {
+				clientHelper.verifySignature(SIGNING_LABEL_COMMENT, sig,
+						a.getPublicKey(), signed);
+			} catch (GeneralSecurityException e) {
+				throw new InvalidMessageException(e);
+			}
 		}
 
 		// Return the metadata and dependencies
@@ -175,7 +188,20 @@ class BlogPostValidator extends BdfMessageValidator {
 		meta.put(KEY_PARENT_MSG_ID, currentId);
 		meta.put(KEY_AUTHOR, authorToBdfDictionary(a));
 		Collection<MessageId> dependencies = Collections.singleton(currentId);
-		return new BdfMessageContext(meta, dependencies);
+		return new BdfMessageContext(meta, dependencies, signatures);
+	}
+
+	/**
+	 * Returns the signature of the original of a wrapped message, to be
+	 * verified by the validation manager unless the original's signature
+	 * has already been verified.
+	 */
+	private Collection<SignedData> deferSignature(Message original,
+			String label, byte[] sig, Author a, BdfList signed)
+			throws FormatException {
+		return Collections.singletonList(new SignedData(label,
+				clientHelper.toByteArray(signed), a.getPublicKey(), sig,
+				original.getId()));
 	}
 
 	private BdfMessageContext validateWrappedPost(BdfList body)
@@ -207,7 +233,7 @@ class BlogPostValidator extends BdfMessageValidator {
 		Message wMessage =
 				messageFactory.createMessage(wGroup.getId(), wTimestamp, wBody);
 		wBodyList.remove(0);
-		BdfMessageContext c = validatePost(wMessage, wGroup, wBodyList);
+		BdfMessageContext c = validatePost(wMessage, wGroup, wBodyList, true);
 
 		// Return the metadata and dependencies
 		BdfDictionary meta = new BdfDictionary();
@@ -215,7 +241,8 @@ class BlogPostValidator extends BdfMessageValidator {
 		meta.put(KEY_TIMESTAMP, wTimestamp);
 		meta.put(KEY_AUTHOR, c.getDictionary().getDictionary(KEY_AUTHOR));
 		meta.put(KEY_RSS_FEED, wBlog.isRssFeed());
-		return new BdfMessageContext(meta);
+		return new BdfMessageContext(meta, Collections.<MessageId>emptyList(),
+				c.getSignatures());
 	}
 
 	private BdfMessageContext validateWrappedComment(BdfList body)
@@ -270,7 +297,8 @@ class BlogPostValidator extends BdfMessageValidator {
 		Message wMessage =
 				messageFactory.createMessage(wGroup.getId(), wTimestamp, wBody);
 		wBodyList.remove(0);
-		BdfMessageContext c = validateComment(wMessage, wGroup, wBodyList);
+		BdfMessageContext c =
+				validateComment(wMessage, wGroup, wBodyList, true);
 
 		// Return the metadata and dependencies
 		Collection<MessageId> dependencies = Collections.singleton(parentId);
@@ -281,7 +309,7 @@ class BlogPostValidator extends BdfMessageValidator {
 		meta.put(KEY_TIMESTAMP, wTimestamp);
 		if (comment != null) meta.put(KEY_COMMENT, comment);
 		meta.put(KEY_AUTHOR, c.getDictionary().getDictionary(KEY_AUTHOR));
-		return new BdfMessageContext(meta, dependencies);
+		return new BdfMessageContext(meta, dependencies, c.getSignatures());
 	}
 
 	static BdfDictionary authorToBdfDictionary(Author a) {
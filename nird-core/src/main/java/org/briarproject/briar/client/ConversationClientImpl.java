@@ -14,6 +14,12 @@ import org.briarproject.briar.api.client.MessageTracker;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.ConversationManager.ConversationClient;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import javax.annotation.concurrent.Immutable;
 
 @Immutable
@@ -38,6 +44,23 @@ public abstract class ConversationClientImpl extends BdfIncomingMessageHook
 		return messageTracker.getGroupCount(txn, groupId);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<Contact> contacts) throws DbException {
+		List<GroupId> groupIds = new ArrayList<GroupId>(contacts.size());
+		for (Contact c : contacts) groupIds.add(getContactGroup(c).getId());
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groupIds);
+		Map<ContactId, GroupCount> result =
+				new HashMap<ContactId, GroupCount>(contacts.size());
+		int i = 0;
+		for (Contact c : contacts) {
+			GroupCount count = counts.get(groupIds.get(i++));
+			if (count != null) result.put(c.getId(), count);
+		}
+		return result;
+	}
+
 	@Override
 	public void setReadFlag(GroupId g, MessageId m, boolean read)
 			throws DbException {
@@ -6,17 +6,24 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
+import org.briarproject.bramble.api.db.NoSuchGroupException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.briar.api.client.MessageTracker;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
@@ -51,12 +58,17 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public void trackMessage(Transaction txn, GroupId g, long time,
 			boolean read) throws DbException {
-		GroupCount c = getGroupCount(txn, g);
-		int msgCount = c.getMsgCount() + 1;
-		int unreadCount = c.getUnreadCount() + (read ? 0 : 1);
-		long latestMsgTime = Math.max(c.getLatestMsgTime(), time);
-		storeGroupCount(txn, g, new GroupCount(msgCount, unreadCount,
-				latestMsgTime));
+		int unread = read ? 0 : 1;
+		if (!db.incrementMessageCounts(txn, g, 1, unread, time)) {
+			// The group was created before the counts were moved out of
+			// the group metadata
+			GroupCount c = getLegacyGroupCount(txn, g);
+			int msgCount = c.getMsgCount() + 1;
+			int unreadCount = c.getUnreadCount() + unread;
+			long latestMsgTime = Math.max(c.getLatestMsgTime(), time);
+			storeGroupCount(txn, g, new GroupCount(msgCount, unreadCount,
+					latestMsgTime));
+		}
 	}
 
 	@Nullable
@@ -99,6 +111,36 @@ class MessageTrackerImpl implements MessageTracker {
 	@Override
 	public GroupCount getGroupCount(Transaction txn, GroupId g)
 			throws DbException {
+		MessageCounts c = db.getMessageCounts(txn, g);
+		if (c == null) return getLegacyGroupCount(txn, g);
+		return new GroupCount(c.getMsgCount(), c.getUnreadCount(),
+				c.getLatestMsgTime());
+	}
+
+	@Override
+	public Map<GroupId, GroupCount> getGroupCounts(Transaction txn,
+			Collection<GroupId> groups) throws DbException {
+		Map<GroupId, MessageCounts> counts = db.getMessageCounts(txn, groups);
+		Map<GroupId, GroupCount> result =
+				new HashMap<GroupId, GroupCount>(groups.size());
+		for (GroupId g : groups) {
+			MessageCounts c = counts.get(g);
+			if (c == null) {
+				try {
+					result.put(g, getLegacyGroupCount(txn, g));
+				} catch (NoSuchGroupException e) {
+					// The group has been removed - skip it
+				}
+			} else {
+				result.put(g, new GroupCount(c.getMsgCount(),
+						c.getUnreadCount(), c.getLatestMsgTime()));
+			}
+		}
+		return result;
+	}
+
+	private GroupCount getLegacyGroupCount(Transaction txn, GroupId g)
+			throws DbException {
 		try {
 			BdfDictionary d = clientHelper.getGroupMetadataAsDictionary(txn, g);
 			return new GroupCount(
@@ -113,11 +155,14 @@ class MessageTrackerImpl implements MessageTracker {
 
 	private void storeGroupCount(Transaction txn, GroupId g, GroupCount c)
 			throws DbException {
+		db.setMessageCounts(txn, g, new MessageCounts(c.getMsgCount(),
+				c.getUnreadCount(), c.getLatestMsgTime()));
+		// Remove the legacy counts from the group metadata
 		try {
 			BdfDictionary d = BdfDictionary.of(
-					new BdfEntry(GROUP_KEY_MSG_COUNT, c.getMsgCount()),
-					new BdfEntry(GROUP_KEY_UNREAD_COUNT, c.getUnreadCount()),
-					new BdfEntry(GROUP_KEY_LATEST_MSG, c.getLatestMsgTime())
+					new BdfEntry(GROUP_KEY_MSG_COUNT, NULL_VALUE),
+					new BdfEntry(GROUP_KEY_UNREAD_COUNT, NULL_VALUE),
+					new BdfEntry(GROUP_KEY_LATEST_MSG, NULL_VALUE)
 			);
 			clientHelper.mergeGroupMetadata(txn, g, d);
 		} catch (FormatException e) {
@@ -142,12 +187,15 @@ class MessageTrackerImpl implements MessageTracker {
 				meta.put(MSG_KEY_READ, read);
 				clientHelper.mergeMessageMetadata(txn, m, meta);
 
-				// update unread counter in group metadata
-				GroupCount c = getGroupCount(txn, g);
-				int unreadCount = c.getUnreadCount() + (read ? -1 : 1);
-				if (unreadCount < 0) throw new DbException();
-				storeGroupCount(txn, g, new GroupCount(c.getMsgCount(),
-						unreadCount, c.getLatestMsgTime()));
+				// update unread counter, which can't become negative
+				int unread = read ? -1 : 1;
+				if (!db.incrementMessageCounts(txn, g, 0, unread, 0)) {
+					GroupCount c = getLegacyGroupCount(txn, g);
+					int unreadCount = c.getUnreadCount() + unread;
+					if (unreadCount < 0) throw new DbException();
+					storeGroupCount(txn, g, new GroupCount(c.getMsgCount(),
+							unreadCount, c.getLatestMsgTime()));
+				}
 			}
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
@@ -15,6 +15,7 @@ import org.briarproject.briar.api.blog.Blog;
 import org.briarproject.briar.api.blog.BlogFactory;
 import org.briarproject.briar.api.feed.Feed;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
@@ -22,7 +23,9 @@ import static org.briarproject.briar.api.feed.FeedConstants.KEY_BLOG_TITLE;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_ADDED;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_AUTHOR;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_DESC;
+import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_ETAG;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_LAST_ENTRY;
+import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_LAST_MODIFIED;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_UPDATED;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_FEED_URL;
 import static org.briarproject.briar.api.feed.FeedConstants.KEY_PRIVATE_KEY;
@@ -62,11 +65,21 @@ class FeedFactoryImpl implements FeedFactory {
 	}
 
 	@Override
-	public Feed createFeed(Feed feed, SyndFeed f, long lastEntryTime) {
+	public Feed createFeed(Feed feed, SyndFeed f, long lastEntryTime,
+			@Nullable String etag, @Nullable String lastModified) {
 		long updated = clock.currentTimeMillis();
 		return new Feed(feed.getUrl(), feed.getBlog(), feed.getLocalAuthor(),
 				f.getDescription(), f.getAuthor(), feed.getAdded(), updated,
-				lastEntryTime);
+				lastEntryTime, etag, lastModified);
+	}
+
+	@Override
+	public Feed createUnmodifiedFeed(Feed feed) {
+		long updated = clock.currentTimeMillis();
+		return new Feed(feed.getUrl(), feed.getBlog(), feed.getLocalAuthor(),
+				feed.getDescription(), feed.getAuthor(), feed.getAdded(),
+				updated, feed.getLastEntryTime(), feed.getEtag(),
+				feed.getLastModified());
 	}
 
 	@Override
@@ -85,9 +98,11 @@ class FeedFactoryImpl implements FeedFactory {
 		long added = d.getLong(KEY_FEED_ADDED, 0L);
 		long updated = d.getLong(KEY_FEED_UPDATED, 0L);
 		long lastEntryTime = d.getLong(KEY_FEED_LAST_ENTRY, 0L);
+		String etag = d.getOptionalString(KEY_FEED_ETAG);
+		String lastModified = d.getOptionalString(KEY_FEED_LAST_MODIFIED);
 
 		return new Feed(url, blog, localAuthor, desc, author, added,
-				updated, lastEntryTime);
+				updated, lastEntryTime, etag, lastModified);
 	}
 
 	@Override
@@ -106,6 +121,9 @@ class FeedFactoryImpl implements FeedFactory {
 		if (feed.getDescription() != null)
 			d.put(KEY_FEED_DESC, feed.getDescription());
 		if (feed.getAuthor() != null) d.put(KEY_FEED_AUTHOR, feed.getAuthor());
+		if (feed.getEtag() != null) d.put(KEY_FEED_ETAG, feed.getEtag());
+		if (feed.getLastModified() != null)
+			d.put(KEY_FEED_LAST_MODIFIED, feed.getLastModified());
 		return d;
 	}
 
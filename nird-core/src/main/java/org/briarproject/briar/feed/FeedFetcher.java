@@ -0,0 +1,24 @@
+package org.briarproject.briar.feed;
+
+import com.rometools.rome.io.FeedException;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+@NotNullByDefault
+interface FeedFetcher {
+
+	/**
+	 * Fetches and parses the feed at the given URL.
+	 * <p/>
+	 * If an ETag or Last-Modified value from an earlier response is given,
+	 * the request is made conditional on the feed having changed since then,
+	 * and the returned {@link FetchResult} contains no feed if it hasn't.
+	 */
+	FetchResult fetchFeed(String url, @Nullable String etag,
+			@Nullable String lastModified) throws FeedException, IOException;
+
+}
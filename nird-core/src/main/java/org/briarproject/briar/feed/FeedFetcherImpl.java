@@ -0,0 +1,66 @@
+package org.briarproject.briar.feed;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.io.FeedException;
+import com.rometools.rome.io.SyndFeedInput;
+import com.rometools.rome.io.XmlReader;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.net.SocketFactory;
+
+import okhttp3.Dns;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+@ThreadSafe
+@NotNullByDefault
+class FeedFetcherImpl implements FeedFetcher {
+
+	private static final int CONNECT_TIMEOUT = 60 * 1000; // Milliseconds
+	private static final int HTTP_NOT_MODIFIED = 304;
+
+	// Shared by all fetches so connections can be reused
+	private final OkHttpClient client;
+
+	@Inject
+	FeedFetcherImpl(SocketFactory torSocketFactory, Dns noDnsLookups) {
+		client = new OkHttpClient.Builder()
+				.socketFactory(torSocketFactory)
+				.dns(noDnsLookups) // Don't make local DNS lookups
+				.connectTimeout(CONNECT_TIMEOUT, MILLISECONDS)
+				.build();
+	}
+
+	@Override
+	public FetchResult fetchFeed(String url, @Nullable String etag,
+			@Nullable String lastModified) throws FeedException, IOException {
+		Request.Builder builder = new Request.Builder().url(url);
+		if (etag != null) builder.header("If-None-Match", etag);
+		if (lastModified != null)
+			builder.header("If-Modified-Since", lastModified);
+		Response response = client.newCall(builder.build()).execute();
+		try {
+			if (response.code() == HTTP_NOT_MODIFIED)
+				return new FetchResult(null, etag, lastModified);
+			if (!response.isSuccessful())
+				throw new IOException("Unexpected response " + response.code());
+			SyndFeed feed = new SyndFeedInput().build(
+					new XmlReader(response.body().byteStream()));
+			return new FetchResult(feed, response.header("ETag"),
+					response.header("Last-Modified"));
+		} finally {
+			// Release the connection so it can be reused
+			response.body().close();
+		}
+	}
+
+}
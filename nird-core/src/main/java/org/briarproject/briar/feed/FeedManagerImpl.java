@@ -4,8 +4,6 @@ import com.rometools.rome.feed.synd.SyndContent;
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
-import com.rometools.rome.io.SyndFeedInput;
-import com.rometools.rome.io.XmlReader;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
@@ -38,29 +36,25 @@ import org.briarproject.briar.api.feed.Feed;
 import org.briarproject.briar.api.feed.FeedManager;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
 
-import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
-import javax.net.SocketFactory;
 
-import okhttp3.Dns;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.Response;
-
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.logging.Level.INFO;
 import static java.util.logging.Level.WARNING;
 import static org.briarproject.briar.api.blog.BlogConstants.MAX_BLOG_POST_BODY_LENGTH;
 import static org.briarproject.briar.api.feed.FeedConstants.FETCH_DELAY_INITIAL;
@@ -79,7 +73,7 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 	private static final Logger LOG =
 			Logger.getLogger(FeedManagerImpl.class.getName());
 
-	private static final int CONNECT_TIMEOUT = 60 * 1000; // Milliseconds
+	private static final int MAX_CONCURRENT_FETCHES = 4;
 
 	private final ScheduledExecutorService scheduler;
 	private final Executor ioExecutor;
@@ -89,18 +83,17 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 	private final BlogManager blogManager;
 	private final BlogPostFactory blogPostFactory;
 	private final FeedFactory feedFactory;
-	private final SocketFactory torSocketFactory;
+	private final FeedFetcher feedFetcher;
 	private final Clock clock;
-	private final Dns noDnsLookups;
 	private final AtomicBoolean fetcherStarted = new AtomicBoolean(false);
+	private final AtomicBoolean fetching = new AtomicBoolean(false);
 
 	@Inject
 	FeedManagerImpl(@Scheduler ScheduledExecutorService scheduler,
 			@IoExecutor Executor ioExecutor, DatabaseComponent db,
 			ContactGroupFactory contactGroupFactory, ClientHelper clientHelper,
 			BlogManager blogManager, BlogPostFactory blogPostFactory,
-			FeedFactory feedFactory, SocketFactory torSocketFactory,
-			Clock clock, Dns noDnsLookups) {
+			FeedFactory feedFactory, FeedFetcher feedFetcher, Clock clock) {
 
 		this.scheduler = scheduler;
 		this.ioExecutor = ioExecutor;
@@ -110,9 +103,8 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 		this.blogManager = blogManager;
 		this.blogPostFactory = blogPostFactory;
 		this.feedFactory = feedFactory;
-		this.torSocketFactory = torSocketFactory;
+		this.feedFetcher = feedFetcher;
 		this.clock = clock;
-		this.noDnsLookups = noDnsLookups;
 	}
 
 	@Override
@@ -160,9 +152,14 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 	@Override
 	public void addFeed(String url) throws DbException, IOException {
 		// fetch syndication feed to get its metadata
+		FetchResult result;
 		SyndFeed f;
 		try {
-			f = fetchSyndFeed(url);
+			result = feedFetcher.fetchFeed(url, null, null);
+			f = result.getFeed();
+			// the request wasn't conditional, so the feed should be there
+			if (f == null) throw new FeedException("Feed not returned");
+			cleanSyndFeed(f);
 		} catch (FeedException e) {
 			throw new IOException(e);
 		}
@@ -181,13 +178,10 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 			db.endTransaction(txn);
 		}
 
-		// fetch feed again and post entries
-		Feed updatedFeed;
-		try {
-			updatedFeed = fetchFeed(feed);
-		} catch (FeedException e) {
-			throw new IOException(e);
-		}
+		// post entries of the feed we already fetched
+		long lastEntryTime = postFeedEntries(feed, f.getEntries());
+		Feed updatedFeed = feedFactory.createFeed(feed, f, lastEntryTime,
+				result.getEtag(), result.getLastModified());
 
 		// store feed again to also store last added entry
 		txn = db.startTransaction(false);
@@ -262,7 +256,7 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 		return feeds;
 	}
 
-	private void storeFeeds(@Nullable Transaction txn, List<Feed> feeds)
+	private void storeFeeds(Transaction txn, List<Feed> feeds)
 			throws DbException {
 
 		BdfList feedList = new BdfList();
@@ -271,19 +265,28 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 		}
 		BdfDictionary gm = BdfDictionary.of(new BdfEntry(KEY_FEEDS, feedList));
 		try {
-			if (txn == null) {
-				clientHelper.mergeGroupMetadata(getLocalGroup().getId(), gm);
-			} else {
-				clientHelper.mergeGroupMetadata(txn, getLocalGroup().getId(),
-						gm);
-			}
+			clientHelper.mergeGroupMetadata(txn, getLocalGroup().getId(), gm);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
-	private void storeFeeds(List<Feed> feeds) throws DbException {
-		storeFeeds(null, feeds);
+	private void storeUpdatedFeeds(Collection<Feed> updatedFeeds)
+			throws DbException {
+		Transaction txn = db.startTransaction(false);
+		try {
+			// feeds may have been added or removed while we were fetching,
+			// so only replace the ones that are still there
+			List<Feed> feeds = getFeeds(txn);
+			for (Feed updated : updatedFeeds) {
+				int index = feeds.indexOf(updated);
+				if (index != -1) feeds.set(index, updated);
+			}
+			storeFeeds(txn, feeds);
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
 	}
 
 	/**
@@ -292,50 +295,60 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 	 * blog.
 	 */
 	private void fetchFeeds() {
-		LOG.info("Updating RSS feeds...");
-
-		// Get current feeds
-		List<Feed> feeds;
-		try {
-			feeds = getFeeds();
-		} catch (DbException e) {
-			if (LOG.isLoggable(WARNING))
-				LOG.log(WARNING, e.toString(), e);
+		// Don't start a new round while the last one is still going
+		if (fetching.getAndSet(true)) {
+			LOG.info("Still updating RSS feeds");
 			return;
 		}
+		try {
+			LOG.info("Updating RSS feeds...");
+			long start = System.currentTimeMillis();
 
-		// Fetch and update all feeds
-		List<Feed> newFeeds = new ArrayList<Feed>(feeds.size());
-		for (Feed feed : feeds) {
+			// Get current feeds
+			List<Feed> feeds;
 			try {
-				newFeeds.add(fetchFeed(feed));
-			} catch (FeedException e) {
-				if (LOG.isLoggable(WARNING))
-					LOG.log(WARNING, e.toString(), e);
-			} catch (IOException e) {
+				feeds = getFeeds();
+			} catch (DbException e) {
 				if (LOG.isLoggable(WARNING))
 					LOG.log(WARNING, e.toString(), e);
+				return;
+			}
+
+			// Fetch the feeds in parallel, with a bounded number of workers
+			Queue<Feed> pending = new ConcurrentLinkedQueue<Feed>(feeds);
+			Collection<Feed> updatedFeeds = new ConcurrentLinkedQueue<Feed>();
+			int workers = Math.min(MAX_CONCURRENT_FETCHES, feeds.size());
+			CountDownLatch latch = new CountDownLatch(workers);
+			for (int i = 0; i < workers; i++) {
+				ioExecutor.execute(new FeedWorker(pending, updatedFeeds,
+						latch));
+			}
+			try {
+				latch.await();
+			} catch (InterruptedException e) {
+				LOG.warning("Interrupted while updating RSS feeds");
+				// This task runs on an executor, so don't reset the interrupt
+				return;
+			}
+
+			// Store updated feeds
+			try {
+				storeUpdatedFeeds(updatedFeeds);
 			} catch (DbException e) {
 				if (LOG.isLoggable(WARNING))
 					LOG.log(WARNING, e.toString(), e);
 			}
+			long duration = System.currentTimeMillis() - start;
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Updating " + updatedFeeds.size() + " of "
+						+ feeds.size() + " RSS feeds took " + duration + " ms");
+			}
+		} finally {
+			fetching.set(false);
 		}
-
-		// Store updated feeds
-		try {
-			storeFeeds(newFeeds);
-		} catch (DbException e) {
-			if (LOG.isLoggable(WARNING))
-				LOG.log(WARNING, e.toString(), e);
-		}
-		LOG.info("Done updating RSS feeds");
 	}
 
-	private SyndFeed fetchSyndFeed(String url)
-			throws FeedException, IOException {
-		// fetch feed
-		SyndFeed f = getSyndFeed(getFeedInputStream(url));
-
+	private void cleanSyndFeed(SyndFeed f) throws FeedException {
 		if (f.getEntries().size() == 0)
 			throw new FeedException("Feed has no entries");
 
@@ -357,44 +370,32 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 				StringUtils.isNullOrEmpty(f.getAuthor()) ? null : f.getAuthor();
 		if (author != null) author = clean(author, STRIP_ALL);
 		f.setAuthor(author);
-
-		return f;
 	}
 
 	private Feed fetchFeed(Feed feed)
 			throws FeedException, IOException, DbException {
-		// fetch and clean feed
-		SyndFeed f = fetchSyndFeed(feed.getUrl());
+		// fetch feed, unless it hasn't changed since the last time
+		long start = System.currentTimeMillis();
+		FetchResult result = feedFetcher.fetchFeed(feed.getUrl(),
+				feed.getEtag(), feed.getLastModified());
+		long duration = System.currentTimeMillis() - start;
+		SyndFeed f = result.getFeed();
+		if (f == null) {
+			if (LOG.isLoggable(INFO)) {
+				LOG.info("Feed not modified, checking took " + duration
+						+ " ms");
+			}
+			return feedFactory.createUnmodifiedFeed(feed);
+		}
+		if (LOG.isLoggable(INFO))
+			LOG.info("Fetching feed took " + duration + " ms");
 
-		// sort and add new entries
+		// clean feed, then sort and add new entries
+		cleanSyndFeed(f);
 		long lastEntryTime = postFeedEntries(feed, f.getEntries());
 
-		return feedFactory.createFeed(feed, f, lastEntryTime);
-	}
-
-	private InputStream getFeedInputStream(String url) throws IOException {
-		// Build HTTP Client
-		OkHttpClient client = new OkHttpClient.Builder()
-				.socketFactory(torSocketFactory)
-				.dns(noDnsLookups) // Don't make local DNS lookups
-				.connectTimeout(CONNECT_TIMEOUT, MILLISECONDS)
-				.build();
-
-		// Build Request
-		Request request = new Request.Builder()
-				.url(url)
-				.build();
-
-		// Execute Request
-		Response response = client.newCall(request).execute();
-		return response.body().byteStream();
-	}
-
-	private SyndFeed getSyndFeed(InputStream stream)
-			throws IOException, FeedException {
-
-		SyndFeedInput input = new SyndFeedInput();
-		return input.build(new XmlReader(stream));
+		return feedFactory.createFeed(feed, f, lastEntryTime,
+				result.getEtag(), result.getLastModified());
 	}
 
 	private long postFeedEntries(Feed feed, List<SyndEntry> entries)
@@ -531,4 +532,41 @@ class FeedManagerImpl implements FeedManager, Client, EventListener,
 		return contactGroupFactory.createLocalGroup(CLIENT_ID);
 	}
 
+	private class FeedWorker implements Runnable {
+
+		private final Queue<Feed> pending;
+		private final Collection<Feed> updatedFeeds;
+		private final CountDownLatch latch;
+
+		private FeedWorker(Queue<Feed> pending, Collection<Feed> updatedFeeds,
+				CountDownLatch latch) {
+			this.pending = pending;
+			this.updatedFeeds = updatedFeeds;
+			this.latch = latch;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Feed feed;
+				while ((feed = pending.poll()) != null) {
+					try {
+						updatedFeeds.add(fetchFeed(feed));
+					} catch (FeedException e) {
+						if (LOG.isLoggable(WARNING))
+							LOG.log(WARNING, e.toString(), e);
+					} catch (IOException e) {
+						if (LOG.isLoggable(WARNING))
+							LOG.log(WARNING, e.toString(), e);
+					} catch (DbException e) {
+						if (LOG.isLoggable(WARNING))
+							LOG.log(WARNING, e.toString(), e);
+					}
+				}
+			} finally {
+				latch.countDown();
+			}
+		}
+	}
+
 }
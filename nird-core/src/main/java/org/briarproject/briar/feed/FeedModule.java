@@ -36,4 +36,10 @@ public class FeedModule {
 		return feedFactory;
 	}
 
+	@Provides
+	@Singleton
+	FeedFetcher provideFeedFetcher(FeedFetcherImpl feedFetcher) {
+		return feedFetcher;
+	}
+
 }
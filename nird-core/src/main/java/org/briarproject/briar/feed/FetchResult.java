@@ -0,0 +1,44 @@
+package org.briarproject.briar.feed;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+@NotThreadSafe
+@NotNullByDefault
+class FetchResult {
+
+	@Nullable
+	private final SyndFeed feed;
+	@Nullable
+	private final String etag, lastModified;
+
+	FetchResult(@Nullable SyndFeed feed, @Nullable String etag,
+			@Nullable String lastModified) {
+		this.feed = feed;
+		this.etag = etag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns the parsed feed, or null if the server reported that the feed
+	 * hasn't been modified.
+	 */
+	@Nullable
+	SyndFeed getFeed() {
+		return feed;
+	}
+
+	@Nullable
+	String getEtag() {
+		return etag;
+	}
+
+	@Nullable
+	String getLastModified() {
+		return lastModified;
+	}
+}
@@ -1,6 +1,7 @@
 package org.briarproject.briar.forum;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfQuery;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
@@ -33,7 +34,6 @@ import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -227,30 +227,12 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 	public Collection<ForumPostHeader> getPostHeaders(GroupId g)
 			throws DbException {
 
-		Collection<ForumPostHeader> headers = new ArrayList<ForumPostHeader>();
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata =
 					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the status for
-			Set<AuthorId> authors = new HashSet<AuthorId>();
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary d =
-						entry.getValue().getDictionary(KEY_AUTHOR, null);
-				if (d != null)
-					authors.add(new AuthorId(d.getRaw(KEY_ID)));
-			}
-			// get statuses for all authors
-			Map<AuthorId, Status> statuses = new HashMap<AuthorId, Status>();
-			for (AuthorId id : authors) {
-				statuses.put(id, identityManager.getAuthorStatus(txn, id));
-			}
-			// Parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				headers.add(getForumPostHeader(txn, entry.getKey(), meta,
-						statuses));
-			}
+			Collection<ForumPostHeader> headers =
+					getPostHeaders(txn, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -260,6 +242,50 @@ class ForumManagerImpl extends BdfIncomingMessageHook implements ForumManager {
 		}
 	}
 
+	@Override
+	public Collection<ForumPostHeader> getPostHeaders(GroupId g,
+			long beforeTimestamp, int limit) throws DbException {
+
+		Transaction txn = db.startTransaction(true);
+		try {
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, g,
+							new BdfQuery(), beforeTimestamp, limit);
+			Collection<ForumPostHeader> headers =
+					getPostHeaders(txn, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private Collection<ForumPostHeader> getPostHeaders(Transaction txn,
+			Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+
+		Collection<ForumPostHeader> headers = new ArrayList<ForumPostHeader>();
+		// get all authors we need to get the status for
+		Set<AuthorId> authors = new HashSet<AuthorId>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary d = entry.getValue().getDictionary(KEY_AUTHOR, null);
+			if (d != null)
+				authors.add(new AuthorId(d.getRaw(KEY_ID)));
+		}
+		// get statuses for all authors
+		Map<AuthorId, Status> statuses =
+				identityManager.getAuthorStatuses(txn, authors);
+		// Parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			headers.add(getForumPostHeader(txn, entry.getKey(), meta,
+					statuses));
+		}
+		return headers;
+	}
+
 	@Override
 	public void registerRemoveForumHook(RemoveForumHook hook) {
 		removeHooks.add(hook);
@@ -5,6 +5,7 @@ import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.client.BdfMessageContext;
 import org.briarproject.bramble.api.client.BdfMessageValidator;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataEncoder;
@@ -17,7 +18,6 @@ import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
 
-import java.security.GeneralSecurityException;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -70,15 +70,11 @@ class ForumPostValidator extends BdfMessageValidator {
 		// Signature
 		byte[] sig = body.getRaw(3);
 		checkLength(sig, 0, MAX_SIGNATURE_LENGTH);
-		// Verify the signature
+		// Defer verifying the signature so it can be verified in a batch
 		BdfList signed = BdfList.of(g.getId(), m.getTimestamp(), parent,
 				authorList, forumPostBody);
-		try {
-			clientHelper.verifySignature(SIGNING_LABEL_POST, sig,
-					author.getPublicKey(), signed);
-		} catch (GeneralSecurityException e) {
-			throw new InvalidMessageException(e);
-		}
+		SignedData signedData = clientHelper.toSignedData(SIGNING_LABEL_POST,
+				sig, author.getPublicKey(), signed);
 
 		// Return the metadata and dependencies
 		BdfDictionary meta = new BdfDictionary();
@@ -94,6 +90,7 @@ class ForumPostValidator extends BdfMessageValidator {
 		authorMeta.put("publicKey", author.getPublicKey());
 		meta.put("author", authorMeta);
 		meta.put("read", false);
-		return new BdfMessageContext(meta, dependencies);
+		return new BdfMessageContext(meta, dependencies,
+				Collections.singletonList(signedData));
 	}
 }
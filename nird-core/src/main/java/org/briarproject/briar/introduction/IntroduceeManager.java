@@ -2,7 +2,10 @@ package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager;
@@ -28,9 +31,9 @@ import org.briarproject.bramble.api.plugin.TransportId;
 import org.briarproject.bramble.api.properties.TransportProperties;
 import org.briarproject.bramble.api.properties.TransportPropertyManager;
 import org.briarproject.bramble.api.sync.GroupId;
-import org.briarproject.bramble.api.sync.Message;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.api.introduction.event.IntroductionSucceededEvent;
 
 import java.io.IOException;
@@ -76,9 +79,9 @@ import static org.briarproject.briar.api.introduction.IntroductionConstants.REMO
 import static org.briarproject.briar.api.introduction.IntroductionConstants.REMOTE_AUTHOR_IS_US;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE_INTRODUCEE;
+import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSION_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SIGNATURE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.STATE;
-import static org.briarproject.briar.api.introduction.IntroductionConstants.STORAGE_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TASK;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TASK_ABORT;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TASK_ACTIVATE_CONTACT;
@@ -103,64 +106,63 @@ class IntroduceeManager {
 	private final MessageSender messageSender;
 	private final DatabaseComponent db;
 	private final ClientHelper clientHelper;
+	private final SessionStore sessionStore;
 	private final Clock clock;
 	private final CryptoComponent cryptoComponent;
 	private final TransportPropertyManager transportPropertyManager;
 	private final AuthorFactory authorFactory;
 	private final ContactManager contactManager;
 	private final IdentityManager identityManager;
-	private final IntroductionGroupFactory introductionGroupFactory;
+	private final ContactGroupFactory contactGroupFactory;
 
 	@Inject
 	IntroduceeManager(MessageSender messageSender, DatabaseComponent db,
-			ClientHelper clientHelper, Clock clock,
+			ClientHelper clientHelper, SessionStore sessionStore, Clock clock,
 			CryptoComponent cryptoComponent,
 			TransportPropertyManager transportPropertyManager,
 			AuthorFactory authorFactory, ContactManager contactManager,
 			IdentityManager identityManager,
-			IntroductionGroupFactory introductionGroupFactory) {
+			ContactGroupFactory contactGroupFactory) {
 
 		this.messageSender = messageSender;
 		this.db = db;
 		this.clientHelper = clientHelper;
+		this.sessionStore = sessionStore;
 		this.clock = clock;
 		this.cryptoComponent = cryptoComponent;
 		this.transportPropertyManager = transportPropertyManager;
 		this.authorFactory = authorFactory;
 		this.contactManager = contactManager;
 		this.identityManager = identityManager;
-		this.introductionGroupFactory = introductionGroupFactory;
+		this.contactGroupFactory = contactGroupFactory;
 	}
 
 	public BdfDictionary initialize(Transaction txn, GroupId groupId,
 			BdfDictionary message) throws DbException, FormatException {
 
-		// create local message to keep engine state
-		long now = clock.currentTimeMillis();
-		Bytes salt = new Bytes(new byte[64]);
-		cryptoComponent.getSecureRandom().nextBytes(salt.getBytes());
-
-		Message localMsg = clientHelper.createMessage(
-				introductionGroupFactory.createLocalGroup().getId(), now,
-				BdfList.of(salt));
-		MessageId storageId = localMsg.getId();
+		// create a random placeholder that matches no message ID
+		byte[] id = new byte[UniqueId.LENGTH];
+		cryptoComponent.getSecureRandom().nextBytes(id);
+		MessageId notOurResponse = new MessageId(id);
 
 		// find out who is introducing us
-		BdfDictionary gd =
-				clientHelper.getGroupMetadataAsDictionary(txn, groupId);
-		ContactId introducerId =
-				new ContactId(gd.getLong(CONTACT).intValue());
+		ContactId introducerId = contactGroupFactory.getContactId(groupId);
+		if (introducerId == null) {
+			BdfDictionary gd =
+					clientHelper.getGroupMetadataAsDictionary(txn, groupId);
+			introducerId = new ContactId(gd.getLong(CONTACT).intValue());
+		}
 		Contact introducer = db.getContact(txn, introducerId);
 
 		BdfDictionary d = new BdfDictionary();
-		d.put(STORAGE_ID, storageId);
+		d.put(SESSION_ID, new SessionId(message.getRaw(SESSION_ID)));
 		d.put(STATE, AWAIT_REQUEST.getValue());
 		d.put(ROLE, ROLE_INTRODUCEE);
 		d.put(GROUP_ID, groupId);
 		d.put(INTRODUCER, introducer.getAuthor().getName());
 		d.put(CONTACT_ID_1, introducer.getId().getInt());
 		d.put(LOCAL_AUTHOR_ID, introducer.getLocalAuthorId().getBytes());
-		d.put(NOT_OUR_RESPONSE, storageId);
+		d.put(NOT_OUR_RESPONSE, notOurResponse);
 		d.put(ANSWERED, false);
 
 		// check if the contact we are introduced to does already exist
@@ -184,7 +186,7 @@ class IntroduceeManager {
 		d.put(REMOTE_AUTHOR_IS_US, introducesOtherIdentity);
 
 		// save local state to database
-		clientHelper.addLocalMessage(txn, localMsg, d, false);
+		storeSession(txn, d);
 
 		return d;
 	}
@@ -253,9 +255,7 @@ class IntroduceeManager {
 		BdfDictionary followUpAction = performTasks(txn, result.localState);
 
 		// save new local state
-		MessageId storageId =
-				new MessageId(result.localState.getRaw(STORAGE_ID));
-		clientHelper.mergeMessageMetadata(txn, storageId, result.localState);
+		storeSession(txn, result.localState);
 
 		// send messages
 		for (BdfDictionary d : result.toSend) {
@@ -285,6 +285,15 @@ class IntroduceeManager {
 		}
 	}
 
+	private void storeSession(Transaction txn, BdfDictionary state)
+			throws DbException, FormatException {
+
+		// introducee sessions are kept in the introducer's contact group
+		GroupId groupId = new GroupId(state.getRaw(GROUP_ID));
+		SessionId sessionId = new SessionId(state.getRaw(SESSION_ID));
+		sessionStore.storeSession(txn, groupId, sessionId, state);
+	}
+
 	@Nullable
 	private BdfDictionary performTasks(Transaction txn,
 			BdfDictionary localState)
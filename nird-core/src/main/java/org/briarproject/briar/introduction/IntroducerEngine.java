@@ -246,7 +246,7 @@ class IntroducerEngine
 			BdfDictionary message) throws FormatException {
 
 		// clone the message here, because we still need the original
-		BdfDictionary msg = (BdfDictionary) message.clone();
+		BdfDictionary msg = message.clone();
 		if (isContact1(localState, msg)) {
 			msg.put(GROUP_ID, localState.getRaw(GROUP_ID_2));
 		} else {
@@ -1,21 +1,19 @@
 package org.briarproject.briar.introduction;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
-import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Group;
-import org.briarproject.bramble.api.sync.Message;
-import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.util.StringUtils;
+import org.briarproject.briar.api.client.SessionId;
 
 import java.io.IOException;
 import java.util.logging.Logger;
@@ -43,7 +41,6 @@ import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE_INTRODUCER;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSION_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.STATE;
-import static org.briarproject.briar.api.introduction.IntroductionConstants.STORAGE_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE_ABORT;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE_REQUEST;
@@ -56,19 +53,17 @@ class IntroducerManager {
 			Logger.getLogger(IntroducerManager.class.getName());
 
 	private final MessageSender messageSender;
-	private final ClientHelper clientHelper;
-	private final Clock clock;
+	private final SessionStore sessionStore;
 	private final CryptoComponent cryptoComponent;
 	private final IntroductionGroupFactory introductionGroupFactory;
 
 	@Inject
-	IntroducerManager(MessageSender messageSender, ClientHelper clientHelper,
-			Clock clock, CryptoComponent cryptoComponent,
+	IntroducerManager(MessageSender messageSender, SessionStore sessionStore,
+			CryptoComponent cryptoComponent,
 			IntroductionGroupFactory introductionGroupFactory) {
 
 		this.messageSender = messageSender;
-		this.clientHelper = clientHelper;
-		this.clock = clock;
+		this.sessionStore = sessionStore;
 		this.cryptoComponent = cryptoComponent;
 		this.introductionGroupFactory = introductionGroupFactory;
 	}
@@ -76,22 +71,16 @@ class IntroducerManager {
 	public BdfDictionary initialize(Transaction txn, Contact c1, Contact c2)
 			throws FormatException, DbException {
 
-		// create local message to keep engine state
-		long now = clock.currentTimeMillis();
-		Bytes salt = new Bytes(new byte[64]);
-		cryptoComponent.getSecureRandom().nextBytes(salt.getBytes());
-
-		Message m = clientHelper.createMessage(
-				introductionGroupFactory.createLocalGroup().getId(), now,
-				BdfList.of(salt));
-		MessageId sessionId = m.getId();
+		// create a random session ID
+		byte[] id = new byte[UniqueId.LENGTH];
+		cryptoComponent.getSecureRandom().nextBytes(id);
+		SessionId sessionId = new SessionId(id);
 
 		Group g1 = introductionGroupFactory.createIntroductionGroup(c1);
 		Group g2 = introductionGroupFactory.createIntroductionGroup(c2);
 
 		BdfDictionary d = new BdfDictionary();
 		d.put(SESSION_ID, sessionId);
-		d.put(STORAGE_ID, sessionId);
 		d.put(STATE, PREPARE_REQUESTS.getValue());
 		d.put(ROLE, ROLE_INTRODUCER);
 		d.put(GROUP_ID_1, g1.getId());
@@ -104,7 +93,7 @@ class IntroducerManager {
 		d.put(AUTHOR_ID_2, c2.getAuthor().getId());
 
 		// save local state to database
-		clientHelper.addLocalMessage(txn, m, d, false);
+		storeSession(txn, d);
 
 		return d;
 	}
@@ -151,9 +140,7 @@ class IntroducerManager {
 					result) throws DbException, FormatException {
 
 		// save new local state
-		MessageId storageId =
-				new MessageId(result.localState.getRaw(STORAGE_ID));
-		clientHelper.mergeMessageMetadata(txn, storageId, result.localState);
+		storeSession(txn, result.localState);
 
 		// send messages
 		for (BdfDictionary d : result.toSend) {
@@ -166,6 +153,16 @@ class IntroducerManager {
 		}
 	}
 
+	private void storeSession(Transaction txn, BdfDictionary state)
+			throws DbException, FormatException {
+
+		// introducer sessions are kept in the local group
+		GroupId localGroupId =
+				introductionGroupFactory.createLocalGroup().getId();
+		SessionId sessionId = new SessionId(state.getRaw(SESSION_ID));
+		sessionStore.storeSession(txn, localGroupId, sessionId, state);
+	}
+
 	public void abort(Transaction txn, BdfDictionary state) {
 		IntroducerEngine engine = new IntroducerEngine();
 		BdfDictionary localAction = new BdfDictionary();
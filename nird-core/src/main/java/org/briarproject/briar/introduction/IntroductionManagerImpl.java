@@ -2,18 +2,17 @@ package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.AddContactHook;
 import org.briarproject.bramble.api.contact.ContactManager.RemoveContactHook;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.NoSuchContactException;
-import org.briarproject.bramble.api.db.NoSuchMessageException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -69,6 +68,7 @@ import static org.briarproject.briar.api.introduction.IntroductionConstants.RESP
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE_INTRODUCEE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE_INTRODUCER;
+import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSIONS_MIGRATED;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSION_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.STATE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE;
@@ -90,18 +90,21 @@ class IntroductionManagerImpl extends ConversationClientImpl
 	private final IntroducerManager introducerManager;
 	private final IntroduceeManager introduceeManager;
 	private final IntroductionGroupFactory introductionGroupFactory;
+	private final SessionStore sessionStore;
 
 	@Inject
 	IntroductionManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MetadataParser metadataParser, MessageTracker messageTracker,
 			IntroducerManager introducerManager,
 			IntroduceeManager introduceeManager,
-			IntroductionGroupFactory introductionGroupFactory) {
+			IntroductionGroupFactory introductionGroupFactory,
+			SessionStore sessionStore) {
 
 		super(db, clientHelper, metadataParser, messageTracker);
 		this.introducerManager = introducerManager;
 		this.introduceeManager = introduceeManager;
 		this.introductionGroupFactory = introductionGroupFactory;
+		this.sessionStore = sessionStore;
 	}
 
 	@Override
@@ -109,6 +112,45 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		db.addGroup(txn, introductionGroupFactory.createLocalGroup());
 		// Ensure we've set things up for any pre-existing contacts
 		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		migrateSessions(txn);
+	}
+
+	/**
+	 * Moves any session states stored as message metadata in the local group
+	 * by older versions into the session store. Introducer states stay in
+	 * the local group, while introducee states move to the introducer's
+	 * contact group.
+	 */
+	private void migrateSessions(Transaction txn) throws DbException {
+		GroupId localGroupId =
+				introductionGroupFactory.createLocalGroup().getId();
+		try {
+			BdfDictionary meta =
+					clientHelper.getGroupMetadataAsDictionary(txn,
+							localGroupId);
+			if (meta.getBoolean(SESSIONS_MIGRATED, false)) return;
+			Map<MessageId, BdfDictionary> map = clientHelper
+					.getMessageMetadataAsDictionary(txn, localGroupId);
+			for (Map.Entry<MessageId, BdfDictionary> entry : map.entrySet()) {
+				BdfDictionary state = entry.getValue();
+				byte[] sessionId = state.getOptionalRaw(SESSION_ID);
+				long role = state.getLong(ROLE, -1L);
+				GroupId g = null;
+				if (role == ROLE_INTRODUCER) g = localGroupId;
+				else if (role == ROLE_INTRODUCEE)
+					g = new GroupId(state.getRaw(GROUP_ID));
+				// Drop states whose introducer has been removed
+				if (sessionId != null && g != null && db.containsGroup(txn, g))
+					sessionStore.storeSession(txn, g, new SessionId(sessionId),
+							state);
+				deleteMessage(txn, entry.getKey());
+			}
+			meta = new BdfDictionary();
+			meta.put(SESSIONS_MIGRATED, true);
+			clientHelper.mergeGroupMetadata(txn, localGroupId, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -134,32 +176,13 @@ class IntroductionManagerImpl extends ConversationClientImpl
 	public void removingContact(Transaction txn, Contact c) throws DbException {
 		GroupId gId = introductionGroupFactory.createLocalGroup().getId();
 
-		// search for session states where c introduced us
-		BdfDictionary query = BdfDictionary.of(
-				new BdfEntry(ROLE, ROLE_INTRODUCEE),
-				new BdfEntry(CONTACT_ID_1, c.getId().getInt())
-		);
-		try {
-			Map<MessageId, BdfDictionary> map = clientHelper
-					.getMessageMetadataAsDictionary(txn, gId, query);
-			for (Map.Entry<MessageId, BdfDictionary> entry : map.entrySet()) {
-				// delete states if introducee removes introducer
-				deleteMessage(txn, entry.getKey());
-			}
-		} catch (FormatException e) {
-			if (LOG.isLoggable(WARNING)) LOG.log(WARNING, e.toString(), e);
-		}
+		// session states where c introduced us are kept in the contact
+		// group, so they will be removed with it
 
 		// check for open sessions with c and abort those,
 		// so the other introducee knows
-		query = BdfDictionary.of(
-				new BdfEntry(ROLE, ROLE_INTRODUCER)
-		);
 		try {
-			Map<MessageId, BdfDictionary> map = clientHelper
-					.getMessageMetadataAsDictionary(txn, gId, query);
-			for (Map.Entry<MessageId, BdfDictionary> entry : map.entrySet()) {
-				BdfDictionary d = entry.getValue();
+			for (BdfDictionary d : sessionStore.getSessions(txn, gId)) {
 				ContactId c1 = new ContactId(d.getLong(CONTACT_ID_1).intValue());
 				ContactId c2 = new ContactId(d.getLong(CONTACT_ID_2).intValue());
 
@@ -175,13 +198,13 @@ class IntroductionManagerImpl extends ConversationClientImpl
 						try {
 							db.getContact(txn, c2);
 						} catch (NoSuchContactException e) {
-							deleteMessage(txn, entry.getKey());
+							removeSession(txn, gId, d);
 						}
 					} else if (c2.equals(c.getId())) {
 						try {
 							db.getContact(txn, c1);
 						} catch (NoSuchContactException e) {
-							deleteMessage(txn, entry.getKey());
+							removeSession(txn, gId, d);
 						}
 					}
 				}
@@ -487,34 +510,22 @@ class IntroductionManagerImpl extends ConversationClientImpl
 			byte[] sessionId, boolean warn)
 			throws DbException, FormatException {
 
-		try {
-			// See if we can find the state directly for the introducer
-			BdfDictionary state = clientHelper
-					.getMessageMetadataAsDictionary(txn,
-							new MessageId(sessionId));
+		SessionId s = new SessionId(sessionId);
+		// Introducee states are kept in the introducer's contact group
+		BdfDictionary state = sessionStore.getSession(txn, groupId, s);
+		if (state != null) return state;
+		// Introducer states are kept in the local group
+		GroupId localGroupId =
+				introductionGroupFactory.createLocalGroup().getId();
+		state = sessionStore.getSession(txn, localGroupId, s);
+		if (state != null) {
 			GroupId g1 = new GroupId(state.getRaw(GROUP_ID_1));
 			GroupId g2 = new GroupId(state.getRaw(GROUP_ID_2));
-			if (!g1.equals(groupId) && !g2.equals(groupId)) {
-				throw new NoSuchMessageException();
-			}
-			return state;
-		} catch (NoSuchMessageException e) {
-			// State not found directly, so iterate over all states
-			// to find state for introducee
-			Map<MessageId, BdfDictionary> map = clientHelper
-					.getMessageMetadataAsDictionary(txn,
-							introductionGroupFactory.createLocalGroup().getId());
-			for (Map.Entry<MessageId, BdfDictionary> m : map.entrySet()) {
-				if (Arrays.equals(m.getValue().getRaw(SESSION_ID), sessionId)) {
-					BdfDictionary state = m.getValue();
-					GroupId g = new GroupId(state.getRaw(GROUP_ID));
-					if (g.equals(groupId)) return state;
-				}
-			}
-			if (warn && LOG.isLoggable(WARNING))
-				LOG.warning("No session state found");
-			throw new FormatException();
+			if (g1.equals(groupId) || g2.equals(groupId)) return state;
 		}
+		if (warn && LOG.isLoggable(WARNING))
+			LOG.warning("No session state found");
+		throw new FormatException();
 	}
 
 	private BdfDictionary getSessionState(Transaction txn, GroupId groupId,
@@ -523,6 +534,13 @@ class IntroductionManagerImpl extends ConversationClientImpl
 		return getSessionState(txn, groupId, sessionId, true);
 	}
 
+	private void removeSession(Transaction txn, GroupId groupId,
+			BdfDictionary state) throws DbException, FormatException {
+
+		SessionId sessionId = new SessionId(state.getRaw(SESSION_ID));
+		sessionStore.removeSession(txn, groupId, sessionId);
+	}
+
 	private void deleteMessage(Transaction txn, MessageId messageId)
 			throws DbException {
 
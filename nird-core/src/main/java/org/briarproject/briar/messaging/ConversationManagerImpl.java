@@ -1,5 +1,6 @@
 package org.briarproject.briar.messaging;
 
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -8,6 +9,10 @@ import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.briarproject.briar.api.messaging.ConversationManager;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
 
@@ -53,4 +58,45 @@ class ConversationManagerImpl implements ConversationManager {
 		return new GroupCount(msgCount, unreadCount, latestTime);
 	}
 
+	@Override
+	public Map<ContactId, GroupCount> getGroupCounts(
+			Collection<Contact> contacts) throws DbException {
+		Map<ContactId, GroupCount> result =
+				new HashMap<ContactId, GroupCount>(contacts.size());
+		Set<ContactId> removed = new HashSet<ContactId>();
+		Transaction txn = db.startTransaction(true);
+		try {
+			for (ConversationClient client : clients) {
+				Map<ContactId, GroupCount> counts =
+						client.getGroupCounts(txn, contacts);
+				for (Contact c : contacts) {
+					GroupCount count = counts.get(c.getId());
+					if (count == null) {
+						// The contact has been removed
+						removed.add(c.getId());
+						continue;
+					}
+					GroupCount total = result.get(c.getId());
+					if (total != null) count = add(total, count);
+					result.put(c.getId(), count);
+				}
+			}
+			db.commitTransaction(txn);
+		} finally {
+			db.endTransaction(txn);
+		}
+		for (Contact c : contacts) {
+			if (removed.contains(c.getId())) result.remove(c.getId());
+			else if (!result.containsKey(c.getId()))
+				result.put(c.getId(), new GroupCount(0, 0, 0));
+		}
+		return result;
+	}
+
+	private GroupCount add(GroupCount a, GroupCount b) {
+		return new GroupCount(a.getMsgCount() + b.getMsgCount(),
+				a.getUnreadCount() + b.getUnreadCount(),
+				Math.max(a.getLatestMsgTime(), b.getLatestMsgTime()));
+	}
+
 }
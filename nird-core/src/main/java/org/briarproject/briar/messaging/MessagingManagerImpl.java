@@ -1,6 +1,7 @@
 package org.briarproject.briar.messaging;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfQuery;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.Contact;
@@ -28,13 +29,20 @@ import org.briarproject.briar.api.messaging.event.PrivateMessageReceivedEvent;
 import org.briarproject.briar.client.ConversationClientImpl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.annotation.concurrent.Immutable;
 import javax.inject.Inject;
 
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_LOCAL;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_TIMESTAMP;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 
 @Immutable
@@ -42,6 +50,11 @@ import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ
 class MessagingManagerImpl extends ConversationClientImpl
 		implements MessagingManager, Client, AddContactHook, RemoveContactHook {
 
+	// The metadata keys needed for building message headers
+	private static final Set<String> HEADER_KEYS = Collections.unmodifiableSet(
+			new HashSet<String>(Arrays.asList(MSG_KEY_TIMESTAMP,
+					MSG_KEY_LOCAL, MSG_KEY_READ)));
+
 	private final ContactGroupFactory contactGroupFactory;
 
 	@Inject
@@ -92,8 +105,8 @@ class MessagingManagerImpl extends ConversationClientImpl
 			BdfDictionary meta) throws DbException, FormatException {
 
 		GroupId groupId = m.getGroupId();
-		long timestamp = meta.getLong("timestamp");
-		boolean local = meta.getBoolean("local");
+		long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+		boolean local = meta.getBoolean(MSG_KEY_LOCAL);
 		boolean read = meta.getBoolean(MSG_KEY_READ);
 		PrivateMessageHeader header = new PrivateMessageHeader(
 				m.getId(), groupId, timestamp, local, read, false, false);
@@ -112,9 +125,9 @@ class MessagingManagerImpl extends ConversationClientImpl
 		Transaction txn = db.startTransaction(false);
 		try {
 			BdfDictionary meta = new BdfDictionary();
-			meta.put("timestamp", m.getMessage().getTimestamp());
-			meta.put("local", true);
-			meta.put("read", true);
+			meta.put(MSG_KEY_TIMESTAMP, m.getMessage().getTimestamp());
+			meta.put(MSG_KEY_LOCAL, true);
+			meta.put(MSG_KEY_READ, true);
 			clientHelper.addLocalMessage(txn, m.getMessage(), meta, true);
 			messageTracker.trackOutgoingMessage(txn, m.getMessage());
 			db.commitTransaction(txn);
@@ -127,6 +140,8 @@ class MessagingManagerImpl extends ConversationClientImpl
 
 	private ContactId getContactId(Transaction txn, GroupId g)
 			throws DbException {
+		ContactId c = contactGroupFactory.getContactId(g);
+		if (c != null) return c;
 		try {
 			BdfDictionary meta =
 					clientHelper.getGroupMetadataAsDictionary(txn, g);
@@ -138,6 +153,8 @@ class MessagingManagerImpl extends ConversationClientImpl
 
 	@Override
 	public ContactId getContactId(GroupId g) throws DbException {
+		ContactId c = contactGroupFactory.getContactId(g);
+		if (c != null) return c;
 		try {
 			BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(g);
 			return new ContactId(meta.getLong("contactId").intValue());
@@ -168,7 +185,8 @@ class MessagingManagerImpl extends ConversationClientImpl
 		Transaction txn = db.startTransaction(true);
 		try {
 			g = getContactGroup(db.getContact(txn, c)).getId();
-			metadata = clientHelper.getMessageMetadataAsDictionary(txn, g);
+			metadata = clientHelper.getMessageMetadataAsDictionary(txn, g,
+					HEADER_KEYS);
 			statuses = db.getMessageStatus(txn, c, g);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
@@ -183,9 +201,9 @@ class MessagingManagerImpl extends ConversationClientImpl
 			BdfDictionary meta = metadata.get(id);
 			if (meta == null) continue;
 			try {
-				long timestamp = meta.getLong("timestamp");
-				boolean local = meta.getBoolean("local");
-				boolean read = meta.getBoolean("read");
+				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+				boolean read = meta.getBoolean(MSG_KEY_READ);
 				headers.add(
 						new PrivateMessageHeader(id, g, timestamp, local, read,
 								s.isSent(), s.isSeen()));
@@ -196,6 +214,45 @@ class MessagingManagerImpl extends ConversationClientImpl
 		return headers;
 	}
 
+	@Override
+	public Collection<PrivateMessageHeader> getMessageHeaders(ContactId c,
+			long beforeTimestamp, int limit) throws DbException {
+		Map<MessageId, BdfDictionary> metadata;
+		Map<MessageId, MessageStatus> statuses;
+		GroupId g;
+		Transaction txn = db.startTransaction(true);
+		try {
+			g = getContactGroup(db.getContact(txn, c)).getId();
+			metadata = clientHelper.getMessageMetadataAsDictionary(txn, g,
+					new BdfQuery(), beforeTimestamp, limit);
+			// Only the statuses of the messages on this page are loaded
+			statuses = db.getMessageStatus(txn, c, metadata.keySet());
+			db.commitTransaction(txn);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+		Collection<PrivateMessageHeader> headers =
+				new ArrayList<PrivateMessageHeader>();
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			MessageId id = entry.getKey();
+			BdfDictionary meta = entry.getValue();
+			MessageStatus s = statuses.get(id);
+			if (s == null) continue;
+			try {
+				long timestamp = meta.getLong(MSG_KEY_TIMESTAMP);
+				boolean local = meta.getBoolean(MSG_KEY_LOCAL);
+				boolean read = meta.getBoolean(MSG_KEY_READ);
+				headers.add(new PrivateMessageHeader(id, g, timestamp, local,
+						read, s.isSent(), s.isSeen()));
+			} catch (FormatException e) {
+				throw new DbException(e);
+			}
+		}
+		return headers;
+	}
+
 	@Override
 	public String getMessageBody(MessageId m) throws DbException {
 		try {
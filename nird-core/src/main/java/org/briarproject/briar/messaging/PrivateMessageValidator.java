@@ -17,6 +17,8 @@ import javax.annotation.concurrent.Immutable;
 import static org.briarproject.bramble.util.ValidationUtils.checkLength;
 import static org.briarproject.bramble.util.ValidationUtils.checkSize;
 import static org.briarproject.briar.api.messaging.MessagingConstants.MAX_PRIVATE_MESSAGE_BODY_LENGTH;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_LOCAL;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_TIMESTAMP;
 import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
 
 @Immutable
@@ -38,8 +40,8 @@ class PrivateMessageValidator extends BdfMessageValidator {
 		checkLength(privateMessageBody, 0, MAX_PRIVATE_MESSAGE_BODY_LENGTH);
 		// Return the metadata
 		BdfDictionary meta = new BdfDictionary();
-		meta.put("timestamp", m.getTimestamp());
-		meta.put("local", false);
+		meta.put(MSG_KEY_TIMESTAMP, m.getTimestamp());
+		meta.put(MSG_KEY_LOCAL, false);
 		meta.put(MSG_KEY_READ, false);
 		return new BdfMessageContext(meta);
 	}
@@ -21,4 +21,8 @@ interface GroupConstants {
 	String GROUP_KEY_DISSOLVED = "dissolved";
 	String GROUP_KEY_VISIBILITY = "visibility";
 
+	// Settings keys
+	String SETTINGS_NAMESPACE = "private-groups";
+	String SETTINGS_KEY_MEMBERS_MIGRATED = "membersMigrated";
+
 }
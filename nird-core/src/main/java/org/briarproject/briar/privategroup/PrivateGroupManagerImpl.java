@@ -1,7 +1,9 @@
 package org.briarproject.briar.privategroup;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfQuery;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.data.BdfDictionary;
@@ -18,6 +20,8 @@ import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.identity.IdentityManager;
 import org.briarproject.bramble.api.identity.LocalAuthor;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.sync.Client;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.Message;
@@ -54,6 +58,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Inject;
 
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
 import static org.briarproject.bramble.api.identity.Author.Status.OURSELVES;
 import static org.briarproject.bramble.api.identity.Author.Status.UNVERIFIED;
 import static org.briarproject.bramble.api.identity.Author.Status.VERIFIED;
@@ -77,11 +82,13 @@ import static org.briarproject.briar.privategroup.GroupConstants.KEY_PREVIOUS_MS
 import static org.briarproject.briar.privategroup.GroupConstants.KEY_READ;
 import static org.briarproject.briar.privategroup.GroupConstants.KEY_TIMESTAMP;
 import static org.briarproject.briar.privategroup.GroupConstants.KEY_TYPE;
+import static org.briarproject.briar.privategroup.GroupConstants.SETTINGS_KEY_MEMBERS_MIGRATED;
+import static org.briarproject.briar.privategroup.GroupConstants.SETTINGS_NAMESPACE;
 
 @ThreadSafe
 @NotNullByDefault
 class PrivateGroupManagerImpl extends BdfIncomingMessageHook
-		implements PrivateGroupManager {
+		implements PrivateGroupManager, Client {
 
 	private final PrivateGroupFactory privateGroupFactory;
 	private final ContactManager contactManager;
@@ -103,6 +110,46 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		hooks = new CopyOnWriteArrayList<PrivateGroupHook>();
 	}
 
+	@Override
+	public void createLocalState(Transaction txn) throws DbException {
+		migrateMembers(txn);
+	}
+
+	/**
+	 * Moves any member lists stored in the group metadata by older versions
+	 * into the database. A flag in this client's settings records that the
+	 * members have been migrated, so the groups are only scanned once.
+	 */
+	private void migrateMembers(Transaction txn) throws DbException {
+		Settings settings = db.getSettings(txn, SETTINGS_NAMESPACE);
+		if (settings.getBoolean(SETTINGS_KEY_MEMBERS_MIGRATED, false)) return;
+		try {
+			for (Group group : db.getGroups(txn, CLIENT_ID)) {
+				GroupId g = group.getId();
+				BdfDictionary meta =
+						clientHelper.getGroupMetadataAsDictionary(txn, g);
+				BdfList members = meta.getOptionalList(GROUP_KEY_MEMBERS);
+				if (members == null) continue;
+				for (int i = 0; i < members.size(); i++) {
+					BdfDictionary d = members.getDictionary(i);
+					Author a = getAuthor(d);
+					int v = getVisibility(d).getInt();
+					if (db.containsGroupMember(txn, g, a.getId()))
+						db.setGroupMemberVisibility(txn, g, a.getId(), v);
+					else db.addGroupMember(txn, g, a, v);
+				}
+				BdfDictionary remove = BdfDictionary.of(
+						new BdfEntry(GROUP_KEY_MEMBERS, NULL_VALUE));
+				clientHelper.mergeGroupMetadata(txn, g, remove);
+			}
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
+		settings = new Settings();
+		settings.putBoolean(SETTINGS_KEY_MEMBERS_MIGRATED, true);
+		db.mergeSettings(txn, settings, SETTINGS_NAMESPACE);
+	}
+
 	@Override
 	public void addPrivateGroup(PrivateGroup group, GroupMessage joinMsg,
 			boolean creator) throws DbException {
@@ -122,7 +169,6 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			db.addGroup(txn, group.getGroup());
 			AuthorId creatorId = group.getCreator().getId();
 			BdfDictionary meta = BdfDictionary.of(
-					new BdfEntry(GROUP_KEY_MEMBERS, new BdfList()),
 					new BdfEntry(GROUP_KEY_CREATOR_ID, creatorId),
 					new BdfEntry(GROUP_KEY_OUR_GROUP, creator),
 					new BdfEntry(GROUP_KEY_DISSOLVED, false)
@@ -320,40 +366,12 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public Collection<GroupMessageHeader> getHeaders(GroupId g)
 			throws DbException {
-		Collection<GroupMessageHeader> headers =
-				new ArrayList<GroupMessageHeader>();
 		Transaction txn = db.startTransaction(true);
 		try {
 			Map<MessageId, BdfDictionary> metadata =
 					clientHelper.getMessageMetadataAsDictionary(txn, g);
-			// get all authors we need to get the status for
-			Set<AuthorId> authors = new HashSet<AuthorId>();
-			for (BdfDictionary meta : metadata.values()) {
-				byte[] idBytes = meta.getRaw(KEY_MEMBER_ID);
-				authors.add(new AuthorId(idBytes));
-			}
-			// get statuses for all authors
-			Map<AuthorId, Status> statuses = new HashMap<AuthorId, Status>();
-			for (AuthorId id : authors) {
-				statuses.put(id, identityManager.getAuthorStatus(txn, id));
-			}
-			// get current visibilities for join messages
-			Map<Author, Visibility> visibilities = getMembers(txn, g);
-			// parse the metadata
-			for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
-				BdfDictionary meta = entry.getValue();
-				if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
-					Author member = getAuthor(meta);
-					Visibility v = visibilities.get(member);
-					headers.add(
-							getJoinMessageHeader(txn, g, entry.getKey(), meta,
-									statuses, v));
-				} else {
-					headers.add(
-							getGroupMessageHeader(txn, g, entry.getKey(), meta,
-									statuses));
-				}
-			}
+			Collection<GroupMessageHeader> headers =
+					getHeaders(txn, g, metadata);
 			db.commitTransaction(txn);
 			return headers;
 		} catch (FormatException e) {
@@ -363,6 +381,63 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 		}
 	}
 
+	@Override
+	public Collection<GroupMessageHeader> getHeaders(GroupId g,
+			long beforeTimestamp, int limit) throws DbException {
+		Transaction txn = db.startTransaction(true);
+		try {
+			Map<MessageId, BdfDictionary> metadata =
+					clientHelper.getMessageMetadataAsDictionary(txn, g,
+							new BdfQuery(), beforeTimestamp, limit);
+			Collection<GroupMessageHeader> headers =
+					getHeaders(txn, g, metadata);
+			db.commitTransaction(txn);
+			return headers;
+		} catch (FormatException e) {
+			throw new DbException(e);
+		} finally {
+			db.endTransaction(txn);
+		}
+	}
+
+	private Collection<GroupMessageHeader> getHeaders(Transaction txn,
+			GroupId g, Map<MessageId, BdfDictionary> metadata)
+			throws DbException, FormatException {
+		Collection<GroupMessageHeader> headers =
+				new ArrayList<GroupMessageHeader>();
+		// get all authors we need to get the status for, and the authors of
+		// join messages we need to get the visibility for
+		Set<AuthorId> authors = new HashSet<AuthorId>();
+		Set<AuthorId> joined = new HashSet<AuthorId>();
+		for (BdfDictionary meta : metadata.values()) {
+			AuthorId id = new AuthorId(meta.getRaw(KEY_MEMBER_ID));
+			authors.add(id);
+			if (meta.getLong(KEY_TYPE) == JOIN.getInt()) joined.add(id);
+		}
+		// get statuses for all authors
+		Map<AuthorId, Status> statuses =
+				identityManager.getAuthorStatuses(txn, authors);
+		// get current visibilities for join messages
+		Map<AuthorId, Integer> visibilities =
+				db.getGroupMemberVisibilities(txn, g, joined);
+		// parse the metadata
+		for (Entry<MessageId, BdfDictionary> entry : metadata.entrySet()) {
+			BdfDictionary meta = entry.getValue();
+			if (meta.getLong(KEY_TYPE) == JOIN.getInt()) {
+				Author member = getAuthor(meta);
+				Integer visibility = visibilities.get(member.getId());
+				Visibility v = visibility == null ? null :
+						Visibility.valueOf(visibility);
+				headers.add(getJoinMessageHeader(txn, g, entry.getKey(), meta,
+						statuses, v));
+			} else {
+				headers.add(getGroupMessageHeader(txn, g, entry.getKey(), meta,
+						statuses));
+			}
+		}
+		return headers;
+	}
+
 	private GroupMessageHeader getGroupMessageHeader(Transaction txn, GroupId g,
 			MessageId id, BdfDictionary meta, Map<AuthorId, Status> statuses)
 			throws DbException, FormatException {
@@ -404,15 +479,26 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 			Map<Author, Visibility> authors = getMembers(txn, g);
 			LocalAuthor la = identityManager.getLocalAuthor(txn);
 			PrivateGroup privateGroup = getPrivateGroup(txn, g);
+			// look up the statuses and contacts of all members at once
+			Collection<AuthorId> authorIds =
+					new ArrayList<AuthorId>(authors.size());
+			for (Author a : authors.keySet()) authorIds.add(a.getId());
+			Map<AuthorId, Status> statuses =
+					identityManager.getAuthorStatuses(txn, authorIds);
+			Map<AuthorId, ContactId> contacts =
+					new HashMap<AuthorId, ContactId>();
+			for (Contact c : db.getContactsByAuthorIds(txn, authorIds)) {
+				if (c.getLocalAuthorId().equals(la.getId()))
+					contacts.put(c.getAuthor().getId(), c.getId());
+			}
 			for (Entry<Author, Visibility> m : authors.entrySet()) {
 				Author a = m.getKey();
-				Status status = identityManager.getAuthorStatus(txn, a.getId());
+				Status status = statuses.get(a.getId());
 				Visibility v = m.getValue();
 				ContactId c = null;
 				if (v != INVISIBLE &&
 						(status == VERIFIED || status == UNVERIFIED)) {
-					c = contactManager.getContact(txn, a.getId(), la.getId())
-							.getId();
+					c = contacts.get(a.getId());
 				}
 				boolean isCreator = privateGroup.getCreator().equals(a);
 				members.add(new GroupMember(a, status, isCreator, c, v));
@@ -427,17 +513,11 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	private Map<Author, Visibility> getMembers(Transaction txn, GroupId g)
 			throws DbException {
 		try {
-			BdfDictionary meta =
-					clientHelper.getGroupMetadataAsDictionary(txn, g);
-			BdfList list = meta.getList(GROUP_KEY_MEMBERS);
+			Map<Author, Integer> stored = db.getGroupMembers(txn, g);
 			Map<Author, Visibility> members =
-					new HashMap<Author, Visibility>(list.size());
-			for (int i = 0; i < list.size(); i++) {
-				BdfDictionary d = list.getDictionary(i);
-				Author member = getAuthor(d);
-				Visibility v = getVisibility(d);
-				members.put(member, v);
-			}
+					new HashMap<Author, Visibility>(stored.size());
+			for (Entry<Author, Integer> e : stored.entrySet())
+				members.put(e.getKey(), Visibility.valueOf(e.getValue()));
 			return members;
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -447,10 +527,7 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public boolean isMember(Transaction txn, GroupId g, Author a)
 			throws DbException {
-		for (Author member : getMembers(txn, g).keySet()) {
-			if (member.equals(a)) return true;
-		}
-		return false;
+		return db.containsGroupMember(txn, g, a.getId());
 	}
 
 	@Override
@@ -467,27 +544,13 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	@Override
 	public void relationshipRevealed(Transaction txn, GroupId g, AuthorId a,
 			boolean byContact) throws FormatException, DbException {
-		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
-		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
-		Visibility v = INVISIBLE;
-		boolean foundMember = false, changed = false;
-		for (int i = 0; i < members.size(); i++) {
-			BdfDictionary d = members.getDictionary(i);
-			AuthorId memberId = new AuthorId(d.getRaw(KEY_MEMBER_ID));
-			if (a.equals(memberId)) {
-				foundMember = true;
-				// Don't update the visibility if the contact is already visible
-				if (getVisibility(d) == INVISIBLE) {
-					changed = true;
-					v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
-					d.put(GROUP_KEY_VISIBILITY, v.getInt());
-				}
-				break;
-			}
-		}
-		if (!foundMember) throw new ProtocolStateException();
-		if (changed) {
-			clientHelper.mergeGroupMetadata(txn, g, meta);
+		if (!db.containsGroupMember(txn, g, a))
+			throw new ProtocolStateException();
+		// Don't update the visibility if the contact is already visible
+		int old = db.getGroupMemberVisibility(txn, g, a);
+		if (Visibility.valueOf(old) == INVISIBLE) {
+			Visibility v = byContact ? REVEALED_BY_CONTACT : REVEALED_BY_US;
+			db.setGroupMemberVisibility(txn, g, a, v.getInt());
 			LocalAuthor la = identityManager.getLocalAuthor(txn);
 			ContactId c = contactManager.getContact(txn, a, la.getId()).getId();
 			Event e = new ContactRelationshipRevealedEvent(g, a, c, v);
@@ -597,17 +660,11 @@ class PrivateGroupManagerImpl extends BdfIncomingMessageHook
 	}
 
 	private void addMember(Transaction txn, GroupId g, Author a, Visibility v)
-			throws DbException, FormatException {
+			throws DbException {
 
-		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn, g);
-		BdfList members = meta.getList(GROUP_KEY_MEMBERS);
-		members.add(BdfDictionary.of(
-				new BdfEntry(KEY_MEMBER_ID, a.getId()),
-				new BdfEntry(KEY_MEMBER_NAME, a.getName()),
-				new BdfEntry(KEY_MEMBER_PUBLIC_KEY, a.getPublicKey()),
-				new BdfEntry(GROUP_KEY_VISIBILITY, v.getInt())
-		));
-		clientHelper.mergeGroupMetadata(txn, g, meta);
+		// A member's first join message determines their visibility
+		if (!db.containsGroupMember(txn, g, a.getId()))
+			db.addGroupMember(txn, g, a, v.getInt());
 		for (PrivateGroupHook hook : hooks) {
 			hook.addingMember(txn, g, a);
 		}
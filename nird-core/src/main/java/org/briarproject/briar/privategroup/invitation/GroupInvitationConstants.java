@@ -4,6 +4,7 @@ interface GroupInvitationConstants {
 
 	// Group metadata keys
 	String GROUP_KEY_CONTACT_ID = "contactId";
+	String GROUP_KEY_SESSIONS_MIGRATED = "sessionsMigrated";
 
 	// Message metadata keys
 	String MSG_KEY_MESSAGE_TYPE = "messageType";
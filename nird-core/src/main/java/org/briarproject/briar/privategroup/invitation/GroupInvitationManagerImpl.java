@@ -3,6 +3,7 @@ package org.briarproject.briar.privategroup.invitation;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.AddContactHook;
@@ -12,7 +13,6 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
@@ -48,6 +48,8 @@ import javax.inject.Inject;
 import static org.briarproject.bramble.api.sync.Group.Visibility.SHARED;
 import static org.briarproject.briar.privategroup.invitation.CreatorState.START;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -68,6 +70,7 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 	private final MessageParser messageParser;
 	private final SessionParser sessionParser;
 	private final SessionEncoder sessionEncoder;
+	private final SessionStore sessionStore;
 	private final ProtocolEngine<CreatorSession> creatorEngine;
 	private final ProtocolEngine<InviteeSession> inviteeEngine;
 	private final ProtocolEngine<PeerSession> peerEngine;
@@ -80,7 +83,7 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			PrivateGroupFactory privateGroupFactory,
 			PrivateGroupManager privateGroupManager,
 			MessageParser messageParser, SessionParser sessionParser,
-			SessionEncoder sessionEncoder,
+			SessionEncoder sessionEncoder, SessionStore sessionStore,
 			ProtocolEngineFactory engineFactory) {
 		super(db, clientHelper, metadataParser, messageTracker);
 		this.contactGroupFactory = contactGroupFactory;
@@ -89,6 +92,7 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		this.messageParser = messageParser;
 		this.sessionParser = sessionParser;
 		this.sessionEncoder = sessionEncoder;
+		this.sessionStore = sessionStore;
 		creatorEngine = engineFactory.createCreatorEngine();
 		inviteeEngine = engineFactory.createInviteeEngine();
 		peerEngine = engineFactory.createPeerEngine();
@@ -97,7 +101,40 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 	@Override
 	public void createLocalState(Transaction txn) throws DbException {
 		// Ensure we've set things up for any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		for (Contact c : db.getContacts(txn)) {
+			addingContact(txn, c);
+			migrateSessions(txn, getContactGroup(c).getId());
+		}
+	}
+
+	/**
+	 * Moves any sessions stored as message metadata by older versions into
+	 * the session store.
+	 */
+	private void migrateSessions(Transaction txn, GroupId contactGroupId)
+			throws DbException {
+		try {
+			BdfDictionary meta =
+					clientHelper.getGroupMetadataAsDictionary(txn,
+							contactGroupId);
+			if (meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED, false)) return;
+			Map<MessageId, BdfDictionary> results = clientHelper
+					.getMessageMetadataAsDictionary(txn, contactGroupId);
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				BdfDictionary d = e.getValue();
+				byte[] sessionId = d.getOptionalRaw(SESSION_KEY_SESSION_ID);
+				if (sessionId == null) continue; // Not a session
+				sessionStore.storeSession(txn, contactGroupId,
+						new SessionId(sessionId), d);
+				db.deleteMessage(txn, e.getKey());
+				db.deleteMessageMetadata(txn, e.getKey());
+			}
+			meta = new BdfDictionary();
+			meta.put(GROUP_KEY_SESSIONS_MIGRATED, true);
+			clientHelper.mergeGroupMetadata(txn, contactGroupId, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -112,6 +149,8 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		// Attach the contact ID to the group
 		BdfDictionary meta = new BdfDictionary();
 		meta.put(GROUP_KEY_CONTACT_ID, c.getId().getInt());
+		// The group has never held sessions in the old format
+		meta.put(GROUP_KEY_SESSIONS_MIGRATED, true);
 		try {
 			clientHelper.mergeGroupMetadata(txn, g.getId(), meta);
 		} catch (FormatException e) {
@@ -142,19 +181,17 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		MessageMetadata meta = messageParser.parseMetadata(bdfMeta);
 		// Look up the session, if there is one
 		SessionId sessionId = getSessionId(meta.getPrivateGroupId());
-		StoredSession ss = getSession(txn, m.getGroupId(), sessionId);
+		BdfDictionary bdfSession =
+				sessionStore.getSession(txn, m.getGroupId(), sessionId);
 		// Handle the message
 		Session session;
-		MessageId storageId;
-		if (ss == null) {
+		if (bdfSession == null) {
 			session = handleFirstMessage(txn, m, body, meta);
-			storageId = createStorageId(txn, m.getGroupId());
 		} else {
-			session = handleMessage(txn, m, body, meta, ss.bdfSession);
-			storageId = ss.storageId;
+			session = handleMessage(txn, m, body, meta, bdfSession);
 		}
 		// Store the updated session
-		storeSession(txn, storageId, session);
+		storeSession(txn, m.getGroupId(), sessionId, session);
 		return false;
 	}
 
@@ -162,18 +199,6 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		return new SessionId(privateGroupId.getBytes());
 	}
 
-	@Nullable
-	private StoredSession getSession(Transaction txn, GroupId contactGroupId,
-			SessionId sessionId) throws DbException, FormatException {
-		BdfDictionary query = sessionParser.getSessionQuery(sessionId);
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-		if (results.size() > 1) throw new DbException();
-		if (results.isEmpty()) return null;
-		return new StoredSession(results.keySet().iterator().next(),
-				results.values().iterator().next());
-	}
-
 	private Session handleFirstMessage(Transaction txn, Message m, BdfList body,
 			MessageMetadata meta) throws DbException, FormatException {
 		GroupId privateGroupId = meta.getPrivateGroupId();
@@ -233,17 +258,11 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		}
 	}
 
-	private MessageId createStorageId(Transaction txn, GroupId g)
-			throws DbException {
-		Message m = clientHelper.createMessageForStoringMetadata(g);
-		db.addLocalMessage(txn, m, new Metadata(), false);
-		return m.getId();
-	}
-
-	private void storeSession(Transaction txn, MessageId storageId,
-			Session session) throws DbException, FormatException {
+	private void storeSession(Transaction txn, GroupId contactGroupId,
+			SessionId sessionId, Session session)
+			throws DbException, FormatException {
 		BdfDictionary d = sessionEncoder.encodeSession(session);
-		clientHelper.mergeMessageMetadata(txn, storageId, d);
+		sessionStore.storeSession(txn, contactGroupId, sessionId, d);
 	}
 
 	@Override
@@ -256,25 +275,23 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session, if there is one
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			CreatorSession session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// This is the first invite - create a new session
 				session = new CreatorSession(contactGroupId, privateGroupId);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// An earlier invite was declined, so we already have a session
 				session = sessionParser
-						.parseCreatorSession(contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+						.parseCreatorSession(contactGroupId, bdfSession);
 			}
 			// Handle the invite action
 			session = creatorEngine.onInviteAction(txn, session, message,
 					timestamp, signature);
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, contactGroupId, sessionId, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -297,16 +314,17 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary bdfSession =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
+			if (bdfSession == null) throw new IllegalArgumentException();
 			// Parse the session
 			InviteeSession session = sessionParser
-					.parseInviteeSession(contactGroupId, ss.bdfSession);
+					.parseInviteeSession(contactGroupId, bdfSession);
 			// Handle the join or leave action
 			if (accept) session = inviteeEngine.onJoinAction(txn, session);
 			else session = inviteeEngine.onLeaveAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, contactGroupId, sessionId, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -322,15 +340,16 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, getSessionId(g));
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary bdfSession = sessionStore.getSession(txn,
+					contactGroupId, getSessionId(g));
+			if (bdfSession == null) throw new IllegalArgumentException();
 			// Parse the session
 			PeerSession session = sessionParser
-					.parsePeerSession(contactGroupId, ss.bdfSession);
+					.parsePeerSession(contactGroupId, bdfSession);
 			// Handle the join action
 			session = peerEngine.onJoinAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, contactGroupId, getSessionId(g), session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -431,13 +450,15 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		BdfDictionary query = messageParser.getInvitesAvailableToAnswerQuery();
 		Transaction txn = db.startTransaction(true);
 		try {
-			// Look up the available invite messages for each contact
+			// Look up the available invite messages from all contacts with a
+			// single query
+			Map<ContactId, Map<MessageId, BdfDictionary>> results =
+					clientHelper.getContactMessageMetadataAsDictionary(txn,
+							CLIENT_ID, query);
 			for (Contact c : db.getContacts(txn)) {
-				GroupId contactGroupId = getContactGroup(c).getId();
-				Map<MessageId, BdfDictionary> results =
-						clientHelper.getMessageMetadataAsDictionary(txn,
-								contactGroupId, query);
-				for (MessageId m : results.keySet())
+				Map<MessageId, BdfDictionary> invites = results.get(c.getId());
+				if (invites == null) continue;
+				for (MessageId m : invites.keySet())
 					items.add(parseGroupInvitationItem(txn, c, m));
 			}
 			db.commitTransaction(txn);
@@ -456,13 +477,14 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 		SessionId sessionId = getSessionId(privateGroupId);
 		Transaction txn = db.startTransaction(true);
 		try {
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
 			db.commitTransaction(txn);
 			// If there's no session, the contact can be invited
-			if (ss == null) return true;
+			if (bdfSession == null) return true;
 			// If the session's in the start state, the contact can be invited
 			CreatorSession session = sessionParser
-					.parseCreatorSession(contactGroupId, ss.bdfSession);
+					.parseCreatorSession(contactGroupId, bdfSession);
 			return session.getState() == START;
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -493,26 +515,24 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			// Look up the session for the contact, if there is one
 			GroupId contactGroupId = getContactGroup(c).getId();
 			SessionId sessionId = getSessionId(privateGroupId);
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary bdfSession =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			Session session;
-			MessageId storageId;
-			if (ss == null) {
+			if (bdfSession == null) {
 				// If there's no session the contact must be a peer,
 				// otherwise we would have exchanged invitation messages
 				PeerSession peerSession =
 						new PeerSession(contactGroupId, privateGroupId);
 				// Handle the action
 				session = peerEngine.onMemberAddedAction(txn, peerSession);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// Handle the action
 				session = handleAction(txn, LocalAction.MEMBER_ADDED,
-						contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+						contactGroupId, bdfSession);
 			}
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, contactGroupId, sessionId, session);
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
@@ -527,13 +547,14 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			for (Contact c : db.getContacts(txn)) {
 				// Look up the session for the contact, if there is one
 				GroupId contactGroupId = getContactGroup(c).getId();
-				StoredSession ss = getSession(txn, contactGroupId, sessionId);
-				if (ss == null) continue; // No session for this contact
+				BdfDictionary bdfSession =
+						sessionStore.getSession(txn, contactGroupId, sessionId);
+				if (bdfSession == null) continue; // No session for this contact
 				// Handle the action
 				Session session = handleAction(txn, LocalAction.LEAVE,
-						contactGroupId, ss.bdfSession);
+						contactGroupId, bdfSession);
 				// Store the updated session
-				storeSession(txn, ss.storageId, session);
+				storeSession(txn, contactGroupId, sessionId, session);
 			}
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -560,15 +581,4 @@ class GroupInvitationManagerImpl extends ConversationClientImpl
 			throw new AssertionError();
 		}
 	}
-
-	private static class StoredSession {
-
-		private final MessageId storageId;
-		private final BdfDictionary bdfSession;
-
-		private StoredSession(MessageId storageId, BdfDictionary bdfSession) {
-			this.storageId = storageId;
-			this.bdfSession = bdfSession;
-		}
-	}
 }
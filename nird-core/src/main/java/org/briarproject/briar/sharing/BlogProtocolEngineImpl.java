@@ -2,6 +2,7 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -34,10 +35,11 @@ class BlogProtocolEngineImpl extends ProtocolEngineImpl<Blog> {
 	BlogProtocolEngineImpl(DatabaseComponent db,
 			ClientHelper clientHelper, MessageEncoder messageEncoder,
 			MessageParser<Blog> messageParser, MessageTracker messageTracker,
-			Clock clock, BlogManager blogManager,
+			ContactGroupFactory contactGroupFactory, Clock clock,
+			BlogManager blogManager,
 			InvitationFactory<Blog, BlogInvitationResponse> invitationFactory) {
 		super(db, clientHelper, messageEncoder, messageParser, messageTracker,
-				clock);
+				contactGroupFactory, clock);
 		this.blogManager = blogManager;
 		this.invitationFactory = invitationFactory;
 	}
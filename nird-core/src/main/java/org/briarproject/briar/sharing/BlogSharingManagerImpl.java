@@ -3,6 +3,7 @@ package org.briarproject.briar.sharing;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
@@ -34,14 +35,14 @@ class BlogSharingManagerImpl extends SharingManagerImpl<Blog>
 	BlogSharingManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MetadataParser metadataParser, MessageParser<Blog> messageParser,
 			SessionEncoder sessionEncoder, SessionParser sessionParser,
-			MessageTracker messageTracker,
+			SessionStore sessionStore, MessageTracker messageTracker,
 			ContactGroupFactory contactGroupFactory,
 			ProtocolEngine<Blog> engine,
 			InvitationFactory<Blog, BlogInvitationResponse> invitationFactory,
 			IdentityManager identityManager, BlogManager blogManager) {
 		super(db, clientHelper, metadataParser, messageParser, sessionEncoder,
-				sessionParser, messageTracker, contactGroupFactory, engine,
-				invitationFactory);
+				sessionParser, sessionStore, messageTracker,
+				contactGroupFactory, engine, invitationFactory);
 		this.identityManager = identityManager;
 		this.blogManager = blogManager;
 	}
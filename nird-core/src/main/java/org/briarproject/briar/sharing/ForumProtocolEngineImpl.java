@@ -2,6 +2,7 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -34,10 +35,11 @@ class ForumProtocolEngineImpl extends ProtocolEngineImpl<Forum> {
 	ForumProtocolEngineImpl(DatabaseComponent db,
 			ClientHelper clientHelper, MessageEncoder messageEncoder,
 			MessageParser<Forum> messageParser, MessageTracker messageTracker,
-			Clock clock, ForumManager forumManager,
+			ContactGroupFactory contactGroupFactory, Clock clock,
+			ForumManager forumManager,
 			InvitationFactory<Forum, ForumInvitationResponse> invitationFactory) {
 		super(db, clientHelper, messageEncoder, messageParser, messageTracker,
-				clock);
+				contactGroupFactory, clock);
 		this.forumManager = forumManager;
 		this.invitationFactory = invitationFactory;
 	}
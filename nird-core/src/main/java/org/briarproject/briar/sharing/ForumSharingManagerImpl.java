@@ -2,6 +2,7 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
@@ -24,13 +25,13 @@ class ForumSharingManagerImpl extends SharingManagerImpl<Forum>
 	ForumSharingManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MetadataParser metadataParser, MessageParser<Forum> messageParser,
 			SessionEncoder sessionEncoder, SessionParser sessionParser,
-			MessageTracker messageTracker,
+			SessionStore sessionStore, MessageTracker messageTracker,
 			ContactGroupFactory contactGroupFactory,
 			ProtocolEngine<Forum> engine,
 			InvitationFactory<Forum, ForumInvitationResponse> invitationFactory) {
 		super(db, clientHelper, metadataParser, messageParser, sessionEncoder,
-				sessionParser, messageTracker, contactGroupFactory, engine,
-				invitationFactory);
+				sessionParser, sessionStore, messageTracker,
+				contactGroupFactory, engine, invitationFactory);
 	}
 
 	@Override
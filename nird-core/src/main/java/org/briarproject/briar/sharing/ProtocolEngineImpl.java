@@ -2,6 +2,7 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
@@ -54,16 +55,19 @@ abstract class ProtocolEngineImpl<S extends Shareable>
 
 	private final MessageEncoder messageEncoder;
 	private final MessageTracker messageTracker;
+	private final ContactGroupFactory contactGroupFactory;
 	private final Clock clock;
 
 	ProtocolEngineImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MessageEncoder messageEncoder, MessageParser<S> messageParser,
-			MessageTracker messageTracker, Clock clock) {
+			MessageTracker messageTracker,
+			ContactGroupFactory contactGroupFactory, Clock clock) {
 		this.db = db;
 		this.clientHelper = clientHelper;
 		this.messageEncoder = messageEncoder;
 		this.messageParser = messageParser;
 		this.messageTracker = messageTracker;
+		this.contactGroupFactory = contactGroupFactory;
 		this.clock = clock;
 	}
 
@@ -606,6 +610,8 @@ abstract class ProtocolEngineImpl<S extends Shareable>
 
 	private ContactId getContactId(Transaction txn, GroupId contactGroupId)
 			throws DbException, FormatException {
+		ContactId c = contactGroupFactory.getContactId(contactGroupId);
+		if (c != null) return c;
 		BdfDictionary meta = clientHelper.getGroupMetadataAsDictionary(txn,
 				contactGroupId);
 		return new ContactId(meta.getLong(GROUP_KEY_CONTACT_ID).intValue());
@@ -2,11 +2,9 @@ package org.briarproject.briar.sharing;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.GroupId;
 import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.briar.api.client.SessionId;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
@@ -16,7 +14,6 @@ import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_INVITE
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LAST_LOCAL_MESSAGE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LAST_REMOTE_MESSAGE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_LOCAL_TIMESTAMP;
-import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SHAREABLE_ID;
 import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_STATE;
 
@@ -28,11 +25,6 @@ class SessionParserImpl implements SessionParser {
 	SessionParserImpl() {
 	}
 
-	@Override
-	public BdfDictionary getSessionQuery(SessionId s) {
-		return BdfDictionary.of(new BdfEntry(SESSION_KEY_SESSION_ID, s));
-	}
-
 	@Override
 	public Session parseSession(GroupId contactGroupId,
 			BdfDictionary d) throws FormatException {
@@ -3,6 +3,7 @@ package org.briarproject.briar.sharing;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager.AddContactHook;
@@ -12,7 +13,6 @@ import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.nullsafety.NotNullByDefault;
 import org.briarproject.bramble.api.sync.Client;
@@ -35,6 +35,7 @@ import org.briarproject.briar.client.ConversationClientImpl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -48,6 +49,8 @@ import static org.briarproject.briar.sharing.MessageType.DECLINE;
 import static org.briarproject.briar.sharing.MessageType.INVITE;
 import static org.briarproject.briar.sharing.MessageType.LEAVE;
 import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.sharing.SharingConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.sharing.SharingConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.sharing.State.SHARING;
 
 @NotNullByDefault
@@ -59,6 +62,7 @@ abstract class SharingManagerImpl<S extends Shareable>
 	private final MessageParser<S> messageParser;
 	private final SessionEncoder sessionEncoder;
 	private final SessionParser sessionParser;
+	private final SessionStore sessionStore;
 	private final ContactGroupFactory contactGroupFactory;
 	private final ProtocolEngine<S> engine;
 	private final InvitationFactory<S, ?> invitationFactory;
@@ -66,13 +70,14 @@ abstract class SharingManagerImpl<S extends Shareable>
 	SharingManagerImpl(DatabaseComponent db, ClientHelper clientHelper,
 			MetadataParser metadataParser, MessageParser<S> messageParser,
 			SessionEncoder sessionEncoder, SessionParser sessionParser,
-			MessageTracker messageTracker,
+			SessionStore sessionStore, MessageTracker messageTracker,
 			ContactGroupFactory contactGroupFactory, ProtocolEngine<S> engine,
 			InvitationFactory<S, ?> invitationFactory) {
 		super(db, clientHelper, metadataParser, messageTracker);
 		this.messageParser = messageParser;
 		this.sessionEncoder = sessionEncoder;
 		this.sessionParser = sessionParser;
+		this.sessionStore = sessionStore;
 		this.contactGroupFactory = contactGroupFactory;
 		this.engine = engine;
 		this.invitationFactory = invitationFactory;
@@ -83,7 +88,40 @@ abstract class SharingManagerImpl<S extends Shareable>
 	@Override
 	public void createLocalState(Transaction txn) throws DbException {
 		// Ensure we've set things up for any pre-existing contacts
-		for (Contact c : db.getContacts(txn)) addingContact(txn, c);
+		for (Contact c : db.getContacts(txn)) {
+			addingContact(txn, c);
+			migrateSessions(txn, getContactGroup(c).getId());
+		}
+	}
+
+	/**
+	 * Moves any sessions stored as message metadata by older versions into
+	 * the session store.
+	 */
+	private void migrateSessions(Transaction txn, GroupId contactGroupId)
+			throws DbException {
+		try {
+			BdfDictionary meta =
+					clientHelper.getGroupMetadataAsDictionary(txn,
+							contactGroupId);
+			if (meta.getBoolean(GROUP_KEY_SESSIONS_MIGRATED, false)) return;
+			Map<MessageId, BdfDictionary> results = clientHelper
+					.getMessageMetadataAsDictionary(txn, contactGroupId);
+			for (Entry<MessageId, BdfDictionary> e : results.entrySet()) {
+				BdfDictionary d = e.getValue();
+				byte[] sessionId = d.getOptionalRaw(SESSION_KEY_SESSION_ID);
+				if (sessionId == null) continue; // Not a session
+				sessionStore.storeSession(txn, contactGroupId,
+						new SessionId(sessionId), d);
+				db.deleteMessage(txn, e.getKey());
+				db.deleteMessageMetadata(txn, e.getKey());
+			}
+			meta = new BdfDictionary();
+			meta.put(GROUP_KEY_SESSIONS_MIGRATED, true);
+			clientHelper.mergeGroupMetadata(txn, contactGroupId, meta);
+		} catch (FormatException e) {
+			throw new DbException(e);
+		}
 	}
 
 	@Override
@@ -99,6 +137,8 @@ abstract class SharingManagerImpl<S extends Shareable>
 			// Attach the contact ID to the group
 			BdfDictionary meta = new BdfDictionary();
 			meta.put(GROUP_KEY_CONTACT_ID, c.getId().getInt());
+			// The group has never held sessions in the old format
+			meta.put(GROUP_KEY_SESSIONS_MIGRATED, true);
 			clientHelper.mergeGroupMetadata(txn, g.getId(), meta);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -123,19 +163,17 @@ abstract class SharingManagerImpl<S extends Shareable>
 		MessageMetadata meta = messageParser.parseMetadata(d);
 		// Look up the session, if there is one
 		SessionId sessionId = getSessionId(meta.getShareableId());
-		StoredSession ss = getSession(txn, m.getGroupId(), sessionId);
+		BdfDictionary bdfSession =
+				sessionStore.getSession(txn, m.getGroupId(), sessionId);
 		// Handle the message
 		Session session;
-		MessageId storageId;
-		if (ss == null) {
+		if (bdfSession == null) {
 			session = handleFirstMessage(txn, m, body, meta);
-			storageId = createStorageId(txn, m.getGroupId());
 		} else {
-			session = handleMessage(txn, m, body, meta, ss.bdfSession);
-			storageId = ss.storageId;
+			session = handleMessage(txn, m, body, meta, bdfSession);
 		}
 		// Store the updated session
-		storeSession(txn, storageId, session);
+		storeSession(txn, m.getGroupId(), sessionId, session);
 		return false;
 	}
 
@@ -145,26 +183,14 @@ abstract class SharingManagerImpl<S extends Shareable>
 		Session session =
 				new Session(SHARING, contactGroupId, shareable.getId(), null,
 						null, 0, 0);
-		MessageId storageId = createStorageId(txn, contactGroupId);
-		storeSession(txn, storageId, session);
+		storeSession(txn, contactGroupId, getSessionId(shareable.getId()),
+				session);
 	}
 
 	private SessionId getSessionId(GroupId shareableId) {
 		return new SessionId(shareableId.getBytes());
 	}
 
-	@Nullable
-	private StoredSession getSession(Transaction txn, GroupId contactGroupId,
-			SessionId sessionId) throws DbException, FormatException {
-		BdfDictionary query = sessionParser.getSessionQuery(sessionId);
-		Map<MessageId, BdfDictionary> results = clientHelper
-				.getMessageMetadataAsDictionary(txn, contactGroupId, query);
-		if (results.size() > 1) throw new DbException();
-		if (results.isEmpty()) return null;
-		return new StoredSession(results.keySet().iterator().next(),
-				results.values().iterator().next());
-	}
-
 	private Session handleFirstMessage(Transaction txn, Message m, BdfList body,
 			MessageMetadata meta) throws DbException, FormatException {
 		GroupId shareableId = meta.getShareableId();
@@ -203,17 +229,11 @@ abstract class SharingManagerImpl<S extends Shareable>
 		}
 	}
 
-	private MessageId createStorageId(Transaction txn, GroupId g)
-			throws DbException {
-		Message m = clientHelper.createMessageForStoringMetadata(g);
-		db.addLocalMessage(txn, m, new Metadata(), false);
-		return m.getId();
-	}
-
-	private void storeSession(Transaction txn, MessageId storageId,
-			Session session) throws DbException, FormatException {
+	private void storeSession(Transaction txn, GroupId contactGroupId,
+			SessionId sessionId, Session session)
+			throws DbException, FormatException {
 		BdfDictionary d = sessionEncoder.encodeSession(session);
-		clientHelper.mergeMessageMetadata(txn, storageId, d);
+		sessionStore.storeSession(txn, contactGroupId, sessionId, d);
 	}
 
 	@Override
@@ -227,24 +247,21 @@ abstract class SharingManagerImpl<S extends Shareable>
 				throw new IllegalArgumentException();
 			// Look up the session, if there is one
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary d =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
 			// Create or parse the session
 			Session session;
-			MessageId storageId;
-			if (ss == null) {
+			if (d == null) {
 				// This is the first invite - create a new session
 				session = new Session(contactGroupId, shareableId);
-				storageId = createStorageId(txn, contactGroupId);
 			} else {
 				// We already have a session
-				session = sessionParser
-						.parseSession(contactGroupId, ss.bdfSession);
-				storageId = ss.storageId;
+				session = sessionParser.parseSession(contactGroupId, d);
 			}
 			// Handle the invite action
 			session = engine.onInviteAction(txn, session, message, timestamp);
 			// Store the updated session
-			storeSession(txn, storageId, session);
+			storeSession(txn, contactGroupId, sessionId, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -267,16 +284,15 @@ abstract class SharingManagerImpl<S extends Shareable>
 			// Look up the session
 			Contact contact = db.getContact(txn, c);
 			GroupId contactGroupId = getContactGroup(contact).getId();
-			StoredSession ss = getSession(txn, contactGroupId, id);
-			if (ss == null) throw new IllegalArgumentException();
+			BdfDictionary d = sessionStore.getSession(txn, contactGroupId, id);
+			if (d == null) throw new IllegalArgumentException();
 			// Parse the session
-			Session session =
-					sessionParser.parseSession(contactGroupId, ss.bdfSession);
+			Session session = sessionParser.parseSession(contactGroupId, d);
 			// Handle the accept or decline action
 			if (accept) session = engine.onAcceptAction(txn, session);
 			else session = engine.onDeclineAction(txn, session);
 			// Store the updated session
-			storeSession(txn, ss.storageId, session);
+			storeSession(txn, contactGroupId, id, session);
 			db.commitTransaction(txn);
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -359,13 +375,14 @@ abstract class SharingManagerImpl<S extends Shareable>
 				new HashMap<S, Collection<Contact>>();
 		Transaction txn = db.startTransaction(true);
 		try {
-			// get invitations from each contact
+			// get invitations from all contacts with a single query
+			Map<ContactId, Map<MessageId, BdfDictionary>> results =
+					clientHelper.getContactMessageMetadataAsDictionary(txn,
+							getClientId(), query);
 			for (Contact c : db.getContacts(txn)) {
-				GroupId contactGroupId = getContactGroup(c).getId();
-				Map<MessageId, BdfDictionary> results =
-						clientHelper.getMessageMetadataAsDictionary(txn,
-								contactGroupId, query);
-				for (MessageId m : results.keySet()) {
+				Map<MessageId, BdfDictionary> invites = results.get(c.getId());
+				if (invites == null) continue;
+				for (MessageId m : invites.keySet()) {
 					InviteMessage<S> invite =
 							messageParser.getInviteMessage(txn, m);
 					S s = invite.getShareable();
@@ -402,9 +419,10 @@ abstract class SharingManagerImpl<S extends Shareable>
 		Collection<Contact> contacts = new ArrayList<Contact>();
 		Transaction txn = db.startTransaction(true);
 		try {
+			Collection<ContactId> sharedWith =
+					new HashSet<ContactId>(db.getSharedWith(txn, g));
 			for (Contact c : db.getContacts(txn)) {
-				if (db.getGroupVisibility(txn, c.getId(), g) == SHARED)
-					contacts.add(c);
+				if (sharedWith.contains(c.getId())) contacts.add(c);
 			}
 			db.commitTransaction(txn);
 		} finally {
@@ -430,12 +448,12 @@ abstract class SharingManagerImpl<S extends Shareable>
 		GroupId contactGroupId = getContactGroup(c).getId();
 		SessionId sessionId = getSessionId(g);
 		try {
-			StoredSession ss = getSession(txn, contactGroupId, sessionId);
+			BdfDictionary d =
+					sessionStore.getSession(txn, contactGroupId, sessionId);
 			// If there's no session, we can share the group with the contact
-			if (ss == null) return true;
+			if (d == null) return true;
 			// If the session's in the right state, the contact can be invited
-			Session session =
-					sessionParser.parseSession(contactGroupId, ss.bdfSession);
+			Session session = sessionParser.parseSession(contactGroupId, d);
 			return session.getState().canInvite();
 		} catch (FormatException e) {
 			throw new DbException(e);
@@ -450,29 +468,18 @@ abstract class SharingManagerImpl<S extends Shareable>
 			for (Contact c : db.getContacts(txn)) {
 				// Look up the session for the contact, if there is one
 				GroupId contactGroupId = getContactGroup(c).getId();
-				StoredSession ss = getSession(txn, contactGroupId, sessionId);
-				if (ss == null) continue; // No session for this contact
+				BdfDictionary d =
+						sessionStore.getSession(txn, contactGroupId, sessionId);
+				if (d == null) continue; // No session for this contact
 				// Let the engine perform a LEAVE action
-				Session session = sessionParser
-						.parseSession(contactGroupId, ss.bdfSession);
+				Session session = sessionParser.parseSession(contactGroupId, d);
 				session = engine.onLeaveAction(txn, session);
 				// Store the updated session
-				storeSession(txn, ss.storageId, session);
+				storeSession(txn, contactGroupId, sessionId, session);
 			}
 		} catch (FormatException e) {
 			throw new DbException(e);
 		}
 	}
 
-	private static class StoredSession {
-
-		private final MessageId storageId;
-		private final BdfDictionary bdfSession;
-
-		private StoredSession(MessageId storageId, BdfDictionary bdfSession) {
-			this.storageId = storageId;
-			this.bdfSession = bdfSession;
-		}
-	}
-
 }
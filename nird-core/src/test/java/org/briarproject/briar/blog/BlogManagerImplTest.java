@@ -182,6 +182,7 @@ public class BlogManagerImplTest extends BriarTestCase {
 		context.checking(new Expectations() {{
 			oneOf(identityManager).getAuthorStatus(txn, localAuthor1.getId());
 			will(returnValue(VERIFIED));
+			oneOf(db).addVerifiedMessage(txn, blog1.getId(), messageId);
 		}});
 
 		blogManager.incomingMessage(txn, message, body, meta);
@@ -218,6 +219,11 @@ public class BlogManagerImplTest extends BriarTestCase {
 				new BdfEntry(KEY_RSS_FEED, true)
 		);
 
+		context.checking(new Expectations() {{
+			oneOf(db).addVerifiedMessage(txn, rssBlog.getId(),
+					rssMessageId);
+		}});
+
 		blogManager.incomingMessage(txn, rssMessage, body, meta);
 		context.assertIsSatisfied();
 
@@ -239,6 +245,34 @@ public class BlogManagerImplTest extends BriarTestCase {
 		assertEquals(rssLocalAuthor, h.getAuthor());
 	}
 
+	@Test
+	public void testIncomingWrappedPost() throws Exception {
+		final Transaction txn = new Transaction(null, false);
+		// The post was originally posted to blog 1, then reblogged to blog 2
+		final MessageId wrappedPostId = new MessageId(getRandomId());
+		Message wrappedPostMsg = new Message(wrappedPostId, blog2.getId(),
+				timestamp, getRandomBytes(MAX_MESSAGE_LENGTH));
+		BdfList body = BdfList.of("body");
+		BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry(KEY_TYPE, WRAPPED_POST.getInt()),
+				new BdfEntry(KEY_RSS_FEED, false),
+				new BdfEntry(KEY_ORIGINAL_MSG_ID, messageId),
+				new BdfEntry(KEY_AUTHOR, authorDict1),
+				new BdfEntry(KEY_TIMESTAMP, timestamp)
+		);
+
+		context.checking(new Expectations() {{
+			// The original post's signature has been verified
+			oneOf(db).addVerifiedMessage(txn, blog2.getId(), messageId);
+		}});
+
+		assertFalse(blogManager.incomingMessage(txn, wrappedPostMsg, body,
+				meta));
+		context.assertIsSatisfied();
+
+		assertEquals(0, txn.getEvents().size());
+	}
+
 	@Test
 	public void testRemoveBlog() throws Exception {
 		final Transaction txn = new Transaction(null, false);
@@ -1,7 +1,9 @@
 package org.briarproject.briar.blog;
 
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.client.BdfMessageContext;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
@@ -45,6 +47,7 @@ import static org.briarproject.briar.api.blog.MessageType.COMMENT;
 import static org.briarproject.briar.api.blog.MessageType.POST;
 import static org.briarproject.briar.api.blog.MessageType.WRAPPED_COMMENT;
 import static org.briarproject.briar.api.blog.MessageType.WRAPPED_POST;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -189,26 +192,26 @@ public class BlogPostValidatorTest extends BriarTestCase {
 	}
 
 	@Test
-	public void testValidateProperWrappedPost()
-			throws IOException, GeneralSecurityException {
+	public void testValidateProperWrappedPost() throws Exception {
 		testValidateProperWrappedPost(blog, false);
 	}
 
 	@Test
-	public void testValidateProperWrappedRssPost()
-			throws IOException, GeneralSecurityException {
+	public void testValidateProperWrappedRssPost() throws Exception {
 		testValidateProperWrappedPost(rssBlog, true);
 	}
 
 	private void testValidateProperWrappedPost(final Blog b, boolean rssFeed)
-			throws IOException, GeneralSecurityException {
+			throws Exception {
 		// group descriptor, timestamp, content, signature
 		final byte[] sigBytes = TestUtils.getRandomBytes(42);
 		BdfList m = BdfList.of(WRAPPED_POST.getInt(), descriptor,
 				message.getTimestamp(), body, sigBytes);
 
+		// The signature should be returned for the validation manager to
+		// verify, unless the original has already been verified
 		BdfList signed = BdfList.of(b.getId(), message.getTimestamp(), body);
-		expectCrypto(b, SIGNING_LABEL_POST, signed, sigBytes);
+		final byte[] signedBytes = expectDeferredSignature(b, signed);
 
 		final BdfList originalList = BdfList.of(POST.getInt(), body, sigBytes);
 		final byte[] originalBody = TestUtils.getRandomBytes(42);
@@ -226,17 +229,17 @@ public class BlogPostValidatorTest extends BriarTestCase {
 			will(returnValue(message));
 		}});
 
-		final BdfDictionary result =
-				validator.validateMessage(message, group, m).getDictionary();
+		BdfMessageContext c = validator.validateMessage(message, group, m);
+		BdfDictionary result = c.getDictionary();
 
 		assertEquals(authorDict, result.getDictionary(KEY_AUTHOR));
 		assertEquals(rssFeed, result.getBoolean(KEY_RSS_FEED));
+		assertDeferredSignature(c, SIGNING_LABEL_POST, signedBytes, sigBytes);
 		context.assertIsSatisfied();
 	}
 
 	@Test
-	public void testValidateProperWrappedComment()
-			throws IOException, GeneralSecurityException {
+	public void testValidateProperWrappedComment() throws Exception {
 		// group descriptor, timestamp, comment, parent_original_id, signature,
 		// parent_current_id
 		String comment = "This is another comment";
@@ -248,9 +251,11 @@ public class BlogPostValidatorTest extends BriarTestCase {
 				message.getTimestamp(), comment, originalId, oldId, sigBytes,
 				currentId);
 
+		// The signature should be returned for the validation manager to
+		// verify, unless the original has already been verified
 		BdfList signed = BdfList.of(blog.getId(), message.getTimestamp(),
 				comment, originalId, oldId);
-		expectCrypto(blog, SIGNING_LABEL_COMMENT, signed, sigBytes);
+		final byte[] signedBytes = expectDeferredSignature(blog, signed);
 
 		final BdfList originalList = BdfList.of(COMMENT.getInt(), comment,
 				originalId, oldId, sigBytes);
@@ -267,26 +272,57 @@ public class BlogPostValidatorTest extends BriarTestCase {
 			will(returnValue(message));
 		}});
 
-		final BdfDictionary result =
-				validator.validateMessage(message, group, m).getDictionary();
+		BdfMessageContext c = validator.validateMessage(message, group, m);
+		BdfDictionary result = c.getDictionary();
 
 		assertEquals(comment, result.getString(KEY_COMMENT));
 		assertEquals(authorDict, result.getDictionary(KEY_AUTHOR));
 		assertEquals(
 				message.getId().getBytes(), result.getRaw(KEY_ORIGINAL_MSG_ID));
 		assertEquals(currentId.getBytes(), result.getRaw(KEY_PARENT_MSG_ID));
+		assertDeferredSignature(c, SIGNING_LABEL_COMMENT, signedBytes,
+				sigBytes);
 		context.assertIsSatisfied();
 	}
 
 	private void expectCrypto(final Blog b, final String label,
 			final BdfList signed, final byte[] sig)
 			throws IOException, GeneralSecurityException {
+		expectParseBlog(b);
 		context.checking(new Expectations() {{
-			oneOf(blogFactory).parseBlog(group);
-			will(returnValue(b));
 			oneOf(clientHelper)
 					.verifySignature(label, sig, author.getPublicKey(), signed);
 		}});
 	}
 
+	private void expectParseBlog(final Blog b) throws FormatException {
+		context.checking(new Expectations() {{
+			oneOf(blogFactory).parseBlog(group);
+			will(returnValue(b));
+		}});
+	}
+
+	private byte[] expectDeferredSignature(Blog b, final BdfList signed)
+			throws FormatException {
+		expectParseBlog(b);
+		final byte[] signedBytes = TestUtils.getRandomBytes(42);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).toByteArray(signed);
+			will(returnValue(signedBytes));
+		}});
+		return signedBytes;
+	}
+
+	private void assertDeferredSignature(BdfMessageContext c, String label,
+			byte[] signedBytes, byte[] sigBytes) {
+		assertEquals(1, c.getSignatures().size());
+		SignedData s = c.getSignatures().iterator().next();
+		assertEquals(label, s.getLabel());
+		assertArrayEquals(signedBytes, s.getSignedData());
+		assertArrayEquals(author.getPublicKey(), s.getPublicKey());
+		assertArrayEquals(sigBytes, s.getSignature());
+		// The signature can be skipped if the original has been verified
+		assertEquals(message.getId(), s.getMessageId());
+	}
+
 }
@@ -4,16 +4,32 @@ import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.NoSuchGroupException;
+import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageCounts;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.MessageTracker.GroupCount;
 import org.jmock.Expectations;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_LATEST_MSG;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_MSG_COUNT;
 import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_STORED_MESSAGE_ID;
+import static org.briarproject.briar.client.MessageTrackerConstants.GROUP_KEY_UNREAD_COUNT;
+import static org.junit.Assert.assertEquals;
 
 public class MessageTrackerTest extends BrambleMockTestCase {
 
@@ -27,6 +43,16 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 	private final BdfDictionary dictionary = BdfDictionary.of(
 			new BdfEntry(GROUP_KEY_STORED_MESSAGE_ID, messageId)
 	);
+	private final BdfDictionary legacyCounts = BdfDictionary.of(
+			new BdfEntry(GROUP_KEY_MSG_COUNT, 2L),
+			new BdfEntry(GROUP_KEY_UNREAD_COUNT, 1L),
+			new BdfEntry(GROUP_KEY_LATEST_MSG, 123L)
+	);
+	private final BdfDictionary removeLegacyCounts = BdfDictionary.of(
+			new BdfEntry(GROUP_KEY_MSG_COUNT, NULL_VALUE),
+			new BdfEntry(GROUP_KEY_UNREAD_COUNT, NULL_VALUE),
+			new BdfEntry(GROUP_KEY_LATEST_MSG, NULL_VALUE)
+	);
 
 	@Test
 	public void testMessageStore() throws Exception {
@@ -47,4 +73,107 @@ public class MessageTrackerTest extends BrambleMockTestCase {
 		Assert.assertTrue(messageId.equals(loadedId));
 	}
 
+	@Test
+	public void testTrackMessageIncrementsCounts() throws Exception {
+		final Transaction txn = new Transaction(null, false);
+		context.checking(new Expectations() {{
+			oneOf(db).incrementMessageCounts(txn, groupId, 1, 1, 456);
+			will(returnValue(true));
+		}});
+		messageTracker.trackMessage(txn, groupId, 456, false);
+	}
+
+	@Test
+	public void testTrackMessageMovesLegacyCounts() throws Exception {
+		final Transaction txn = new Transaction(null, false);
+		final AtomicReference<MessageCounts> counts =
+				new AtomicReference<MessageCounts>();
+		context.checking(new Expectations() {{
+			oneOf(db).incrementMessageCounts(txn, groupId, 1, 0, 100);
+			will(returnValue(false));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(legacyCounts));
+			oneOf(db).setMessageCounts(with(txn), with(groupId),
+					with(any(MessageCounts.class)));
+			will(new CaptureArgumentAction<MessageCounts>(counts,
+					MessageCounts.class, 2));
+			oneOf(clientHelper).mergeGroupMetadata(txn, groupId,
+					removeLegacyCounts);
+		}});
+		messageTracker.trackMessage(txn, groupId, 100, true);
+		// The legacy counts should be moved with the new message included
+		MessageCounts c = counts.get();
+		assertEquals(3, c.getMsgCount());
+		assertEquals(1, c.getUnreadCount());
+		assertEquals(123, c.getLatestMsgTime());
+	}
+
+	@Test
+	public void testGetGroupCount() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groupId);
+			will(returnValue(new MessageCounts(5, 3, 456)));
+		}});
+		GroupCount c = messageTracker.getGroupCount(txn, groupId);
+		assertGroupCountEquals(5, 3, 456, c);
+	}
+
+	@Test
+	public void testGetGroupCountFallsBackToLegacyCounts() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groupId);
+			will(returnValue(null));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(legacyCounts));
+		}});
+		GroupCount c = messageTracker.getGroupCount(txn, groupId);
+		assertGroupCountEquals(2, 1, 123, c);
+	}
+
+	@Test
+	public void testGetGroupCounts() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final GroupId groupId1 = new GroupId(TestUtils.getRandomId());
+		final Collection<GroupId> groups = Arrays.asList(groupId, groupId1);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groups);
+			will(returnValue(Collections.singletonMap(groupId,
+					new MessageCounts(5, 3, 456))));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId1);
+			will(returnValue(legacyCounts));
+		}});
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groups);
+		assertEquals(2, counts.size());
+		assertGroupCountEquals(5, 3, 456, counts.get(groupId));
+		assertGroupCountEquals(2, 1, 123, counts.get(groupId1));
+	}
+
+	@Test
+	public void testGetGroupCountsSkipsRemovedGroups() throws Exception {
+		final Transaction txn = new Transaction(null, true);
+		final GroupId groupId1 = new GroupId(TestUtils.getRandomId());
+		final Collection<GroupId> groups = Arrays.asList(groupId, groupId1);
+		context.checking(new Expectations() {{
+			oneOf(db).getMessageCounts(txn, groups);
+			will(returnValue(Collections.singletonMap(groupId,
+					new MessageCounts(5, 3, 456))));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId1);
+			will(throwException(new NoSuchGroupException()));
+		}});
+		Map<GroupId, GroupCount> counts =
+				messageTracker.getGroupCounts(txn, groups);
+		assertEquals(1, counts.size());
+		assertGroupCountEquals(5, 3, 456, counts.get(groupId));
+	}
+
+	private void assertGroupCountEquals(int msgCount, int unreadCount,
+			long latestMsgTime, GroupCount c) {
+		assertEquals(msgCount, c.getMsgCount());
+		assertEquals(unreadCount, c.getUnreadCount());
+		assertEquals(latestMsgTime, c.getLatestMsgTime());
+	}
+
 }
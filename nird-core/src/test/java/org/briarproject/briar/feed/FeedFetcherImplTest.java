@@ -0,0 +1,146 @@
+package org.briarproject.briar.feed;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.briarproject.briar.test.BriarTestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Dns;
+
+import static org.briarproject.bramble.util.StringUtils.toUtf8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class FeedFetcherImplTest extends BriarTestCase {
+
+	private static final String ETAG = "\"abc123\"";
+	private static final String LAST_MODIFIED =
+			"Sat, 01 Jul 2017 12:00:00 GMT";
+	private static final String ATOM = "<?xml version=\"1.0\"?>"
+			+ "<feed xmlns=\"http://www.w3.org/2005/Atom\">"
+			+ "<title>Test feed</title>"
+			+ "<id>urn:test:feed</id>"
+			+ "<updated>2017-07-01T12:00:00Z</updated>"
+			+ "<entry><title>Test entry</title><id>urn:test:entry</id>"
+			+ "<updated>2017-07-01T12:00:00Z</updated>"
+			+ "<content>Test content</content></entry>"
+			+ "</feed>";
+
+	private final FeedFetcher feedFetcher =
+			new FeedFetcherImpl(SocketFactory.getDefault(), Dns.SYSTEM);
+
+	private HttpServer server;
+	private FeedHandler handler;
+	private String url;
+
+	@Before
+	public void setUp() throws Exception {
+		InetAddress localhost = InetAddress.getByName("127.0.0.1");
+		server = HttpServer.create(new InetSocketAddress(localhost, 0), 0);
+		handler = new FeedHandler();
+		server.createContext("/feed", handler);
+		server.start();
+		url = "http://127.0.0.1:" + server.getAddress().getPort() + "/feed";
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void testFetchesFeedAndValidators() throws Exception {
+		handler.status = 200;
+		handler.etag = ETAG;
+		handler.lastModified = LAST_MODIFIED;
+
+		FetchResult result = feedFetcher.fetchFeed(url, null, null);
+		SyndFeed feed = result.getFeed();
+		assertNotNull(feed);
+		assertEquals("Test feed", feed.getTitle());
+		assertEquals(1, feed.getEntries().size());
+		assertEquals(ETAG, result.getEtag());
+		assertEquals(LAST_MODIFIED, result.getLastModified());
+		// The request wasn't conditional
+		assertNull(handler.ifNoneMatch);
+		assertNull(handler.ifModifiedSince);
+	}
+
+	@Test
+	public void testReturnsNoFeedIfNotModified() throws Exception {
+		handler.status = 304;
+
+		FetchResult result =
+				feedFetcher.fetchFeed(url, ETAG, LAST_MODIFIED);
+		assertNull(result.getFeed());
+		// The validators are kept for the next request
+		assertEquals(ETAG, result.getEtag());
+		assertEquals(LAST_MODIFIED, result.getLastModified());
+		assertEquals(ETAG, handler.ifNoneMatch);
+		assertEquals(LAST_MODIFIED, handler.ifModifiedSince);
+	}
+
+	@Test
+	public void testFetchesFeedIfModified() throws Exception {
+		handler.status = 200;
+		handler.etag = "\"def456\"";
+
+		FetchResult result = feedFetcher.fetchFeed(url, ETAG, null);
+		assertNotNull(result.getFeed());
+		assertEquals("\"def456\"", result.getEtag());
+		assertNull(result.getLastModified());
+		assertEquals(ETAG, handler.ifNoneMatch);
+		assertNull(handler.ifModifiedSince);
+	}
+
+	@Test(expected = IOException.class)
+	public void testThrowsExceptionOnErrorResponse() throws Exception {
+		handler.status = 500;
+
+		feedFetcher.fetchFeed(url, null, null);
+	}
+
+	private static class FeedHandler implements HttpHandler {
+
+		private volatile int status;
+		private volatile String etag, lastModified;
+		private volatile String ifNoneMatch, ifModifiedSince;
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			Headers request = exchange.getRequestHeaders();
+			ifNoneMatch = request.getFirst("If-None-Match");
+			ifModifiedSince = request.getFirst("If-Modified-Since");
+			Headers response = exchange.getResponseHeaders();
+			if (etag != null) response.set("ETag", etag);
+			if (lastModified != null)
+				response.set("Last-Modified", lastModified);
+			if (status == 200) {
+				byte[] body = toUtf8(ATOM);
+				response.set("Content-Type", "application/atom+xml");
+				exchange.sendResponseHeaders(status, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			} else {
+				// A length of -1 means there's no body
+				exchange.sendResponseHeaders(status, -1);
+			}
+			exchange.close();
+		}
+	}
+}
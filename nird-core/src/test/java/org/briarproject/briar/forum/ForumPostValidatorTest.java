@@ -3,19 +3,19 @@ package org.briarproject.briar.forum;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.client.BdfMessageContext;
+import org.briarproject.bramble.api.crypto.SignedData;
 import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
-import org.briarproject.bramble.api.sync.InvalidMessageException;
 import org.briarproject.bramble.api.sync.MessageId;
 import org.briarproject.bramble.test.TestUtils;
 import org.briarproject.bramble.test.ValidatorTestCase;
 import org.jmock.Expectations;
 import org.junit.Test;
 
-import java.security.GeneralSecurityException;
 import java.util.Collection;
+import java.util.Collections;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_AUTHOR_NAME_LENGTH;
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
@@ -45,6 +45,8 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 			parentId.getBytes(), authorList, content);
 	private final BdfList signedWithoutParent = BdfList.of(groupId, timestamp,
 			null, authorList, content);
+	private final SignedData signedData = new SignedData(SIGNING_LABEL_POST,
+			TestUtils.getRandomBytes(123), authorPublicKey, signature);
 
 	@Test(expected = FormatException.class)
 	public void testRejectsTooShortBody() throws Exception {
@@ -67,8 +69,9 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 		context.checking(new Expectations() {{
 			oneOf(authorFactory).createAuthor(authorName, authorPublicKey);
 			will(returnValue(author));
-			oneOf(clientHelper).verifySignature(SIGNING_LABEL_POST, signature,
+			oneOf(clientHelper).toSignedData(SIGNING_LABEL_POST, signature,
 					authorPublicKey, signedWithoutParent);
+			will(returnValue(signedData));
 		}});
 
 		ForumPostValidator v = new ForumPostValidator(authorFactory,
@@ -176,8 +179,9 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 		context.checking(new Expectations() {{
 			oneOf(authorFactory).createAuthor(shortAuthorName, authorPublicKey);
 			will(returnValue(shortNameAuthor));
-			oneOf(clientHelper).verifySignature(SIGNING_LABEL_POST, signature,
+			oneOf(clientHelper).toSignedData(SIGNING_LABEL_POST, signature,
 					authorPublicKey, signedWithShortNameAuthor);
+			will(returnValue(signedData));
 		}});
 
 		ForumPostValidator v = new ForumPostValidator(authorFactory,
@@ -264,8 +268,9 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 		context.checking(new Expectations() {{
 			oneOf(authorFactory).createAuthor(authorName, authorPublicKey);
 			will(returnValue(author));
-			oneOf(clientHelper).verifySignature(SIGNING_LABEL_POST, signature,
+			oneOf(clientHelper).toSignedData(SIGNING_LABEL_POST, signature,
 					authorPublicKey, signedWithShortContent);
+			will(returnValue(signedData));
 		}});
 
 		ForumPostValidator v = new ForumPostValidator(authorFactory,
@@ -334,12 +339,12 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 	}
 
 	@Test(expected = FormatException.class)
-	public void testRejectsIfVerifyingSignatureThrowsFormatException()
+	public void testRejectsIfEncodingSignedDataThrowsFormatException()
 			throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(authorFactory).createAuthor(authorName, authorPublicKey);
 			will(returnValue(author));
-			oneOf(clientHelper).verifySignature(SIGNING_LABEL_POST, signature,
+			oneOf(clientHelper).toSignedData(SIGNING_LABEL_POST, signature,
 					authorPublicKey, signedWithParent);
 			will(throwException(new FormatException()));
 		}});
@@ -350,23 +355,6 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 				BdfList.of(parentId, authorList, content, signature));
 	}
 
-	@Test(expected = InvalidMessageException.class)
-	public void testRejectsIfVerifyingSignatureThrowsGeneralSecurityException()
-			throws Exception {
-		context.checking(new Expectations() {{
-			oneOf(authorFactory).createAuthor(authorName, authorPublicKey);
-			will(returnValue(author));
-			oneOf(clientHelper).verifySignature(SIGNING_LABEL_POST, signature,
-					authorPublicKey, signedWithParent);
-			will(throwException(new GeneralSecurityException()));
-		}});
-
-		ForumPostValidator v = new ForumPostValidator(authorFactory,
-				clientHelper, metadataEncoder, clock);
-		v.validateMessage(message, group,
-				BdfList.of(parentId, authorList, content, signature));
-	}
-
 	private void assertExpectedContext(BdfMessageContext messageContext,
 			boolean hasParent, String authorName) throws FormatException {
 		BdfDictionary meta = messageContext.getDictionary();
@@ -387,5 +375,8 @@ public class ForumPostValidatorTest extends ValidatorTestCase {
 		assertArrayEquals(authorId.getBytes(), authorMeta.getRaw("id"));
 		assertEquals(authorName, authorMeta.getString("name"));
 		assertArrayEquals(authorPublicKey, authorMeta.getRaw("publicKey"));
+		// The signature should be deferred
+		assertEquals(Collections.singletonList(signedData),
+				messageContext.getSignatures());
 	}
 }
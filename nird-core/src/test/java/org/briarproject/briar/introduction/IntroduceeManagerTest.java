@@ -1,8 +1,10 @@
 package org.briarproject.briar.introduction;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
+import org.briarproject.bramble.api.UniqueId;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.contact.ContactManager;
@@ -67,7 +69,6 @@ import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSION_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SIGNATURE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.STATE;
-import static org.briarproject.briar.api.introduction.IntroductionConstants.STORAGE_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TIME;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TRANSPORT;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE;
@@ -88,18 +89,16 @@ public class IntroduceeManagerTest extends BriarTestCase {
 	private final DatabaseComponent db;
 	private final CryptoComponent cryptoComponent;
 	private final ClientHelper clientHelper;
-	private final IntroductionGroupFactory introductionGroupFactory;
+	private final SessionStore sessionStore;
 	private final AuthorFactory authorFactory;
 	private final ContactManager contactManager;
-	private final Clock clock;
+	private final ContactGroupFactory contactGroupFactory;
 	private final Contact introducer;
 	private final Contact introducee1;
 	private final Contact introducee2;
-	private final Group localGroup1;
 	private final Group introductionGroup1;
 	private final Transaction txn;
 	private final long time = 42L;
-	private final Message localStateMessage;
 	private final SessionId sessionId;
 	private final Message message1;
 
@@ -110,19 +109,19 @@ public class IntroduceeManagerTest extends BriarTestCase {
 		db = context.mock(DatabaseComponent.class);
 		cryptoComponent = context.mock(CryptoComponent.class);
 		clientHelper = context.mock(ClientHelper.class);
-		clock = context.mock(Clock.class);
-		introductionGroupFactory =
-				context.mock(IntroductionGroupFactory.class);
+		sessionStore = context.mock(SessionStore.class);
+		Clock clock = context.mock(Clock.class);
 		TransportPropertyManager transportPropertyManager =
 				context.mock(TransportPropertyManager.class);
 		authorFactory = context.mock(AuthorFactory.class);
 		contactManager = context.mock(ContactManager.class);
 		IdentityManager identityManager = context.mock(IdentityManager.class);
+		contactGroupFactory = context.mock(ContactGroupFactory.class);
 
 		introduceeManager = new IntroduceeManager(messageSender, db,
-				clientHelper, clock, cryptoComponent, transportPropertyManager,
-				authorFactory, contactManager, identityManager,
-				introductionGroupFactory);
+				clientHelper, sessionStore, clock, cryptoComponent,
+				transportPropertyManager, authorFactory, contactManager,
+				identityManager, contactGroupFactory);
 
 		AuthorId authorId0 = new AuthorId(TestUtils.getRandomId());
 		Author author0 = new Author(authorId0, "Introducer",
@@ -148,18 +147,10 @@ public class IntroduceeManagerTest extends BriarTestCase {
 				new Contact(contactId2, author2, localAuthorId, true, true);
 
 		ClientId clientId = IntroductionManagerImpl.CLIENT_ID;
-		localGroup1 = new Group(new GroupId(TestUtils.getRandomId()),
-				clientId, new byte[0]);
 		introductionGroup1 = new Group(new GroupId(TestUtils.getRandomId()),
 				clientId, new byte[0]);
 
 		sessionId = new SessionId(TestUtils.getRandomId());
-		localStateMessage = new Message(
-				new MessageId(TestUtils.getRandomId()),
-				localGroup1.getId(),
-				time,
-				TestUtils.getRandomBytes(MESSAGE_HEADER_LENGTH + 1)
-		);
 		message1 = new Message(
 				new MessageId(TestUtils.getRandomId()),
 				introductionGroup1.getId(),
@@ -187,8 +178,8 @@ public class IntroduceeManagerTest extends BriarTestCase {
 				initializeSessionState(txn, introductionGroup1.getId(), msg);
 
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).mergeMessageMetadata(txn,
-					localStateMessage.getId(), state);
+			oneOf(sessionStore).storeSession(txn, introductionGroup1.getId(),
+					sessionId, state);
 		}});
 
 		introduceeManager.incomingMessage(txn, state, msg);
@@ -221,8 +212,8 @@ public class IntroduceeManagerTest extends BriarTestCase {
 		msg.put(TRANSPORT, new BdfDictionary());
 
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).mergeMessageMetadata(txn,
-					localStateMessage.getId(), state);
+			oneOf(sessionStore).storeSession(txn, introductionGroup1.getId(),
+					sessionId, state);
 		}});
 
 		introduceeManager.incomingMessage(txn, state, msg);
@@ -361,38 +352,33 @@ public class IntroduceeManagerTest extends BriarTestCase {
 			throws DbException, FormatException {
 
 		final SecureRandom secureRandom = context.mock(SecureRandom.class);
-		final Bytes salt = new Bytes(new byte[64]);
+		final byte[] id = new byte[UniqueId.LENGTH];
 		final BdfDictionary groupMetadata = BdfDictionary.of(
 				new BdfEntry(CONTACT, introducee1.getId().getInt())
 		);
 		final boolean contactExists = false;
 		final BdfDictionary state = new BdfDictionary();
-		state.put(STORAGE_ID, localStateMessage.getId());
+		state.put(SESSION_ID, sessionId);
 		state.put(STATE, AWAIT_REQUEST.getValue());
 		state.put(ROLE, ROLE_INTRODUCEE);
 		state.put(GROUP_ID, groupId);
 		state.put(INTRODUCER, introducer.getAuthor().getName());
 		state.put(CONTACT_ID_1, introducer.getId().getInt());
 		state.put(LOCAL_AUTHOR_ID, introducer.getLocalAuthorId().getBytes());
-		state.put(NOT_OUR_RESPONSE, localStateMessage.getId());
+		state.put(NOT_OUR_RESPONSE, new MessageId(id));
 		state.put(ANSWERED, false);
 		state.put(EXISTS, contactExists);
 		state.put(REMOTE_AUTHOR_ID, introducee2.getAuthor().getId());
 		state.put(REMOTE_AUTHOR_IS_US, false);
 
 		context.checking(new Expectations() {{
-			oneOf(clock).currentTimeMillis();
-			will(returnValue(time));
 			oneOf(cryptoComponent).getSecureRandom();
 			will(returnValue(secureRandom));
-			oneOf(secureRandom).nextBytes(salt.getBytes());
-			oneOf(introductionGroupFactory).createLocalGroup();
-			will(returnValue(localGroup1));
-			oneOf(clientHelper)
-					.createMessage(localGroup1.getId(), time, BdfList.of(salt));
-			will(returnValue(localStateMessage));
+			oneOf(secureRandom).nextBytes(id);
 
 			// who is making the introduction? who is the introducer?
+			oneOf(contactGroupFactory).getContactId(groupId);
+			will(returnValue(null));
 			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
 					groupId);
 			will(returnValue(groupMetadata));
@@ -413,8 +399,7 @@ public class IntroduceeManagerTest extends BriarTestCase {
 			will(returnValue(false));
 
 			// store session state
-			oneOf(clientHelper)
-					.addLocalMessage(txn, localStateMessage, state, false);
+			oneOf(sessionStore).storeSession(txn, groupId, sessionId, state);
 		}});
 
 		BdfDictionary result = introduceeManager.initialize(txn, groupId, msg);
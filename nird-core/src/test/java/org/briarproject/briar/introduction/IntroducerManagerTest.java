@@ -1,13 +1,12 @@
 package org.briarproject.briar.introduction;
 
-import org.briarproject.bramble.api.Bytes;
 import org.briarproject.bramble.api.FormatException;
-import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.UniqueId;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.crypto.CryptoComponent;
 import org.briarproject.bramble.api.data.BdfDictionary;
-import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
@@ -15,10 +14,9 @@ import org.briarproject.bramble.api.identity.AuthorId;
 import org.briarproject.bramble.api.sync.ClientId;
 import org.briarproject.bramble.api.sync.Group;
 import org.briarproject.bramble.api.sync.GroupId;
-import org.briarproject.bramble.api.sync.Message;
-import org.briarproject.bramble.api.sync.MessageId;
-import org.briarproject.bramble.api.system.Clock;
+import org.briarproject.bramble.test.CaptureArgumentAction;
 import org.briarproject.bramble.test.TestUtils;
+import org.briarproject.briar.api.client.SessionId;
 import org.briarproject.briar.test.BriarTestCase;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -26,6 +24,7 @@ import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.briarproject.bramble.api.identity.AuthorConstants.MAX_PUBLIC_KEY_LENGTH;
 import static org.briarproject.briar.api.introduction.IntroducerProtocolState.AWAIT_RESPONSES;
@@ -46,9 +45,10 @@ import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE
 import static org.briarproject.briar.api.introduction.IntroductionConstants.ROLE_INTRODUCER;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.SESSION_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.STATE;
-import static org.briarproject.briar.api.introduction.IntroductionConstants.STORAGE_ID;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE;
 import static org.briarproject.briar.api.introduction.IntroductionConstants.TYPE_REQUEST;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class IntroducerManagerTest extends BriarTestCase {
@@ -56,10 +56,9 @@ public class IntroducerManagerTest extends BriarTestCase {
 	private final Mockery context;
 	private final IntroducerManager introducerManager;
 	private final CryptoComponent cryptoComponent;
-	private final ClientHelper clientHelper;
+	private final SessionStore sessionStore;
 	private final IntroductionGroupFactory introductionGroupFactory;
 	private final MessageSender messageSender;
-	private final Clock clock;
 	private final Contact introducee1;
 	private final Contact introducee2;
 	private final Group localGroup0;
@@ -71,13 +70,12 @@ public class IntroducerManagerTest extends BriarTestCase {
 		context.setImposteriser(ClassImposteriser.INSTANCE);
 		messageSender = context.mock(MessageSender.class);
 		cryptoComponent = context.mock(CryptoComponent.class);
-		clientHelper = context.mock(ClientHelper.class);
-		clock = context.mock(Clock.class);
+		sessionStore = context.mock(SessionStore.class);
 		introductionGroupFactory =
 				context.mock(IntroductionGroupFactory.class);
 
 		introducerManager =
-				new IntroducerManager(messageSender, clientHelper, clock,
+				new IntroducerManager(messageSender, sessionStore,
 						cryptoComponent, introductionGroupFactory);
 
 		AuthorId authorId1 = new AuthorId(TestUtils.getRandomId());
@@ -112,12 +110,10 @@ public class IntroducerManagerTest extends BriarTestCase {
 		final long time = 42L;
 		context.setImposteriser(ClassImposteriser.INSTANCE);
 		final SecureRandom secureRandom = context.mock(SecureRandom.class);
-		final Bytes salt = new Bytes(new byte[64]);
-		final Message msg = new Message(new MessageId(TestUtils.getRandomId()),
-				localGroup0.getId(), time, TestUtils.getRandomBytes(64));
+		final byte[] id = new byte[UniqueId.LENGTH];
+		final SessionId sessionId = new SessionId(id);
 		final BdfDictionary state = new BdfDictionary();
-		state.put(SESSION_ID, msg.getId());
-		state.put(STORAGE_ID, msg.getId());
+		state.put(SESSION_ID, sessionId);
 		state.put(STATE, PREPARE_REQUESTS.getValue());
 		state.put(ROLE, ROLE_INTRODUCER);
 		state.put(GROUP_ID_1, introductionGroup1.getId());
@@ -128,12 +124,11 @@ public class IntroducerManagerTest extends BriarTestCase {
 		state.put(CONTACT_ID_2, introducee2.getId().getInt());
 		state.put(AUTHOR_ID_1, introducee1.getAuthor().getId());
 		state.put(AUTHOR_ID_2, introducee2.getAuthor().getId());
-		final BdfDictionary state2 = (BdfDictionary) state.clone();
+		final BdfDictionary state2 = state.clone();
 		state2.put(STATE, AWAIT_RESPONSES.getValue());
 
 		final BdfDictionary msg1 = new BdfDictionary();
 		msg1.put(TYPE, TYPE_REQUEST);
-		msg1.put(SESSION_ID, state.getRaw(SESSION_ID));
 		msg1.put(GROUP_ID, state.getRaw(GROUP_ID_1));
 		msg1.put(NAME, state.getString(CONTACT_2));
 		msg1.put(PUBLIC_KEY, introducee2.getAuthor().getPublicKey());
@@ -142,46 +137,66 @@ public class IntroducerManagerTest extends BriarTestCase {
 
 		final BdfDictionary msg2 = new BdfDictionary();
 		msg2.put(TYPE, TYPE_REQUEST);
-		msg2.put(SESSION_ID, state.getRaw(SESSION_ID));
 		msg2.put(GROUP_ID, state.getRaw(GROUP_ID_2));
 		msg2.put(NAME, state.getString(CONTACT_1));
 		msg2.put(PUBLIC_KEY, introducee1.getAuthor().getPublicKey());
 		final BdfDictionary msg2send = (BdfDictionary) msg2.clone();
 		msg2send.put(MESSAGE_TIME, time);
 
+		final AtomicReference<BdfDictionary> sent1 =
+				new AtomicReference<BdfDictionary>();
+		final AtomicReference<BdfDictionary> sent2 =
+				new AtomicReference<BdfDictionary>();
+
 		context.checking(new Expectations() {{
 			// initialize and store session state
-			oneOf(clock).currentTimeMillis();
-			will(returnValue(time));
 			oneOf(cryptoComponent).getSecureRandom();
 			will(returnValue(secureRandom));
-			oneOf(secureRandom).nextBytes(salt.getBytes());
-			oneOf(introductionGroupFactory).createLocalGroup();
-			will(returnValue(localGroup0));
-			oneOf(clientHelper).createMessage(localGroup0.getId(), time,
-					BdfList.of(salt));
-			will(returnValue(msg));
+			oneOf(secureRandom).nextBytes(id);
 			oneOf(introductionGroupFactory)
 					.createIntroductionGroup(introducee1);
 			will(returnValue(introductionGroup1));
 			oneOf(introductionGroupFactory)
 					.createIntroductionGroup(introducee2);
 			will(returnValue(introductionGroup2));
-			oneOf(clientHelper).addLocalMessage(txn, msg, state, false);
+			oneOf(introductionGroupFactory).createLocalGroup();
+			will(returnValue(localGroup0));
+			oneOf(sessionStore).storeSession(txn, localGroup0.getId(),
+					sessionId, state);
 
 			// send message
-			oneOf(clientHelper).mergeMessageMetadata(txn, msg.getId(), state2);
-			oneOf(messageSender).sendMessage(txn, msg1send);
-			oneOf(messageSender).sendMessage(txn, msg2send);
+			oneOf(introductionGroupFactory).createLocalGroup();
+			will(returnValue(localGroup0));
+			oneOf(sessionStore).storeSession(txn, localGroup0.getId(),
+					sessionId, state2);
+			oneOf(messageSender).sendMessage(with(txn),
+					with(any(BdfDictionary.class)));
+			will(new CaptureArgumentAction<BdfDictionary>(sent1,
+					BdfDictionary.class, 1));
+			oneOf(messageSender).sendMessage(with(txn),
+					with(any(BdfDictionary.class)));
+			will(new CaptureArgumentAction<BdfDictionary>(sent2,
+					BdfDictionary.class, 1));
 		}});
 
 		introducerManager
 				.makeIntroduction(txn, introducee1, introducee2, null, time);
 
 		context.assertIsSatisfied();
+		assertMessageEquals(msg1send, id, sent1.get());
+		assertMessageEquals(msg2send, id, sent2.get());
 		assertFalse(txn.isCommitted());
 	}
 
+	private void assertMessageEquals(BdfDictionary expected,
+			byte[] sessionId, BdfDictionary actual) throws FormatException {
+		// The session ID is a new array, so compare its contents separately
+		assertArrayEquals(sessionId, actual.getRaw(SESSION_ID));
+		BdfDictionary withoutSessionId = actual.clone();
+		withoutSessionId.remove(SESSION_ID);
+		assertEquals(expected, withoutSessionId);
+	}
+
 	private ClientId getClientId() {
 		return IntroductionManagerImpl.CLIENT_ID;
 	}
@@ -12,7 +12,6 @@ import org.briarproject.bramble.api.data.BdfDictionary;
 import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.event.Event;
 import org.briarproject.bramble.api.event.EventListener;
@@ -518,34 +517,35 @@ public class IntroductionIntegrationTest
 		eventWaiter.await(TIMEOUT, 1);
 		assertTrue(listener1.requestReceived);
 
-		// get database and local group for introducee
-		Group group1 = introductionGroupFactory.createLocalGroup();
+		// introducee sessions are kept in the introducer's contact group
+		Group group1 =
+				introductionGroupFactory.createIntroductionGroup(contact0From1);
 
-		// get local session state messages
-		Map<MessageId, Metadata> map;
+		// get session states
+		Collection<byte[]> sessions;
 		Transaction txn = db1.startTransaction(false);
 		try {
-			map = db1.getMessageMetadata(txn, group1.getId());
+			sessions = db1.getSessions(txn, group1.getId());
 			db1.commitTransaction(txn);
 		} finally {
 			db1.endTransaction(txn);
 		}
 		// check that we have one session state
-		assertEquals(1, map.size());
+		assertEquals(1, sessions.size());
 
 		// introducee1 removes introducer
 		contactManager1.removeContact(contactId0From1);
 
-		// get local session state messages again
-		txn = db1.startTransaction(false);
+		// make sure local state got deleted along with the contact group
+		boolean exists;
+		txn = db1.startTransaction(true);
 		try {
-			map = db1.getMessageMetadata(txn, group1.getId());
+			exists = db1.containsGroup(txn, group1.getId());
 			db1.commitTransaction(txn);
 		} finally {
 			db1.endTransaction(txn);
 		}
-		// make sure local state got deleted
-		assertEquals(0, map.size());
+		assertFalse(exists);
 	}
 
 	@Test
@@ -562,48 +562,48 @@ public class IntroductionIntegrationTest
 		eventWaiter.await(TIMEOUT, 1);
 		assertTrue(listener1.requestReceived);
 
-		// get database and local group for introducee
+		// introducer sessions are kept in the local group
 		Group group1 = introductionGroupFactory.createLocalGroup();
 
-		// get local session state messages
-		Map<MessageId, Metadata> map;
+		// get session states
+		Collection<byte[]> sessions;
 		Transaction txn = db0.startTransaction(false);
 		try {
-			map = db0.getMessageMetadata(txn, group1.getId());
+			sessions = db0.getSessions(txn, group1.getId());
 			db0.commitTransaction(txn);
 		} finally {
 			db0.endTransaction(txn);
 		}
 		// check that we have one session state
-		assertEquals(1, map.size());
+		assertEquals(1, sessions.size());
 
 		// introducer removes introducee1
 		contactManager0.removeContact(contactId1From0);
 
-		// get local session state messages again
+		// get session states again
 		txn = db0.startTransaction(false);
 		try {
-			map = db0.getMessageMetadata(txn, group1.getId());
+			sessions = db0.getSessions(txn, group1.getId());
 			db0.commitTransaction(txn);
 		} finally {
 			db0.endTransaction(txn);
 		}
 		// make sure local state is still there
-		assertEquals(1, map.size());
+		assertEquals(1, sessions.size());
 
 		// introducer removes other introducee
 		contactManager0.removeContact(contactId2From0);
 
-		// get local session state messages again
+		// get session states again
 		txn = db0.startTransaction(false);
 		try {
-			map = db0.getMessageMetadata(txn, group1.getId());
+			sessions = db0.getSessions(txn, group1.getId());
 			db0.commitTransaction(txn);
 		} finally {
 			db0.endTransaction(txn);
 		}
 		// make sure local state is gone now
-		assertEquals(0, map.size());
+		assertEquals(0, sessions.size());
 	}
 
 	private void testModifiedResponse(StateVisitor visitor)
@@ -748,9 +748,10 @@ public class IntroductionIntegrationTest
 		MessageSender messageSender = c2.getMessageSender();
 		TransportPropertyManager tpManager = c2.getTransportPropertyManager();
 		IntroduceeManager manager2 =
-				new IntroduceeManager(messageSender, db2, clientHelper, clock,
-						crypto, tpManager, authorFactory, contactManager2,
-						identityManager2, introductionGroupFactory);
+				new IntroduceeManager(messageSender, db2, clientHelper,
+						c2.getSessionStore(), clock, crypto, tpManager,
+						authorFactory, contactManager2, identityManager2,
+						c2.getContactGroupFactory());
 
 		// create keys
 		KeyPair keyPair1 = crypto.generateSignatureKeyPair();
@@ -2,6 +2,7 @@ package org.briarproject.briar.introduction;
 
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
@@ -54,11 +55,12 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 	private final ClientHelper clientHelper;
 	private final MessageTracker messageTracker;
 	private final IntroductionGroupFactory introductionGroupFactory;
+	private final SessionStore sessionStore;
 	private final SessionId sessionId = new SessionId(TestUtils.getRandomId());
-	private final MessageId storageId = new MessageId(sessionId.getBytes());
 	private final long time = 42L;
 	private final Contact introducee1;
 	private final Contact introducee2;
+	private final Group localGroup;
 	private final Group introductionGroup1;
 	private final Group introductionGroup2;
 	private final Message message1;
@@ -82,6 +84,8 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 				new Contact(contactId2, author2, localAuthorId2, true, true);
 
 		ClientId clientId = new ClientId(TestUtils.getRandomString(5));
+		localGroup = new Group(new GroupId(TestUtils.getRandomId()),
+				clientId, new byte[0]);
 		introductionGroup1 = new Group(new GroupId(TestUtils.getRandomId()),
 				clientId, new byte[0]);
 		introductionGroup2 = new Group(new GroupId(TestUtils.getRandomId()),
@@ -104,10 +108,11 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 		MetadataParser metadataParser = context.mock(MetadataParser.class);
 		messageTracker = context.mock(MessageTracker.class);
 		introductionGroupFactory = context.mock(IntroductionGroupFactory.class);
+		sessionStore = context.mock(SessionStore.class);
 
 		introductionManager = new IntroductionManagerImpl(db, clientHelper,
 				metadataParser, messageTracker, introducerManager,
-				introduceeManager, introductionGroupFactory);
+				introduceeManager, introductionGroupFactory, sessionStore);
 	}
 
 	@Test
@@ -158,7 +163,8 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 			will(returnValue(introducee1));
 			oneOf(introductionGroupFactory).createIntroductionGroup(introducee1);
 			will(returnValue(introductionGroup1));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, storageId);
+			oneOf(sessionStore).getSession(txn, introductionGroup1.getId(),
+					sessionId);
 			will(returnValue(state));
 			oneOf(introduceeManager).acceptIntroduction(txn, state, time);
 			// track message
@@ -189,7 +195,8 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 			will(returnValue(introducee1));
 			oneOf(introductionGroupFactory).createIntroductionGroup(introducee1);
 			will(returnValue(introductionGroup1));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, storageId);
+			oneOf(sessionStore).getSession(txn, introductionGroup1.getId(),
+					sessionId);
 			will(returnValue(state));
 			oneOf(introduceeManager).declineIntroduction(txn, state, time);
 			// track message
@@ -279,7 +286,14 @@ public class IntroductionManagerImplTest extends BriarTestCase {
 		txn = new Transaction(null, false);
 
 		context.checking(new Expectations() {{
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn, storageId);
+			// introducer states are kept in the local group
+			oneOf(sessionStore).getSession(txn, introductionGroup1.getId(),
+					sessionId);
+			will(returnValue(null));
+			oneOf(introductionGroupFactory).createLocalGroup();
+			will(returnValue(localGroup));
+			oneOf(sessionStore).getSession(txn, localGroup.getId(),
+					sessionId);
 			will(returnValue(state));
 			oneOf(introducerManager).incomingMessage(txn, state, msg);
 			// track message
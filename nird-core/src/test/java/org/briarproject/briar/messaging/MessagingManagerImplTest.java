@@ -0,0 +1,130 @@
+package org.briarproject.briar.messaging;
+
+import org.briarproject.bramble.api.client.BdfQuery;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.api.sync.MessageStatus;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.messaging.PrivateMessageHeader;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getRandomString;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_LOCAL;
+import static org.briarproject.briar.api.messaging.MessagingConstants.MSG_KEY_TIMESTAMP;
+import static org.briarproject.briar.api.messaging.MessagingManager.CLIENT_ID;
+import static org.briarproject.briar.client.MessageTrackerConstants.MSG_KEY_READ;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+	private final ContactGroupFactory contactGroupFactory =
+			context.mock(ContactGroupFactory.class);
+
+	private final MessagingManagerImpl messagingManager;
+
+	private final Transaction txn = new Transaction(null, true);
+	private final ContactId contactId = new ContactId(0);
+	private final Contact contact = new Contact(contactId,
+			new Author(new AuthorId(getRandomId()), getRandomString(5),
+					getRandomBytes(5)), new AuthorId(getRandomId()), true,
+			true);
+	private final Group group = new Group(new GroupId(getRandomId()),
+			CLIENT_ID, getRandomBytes(5));
+	private final MessageId messageId1 = new MessageId(getRandomId());
+	private final MessageId messageId2 = new MessageId(getRandomId());
+
+	public MessagingManagerImplTest() {
+		MetadataParser metadataParser = context.mock(MetadataParser.class);
+		MessageTracker messageTracker = context.mock(MessageTracker.class);
+		messagingManager = new MessagingManagerImpl(db, clientHelper,
+				metadataParser, messageTracker, contactGroupFactory);
+	}
+
+	@Test
+	public void testGetMessageHeadersLoadsStatusesForPage() throws Exception {
+		// The page is returned newest first
+		final Map<MessageId, BdfDictionary> metadata =
+				new LinkedHashMap<MessageId, BdfDictionary>();
+		metadata.put(messageId2, getMetadata(2, true, true));
+		metadata.put(messageId1, getMetadata(1, false, false));
+		final Map<MessageId, MessageStatus> statuses =
+				new HashMap<MessageId, MessageStatus>();
+		statuses.put(messageId1,
+				new MessageStatus(messageId1, contactId, false, false));
+		statuses.put(messageId2,
+				new MessageStatus(messageId2, contactId, true, true));
+
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn));
+			oneOf(db).getContact(txn, contactId);
+			will(returnValue(contact));
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, contact);
+			will(returnValue(group));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(with(txn),
+					with(group.getId()), with(any(BdfQuery.class)),
+					with(3L), with(2));
+			will(returnValue(metadata));
+			// The statuses of the page are loaded with a single call
+			oneOf(db).getMessageStatus(txn, contactId, metadata.keySet());
+			will(returnValue(statuses));
+			oneOf(db).commitTransaction(txn);
+			oneOf(db).endTransaction(txn);
+		}});
+
+		List<PrivateMessageHeader> headers =
+				new ArrayList<PrivateMessageHeader>(
+						messagingManager.getMessageHeaders(contactId, 3, 2));
+		assertEquals(2, headers.size());
+		PrivateMessageHeader header2 = headers.get(0);
+		assertEquals(messageId2, header2.getId());
+		assertEquals(group.getId(), header2.getGroupId());
+		assertEquals(2, header2.getTimestamp());
+		assertTrue(header2.isLocal());
+		assertTrue(header2.isRead());
+		assertTrue(header2.isSent());
+		assertTrue(header2.isSeen());
+		PrivateMessageHeader header1 = headers.get(1);
+		assertEquals(messageId1, header1.getId());
+		assertEquals(1, header1.getTimestamp());
+		assertFalse(header1.isLocal());
+		assertFalse(header1.isRead());
+		assertFalse(header1.isSent());
+		assertFalse(header1.isSeen());
+	}
+
+	private BdfDictionary getMetadata(long timestamp, boolean local,
+			boolean read) {
+		return BdfDictionary.of(
+				new BdfEntry(MSG_KEY_TIMESTAMP, timestamp),
+				new BdfEntry(MSG_KEY_LOCAL, local),
+				new BdfEntry(MSG_KEY_READ, read)
+		);
+	}
+}
@@ -0,0 +1,408 @@
+package org.briarproject.briar.privategroup;
+
+import org.briarproject.bramble.api.client.BdfQuery;
+import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.contact.Contact;
+import org.briarproject.bramble.api.contact.ContactId;
+import org.briarproject.bramble.api.contact.ContactManager;
+import org.briarproject.bramble.api.data.BdfDictionary;
+import org.briarproject.bramble.api.data.BdfEntry;
+import org.briarproject.bramble.api.data.BdfList;
+import org.briarproject.bramble.api.data.MetadataParser;
+import org.briarproject.bramble.api.db.DatabaseComponent;
+import org.briarproject.bramble.api.db.Transaction;
+import org.briarproject.bramble.api.identity.Author;
+import org.briarproject.bramble.api.identity.AuthorId;
+import org.briarproject.bramble.api.identity.IdentityManager;
+import org.briarproject.bramble.api.identity.LocalAuthor;
+import org.briarproject.bramble.api.settings.Settings;
+import org.briarproject.bramble.api.sync.Group;
+import org.briarproject.bramble.api.sync.GroupId;
+import org.briarproject.bramble.api.sync.Message;
+import org.briarproject.bramble.api.sync.MessageId;
+import org.briarproject.bramble.test.BrambleMockTestCase;
+import org.briarproject.briar.api.client.MessageTracker;
+import org.briarproject.briar.api.client.ProtocolStateException;
+import org.briarproject.briar.api.privategroup.GroupMember;
+import org.briarproject.briar.api.privategroup.GroupMessageHeader;
+import org.briarproject.briar.api.privategroup.JoinMessageHeader;
+import org.briarproject.briar.api.privategroup.PrivateGroup;
+import org.briarproject.briar.api.privategroup.PrivateGroupFactory;
+import org.briarproject.briar.api.privategroup.event.ContactRelationshipRevealedEvent;
+import org.jmock.Expectations;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.briarproject.bramble.api.data.BdfDictionary.NULL_VALUE;
+import static org.briarproject.bramble.api.identity.Author.Status.UNKNOWN;
+import static org.briarproject.bramble.api.identity.Author.Status.VERIFIED;
+import static org.briarproject.bramble.api.sync.SyncConstants.MESSAGE_HEADER_LENGTH;
+import static org.briarproject.bramble.test.TestUtils.getRandomBytes;
+import static org.briarproject.bramble.test.TestUtils.getRandomId;
+import static org.briarproject.bramble.test.TestUtils.getRandomString;
+import static org.briarproject.briar.api.privategroup.MessageType.JOIN;
+import static org.briarproject.briar.api.privategroup.MessageType.POST;
+import static org.briarproject.briar.api.privategroup.PrivateGroupManager.CLIENT_ID;
+import static org.briarproject.briar.api.privategroup.Visibility.INVISIBLE;
+import static org.briarproject.briar.api.privategroup.Visibility.REVEALED_BY_CONTACT;
+import static org.briarproject.briar.api.privategroup.Visibility.VISIBLE;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_CREATOR_ID;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_MEMBERS;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_OUR_GROUP;
+import static org.briarproject.briar.privategroup.GroupConstants.GROUP_KEY_VISIBILITY;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_INITIAL_JOIN_MSG;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_MEMBER_ID;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_MEMBER_NAME;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_MEMBER_PUBLIC_KEY;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_READ;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_TIMESTAMP;
+import static org.briarproject.briar.privategroup.GroupConstants.KEY_TYPE;
+import static org.briarproject.briar.privategroup.GroupConstants.SETTINGS_KEY_MEMBERS_MIGRATED;
+import static org.briarproject.briar.privategroup.GroupConstants.SETTINGS_NAMESPACE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PrivateGroupManagerImplTest extends BrambleMockTestCase {
+
+	private final DatabaseComponent db = context.mock(DatabaseComponent.class);
+	private final ClientHelper clientHelper = context.mock(ClientHelper.class);
+	private final PrivateGroupFactory privateGroupFactory =
+			context.mock(PrivateGroupFactory.class);
+	private final ContactManager contactManager =
+			context.mock(ContactManager.class);
+	private final IdentityManager identityManager =
+			context.mock(IdentityManager.class);
+	private final MessageTracker messageTracker =
+			context.mock(MessageTracker.class);
+
+	private final PrivateGroupManagerImpl privateGroupManager;
+
+	private final Transaction txn = new Transaction(null, false);
+	private final Group group =
+			new Group(new GroupId(getRandomId()), CLIENT_ID, getRandomBytes(5));
+	private final GroupId groupId = group.getId();
+	private final Author creator = getAuthor();
+	private final Author member = getAuthor();
+	private final LocalAuthor localAuthor =
+			new LocalAuthor(new AuthorId(getRandomId()), getRandomString(5),
+					getRandomBytes(5), getRandomBytes(5), 0);
+	private final ContactId contactId = new ContactId(0);
+	private final Contact contact = new Contact(contactId, member,
+			localAuthor.getId(), true, true);
+	private final Message message =
+			new Message(new MessageId(getRandomId()), groupId, 0L,
+					getRandomBytes(MESSAGE_HEADER_LENGTH + 1));
+
+	public PrivateGroupManagerImplTest() {
+		MetadataParser metadataParser = context.mock(MetadataParser.class);
+		privateGroupManager = new PrivateGroupManagerImpl(clientHelper,
+				metadataParser, db, privateGroupFactory, contactManager,
+				identityManager, messageTracker);
+	}
+
+	@Test
+	public void testCreateLocalStateMigratesMembers() throws Exception {
+		final BdfList members = BdfList.of(getMemberDictionary(creator,
+				VISIBLE.getInt()), getMemberDictionary(member,
+				INVISIBLE.getInt()));
+		final BdfDictionary meta =
+				BdfDictionary.of(new BdfEntry(GROUP_KEY_MEMBERS, members));
+		final BdfDictionary remove =
+				BdfDictionary.of(new BdfEntry(GROUP_KEY_MEMBERS, NULL_VALUE));
+		final Settings migrated = new Settings();
+		migrated.putBoolean(SETTINGS_KEY_MEMBERS_MIGRATED, true);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getSettings(txn, SETTINGS_NAMESPACE);
+			will(returnValue(new Settings()));
+			oneOf(db).getGroups(txn, CLIENT_ID);
+			will(returnValue(Collections.singletonList(group)));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(meta));
+			// The creator has already been added by a join message
+			oneOf(db).containsGroupMember(txn, groupId, creator.getId());
+			will(returnValue(true));
+			oneOf(db).setGroupMemberVisibility(txn, groupId, creator.getId(),
+					VISIBLE.getInt());
+			// The other member hasn't been added yet
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(false));
+			oneOf(db).addGroupMember(txn, groupId, member,
+					INVISIBLE.getInt());
+			// The member list is removed from the group metadata
+			oneOf(clientHelper).mergeGroupMetadata(txn, groupId, remove);
+			// The migration is recorded
+			oneOf(db).mergeSettings(txn, migrated, SETTINGS_NAMESPACE);
+		}});
+
+		privateGroupManager.createLocalState(txn);
+	}
+
+	@Test
+	public void testCreateLocalStateSkipsMigratedMembers() throws Exception {
+		final Settings migrated = new Settings();
+		migrated.putBoolean(SETTINGS_KEY_MEMBERS_MIGRATED, true);
+
+		context.checking(new Expectations() {{
+			oneOf(db).getSettings(txn, SETTINGS_NAMESPACE);
+			will(returnValue(migrated));
+		}});
+
+		// The groups should not be scanned again
+		privateGroupManager.createLocalState(txn);
+	}
+
+	@Test
+	public void testJoinMessageAddsNewMember() throws Exception {
+		expectHandleJoinMessage(false);
+		context.checking(new Expectations() {{
+			// The member isn't the creator, so they're invisible
+			oneOf(db).addGroupMember(txn, groupId, member,
+					INVISIBLE.getInt());
+		}});
+
+		assertTrue(privateGroupManager.incomingMessage(txn, message,
+				new BdfList(), getJoinMetadata(member)));
+	}
+
+	@Test
+	public void testJoinMessageDoesNotAddExistingMemberAgain()
+			throws Exception {
+		expectHandleJoinMessage(true);
+
+		// The member's visibility should not be changed
+		assertTrue(privateGroupManager.incomingMessage(txn, message,
+				new BdfList(), getJoinMetadata(member)));
+	}
+
+	@Test
+	public void testIsMember() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(true));
+			oneOf(db).containsGroupMember(txn, groupId, creator.getId());
+			will(returnValue(false));
+		}});
+
+		assertTrue(privateGroupManager.isMember(txn, groupId, member));
+		assertFalse(privateGroupManager.isMember(txn, groupId, creator));
+	}
+
+	@Test
+	public void testGetMembers() throws Exception {
+		final Transaction txn1 = new Transaction(null, true);
+		final PrivateGroup privateGroup = new PrivateGroup(group,
+				getRandomString(5), creator, getRandomBytes(5));
+		final Map<Author, Integer> stored = new HashMap<Author, Integer>();
+		stored.put(creator, VISIBLE.getInt());
+		stored.put(member, REVEALED_BY_CONTACT.getInt());
+		final Map<AuthorId, Author.Status> statuses =
+				new HashMap<AuthorId, Author.Status>();
+		statuses.put(creator.getId(), UNKNOWN);
+		statuses.put(member.getId(), VERIFIED);
+
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(db).getGroupMembers(txn1, groupId);
+			will(returnValue(stored));
+			oneOf(identityManager).getLocalAuthor(txn1);
+			will(returnValue(localAuthor));
+			oneOf(db).getGroup(txn1, groupId);
+			will(returnValue(group));
+			oneOf(privateGroupFactory).parsePrivateGroup(group);
+			will(returnValue(privateGroup));
+			oneOf(identityManager).getAuthorStatuses(with(txn1),
+					with(any(Collection.class)));
+			will(returnValue(statuses));
+			oneOf(db).getContactsByAuthorIds(with(txn1),
+					with(any(Collection.class)));
+			will(returnValue(Collections.singletonList(contact)));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		Collection<GroupMember> members =
+				privateGroupManager.getMembers(groupId);
+		assertEquals(2, members.size());
+		for (GroupMember m : members) {
+			if (m.getAuthor().equals(creator)) {
+				assertTrue(m.isCreator());
+				assertEquals(VISIBLE, m.getVisibility());
+				assertEquals(UNKNOWN, m.getStatus());
+				assertNull(m.getContactId());
+			} else {
+				assertEquals(member, m.getAuthor());
+				assertFalse(m.isCreator());
+				assertEquals(REVEALED_BY_CONTACT, m.getVisibility());
+				assertEquals(VERIFIED, m.getStatus());
+				assertEquals(contactId, m.getContactId());
+			}
+		}
+	}
+
+	@Test
+	public void testGetHeadersLoadsVisibilitiesForJoinMessagesOnPage()
+			throws Exception {
+		final Transaction txn1 = new Transaction(null, true);
+		final MessageId joinId = new MessageId(getRandomId());
+		final MessageId postId = new MessageId(getRandomId());
+		// The page holds a join message from the member and a post from the
+		// creator, whose join message is on another page
+		final Map<MessageId, BdfDictionary> metadata =
+				new LinkedHashMap<MessageId, BdfDictionary>();
+		metadata.put(postId, getPostMetadata(creator));
+		metadata.put(joinId, getJoinMetadata(member));
+		final Map<AuthorId, Author.Status> statuses =
+				new HashMap<AuthorId, Author.Status>();
+		statuses.put(creator.getId(), UNKNOWN);
+		statuses.put(member.getId(), VERIFIED);
+		final Map<AuthorId, Integer> visibilities =
+				Collections.singletonMap(member.getId(),
+						REVEALED_BY_CONTACT.getInt());
+
+		context.checking(new Expectations() {{
+			oneOf(db).startTransaction(true);
+			will(returnValue(txn1));
+			oneOf(clientHelper).getMessageMetadataAsDictionary(with(txn1),
+					with(groupId), with(any(BdfQuery.class)), with(123L),
+					with(2));
+			will(returnValue(metadata));
+			oneOf(identityManager).getAuthorStatuses(with(txn1),
+					with(any(Collection.class)));
+			will(returnValue(statuses));
+			// Only the visibility of the member who joined is loaded
+			oneOf(db).getGroupMemberVisibilities(txn1, groupId,
+					Collections.singleton(member.getId()));
+			will(returnValue(visibilities));
+			oneOf(db).commitTransaction(txn1);
+			oneOf(db).endTransaction(txn1);
+		}});
+
+		List<GroupMessageHeader> headers = new ArrayList<GroupMessageHeader>(
+				privateGroupManager.getHeaders(groupId, 123, 2));
+		assertEquals(2, headers.size());
+		GroupMessageHeader post = headers.get(0);
+		assertFalse(post instanceof JoinMessageHeader);
+		assertEquals(postId, post.getId());
+		assertEquals(creator, post.getAuthor());
+		assertEquals(UNKNOWN, post.getAuthorStatus());
+		JoinMessageHeader join = (JoinMessageHeader) headers.get(1);
+		assertEquals(joinId, join.getId());
+		assertEquals(member, join.getAuthor());
+		assertEquals(VERIFIED, join.getAuthorStatus());
+		assertEquals(REVEALED_BY_CONTACT, join.getVisibility());
+	}
+
+	@Test
+	public void testRelationshipRevealed() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(true));
+			oneOf(db).getGroupMemberVisibility(txn, groupId, member.getId());
+			will(returnValue(INVISIBLE.getInt()));
+			oneOf(db).setGroupMemberVisibility(txn, groupId, member.getId(),
+					REVEALED_BY_CONTACT.getInt());
+			oneOf(identityManager).getLocalAuthor(txn);
+			will(returnValue(localAuthor));
+			oneOf(contactManager).getContact(txn, member.getId(),
+					localAuthor.getId());
+			will(returnValue(contact));
+		}});
+
+		privateGroupManager.relationshipRevealed(txn, groupId,
+				member.getId(), true);
+
+		assertEquals(1, txn.getEvents().size());
+		ContactRelationshipRevealedEvent e =
+				(ContactRelationshipRevealedEvent) txn.getEvents().get(0);
+		assertEquals(groupId, e.getGroupId());
+		assertEquals(member.getId(), e.getMemberId());
+		assertEquals(contactId, e.getContactId());
+		assertEquals(REVEALED_BY_CONTACT, e.getVisibility());
+	}
+
+	@Test
+	public void testRelationshipRevealedDoesNotChangeVisibleMember()
+			throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(true));
+			oneOf(db).getGroupMemberVisibility(txn, groupId, member.getId());
+			will(returnValue(VISIBLE.getInt()));
+		}});
+
+		privateGroupManager.relationshipRevealed(txn, groupId,
+				member.getId(), true);
+
+		assertTrue(txn.getEvents().isEmpty());
+	}
+
+	@Test(expected = ProtocolStateException.class)
+	public void testRelationshipRevealedThrowsIfNotMember() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(false));
+		}});
+
+		privateGroupManager.relationshipRevealed(txn, groupId,
+				member.getId(), true);
+	}
+
+	private void expectHandleJoinMessage(final boolean existingMember)
+			throws Exception {
+		final BdfDictionary groupMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_OUR_GROUP, false),
+				new BdfEntry(GROUP_KEY_CREATOR_ID, creator.getId())
+		);
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn, groupId);
+			will(returnValue(groupMeta));
+			oneOf(db).containsGroupMember(txn, groupId, member.getId());
+			will(returnValue(existingMember));
+			oneOf(messageTracker).trackIncomingMessage(txn, message);
+			oneOf(identityManager).getAuthorStatus(txn, member.getId());
+			will(returnValue(VERIFIED));
+		}});
+	}
+
+	private BdfDictionary getJoinMetadata(Author a) {
+		BdfDictionary meta = getMemberDictionary(a, VISIBLE.getInt());
+		meta.put(KEY_TYPE, JOIN.getInt());
+		meta.put(KEY_TIMESTAMP, message.getTimestamp());
+		meta.put(KEY_READ, false);
+		meta.put(KEY_INITIAL_JOIN_MSG, false);
+		return meta;
+	}
+
+	private BdfDictionary getPostMetadata(Author a) {
+		BdfDictionary meta = getMemberDictionary(a, VISIBLE.getInt());
+		meta.put(KEY_TYPE, POST.getInt());
+		meta.put(KEY_TIMESTAMP, message.getTimestamp());
+		meta.put(KEY_READ, true);
+		return meta;
+	}
+
+	private BdfDictionary getMemberDictionary(Author a, int visibility) {
+		return BdfDictionary.of(
+				new BdfEntry(KEY_MEMBER_ID, a.getId()),
+				new BdfEntry(KEY_MEMBER_NAME, a.getName()),
+				new BdfEntry(KEY_MEMBER_PUBLIC_KEY, a.getPublicKey()),
+				new BdfEntry(GROUP_KEY_VISIBILITY, visibility)
+		);
+	}
+
+	private Author getAuthor() {
+		return new Author(new AuthorId(getRandomId()), getRandomString(5),
+				getRandomBytes(5));
+	}
+}
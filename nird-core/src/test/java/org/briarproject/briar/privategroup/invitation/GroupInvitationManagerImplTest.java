@@ -3,6 +3,7 @@ package org.briarproject.briar.privategroup.invitation;
 import org.briarproject.bramble.api.FormatException;
 import org.briarproject.bramble.api.client.ClientHelper;
 import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.Contact;
 import org.briarproject.bramble.api.contact.ContactId;
 import org.briarproject.bramble.api.data.BdfDictionary;
@@ -10,8 +11,6 @@ import org.briarproject.bramble.api.data.BdfEntry;
 import org.briarproject.bramble.api.data.BdfList;
 import org.briarproject.bramble.api.data.MetadataParser;
 import org.briarproject.bramble.api.db.DatabaseComponent;
-import org.briarproject.bramble.api.db.DbException;
-import org.briarproject.bramble.api.db.Metadata;
 import org.briarproject.bramble.api.db.Transaction;
 import org.briarproject.bramble.api.identity.Author;
 import org.briarproject.bramble.api.identity.AuthorId;
@@ -53,6 +52,8 @@ import static org.briarproject.briar.api.privategroup.PrivateGroupConstants.GROU
 import static org.briarproject.briar.api.privategroup.PrivateGroupConstants.MAX_GROUP_NAME_LENGTH;
 import static org.briarproject.briar.api.privategroup.invitation.GroupInvitationManager.CLIENT_ID;
 import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_CONTACT_ID;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.GROUP_KEY_SESSIONS_MIGRATED;
+import static org.briarproject.briar.privategroup.invitation.GroupInvitationConstants.SESSION_KEY_SESSION_ID;
 import static org.briarproject.briar.privategroup.invitation.MessageType.ABORT;
 import static org.briarproject.briar.privategroup.invitation.MessageType.INVITE;
 import static org.briarproject.briar.privategroup.invitation.MessageType.JOIN;
@@ -77,6 +78,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			context.mock(SessionParser.class);
 	private final SessionEncoder sessionEncoder =
 			context.mock(SessionEncoder.class);
+	private final SessionStore sessionStore =
+			context.mock(SessionStore.class);
 	private final ProtocolEngineFactory engineFactory =
 			context.mock(ProtocolEngineFactory.class);
 
@@ -109,15 +112,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 	private final BdfList body = BdfList.of("body");
 	private final SessionId sessionId =
 			new SessionId(privateGroup.getId().getBytes());
-	private final Message storageMessage =
-			new Message(new MessageId(getRandomId()), contactGroup.getId(),
-					0L, getRandomBytes(MESSAGE_HEADER_LENGTH + 1));
 	private final BdfDictionary bdfSession =
 			BdfDictionary.of(new BdfEntry("f", "o"));
-	private final Map<MessageId, BdfDictionary> oneResult =
-			Collections.singletonMap(storageMessage.getId(), bdfSession);
-	private final Map<MessageId, BdfDictionary> noResults =
-			Collections.emptyMap();
 
 
 	public GroupInvitationManagerImplTest() {
@@ -146,7 +142,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 				new GroupInvitationManagerImpl(db, clientHelper, metadataParser,
 						messageTracker, contactGroupFactory,
 						privateGroupFactory, privateGroupManager, messageParser,
-						sessionParser, sessionEncoder, engineFactory);
+						sessionParser, sessionEncoder, sessionStore,
+						engineFactory);
 	}
 
 	@Test
@@ -156,9 +153,57 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(Collections.singletonList(contact)));
 		}});
 		expectAddingContact(contact, true);
+		expectMigrateSessions(true);
+		groupInvitationManager.createLocalState(txn);
+	}
+
+	@Test
+	public void testCreateLocalStateMigratesSessions() throws Exception {
+		context.checking(new Expectations() {{
+			oneOf(db).getContacts(txn);
+			will(returnValue(Collections.singletonList(contact)));
+		}});
+		expectAddingContact(contact, true);
+		expectMigrateSessions(false);
 		groupInvitationManager.createLocalState(txn);
 	}
 
+	private void expectMigrateSessions(boolean migrated) throws Exception {
+		final BdfDictionary groupMeta = migrated ?
+				BdfDictionary.of(new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED,
+						true)) : new BdfDictionary();
+		context.checking(new Expectations() {{
+			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, contact);
+			will(returnValue(contactGroup));
+			oneOf(clientHelper).getGroupMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(groupMeta));
+		}});
+		if (migrated) return;
+
+		// One session stored as message metadata, and one other message
+		final MessageId storageId = new MessageId(getRandomId());
+		final BdfDictionary oldSession = BdfDictionary.of(
+				new BdfEntry(SESSION_KEY_SESSION_ID, sessionId));
+		final Map<MessageId, BdfDictionary> results =
+				new HashMap<MessageId, BdfDictionary>();
+		results.put(storageId, oldSession);
+		results.put(message.getId(), meta);
+		final BdfDictionary migratedMeta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
+		context.checking(new Expectations() {{
+			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
+					contactGroup.getId());
+			will(returnValue(results));
+			oneOf(sessionStore).storeSession(txn, contactGroup.getId(),
+					sessionId, oldSession);
+			oneOf(db).deleteMessage(txn, storageId);
+			oneOf(db).deleteMessageMetadata(txn, storageId);
+			oneOf(clientHelper).mergeGroupMetadata(txn, contactGroup.getId(),
+					migratedMeta);
+		}});
+	}
+
 	private void expectAddingContact(final Contact c,
 			final boolean contactExists) throws Exception {
 		context.checking(new Expectations() {{
@@ -169,8 +214,9 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		}});
 		if (contactExists) return;
 
-		final BdfDictionary meta = BdfDictionary
-				.of(new BdfEntry(GROUP_KEY_CONTACT_ID, c.getId().getInt()));
+		final BdfDictionary meta = BdfDictionary.of(
+				new BdfEntry(GROUP_KEY_CONTACT_ID, c.getId().getInt()),
+				new BdfEntry(GROUP_KEY_SESSIONS_MIGRATED, true));
 		context.checking(new Expectations() {{
 			oneOf(db).addGroup(txn, contactGroup);
 			oneOf(db).setGroupVisibility(txn, c.getId(), contactGroup.getId(),
@@ -192,7 +238,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, c);
 			will(returnValue(contactGroup));
 		}});
-		expectGetSession(noResults, new SessionId(g.getBytes()),
+		expectGetSession(null, new SessionId(g.getBytes()),
 				contactGroup.getId());
 
 		context.checking(new Expectations() {{
@@ -200,39 +246,25 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					with(any(PeerSession.class)));
 			will(returnValue(peerSession));
 		}});
-		expectStoreSession(peerSession, storageMessage.getId());
-		expectCreateStorageId();
-	}
-
-	private void expectCreateStorageId() throws DbException {
-		context.checking(new Expectations() {{
-			oneOf(clientHelper)
-					.createMessageForStoringMetadata(contactGroup.getId());
-			will(returnValue(storageMessage));
-			oneOf(db).addLocalMessage(txn, storageMessage, new Metadata(),
-					false);
-		}});
+		expectStoreSession(peerSession, contactGroup.getId());
 	}
 
 	private void expectStoreSession(final Session session,
-			final MessageId storageId) throws Exception {
+			final GroupId contactGroupId) throws Exception {
 		context.checking(new Expectations() {{
 			oneOf(sessionEncoder).encodeSession(session);
 			will(returnValue(meta));
-			oneOf(clientHelper).mergeMessageMetadata(txn, storageId, meta);
+			oneOf(sessionStore).storeSession(txn, contactGroupId, sessionId,
+					meta);
 		}});
 	}
 
-	private void expectGetSession(final Map<MessageId, BdfDictionary> results,
+	private void expectGetSession(@Nullable final BdfDictionary result,
 			final SessionId sessionId, final GroupId contactGroupId)
 			throws Exception {
-		final BdfDictionary query = BdfDictionary.of(new BdfEntry("q", "u"));
 		context.checking(new Expectations() {{
-			oneOf(sessionParser).getSessionQuery(sessionId);
-			will(returnValue(query));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroupId, query);
-			will(returnValue(results));
+			oneOf(sessionStore).getSession(txn, contactGroupId, sessionId);
+			will(returnValue(result));
 		}});
 	}
 
@@ -303,12 +335,10 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 	private void expectFirstIncomingMessage(Role role, MessageType type)
 			throws Exception {
 		expectParseMessageMetadata();
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 		Session session = expectHandleFirstMessage(role, messageMetadata, type);
-		if (session != null) {
-			expectCreateStorageId();
-			expectStoreSession(session, storageMessage.getId());
-		}
+		if (session != null)
+			expectStoreSession(session, contactGroup.getId());
 	}
 
 	private void expectParseMessageMetadata() throws Exception {
@@ -331,10 +361,10 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			final MessageType type, final BdfDictionary bdfSession)
 			throws Exception {
 		expectParseMessageMetadata();
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		Session session = expectHandleMessage(role, messageMetadata, bdfSession,
 				type);
-		expectStoreSession(session, storageMessage.getId());
+		expectStoreSession(session, contactGroup.getId());
 	}
 
 	@Nullable
@@ -455,7 +485,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		final long time = 42L;
 		final byte[] signature = getRandomBytes(42);
 
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -464,14 +494,13 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, contact);
 			will(returnValue(contactGroup));
 		}});
-		expectCreateStorageId();
 		context.checking(new Expectations() {{
 			oneOf(creatorEngine).onInviteAction(with(txn),
 					with(any(CreatorSession.class)), with(msg), with(time),
 					with(signature));
 			will(returnValue(creatorSession));
 		}});
-		expectStoreSession(creatorSession, storageMessage.getId());
+		expectStoreSession(creatorSession, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
@@ -486,7 +515,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		final long time = 43L;
 		final byte[] signature = getRandomBytes(43);
 
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -502,7 +531,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 					with(signature));
 			will(returnValue(creatorSession));
 		}});
-		expectStoreSession(creatorSession, storageMessage.getId());
+		expectStoreSession(creatorSession, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
@@ -524,7 +553,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(contactGroup));
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 
 		groupInvitationManager.respondToInvitation(contactId, sessionId, true);
 	}
@@ -565,7 +594,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	private void expectRespondToInvitation(final SessionId sessionId,
 			final boolean accept) throws Exception {
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(db).startTransaction(false);
 			will(returnValue(txn));
@@ -582,7 +611,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 		}});
-		expectStoreSession(inviteeSession, storageMessage.getId());
+		expectStoreSession(inviteeSession, contactGroup.getId());
 	}
 
 	@Test
@@ -602,8 +631,8 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			oneOf(db).commitTransaction(txn);
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
-		expectStoreSession(peerSession, storageMessage.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
+		expectStoreSession(peerSession, contactGroup.getId());
 
 		groupInvitationManager
 				.revealRelationship(contactId, privateGroup.getId());
@@ -620,7 +649,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(contactGroup));
 			oneOf(db).endTransaction(txn);
 		}});
-		expectGetSession(noResults, sessionId, contactGroup.getId());
+		expectGetSession(null, sessionId, contactGroup.getId());
 
 		groupInvitationManager
 				.revealRelationship(contactId, privateGroup.getId());
@@ -731,13 +760,11 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(query));
 			oneOf(db).startTransaction(true);
 			will(returnValue(txn));
+			oneOf(clientHelper).getContactMessageMetadataAsDictionary(txn,
+					CLIENT_ID, query);
+			will(returnValue(Collections.singletonMap(contactId, results)));
 			oneOf(db).getContacts(txn);
 			will(returnValue(Collections.singletonList(contact)));
-			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, contact);
-			will(returnValue(contactGroup));
-			oneOf(clientHelper).getMessageMetadataAsDictionary(txn,
-					contactGroup.getId(), query);
-			will(returnValue(results));
 			// message 1
 			oneOf(messageParser).getInviteMessage(txn, message.getId());
 			will(returnValue(inviteMessage1));
@@ -798,7 +825,7 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 
 	private void expectIsInvitationAllowed(final CreatorState state)
 			throws Exception {
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
 		context.checking(new Expectations() {{
 			oneOf(contactGroupFactory).createContactGroup(CLIENT_ID, contact);
 			will(returnValue(contactGroup));
@@ -838,18 +865,14 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 		final Group contactGroup3 = new Group(new GroupId(getRandomId()),
 				CLIENT_ID, getRandomBytes(5));
 
-		final MessageId storageId2 = new MessageId(getRandomId());
-		final MessageId storageId3 = new MessageId(getRandomId());
 		final BdfDictionary bdfSession2 =
 				BdfDictionary.of(new BdfEntry("f2", "o"));
 		final BdfDictionary bdfSession3 =
 				BdfDictionary.of(new BdfEntry("f3", "o"));
 
-		expectGetSession(oneResult, sessionId, contactGroup.getId());
-		expectGetSession(Collections.singletonMap(storageId2, bdfSession2),
-				sessionId, contactGroup2.getId());
-		expectGetSession(Collections.singletonMap(storageId3, bdfSession3),
-				sessionId, contactGroup3.getId());
+		expectGetSession(bdfSession, sessionId, contactGroup.getId());
+		expectGetSession(bdfSession2, sessionId, contactGroup2.getId());
+		expectGetSession(bdfSession3, sessionId, contactGroup3.getId());
 
 		context.checking(new Expectations() {{
 			oneOf(db).getContacts(txn);
@@ -886,9 +909,9 @@ public class GroupInvitationManagerImplTest extends BrambleMockTestCase {
 			will(returnValue(peerSession));
 		}});
 
-		expectStoreSession(creatorSession, storageMessage.getId());
-		expectStoreSession(inviteeSession, storageId2);
-		expectStoreSession(peerSession, storageId3);
+		expectStoreSession(creatorSession, contactGroup.getId());
+		expectStoreSession(inviteeSession, contactGroup2.getId());
+		expectStoreSession(peerSession, contactGroup3.getId());
 
 		groupInvitationManager.removingGroup(txn, privateGroup.getId());
 	}
@@ -1,6 +1,8 @@
 package org.briarproject.briar.test;
 
 import org.briarproject.bramble.api.client.ClientHelper;
+import org.briarproject.bramble.api.client.ContactGroupFactory;
+import org.briarproject.bramble.api.client.SessionStore;
 import org.briarproject.bramble.api.contact.ContactManager;
 import org.briarproject.bramble.api.db.DatabaseComponent;
 import org.briarproject.bramble.api.event.EventBus;
@@ -113,6 +115,10 @@ public interface BriarIntegrationTestComponent {
 
 	ClientHelper getClientHelper();
 
+	ContactGroupFactory getContactGroupFactory();
+
+	SessionStore getSessionStore();
+
 	ContactManager getContactManager();
 
 	SyncSessionFactory getSyncSessionFactory();